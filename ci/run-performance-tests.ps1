@@ -1,10 +1,11 @@
 
 param(
     [string]$ProjectDir = ".",
-    [string]$Name
+    [string]$Name,
+    [Parameter(Mandatory=$true)]
+    [string]$RepoName
 )
 
-
-Write-Output "No tests to run"
+./java/run-unit-tests.ps1 -RepoName $RepoName -ProjectDir $ProjectDir -Name $Name -ExtraArgs "-Pperformance"
 
 exit $LASTEXITCODE
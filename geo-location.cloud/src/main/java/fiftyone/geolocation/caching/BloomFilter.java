@@ -0,0 +1,117 @@
+/* *********************************************************************
+ * This Original Work is copyright of 51 Degrees Mobile Experts Limited.
+ * Copyright 2023 51 Degrees Mobile Experts Limited, Davidson House,
+ * Forbury Square, Reading, Berkshire, United Kingdom RG1 3EU.
+ *
+ * This Original Work is licensed under the European Union Public Licence
+ * (EUPL) v.1.2 and is subject to its terms as set out below.
+ *
+ * If a copy of the EUPL was not distributed with this file, You can obtain
+ * one at https://opensource.org/licenses/EUPL-1.2.
+ *
+ * The 'Compatible Licences' set out in the Appendix to the EUPL (as may be
+ * amended by the European Commission) shall be deemed incompatible for
+ * the purposes of the Work and the provisions of the compatibility
+ * clause in Article 5 of the EUPL shall not apply.
+ *
+ * If using the Work as, or as part of, a network application, by
+ * including the attribution notice(s) required under Article 5 of the EUPL
+ * in the end user terms of the application under an appropriate heading,
+ * such notice(s) shall fulfill the requirements of that article.
+ * ********************************************************************* */
+
+
+package fiftyone.geolocation.caching;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free Bloom filter of primitive long keys. A key which has been added
+ * is always reported as possibly present, while a key which has not been
+ * added is reported as absent, except for a small proportion of false
+ * positives which grows as more keys are added.
+ */
+public class BloomFilter {
+
+    private static final int HASHES = 4;
+
+    private final AtomicLongArray bits;
+    private final long mask;
+
+    /**
+     * Construct a new filter sized for the number of keys provided, with a
+     * false positive rate of around 1% when that many keys have been added.
+     * @param expectedKeys the number of keys expected to be added
+     */
+    public BloomFilter(int expectedKeys) {
+        if (expectedKeys <= 0) {
+            throw new IllegalArgumentException(
+                "The number of keys must be greater than zero.");
+        }
+        // Around 10 bits per key, rounded up to a power of two.
+        long size = Long.highestOneBit(Math.max(64L, expectedKeys * 10L));
+        if (size < expectedKeys * 10L) {
+            size <<= 1;
+        }
+        bits = new AtomicLongArray((int)(size >>> 6));
+        mask = size - 1;
+    }
+
+    /**
+     * Add the key to the filter.
+     * @param key the key
+     */
+    public void add(long key) {
+        long hash = mix(key);
+        int h1 = (int)hash;
+        int h2 = (int)(hash >>> 32);
+        for (int i = 0; i < HASHES; i++) {
+            long bit = (h1 + (long)i * h2) & mask;
+            int index = (int)(bit >>> 6);
+            long flag = 1L << bit;
+            long current;
+            do {
+                current = bits.get(index);
+                if ((current & flag) != 0) {
+                    break;
+                }
+            } while (bits.compareAndSet(index, current, current | flag) == false);
+        }
+    }
+
+    /**
+     * Check whether the key might have been added to the filter.
+     * @param key the key
+     * @return false if the key has definitely not been added
+     */
+    public boolean mightContain(long key) {
+        long hash = mix(key);
+        int h1 = (int)hash;
+        int h2 = (int)(hash >>> 32);
+        for (int i = 0; i < HASHES; i++) {
+            long bit = (h1 + (long)i * h2) & mask;
+            if ((bits.get((int)(bit >>> 6)) & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Remove all the keys from the filter.
+     */
+    public void clear() {
+        for (int i = 0; i < bits.length(); i++) {
+            bits.set(i, 0);
+        }
+    }
+
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
@@ -0,0 +1,347 @@
+/* *********************************************************************
+ * This Original Work is copyright of 51 Degrees Mobile Experts Limited.
+ * Copyright 2023 51 Degrees Mobile Experts Limited, Davidson House,
+ * Forbury Square, Reading, Berkshire, United Kingdom RG1 3EU.
+ *
+ * This Original Work is licensed under the European Union Public Licence
+ * (EUPL) v.1.2 and is subject to its terms as set out below.
+ *
+ * If a copy of the EUPL was not distributed with this file, You can obtain
+ * one at https://opensource.org/licenses/EUPL-1.2.
+ *
+ * The 'Compatible Licences' set out in the Appendix to the EUPL (as may be
+ * amended by the European Commission) shall be deemed incompatible for
+ * the purposes of the Work and the provisions of the compatibility
+ * clause in Article 5 of the EUPL shall not apply.
+ *
+ * If using the Work as, or as part of, a network application, by
+ * including the attribution notice(s) required under Article 5 of the EUPL
+ * in the end user terms of the application under an appropriate heading,
+ * such notice(s) shall fulfill the requirements of that article.
+ * ********************************************************************* */
+
+package fiftyone.geolocation.caching;
+
+import fiftyone.geolocation.core.Constants;
+import fiftyone.geolocation.core.data.Coordinates;
+import fiftyone.pipeline.core.data.FlowData;
+import fiftyone.pipeline.core.flowelements.Pipeline;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+import static fiftyone.pipeline.core.Constants.EVIDENCE_CLIENTIP_KEY;
+
+/**
+ * Warms the results caches in a pipeline by processing a list of hot
+ * locations before the pipeline serves any requests.
+ *
+ * Each line of the list is either a latitude and longitude separated by a
+ * comma, or an IP address. Any further comma separated values on a line,
+ * such as a count, are ignored, as are blank lines and lines starting with
+ * '#'. Lines should be sorted with the most frequent locations first, as
+ * warming stops when the time budget is spent.
+ *
+ * IP addresses are only useful if the {@link GeoResultsCache} holds results
+ * by IP prefix, see {@link GeoResultsCacheBuilder#setIpPrefixCacheSize(int)}.
+ * Otherwise, they are not processed and are counted as ignored, so the
+ * time budget is not spent on requests which warm nothing.
+ *
+ * The results cache keys results on the cell of the location combined with
+ * any other evidence the cloud request engine uses, such as the headers
+ * needed by other products in the resource key. A warm up request only
+ * has the evidence from its line, so its results are only found by live
+ * requests with none of that other evidence. If live requests carry other
+ * evidence the cloud request engine uses, set an evidence template with
+ * the values live requests have, which is added to every warm up request.
+ * Where that evidence varies between live requests, e.g. a user-agent,
+ * warming only helps requests with the values in the template.
+ *
+ * At most the configured number of requests are processed at once, so
+ * warming does not exceed the rate limits of the cloud service. Requests
+ * which fail are counted, and the first failure is logged as a warning,
+ * with any further failures logged at debug level.
+ */
+public class CacheWarmer {
+
+    /**
+     * The default number of requests processed at once.
+     */
+    public static final int DEFAULT_PARALLELISM = 4;
+
+    /**
+     * The default time budget in milliseconds.
+     */
+    public static final long DEFAULT_TIME_BUDGET = 30000;
+
+    private final Pipeline pipeline;
+    private final int parallelism;
+    private final long timeBudget;
+    private final boolean ipAddresses;
+    private final Map<String, Object> evidenceTemplate;
+    private final Logger logger;
+
+    /**
+     * Construct a new instance with no evidence template.
+     * @param pipeline the pipeline to warm
+     * @param parallelism the maximum number of requests processed at once
+     * @param timeBudget the maximum time in milliseconds to spend warming
+     * @param ipAddresses true if the pipeline's cache holds results by IP
+     *                    prefix, so IP addresses in the list are processed
+     */
+    public CacheWarmer(
+        Pipeline pipeline,
+        int parallelism,
+        long timeBudget,
+        boolean ipAddresses) {
+        this(
+            pipeline,
+            parallelism,
+            timeBudget,
+            ipAddresses,
+            Collections.<String, Object>emptyMap(),
+            LoggerFactory.getLogger(CacheWarmer.class));
+    }
+
+    /**
+     * Construct a new instance.
+     * @param pipeline the pipeline to warm
+     * @param parallelism the maximum number of requests processed at once
+     * @param timeBudget the maximum time in milliseconds to spend warming
+     * @param ipAddresses true if the pipeline's cache holds results by IP
+     *                    prefix, so IP addresses in the list are processed
+     * @param evidenceTemplate evidence added to every warm up request, so
+     *                         it is keyed like live requests, before the
+     *                         location from the line
+     * @param logger logger for requests which fail
+     */
+    public CacheWarmer(
+        Pipeline pipeline,
+        int parallelism,
+        long timeBudget,
+        boolean ipAddresses,
+        Map<String, ?> evidenceTemplate,
+        Logger logger) {
+        if (parallelism <= 0) {
+            throw new IllegalArgumentException(
+                "The parallelism must be greater than zero.");
+        }
+        this.pipeline = pipeline;
+        this.parallelism = parallelism;
+        this.timeBudget = timeBudget;
+        this.ipAddresses = ipAddresses;
+        this.evidenceTemplate = Collections.unmodifiableMap(
+            new HashMap<String, Object>(evidenceTemplate));
+        this.logger = logger;
+    }
+
+    /**
+     * Process each location in the list, until the end of the list or
+     * the time budget is spent.
+     * @param reader the list of locations
+     * @return the outcome of warming
+     * @throws IOException if the list could not be read
+     */
+    public Result warm(BufferedReader reader) throws IOException {
+        long start = System.currentTimeMillis();
+        long deadline = start + timeBudget;
+        LongAdder warmed = new LongAdder();
+        LongAdder failed = new LongAdder();
+        AtomicBoolean logged = new AtomicBoolean();
+        int skipped = 0;
+        int ignored = 0;
+        boolean complete = true;
+        Semaphore permits = new Semaphore(parallelism);
+        ExecutorService executor = Executors.newFixedThreadPool(
+            parallelism,
+            runnable -> {
+                Thread thread = new Thread(runnable, "geo-cache-warm-up");
+                thread.setDaemon(true);
+                return thread;
+            });
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                Map<String, String> evidence = getEvidence(line);
+                if (evidence == null) {
+                    skipped++;
+                    continue;
+                }
+                if (ipAddresses == false &&
+                    evidence.containsKey(EVIDENCE_CLIENTIP_KEY)) {
+                    ignored++;
+                    continue;
+                }
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0 ||
+                    permits.tryAcquire(remaining, TimeUnit.MILLISECONDS) == false) {
+                    complete = false;
+                    break;
+                }
+                executor.execute(() -> {
+                    try (FlowData data = pipeline.createFlowData()) {
+                        for (Map.Entry<String, Object> entry :
+                            evidenceTemplate.entrySet()) {
+                            data.addEvidence(entry.getKey(), entry.getValue());
+                        }
+                        for (Map.Entry<String, String> entry : evidence.entrySet()) {
+                            data.addEvidence(entry.getKey(), entry.getValue());
+                        }
+                        data.process();
+                        warmed.increment();
+                    } catch (Exception e) {
+                        failed.increment();
+                        String message = "Warming the cache with '" +
+                            evidence.values() + "' failed.";
+                        if (logged.compareAndSet(false, true)) {
+                            logger.warn(message, e);
+                        }
+                        else {
+                            logger.debug(message, e);
+                        }
+                    } finally {
+                        permits.release();
+                    }
+                });
+            }
+            executor.shutdown();
+            long remaining = deadline - System.currentTimeMillis();
+            if (executor.awaitTermination(
+                Math.max(0, remaining),
+                TimeUnit.MILLISECONDS) == false) {
+                complete = false;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            complete = false;
+        } finally {
+            executor.shutdownNow();
+        }
+        return new Result(
+            warmed.sum(),
+            failed.sum(),
+            skipped,
+            ignored,
+            System.currentTimeMillis() - start,
+            complete);
+    }
+
+    /**
+     * Get the evidence for a line of the list.
+     * @param line the line
+     * @return evidence, or null if the line is blank, a comment or invalid
+     */
+    private static Map<String, String> getEvidence(String line) {
+        String trimmed = line.trim();
+        if (trimmed.isEmpty() || trimmed.startsWith("#")) {
+            return null;
+        }
+        Map<String, String> evidence = new HashMap<>();
+        String[] values = trimmed.split(",");
+        if (values.length >= 2) {
+            Coordinates coordinates = Coordinates.parse(
+                values[0].trim(),
+                values[1].trim());
+            if (coordinates == null) {
+                return null;
+            }
+            evidence.put(Constants.EVIDENCE_GEO_LAT_KEY, values[0].trim());
+            evidence.put(Constants.EVIDENCE_GEO_LON_KEY, values[1].trim());
+        }
+        else {
+            evidence.put(EVIDENCE_CLIENTIP_KEY, trimmed);
+        }
+        return evidence;
+    }
+
+    /**
+     * The outcome of warming a pipeline.
+     */
+    public static class Result {
+
+        private final long warmed;
+        private final long failed;
+        private final long skipped;
+        private final long ignored;
+        private final long elapsed;
+        private final boolean complete;
+
+        Result(
+            long warmed,
+            long failed,
+            long skipped,
+            long ignored,
+            long elapsed,
+            boolean complete) {
+            this.warmed = warmed;
+            this.failed = failed;
+            this.skipped = skipped;
+            this.ignored = ignored;
+            this.elapsed = elapsed;
+            this.complete = complete;
+        }
+
+        /**
+         * @return the number of locations processed
+         */
+        public long getWarmed() {
+            return warmed;
+        }
+
+        /**
+         * @return the number of locations which could not be processed
+         */
+        public long getFailed() {
+            return failed;
+        }
+
+        /**
+         * @return the number of lines which were not locations
+         */
+        public long getSkipped() {
+            return skipped;
+        }
+
+        /**
+         * @return the number of IP addresses which were not processed as
+         * the cache does not hold results by IP prefix
+         */
+        public long getIgnored() {
+            return ignored;
+        }
+
+        /**
+         * @return the time spent warming in milliseconds
+         */
+        public long getElapsed() {
+            return elapsed;
+        }
+
+        /**
+         * @return true if every location in the list was processed within
+         * the time budget
+         */
+        public boolean isComplete() {
+            return complete;
+        }
+
+        @Override
+        public String toString() {
+            return "Warmed " + warmed + " locations in " + elapsed + "ms (" +
+                failed + " failed, " + skipped + " skipped, " + ignored +
+                " IP addresses ignored" +
+                (complete ? "" : ", time budget spent") + ")";
+        }
+    }
+}
@@ -0,0 +1,63 @@
+/* *********************************************************************
+ * This Original Work is copyright of 51 Degrees Mobile Experts Limited.
+ * Copyright 2023 51 Degrees Mobile Experts Limited, Davidson House,
+ * Forbury Square, Reading, Berkshire, United Kingdom RG1 3EU.
+ *
+ * This Original Work is licensed under the European Union Public Licence
+ * (EUPL) v.1.2 and is subject to its terms as set out below.
+ *
+ * If a copy of the EUPL was not distributed with this file, You can obtain
+ * one at https://opensource.org/licenses/EUPL-1.2.
+ *
+ * The 'Compatible Licences' set out in the Appendix to the EUPL (as may be
+ * amended by the European Commission) shall be deemed incompatible for
+ * the purposes of the Work and the provisions of the compatibility
+ * clause in Article 5 of the EUPL shall not apply.
+ *
+ * If using the Work as, or as part of, a network application, by
+ * including the attribution notice(s) required under Article 5 of the EUPL
+ * in the end user terms of the application under an appropriate heading,
+ * such notice(s) shall fulfill the requirements of that article.
+ * ********************************************************************* */
+
+package fiftyone.geolocation.caching;
+
+import fiftyone.pipeline.core.data.ElementData;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A result held by {@link GeoResultsCache}, with the time it expires.
+ */
+class CachedResult {
+
+    final ElementData value;
+
+    /**
+     * The time in milliseconds since the epoch that the result expires, or
+     * {@link Long#MAX_VALUE} if it never expires.
+     */
+    final long expires;
+
+    /**
+     * Set while a background refresh of the result is in progress, so
+     * concurrent requests for the stale result start only one refresh.
+     */
+    final AtomicBoolean refreshing = new AtomicBoolean(false);
+
+    /**
+     * Set if the result was prefetched rather than requested, until it is
+     * first returned, so each prefetched result is counted as hit once.
+     */
+    final AtomicBoolean prefetched;
+
+    CachedResult(ElementData value, long expires) {
+        this(value, expires, false);
+    }
+
+    CachedResult(ElementData value, long expires, boolean prefetched) {
+        this.value = value;
+        this.expires = expires;
+        this.prefetched = new AtomicBoolean(prefetched);
+    }
+}
@@ -0,0 +1,175 @@
+/* *********************************************************************
+ * This Original Work is copyright of 51 Degrees Mobile Experts Limited.
+ * Copyright 2023 51 Degrees Mobile Experts Limited, Davidson House,
+ * Forbury Square, Reading, Berkshire, United Kingdom RG1 3EU.
+ *
+ * This Original Work is licensed under the European Union Public Licence
+ * (EUPL) v.1.2 and is subject to its terms as set out below.
+ *
+ * If a copy of the EUPL was not distributed with this file, You can obtain
+ * one at https://opensource.org/licenses/EUPL-1.2.
+ *
+ * The 'Compatible Licences' set out in the Appendix to the EUPL (as may be
+ * amended by the European Commission) shall be deemed incompatible for
+ * the purposes of the Work and the provisions of the compatibility
+ * clause in Article 5 of the EUPL shall not apply.
+ *
+ * If using the Work as, or as part of, a network application, by
+ * including the attribution notice(s) required under Article 5 of the EUPL
+ * in the end user terms of the application under an appropriate heading,
+ * such notice(s) shall fulfill the requirements of that article.
+ * ********************************************************************* */
+
+package fiftyone.geolocation.caching;
+
+import fiftyone.geolocation.core.data.Coordinates;
+import fiftyone.geolocation.core.spatial.GeoCell;
+import fiftyone.pipeline.core.data.ElementData;
+
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Remembers the last result for each device or session, with the
+ * coordinates it was resolved for. Every page view sends the same position
+ * cookies, so later requests from the device whose coordinates are within
+ * the memo distance are given the same result without looking up their
+ * cell. A result is only held until it expires, so a stale result is
+ * refreshed once for the cell rather than once for each device.
+ *
+ * The device is identified by a value in the evidence, e.g. a session
+ * cookie, combined with the hash of the other evidence, as the result
+ * depends on both.
+ */
+public class DeviceMemo {
+
+    /**
+     * The last result for a device, with the coordinates it was resolved
+     * for.
+     */
+    private static class DeviceLocation {
+        final double latitude;
+        final double longitude;
+        final ElementData value;
+        final long expires;
+
+        DeviceLocation(Coordinates coordinates, ElementData value, long expires) {
+            this.latitude = coordinates.getLatitude();
+            this.longitude = coordinates.getLongitude();
+            this.value = value;
+            this.expires = expires;
+        }
+    }
+
+    private final LongKeyTable<DeviceLocation> devices;
+    private final String key;
+    private final double distance;
+    private final LongAdder hits = new LongAdder();
+
+    /**
+     * @param capacity the number of devices to remember
+     * @param key the key of the evidence which identifies the device
+     * @param distance how far in metres a device can move and still be
+     *                 given its last result
+     */
+    public DeviceMemo(int capacity, String key, double distance) {
+        this.devices = new LongKeyTable<>(capacity);
+        this.key = key;
+        this.distance = distance;
+    }
+
+    /**
+     * Get the last result for the device if the coordinates are within the
+     * memo distance of the ones it was resolved for, and it has not
+     * expired.
+     * @param evidence the evidence from the request
+     * @param coordinates the coordinates from the request
+     * @param evidenceHash the hash of the other evidence in the request
+     * @param now the current time in milliseconds since the epoch
+     * @return the result, or null if there is no current result for the
+     * device, or it has moved too far
+     */
+    public ElementData get(
+        Map<String, Object> evidence,
+        Coordinates coordinates,
+        long evidenceHash,
+        long now) {
+        long deviceKey = getDeviceKey(evidence, evidenceHash);
+        DeviceLocation device = deviceKey == 0 ? null : devices.get(deviceKey);
+        if (device == null ||
+            GeoCell.getDistance(
+                device.latitude,
+                device.longitude,
+                coordinates.getLatitude(),
+                coordinates.getLongitude()) > distance ||
+            now >= device.expires) {
+            return null;
+        }
+        hits.increment();
+        return device.value;
+    }
+
+    /**
+     * Remember the result for the device, if the evidence identifies one.
+     * @param evidence the evidence from the request
+     * @param coordinates the coordinates the result was resolved for
+     * @param evidenceHash the hash of the other evidence in the request
+     * @param value the result
+     * @param expires the time the result expires
+     */
+    public void put(
+        Map<String, Object> evidence,
+        Coordinates coordinates,
+        long evidenceHash,
+        ElementData value,
+        long expires) {
+        long deviceKey = getDeviceKey(evidence, evidenceHash);
+        if (deviceKey != 0) {
+            devices.put(
+                deviceKey,
+                new DeviceLocation(coordinates, value, expires));
+        }
+    }
+
+    /**
+     * @return the key of the evidence which identifies devices
+     */
+    public String getKey() {
+        return key;
+    }
+
+    /**
+     * @return how far in metres a device can move and still be given its
+     * last result
+     */
+    public double getDistance() {
+        return distance;
+    }
+
+    /**
+     * @return the number of requests given the last result for their device
+     */
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public void clear() {
+        devices.clear();
+    }
+
+    /**
+     * Get the key for the device, combining the device identifier with the
+     * hash of the other evidence, as the result depends on both.
+     * @return the key, or 0 if the request does not identify the device
+     */
+    private long getDeviceKey(Map<String, Object> evidence, long evidenceHash) {
+        Object device = evidence.get(key);
+        if (device == null) {
+            return 0;
+        }
+        String id = device.toString();
+        return id.isEmpty() ?
+            0 :
+            GeoResultsCache.mix(GeoResultsCache.fnv(id, false) ^ evidenceHash);
+    }
+}
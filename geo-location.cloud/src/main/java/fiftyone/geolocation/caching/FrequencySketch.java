@@ -0,0 +1,139 @@
+/* *********************************************************************
+ * This Original Work is copyright of 51 Degrees Mobile Experts Limited.
+ * Copyright 2023 51 Degrees Mobile Experts Limited, Davidson House,
+ * Forbury Square, Reading, Berkshire, United Kingdom RG1 3EU.
+ *
+ * This Original Work is licensed under the European Union Public Licence
+ * (EUPL) v.1.2 and is subject to its terms as set out below.
+ *
+ * If a copy of the EUPL was not distributed with this file, You can obtain
+ * one at https://opensource.org/licenses/EUPL-1.2.
+ *
+ * The 'Compatible Licences' set out in the Appendix to the EUPL (as may be
+ * amended by the European Commission) shall be deemed incompatible for
+ * the purposes of the Work and the provisions of the compatibility
+ * clause in Article 5 of the EUPL shall not apply.
+ *
+ * If using the Work as, or as part of, a network application, by
+ * including the attribution notice(s) required under Article 5 of the EUPL
+ * in the end user terms of the application under an appropriate heading,
+ * such notice(s) shall fulfill the requirements of that article.
+ * ********************************************************************* */
+
+package fiftyone.geolocation.caching;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free count-min sketch which estimates how often each key has been
+ * seen recently, used for TinyLFU admission. Each key has a 4 bit counter
+ * in each of four rows, and its frequency is the smallest of the four. When
+ * the number of keys recorded reaches ten times the capacity, every counter
+ * is halved, so the estimates follow changes in popularity.
+ */
+class FrequencySketch {
+
+    private static final int ROWS = 4;
+    private static final long RESET_MASK = 0x7777777777777777L;
+    private static final long[] SEEDS = {
+        0xc3a5c85c97cb3127L,
+        0xb492b66fbe98f273L,
+        0x9ae16a3b2f90404fL,
+        0xcbf29ce484222325L };
+
+    private final AtomicLongArray table;
+    private final int mask;
+    private final int sampleSize;
+    private final AtomicInteger additions = new AtomicInteger();
+
+    /**
+     * Construct a new sketch.
+     * @param capacity the number of keys the cache holds
+     */
+    FrequencySketch(int capacity) {
+        int size = Integer.highestOneBit(Math.max(16, capacity));
+        if (size < capacity) {
+            size <<= 1;
+        }
+        // Each long holds 16 counters, so this gives around four counters
+        // per key in each row.
+        table = new AtomicLongArray(size);
+        mask = size - 1;
+        sampleSize = (int)Math.min(Integer.MAX_VALUE, 10L * capacity);
+    }
+
+    /**
+     * Record an occurrence of the key.
+     * @param key the key
+     */
+    void increment(long key) {
+        boolean added = false;
+        for (int row = 0; row < ROWS; row++) {
+            long hash = hash(key, row);
+            int index = (int)hash & mask;
+            int shift = counter(hash, row) << 2;
+            long current;
+            do {
+                current = table.get(index);
+                if (((current >>> shift) & 0xf) == 0xf) {
+                    break;
+                }
+            } while (table.compareAndSet(
+                index,
+                current,
+                current + (1L << shift)) == false);
+            added |= ((current >>> shift) & 0xf) != 0xf;
+        }
+        if (added && additions.incrementAndGet() == sampleSize) {
+            reset();
+        }
+    }
+
+    /**
+     * Estimate how often the key has been seen recently.
+     * @param key the key
+     * @return the frequency, between 0 and 15
+     */
+    int frequency(long key) {
+        int frequency = 0xf;
+        for (int row = 0; row < ROWS; row++) {
+            long hash = hash(key, row);
+            int shift = counter(hash, row) << 2;
+            int count = (int)((table.get((int)hash & mask) >>> shift) & 0xf);
+            frequency = Math.min(frequency, count);
+        }
+        return frequency;
+    }
+
+    /**
+     * Halve every counter.
+     */
+    private void reset() {
+        for (int i = 0; i < table.length(); i++) {
+            long current;
+            do {
+                current = table.get(i);
+            } while (table.compareAndSet(
+                i,
+                current,
+                (current >>> 1) & RESET_MASK) == false);
+        }
+        additions.set(sampleSize / 2);
+    }
+
+    /**
+     * The counter within the long for the row. Each row uses a different
+     * group of four of the 16 counters in the long.
+     */
+    private static int counter(long hash, int row) {
+        return (row << 2) + (int)((hash >>> 60) & 3);
+    }
+
+    private static long hash(long key, int row) {
+        long h = (key + SEEDS[row]) * 0x9e3779b97f4a7c15L;
+        h ^= h >>> 32;
+        h *= SEEDS[row] | 1;
+        return h ^ (h >>> 29);
+    }
+}
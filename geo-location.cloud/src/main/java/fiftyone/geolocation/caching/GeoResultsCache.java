@@ -0,0 +1,1142 @@
+/* *********************************************************************
+ * This Original Work is copyright of 51 Degrees Mobile Experts Limited.
+ * Copyright 2023 51 Degrees Mobile Experts Limited, Davidson House,
+ * Forbury Square, Reading, Berkshire, United Kingdom RG1 3EU.
+ *
+ * This Original Work is licensed under the European Union Public Licence
+ * (EUPL) v.1.2 and is subject to its terms as set out below.
+ *
+ * If a copy of the EUPL was not distributed with this file, You can obtain
+ * one at https://opensource.org/licenses/EUPL-1.2.
+ *
+ * The 'Compatible Licences' set out in the Appendix to the EUPL (as may be
+ * amended by the European Commission) shall be deemed incompatible for
+ * the purposes of the Work and the provisions of the compatibility
+ * clause in Article 5 of the EUPL shall not apply.
+ *
+ * If using the Work as, or as part of, a network application, by
+ * including the attribution notice(s) required under Article 5 of the EUPL
+ * in the end user terms of the application under an appropriate heading,
+ * such notice(s) shall fulfill the requirements of that article.
+ * ********************************************************************* */
+
+
+package fiftyone.geolocation.caching;
+
+import fiftyone.geolocation.core.Constants;
+import fiftyone.geolocation.core.GeoEngineHelper;
+import fiftyone.geolocation.core.caching.SharedGeoCache;
+import fiftyone.geolocation.core.caching.SharedGeoResult;
+import fiftyone.geolocation.core.data.Coordinates;
+import fiftyone.geolocation.core.spatial.GeoCell;
+import fiftyone.geolocation.json.ParsedCloudResponse;
+import fiftyone.pipeline.cloudrequestengine.data.CloudRequestData;
+import fiftyone.pipeline.core.data.ElementData;
+import fiftyone.pipeline.core.data.EvidenceKeyFilter;
+import fiftyone.pipeline.core.data.FlowData;
+import fiftyone.pipeline.core.flowelements.FlowElement;
+import fiftyone.pipeline.core.flowelements.Pipeline;
+import fiftyone.pipeline.engines.caching.FlowCache;
+import fiftyone.pipeline.engines.data.AspectData;
+import fiftyone.pipeline.engines.data.AspectPropertyMetaData;
+import fiftyone.pipeline.engines.flowelements.AspectEngine;
+import org.json.JSONException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.LongAdder;
+
+import static fiftyone.pipeline.core.Constants.EVIDENCE_CLIENTIP_KEY;
+
+/**
+ * Results cache for the cloud request engine which is keyed on the spatial
+ * cell containing the location in the evidence, rather than on the exact
+ * evidence values. Coordinates from the client have GPS precision, so with
+ * the default results cache two users on the same street never share an
+ * entry. With this cache, all requests whose coordinates are in the same
+ * cell share one result.
+ *
+ * The key is the {@link GeoCell} code of the coordinates, combined with a
+ * hash of any other evidence the engine uses, so results which depend on
+ * other evidence (e.g. a user-agent for device detection) are only shared
+ * between requests with the same values. The client IP address is ignored,
+ * as the result depends on the coordinates when they are present. Requests
+ * without coordinates are not cached, unless the IP prefix cache is
+ * enabled.
+ *
+ * If the cache is accuracy adaptive, the size of the cell is chosen for each
+ * request from the accuracy radius in the '51D_Pos_accuracy' cookie. The
+ * largest cells which are no taller than the accuracy are used, so fixes
+ * from IP address or cell tower positioning share coarse cells with many
+ * other requests, while precise GPS fixes keep cells of the configured
+ * level.
+ *
+ * Results are held in a lock-free {@link LongKeyTable}, so looking up a
+ * result takes no locks and does not allocate. If a maximum number of bytes
+ * is set, the table is also bounded by the estimated size of the results,
+ * and uses TinyLFU admission so one-off locations do not displace
+ * frequently requested ones.
+ *
+ * If the negative cache is enabled, responses which contain no location
+ * (e.g. coordinates over water, or 0,0 from a broken GPS) are also recorded
+ * against a coarser cell. Once several distinct cells inside it have no
+ * location, every request in that cell is answered with the same no-value
+ * result, without a request to the cloud service, even if its own cell has
+ * not been seen. A response with a location for the coarser cell removes
+ * it, and it expires after its own time to live. A Bloom filter of the
+ * coarse cells which are known to be empty means requests in other cells
+ * are rejected from the negative path without a lookup.
+ *
+ * If a time to live is set, results expire after that time. With
+ * stale-while-revalidate enabled, an expired result is still returned
+ * for up to the maximum staleness, and a background refresh replaces it
+ * with a new result from the cloud service. Concurrent requests for the
+ * same stale result start only one refresh, so requests for popular
+ * locations never wait for the cloud service when their result expires.
+ *
+ * If an off-heap size is set, results are also held in an
+ * {@link OffHeapResultStore} in their compact serialized form, outside the
+ * Java heap. The results in memory then act as a small tier of the most
+ * recently used results in front of a much larger off-heap store, which
+ * adds nothing to garbage collection pauses.
+ *
+ * If a persistent file is set, responses are also written to a
+ * {@link MappedResultStore}. Results missing from memory are read from the
+ * file, so the cache is still warm after a restart, and processes on the
+ * same host which use the same file share their results.
+ *
+ * If a {@link SharedGeoCache} is set, it is consulted after the local
+ * results, and responses from the cloud service are added to it, so the
+ * nodes of a cluster share the locations each of them resolves.
+ *
+ * The off-heap store, persistent file and shared cache are the
+ * {@link ResultTiers}, consulted in that order. The persistent file and
+ * shared cache are written on a background thread, so a request never
+ * waits for a file lock or another node. If their writes fall behind,
+ * further writes are dropped and counted until they catch up.
+ *
+ * If the IP prefix cache is enabled, requests without coordinates, which
+ * the cloud service locates by their client IP address, are cached by the
+ * network prefix of the address (a /24 for IPv4 and a /48 for IPv6 by
+ * default) in an {@link IpPrefixLookup}. Requests from the same residential
+ * or mobile carrier block then share one result.
+ *
+ * If the device memo is enabled, a {@link DeviceMemo} remembers the last
+ * result for each device or session with the coordinates it was resolved
+ * for. Every
+ * page view sends the same position cookies, so later requests from the
+ * device whose coordinates are within the memo distance are given the same
+ * result without looking up their cell. The memo is consulted before the
+ * results table, and only holds a result until it expires. After that the
+ * request is looked up by its cell, so a stale result is refreshed once
+ * for the cell rather than once for each device.
+ *
+ * If a {@link LocationTokenSigner} is set, a {@link LocationTokenLookup}
+ * answers a request with a valid location token whose coordinates are in
+ * the token's cell before anything else, without looking in the cache or
+ * calling the cloud service. This lets a visitor's requests be answered by any node.
+ * The response only holds the element of the engine the token was issued
+ * for, and the token is only used if the engines in the pipeline need
+ * nothing from the cloud service but the country code, region and town of
+ * that element. Any other properties of the element are given a no value
+ * reason saying the result came from a location token.
+ *
+ * If neighbour prefetching is enabled, a miss for a cell starts background
+ * resolution of the 8 cells around it, within a budget per second, so users
+ * moving into an adjacent cell find a result.
+ *
+ * Use {@link GeoResultsCacheBuilder} to construct instances.
+ */
+public class GeoResultsCache implements FlowCache {
+
+    /**
+     * Evidence which is not part of the key, as it is either replaced by the
+     * cell, or does not affect the result when coordinates are present.
+     */
+    private static final Set<String> EXCLUDED_EVIDENCE =
+        new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
+
+    static {
+        EXCLUDED_EVIDENCE.addAll(Arrays.asList(
+            EVIDENCE_CLIENTIP_KEY,
+            Constants.EVIDENCE_GEO_LAT_KEY,
+            Constants.EVIDENCE_GEO_LON_KEY,
+            Constants.EVIDENCE_GEO_LAT_COOKIE_KEY,
+            Constants.EVIDENCE_GEO_LON_COOKIE_KEY,
+            Constants.EVIDENCE_GEO_LAT_PARAM_KEY,
+            Constants.EVIDENCE_GEO_LON_PARAM_KEY,
+            Constants.EVIDENCE_GEO_ACCURACY_COOKIE_KEY));
+    }
+
+    /**
+     * The keys of the elements in the cloud response which hold location
+     * results.
+     */
+    private static final String[] LOCATION_ELEMENTS = {
+        "location",
+        "location_digitalelement" };
+
+    /**
+     * The number of threads used to refresh stale results.
+     */
+    private static final int REVALIDATE_THREADS = 2;
+
+    /**
+     * The number of threads used to prefetch neighbouring cells.
+     */
+    private static final int PREFETCH_THREADS = 1;
+
+    /**
+     * Estimated size in bytes of a result other than the values in its
+     * data, including the table entry and the cloud request engine's data.
+     */
+    private static final int RESULT_OVERHEAD = 256;
+
+    /**
+     * Estimated size in bytes of an entry in the map of a result's data,
+     * other than its value.
+     */
+    private static final int ENTRY_OVERHEAD = 64;
+
+    /**
+     * Estimated size in bytes of a value in a result's data which is not a
+     * string.
+     */
+    private static final int VALUE_OVERHEAD = 64;
+
+    private static final Logger logger =
+        LoggerFactory.getLogger(GeoResultsCache.class);
+
+    private final LongKeyTable<CachedResult> results;
+    private final int cellLevel;
+    private final int minCellLevel;
+    private final boolean accuracyAdaptive;
+    private final LongAdder bypassed = new LongAdder();
+    private volatile FlowElement<?, ?> flowElement = null;
+
+    private final NegativeCache negative;
+    private final int negativeCellLevel;
+
+    private final long timeToLive;
+    private final long maxStaleness;
+    private volatile boolean staleWhileRevalidate;
+    private final LongAdder staleHits = new LongAdder();
+    private Revalidator revalidator = null;
+
+    private final int prefetchBudget;
+    private Prefetcher prefetcher = null;
+    private final LongAdder prefetchHits = new LongAdder();
+
+    private final ResultTiers tiers;
+
+    private final IpPrefixLookup<CachedResult> ipPrefixes;
+    private final LongAdder ipPrefixHits = new LongAdder();
+
+    private final DeviceMemo devices;
+    private final double deviceMemoDistance;
+
+    private final LocationTokenLookup locationTokens;
+
+    /**
+     * The evidence which is not part of the key, being
+     * {@link #EXCLUDED_EVIDENCE} and the keys of the device memo and the
+     * location token.
+     */
+    private final Set<String> excludedEvidence =
+        new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
+
+    GeoResultsCache(GeoResultsCacheBuilder builder) throws IOException {
+        this.results = builder.maxBytes > 0 ?
+            new LongKeyTable<>(
+                builder.size,
+                GeoResultsCache::estimateBytes,
+                builder.maxBytes) :
+            new LongKeyTable<>(builder.size);
+        this.cellLevel = builder.cellLevel;
+        this.minCellLevel = Math.min(builder.minCellLevel, builder.cellLevel);
+        this.accuracyAdaptive = builder.accuracyAdaptive;
+        this.negative = builder.negativeCacheSize > 0 ?
+            new NegativeCache(
+                builder.negativeCacheSize,
+                builder.negativeThreshold,
+                builder.negativeTimeToLive) :
+            null;
+        this.negativeCellLevel = builder.negativeCellLevel;
+        this.timeToLive = builder.timeToLive;
+        this.maxStaleness = builder.maxStaleness < 0 ?
+            builder.timeToLive :
+            builder.maxStaleness;
+        this.staleWhileRevalidate = builder.staleWhileRevalidate;
+        this.tiers = new ResultTiers(
+            builder.offHeapBytes > 0 ?
+                new OffHeapResultStore(
+                    builder.offHeapBytes,
+                    (int)Math.min(
+                        OffHeapResultStore.DEFAULT_SLAB_SIZE,
+                        Math.max(64 * 1024, builder.offHeapBytes / 64))) :
+                null,
+            builder.persistentFile == null ? null :
+                new MappedResultStore(
+                    builder.persistentFile,
+                    builder.persistentRecords > 0 ?
+                        builder.persistentRecords :
+                        builder.size,
+                    builder.persistentRecordSize),
+            builder.sharedCache);
+        this.ipPrefixes = builder.ipPrefixCacheSize > 0 ?
+            new IpPrefixLookup<>(
+                builder.ipPrefixCacheSize,
+                builder.ipv4PrefixLength,
+                builder.ipv6PrefixLength) :
+            null;
+        this.devices = builder.deviceMemoSize > 0 ?
+            new DeviceMemo(
+                builder.deviceMemoSize,
+                builder.deviceMemoKey,
+                builder.deviceMemoDistance) :
+            null;
+        this.deviceMemoDistance = builder.deviceMemoDistance;
+        this.locationTokens = builder.locationTokenSigner == null ?
+            null :
+            new LocationTokenLookup(builder.locationTokenSigner);
+        excludedEvidence.addAll(EXCLUDED_EVIDENCE);
+        if (devices != null) {
+            excludedEvidence.add(devices.getKey());
+        }
+        if (locationTokens != null) {
+            excludedEvidence.add(locationTokens.getSigner().getEvidenceKey());
+        }
+        this.prefetchBudget = builder.prefetchNeighbours ?
+            builder.prefetchBudget :
+            0;
+    }
+
+    @Override
+    public ElementData get(FlowData data) {
+        Map<String, Object> evidence = data.getEvidence().asKeyMap();
+        Coordinates coordinates = GeoEngineHelper.getCoordinates(evidence);
+        if (locationTokens != null &&
+            Revalidator.isRefreshing() == false &&
+            Prefetcher.isPrefetching() == false) {
+            String json = locationTokens.getResponse(
+                evidence,
+                coordinates,
+                data.getPipeline(),
+                flowElement);
+            ElementData result = json == null ? null : newResponse(data, json);
+            if (result != null) {
+                return result;
+            }
+        }
+        if (coordinates == null && ipPrefixes != null &&
+            Revalidator.isRefreshing() == false) {
+            ElementData result = getByIpPrefix(data, evidence);
+            if (result != null) {
+                ipPrefixHits.increment();
+            }
+            return result;
+        }
+        if (coordinates == null ||
+            Revalidator.isRefreshing() ||
+            Prefetcher.isPrefetching()) {
+            bypassed.increment();
+            return null;
+        }
+        long evidenceHash = getEvidenceHash(evidence);
+        if (devices != null) {
+            ElementData result = devices.get(
+                evidence,
+                coordinates,
+                evidenceHash,
+                System.currentTimeMillis());
+            if (result != null) {
+                return result;
+            }
+        }
+        long cellKey = getKey(coordinates, getCellLevel(evidence), evidenceHash);
+        CachedResult cached = results.get(cellKey);
+        ElementData result = getCurrent(data, cached);
+        if (result != null && cached.prefetched.compareAndSet(true, false)) {
+            prefetchHits.increment();
+        }
+        if (result == null && tiers.isEmpty() == false) {
+            result = getFromTiers(data, cellKey);
+        }
+        if (result == null && negative != null) {
+            result = negative.get(
+                getKey(coordinates, negativeCellLevel, evidenceHash),
+                System.currentTimeMillis());
+        }
+        return result;
+    }
+
+    @Override
+    public void put(FlowData data, ElementData value) {
+        Map<String, Object> evidence = data.getEvidence().asKeyMap();
+        Coordinates coordinates = GeoEngineHelper.getCoordinates(evidence);
+        if (coordinates == null && ipPrefixes != null) {
+            long[] address = IpPrefixLookup.getAddress(evidence);
+            if (address != null) {
+                ipPrefixes.put(
+                    address,
+                    getEvidenceHash(evidence),
+                    new CachedResult(
+                        value,
+                        timeToLive > 0 ?
+                            System.currentTimeMillis() + timeToLive :
+                            Long.MAX_VALUE));
+            }
+        }
+        if (coordinates != null) {
+            long evidenceHash = getEvidenceHash(evidence);
+            boolean prefetched = Prefetcher.isPrefetching();
+            CachedResult result = new CachedResult(
+                value,
+                timeToLive > 0 ?
+                    System.currentTimeMillis() + timeToLive :
+                    Long.MAX_VALUE,
+                prefetched);
+            int level = getCellLevel(evidence);
+            long cellKey = getKey(coordinates, level, evidenceHash);
+            results.put(cellKey, result);
+            if (devices != null && prefetched == false) {
+                devices.put(
+                    evidence,
+                    coordinates,
+                    evidenceHash,
+                    value,
+                    result.expires);
+            }
+            if (prefetchBudget > 0 &&
+                prefetched == false &&
+                Revalidator.isRefreshing() == false) {
+                prefetchNeighbours(data, coordinates, level, evidenceHash);
+            }
+            String json = value instanceof CloudRequestData ?
+                ((CloudRequestData)value).getJsonResponse() :
+                null;
+            if (json != null && tiers.isEmpty() == false) {
+                tiers.put(cellKey, new SharedGeoResult(json, result.expires));
+            }
+            if (negative != null) {
+                long key = getKey(coordinates, negativeCellLevel, evidenceHash);
+                if (isEmptyLocation(value)) {
+                    negative.add(
+                        key,
+                        cellKey,
+                        value,
+                        result.expires,
+                        System.currentTimeMillis());
+                }
+                else {
+                    negative.remove(key);
+                }
+            }
+        }
+    }
+
+    /**
+     * Get the value of a cached result if it has not expired. If it has
+     * expired, but is within the maximum staleness and stale-while-revalidate
+     * is enabled, start a refresh and return the stale value.
+     * @param data the request
+     * @param result the cached result, or null if there is none
+     * @return the value, or null if there is no current value
+     */
+    private ElementData getCurrent(FlowData data, CachedResult result) {
+        if (result == null) {
+            return null;
+        }
+        long now = System.currentTimeMillis();
+        if (now < result.expires) {
+            return result.value;
+        }
+        if (staleWhileRevalidate && now - result.expires < maxStaleness) {
+            getRevalidator().revalidate(data, flowElement, result);
+            staleHits.increment();
+            return result.value;
+        }
+        return null;
+    }
+
+    /**
+     * Start resolving the cells around the one which has just been
+     * resolved, skipping any which are already in the cache.
+     * @param data the request which resolved the cell
+     * @param coordinates the coordinates in the cell
+     * @param level the level of the cell
+     * @param evidenceHash the hash of the other evidence in the request
+     */
+    private void prefetchNeighbours(
+        FlowData data,
+        Coordinates coordinates,
+        int level,
+        long evidenceHash) {
+        long cell = GeoCell.encode(
+            coordinates.getLatitude(),
+            coordinates.getLongitude(),
+            level);
+        long[] neighbours = new long[8];
+        int count = 0;
+        for (int north = -1; north <= 1; north++) {
+            for (int east = -1; east <= 1; east++) {
+                long neighbour = GeoCell.offset(cell, north, east);
+                // Cells at the poles are their own neighbours to the north
+                // or south, so may repeat.
+                boolean skip = neighbour == cell ||
+                    results.containsKey(neighbour ^ evidenceHash);
+                for (int i = 0; i < count && skip == false; i++) {
+                    skip = neighbours[i] == neighbour;
+                }
+                if (skip == false) {
+                    neighbours[count++] = neighbour;
+                }
+            }
+        }
+        if (count == 0) {
+            return;
+        }
+        if (tiers.isEmpty()) {
+            getPrefetcher().prefetch(data, flowElement, neighbours, count);
+            return;
+        }
+        // Read all the neighbours from the tiers in one go, and only
+        // request those which are in none of them from the cloud service.
+        // A tier may answer on another thread, so take what the prefetches
+        // need from the request now.
+        Pipeline pipeline = data.getPipeline();
+        Map<String, Object> evidence = Prefetcher.copyEvidence(data);
+        FlowElement<?, ?> element = flowElement;
+        int total = count;
+        long[] keys = new long[total];
+        for (int i = 0; i < total; i++) {
+            keys[i] = neighbours[i] ^ evidenceHash;
+        }
+        tiers.getAllAsync(keys, System.currentTimeMillis())
+            .thenAccept(found -> {
+                long[] missing = new long[total];
+                int misses = 0;
+                for (int i = 0; i < total; i++) {
+                    SharedGeoResult stored = found.get(keys[i]);
+                    if (stored == null ||
+                        addResponse(data, keys[i], stored) == null) {
+                        missing[misses++] = neighbours[i];
+                    }
+                }
+                getPrefetcher().prefetch(
+                    pipeline,
+                    evidence,
+                    element,
+                    missing,
+                    misses);
+            });
+    }
+
+    /**
+     * Get the result for the network prefix of the client IP address.
+     * @param data the request
+     * @param evidence the evidence from the request
+     * @return the result, or null if there is no current result or no
+     * valid IP address
+     */
+    private ElementData getByIpPrefix(FlowData data, Map<String, Object> evidence) {
+        long[] address = IpPrefixLookup.getAddress(evidence);
+        if (address == null) {
+            bypassed.increment();
+            return null;
+        }
+        return getCurrent(
+            data,
+            ipPrefixes.get(address, getEvidenceHash(evidence)));
+    }
+
+    /**
+     * Get a result from the tiers, and add it to the results in memory so
+     * subsequent requests do not read the tiers.
+     * @param data the request
+     * @param key the key of the result
+     * @return the result, or null if it is not in any tier or has expired
+     */
+    private ElementData getFromTiers(FlowData data, long key) {
+        SharedGeoResult stored = tiers.get(key, System.currentTimeMillis());
+        return stored == null ? null : addResponse(data, key, stored);
+    }
+
+    /**
+     * Create the cloud request engine's data for a response read from one
+     * of the tiers, and add it to the results in memory.
+     * @param data the request
+     * @param key the key of the result
+     * @param stored the response and the time it expires
+     * @return the result, or null if the element is not an aspect engine
+     */
+    private ElementData addResponse(
+        FlowData data,
+        long key,
+        SharedGeoResult stored) {
+        CloudRequestData value = newResponse(data, stored.getJson());
+        if (value != null) {
+            results.put(key, new CachedResult(value, stored.getExpires()));
+        }
+        return value;
+    }
+
+    /**
+     * Create the cloud request engine's data for a response.
+     * @param data the request
+     * @param json the cloud response
+     * @return the data, or null if the flow element is not set
+     */
+    @SuppressWarnings("unchecked")
+    private CloudRequestData newResponse(FlowData data, String json) {
+        FlowElement<?, ?> element = flowElement;
+        if (element instanceof AspectEngine == false) {
+            return null;
+        }
+        CloudRequestData value = new CloudRequestData(
+            logger,
+            data,
+            (AspectEngine<? extends AspectData, ? extends AspectPropertyMetaData>)element);
+        value.setJsonResponse(json);
+        return value;
+    }
+
+    private synchronized Prefetcher getPrefetcher() {
+        if (prefetcher == null) {
+            prefetcher = new Prefetcher(PREFETCH_THREADS, prefetchBudget);
+        }
+        return prefetcher;
+    }
+
+    private synchronized Revalidator getRevalidator() {
+        if (revalidator == null) {
+            revalidator = new Revalidator(REVALIDATE_THREADS);
+        }
+        return revalidator;
+    }
+
+    /**
+     * Set whether expired results are returned while they are refreshed in
+     * the background. Only applies if the cache has a time to live.
+     * @param enabled true to enable stale-while-revalidate
+     */
+    public void setStaleWhileRevalidate(boolean enabled) {
+        this.staleWhileRevalidate = enabled;
+    }
+
+    /**
+     * @return true if expired results are returned while they are refreshed
+     * in the background
+     */
+    public boolean getStaleWhileRevalidate() {
+        return staleWhileRevalidate;
+    }
+
+    /**
+     * @return the time in milliseconds that results are current for, or 0 if
+     * they never expire
+     */
+    public long getTimeToLive() {
+        return timeToLive;
+    }
+
+    /**
+     * @return the number of expired results returned while being refreshed
+     */
+    public long getStaleHits() {
+        return staleHits.sum();
+    }
+
+    /**
+     * @return the number of background refreshes which have completed
+     */
+    public synchronized long getRefreshes() {
+        return revalidator == null ? 0 : revalidator.getRefreshes();
+    }
+
+    /**
+     * @return the number of background refreshes which failed
+     */
+    public synchronized long getRefreshFailures() {
+        return revalidator == null ? 0 : revalidator.getFailures();
+    }
+
+    /**
+     * @return the signer location tokens are verified with, or null if
+     * location tokens are not used
+     */
+    public LocationTokenSigner getLocationTokenSigner() {
+        return locationTokens == null ? null : locationTokens.getSigner();
+    }
+
+    /**
+     * @return the number of requests answered from their location token
+     */
+    public long getLocationTokenHits() {
+        return locationTokens == null ? 0 : locationTokens.getHits();
+    }
+
+    /**
+     * @return the number of valid location tokens which were not used, as
+     * the pipeline needs properties they do not hold
+     */
+    public long getLocationTokenSkips() {
+        return locationTokens == null ? 0 : locationTokens.getSkips();
+    }
+
+    /**
+     * @return the number of location tokens which were malformed, expired,
+     * or had an invalid signature
+     */
+    public long getLocationTokenRejects() {
+        return locationTokens == null ? 0 : locationTokens.getRejects();
+    }
+
+    /**
+     * @return the key of the evidence which identifies devices in the
+     * device memo, or null if the memo is disabled
+     */
+    public String getDeviceMemoKey() {
+        return devices == null ? null : devices.getKey();
+    }
+
+    /**
+     * @return how far in metres a device can move and still be given its
+     * last result
+     */
+    public double getDeviceMemoDistance() {
+        return deviceMemoDistance;
+    }
+
+    /**
+     * @return the number of requests given the last result for their device
+     */
+    public long getDeviceMemoHits() {
+        return devices == null ? 0 : devices.getHits();
+    }
+
+    /**
+     * @return true if the cells around a cell are resolved in the
+     * background when a request for it misses the cache
+     */
+    public boolean getPrefetchNeighbours() {
+        return prefetchBudget > 0;
+    }
+
+    /**
+     * @return the number of neighbouring cells which have been prefetched
+     */
+    public synchronized long getPrefetches() {
+        return prefetcher == null ? 0 : prefetcher.getPrefetches();
+    }
+
+    /**
+     * @return the number of neighbouring cells which were not prefetched as
+     * the budget for the second was used
+     */
+    public synchronized long getPrefetchesDropped() {
+        return prefetcher == null ? 0 : prefetcher.getDropped();
+    }
+
+    /**
+     * @return the number of prefetched results which have been returned
+     * for a request. Each prefetched result is counted once
+     */
+    public long getPrefetchHits() {
+        return prefetchHits.sum();
+    }
+
+    /**
+     * @return the proportion of prefetched results which have been returned
+     * for a request
+     */
+    public double getPrefetchHitRatio() {
+        long prefetches = getPrefetches();
+        return prefetches == 0 ? 0 : (double)getPrefetchHits() / prefetches;
+    }
+
+    /**
+     * @return the trie of IP prefixes results are held in for requests
+     * without coordinates, or null if they are not cached
+     */
+    public IpPrefixTrie<?> getIpPrefixes() {
+        return ipPrefixes == null ? null : ipPrefixes.getTrie();
+    }
+
+    /**
+     * @return the number of requests without coordinates answered with the
+     * result for their IP prefix
+     */
+    public long getIpPrefixHits() {
+        return ipPrefixHits.sum();
+    }
+
+    /**
+     * @return the off-heap store results are held in, or null if results
+     * are only held on the heap
+     */
+    public OffHeapResultStore getOffHeapStore() {
+        return tiers.getOffHeapStore();
+    }
+
+    /**
+     * @return the persistent store results are written to, or null if
+     * results are only held in memory
+     */
+    public MappedResultStore getPersistentStore() {
+        return tiers.getPersistentStore();
+    }
+
+    /**
+     * @return the number of results which could not be written to the
+     * persistent store
+     */
+    public long getPersistentStoreFailures() {
+        return tiers.getPersistentStoreFailures();
+    }
+
+    /**
+     * @return the shared cache consulted after the local results, or null
+     * if there is none
+     */
+    public SharedGeoCache getSharedCache() {
+        return tiers.getSharedCache();
+    }
+
+    /**
+     * @return the number of results found in the shared cache
+     */
+    public long getSharedHits() {
+        return tiers.getSharedHits();
+    }
+
+    /**
+     * @return the number of reads and writes of the shared cache which
+     * failed
+     */
+    public long getSharedFailures() {
+        return tiers.getSharedFailures();
+    }
+
+    /**
+     * @return the number of writes to the persistent store and shared cache
+     * which were dropped because the background writes had fallen behind
+     */
+    public long getWritesDropped() {
+        return tiers.getWritesDropped();
+    }
+
+    /**
+     * Set the element the cache holds results for. The element's evidence
+     * key filter determines which evidence, other than the coordinates,
+     * forms part of the key.
+     * @param flowElement the element
+     */
+    public void setFlowElement(FlowElement flowElement) {
+        this.flowElement = flowElement;
+    }
+
+    /**
+     * @return the element the cache holds results for
+     */
+    public FlowElement getFlowElement() {
+        return flowElement;
+    }
+
+    /**
+     * @return the level of the cells results are shared within. If the
+     * cache is accuracy adaptive, this is the level used for the most
+     * accurate coordinates
+     */
+    public int getCellLevel() {
+        return cellLevel;
+    }
+
+    /**
+     * @return the level used for the least accurate coordinates if the
+     * cache is accuracy adaptive
+     */
+    public int getMinCellLevel() {
+        return minCellLevel;
+    }
+
+    /**
+     * @return true if the cell level is chosen from the accuracy of the
+     * coordinates
+     */
+    public boolean getAccuracyAdaptive() {
+        return accuracyAdaptive;
+    }
+
+    /**
+     * Get the level of the cell to use for the evidence. This is the
+     * configured level unless the cache is accuracy adaptive and the
+     * evidence contains the accuracy.
+     * @param evidence the evidence
+     * @return cell level
+     */
+    public int getCellLevel(Map<String, Object> evidence) {
+        if (accuracyAdaptive) {
+            double accuracy = GeoEngineHelper.getAccuracy(evidence);
+            if (Double.isNaN(accuracy) == false) {
+                return Math.max(
+                    minCellLevel,
+                    Math.min(cellLevel, GeoCell.getLevelForSize(accuracy)));
+            }
+        }
+        return cellLevel;
+    }
+
+    /**
+     * @return the maximum number of results the cache can hold
+     */
+    public int getCapacity() {
+        return results.getCapacity();
+    }
+
+    /**
+     * @return the number of requests with coordinates whose result was in
+     * the cache
+     */
+    public long getHits() {
+        return results.getHits();
+    }
+
+    /**
+     * @return the number of requests with coordinates whose result was not
+     * in the cache
+     */
+    public long getMisses() {
+        return results.getMisses();
+    }
+
+    /**
+     * @return the proportion of requests with coordinates whose result was
+     * in the cache
+     */
+    public double getHitRatio() {
+        return results.getHitRatio();
+    }
+
+    /**
+     * @return the estimated size in bytes of the results held, or 0 if the
+     * cache is not bounded by size
+     */
+    public long getEstimatedBytes() {
+        return results.getWeight();
+    }
+
+    /**
+     * @return the number of results which were not held, as they were for
+     * locations requested less often than those already held
+     */
+    public long getRejections() {
+        return results.getRejections();
+    }
+
+    /**
+     * @return the number of requests which were not looked up in the cache
+     * as they had no coordinates
+     */
+    public long getBypassed() {
+        return bypassed.sum();
+    }
+
+    /**
+     * @return the level of the cells which responses with no location are
+     * recorded against, if the negative cache is enabled
+     */
+    public int getNegativeCellLevel() {
+        return negativeCellLevel;
+    }
+
+    /**
+     * @return the number of requests answered with a no-value result
+     * because their cell is known to contain no location
+     */
+    public long getNegativeHits() {
+        return negative == null ? 0 : negative.getHits();
+    }
+
+    /**
+     * @return the number of requests which missed the cache and were
+     * rejected from the negative cache by the Bloom filter without a lookup
+     */
+    public long getNegativeRejects() {
+        return negative == null ? 0 : negative.getRejects();
+    }
+
+    /**
+     * Stop any background refreshes, remove the results held in memory,
+     * finish the background writes and flush the persistent store to its
+     * file.
+     * @throws IOException if the persistent store could not be closed
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            if (revalidator != null) {
+                revalidator.close();
+                revalidator = null;
+            }
+            if (prefetcher != null) {
+                prefetcher.close();
+                prefetcher = null;
+            }
+        }
+        results.clear();
+        if (ipPrefixes != null) {
+            ipPrefixes.clear();
+        }
+        if (devices != null) {
+            devices.clear();
+        }
+        if (negative != null) {
+            negative.clear();
+        }
+        tiers.close();
+    }
+
+    /**
+     * Estimate the heap used by a cached result, which is dominated by the
+     * JSON response held as a string of two byte characters. Every value in
+     * the result's data is counted, so anything else added to it is also
+     * included. Responses parsed by the engines are not held by the result
+     * (see {@link ParsedCloudResponse}), so are not counted.
+     * @param result the cached result
+     * @return estimated size in bytes
+     */
+    static long estimateBytes(CachedResult result) {
+        long bytes = RESULT_OVERHEAD;
+        Map<String, Object> values = result.value == null ?
+            null :
+            result.value.asKeyMap();
+        if (values != null) {
+            for (Object value : values.values()) {
+                bytes += ENTRY_OVERHEAD;
+                if (value instanceof CharSequence) {
+                    bytes += 2L * ((CharSequence)value).length();
+                }
+                else if (value != null) {
+                    bytes += VALUE_OVERHEAD;
+                }
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * Check whether a result from the cloud request engine contains location
+     * elements which all have no values.
+     * @param value the result
+     * @return true if there is no location in the result
+     */
+    private static boolean isEmptyLocation(ElementData value) {
+        if (value instanceof CloudRequestData == false) {
+            return false;
+        }
+        ParsedCloudResponse response =
+            ParsedCloudResponse.of((CloudRequestData)value);
+        if (response == null) {
+            return false;
+        }
+        boolean found = false;
+        try {
+            for (String elementKey : LOCATION_ELEMENTS) {
+                Map<String, Object> element = response.getElement(elementKey);
+                if (element == null) {
+                    continue;
+                }
+                found = true;
+                for (Map.Entry<String, Object> entry : element.entrySet()) {
+                    String key = entry.getKey();
+                    if (entry.getValue() != null &&
+                        key.endsWith("nullreason") == false &&
+                        key.equals("javascript") == false) {
+                        return false;
+                    }
+                }
+            }
+        } catch (JSONException e) {
+            return false;
+        }
+        return found;
+    }
+
+    /**
+     * Get the key for the request, combining the cell containing the
+     * coordinates with the hash of the other evidence.
+     */
+    private static long getKey(
+        Coordinates coordinates,
+        int level,
+        long evidenceHash) {
+        long cell = GeoCell.encode(
+            coordinates.getLatitude(),
+            coordinates.getLongitude(),
+            level);
+        return cell ^ evidenceHash;
+    }
+
+    /**
+     * Get a hash of the evidence which is not excluded from the key. The
+     * hash of each entry is summed so the order of the entries does not
+     * matter, and keys are hashed ignoring case as evidence keys are case
+     * insensitive. The result is mixed, and is 0 if there is no other
+     * evidence. The device memo and location token keys are excluded, so
+     * devices share results for the same cell.
+     */
+    private long getEvidenceHash(Map<String, Object> evidence) {
+        FlowElement<?, ?> element = flowElement;
+        EvidenceKeyFilter filter = element == null ?
+            null :
+            element.getEvidenceKeyFilter();
+        long hash = 0;
+        for (Map.Entry<String, Object> entry : evidence.entrySet()) {
+            String key = entry.getKey();
+            if (excludedEvidence.contains(key) ||
+                (filter != null && filter.include(key) == false)) {
+                continue;
+            }
+            long entryHash = fnv(key, true);
+            entryHash = fnv(entryHash, String.valueOf(entry.getValue()));
+            hash += mix(entryHash);
+        }
+        return mix(hash);
+    }
+
+    static long fnv(String text, boolean ignoreCase) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            hash = (hash ^ (ignoreCase ? Character.toLowerCase(c) : c)) *
+                0x100000001b3L;
+        }
+        return hash;
+    }
+
+    private static long fnv(long hash, String text) {
+        for (int i = 0; i < text.length(); i++) {
+            hash = (hash ^ text.charAt(i)) * 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    /**
+     * The finalizer from MurmurHash3, which maps 0 to 0 so a request with
+     * no other evidence is keyed on the cell alone.
+     */
+    static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
@@ -0,0 +1,541 @@
+/* *********************************************************************
+ * This Original Work is copyright of 51 Degrees Mobile Experts Limited.
+ * Copyright 2023 51 Degrees Mobile Experts Limited, Davidson House,
+ * Forbury Square, Reading, Berkshire, United Kingdom RG1 3EU.
+ *
+ * This Original Work is licensed under the European Union Public Licence
+ * (EUPL) v.1.2 and is subject to its terms as set out below.
+ *
+ * If a copy of the EUPL was not distributed with this file, You can obtain
+ * one at https://opensource.org/licenses/EUPL-1.2.
+ *
+ * The 'Compatible Licences' set out in the Appendix to the EUPL (as may be
+ * amended by the European Commission) shall be deemed incompatible for
+ * the purposes of the Work and the provisions of the compatibility
+ * clause in Article 5 of the EUPL shall not apply.
+ *
+ * If using the Work as, or as part of, a network application, by
+ * including the attribution notice(s) required under Article 5 of the EUPL
+ * in the end user terms of the application under an appropriate heading,
+ * such notice(s) shall fulfill the requirements of that article.
+ * ********************************************************************* */
+
+
+package fiftyone.geolocation.caching;
+
+import fiftyone.geolocation.core.caching.SharedGeoCache;
+import fiftyone.geolocation.core.spatial.GeoCell;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Builder for {@link GeoResultsCache} instances.
+ */
+public class GeoResultsCacheBuilder {
+
+    /**
+     * The default number of results held by the cache.
+     */
+    public static final int DEFAULT_SIZE = 10000;
+
+    /**
+     * The default cell level, where cells are around 20m high.
+     */
+    public static final int DEFAULT_CELL_LEVEL = 20;
+
+    /**
+     * The default coarsest cell level used for inaccurate coordinates, where
+     * cells are around 20km high.
+     */
+    public static final int DEFAULT_MIN_CELL_LEVEL = 10;
+
+    /**
+     * The default length of the network prefix IPv4 addresses are cached
+     * by.
+     */
+    public static final int DEFAULT_IPV4_PREFIX_LENGTH = 24;
+
+    /**
+     * The default length of the network prefix IPv6 addresses are cached
+     * by.
+     */
+    public static final int DEFAULT_IPV6_PREFIX_LENGTH = 48;
+
+    /**
+     * The default level of the cells which responses with no location are
+     * recorded against, where cells are around 600m high and up to 1.2km
+     * wide.
+     */
+    public static final int DEFAULT_NEGATIVE_CELL_LEVEL = 15;
+
+    /**
+     * The default number of distinct cells inside a negative cell which
+     * must have no location before the negative cell is answered from.
+     */
+    public static final int DEFAULT_NEGATIVE_THRESHOLD = 3;
+
+    /**
+     * The default time in milliseconds a negative cell is remembered.
+     */
+    public static final long DEFAULT_NEGATIVE_TIME_TO_LIVE =
+        TimeUnit.MINUTES.toMillis(10);
+
+    /**
+     * The default maximum number of neighbouring cells prefetched each
+     * second.
+     */
+    public static final int DEFAULT_PREFETCH_BUDGET = 50;
+
+    /**
+     * The default distance in metres a device can move and still be given
+     * its last result.
+     */
+    public static final double DEFAULT_DEVICE_MEMO_DISTANCE = 100;
+
+    int size = DEFAULT_SIZE;
+    long maxBytes = 0;
+    long offHeapBytes = 0;
+    int cellLevel = DEFAULT_CELL_LEVEL;
+    int minCellLevel = DEFAULT_MIN_CELL_LEVEL;
+    boolean accuracyAdaptive = false;
+    int negativeCacheSize = 0;
+    int negativeCellLevel = DEFAULT_NEGATIVE_CELL_LEVEL;
+    int negativeThreshold = DEFAULT_NEGATIVE_THRESHOLD;
+    long negativeTimeToLive = DEFAULT_NEGATIVE_TIME_TO_LIVE;
+    long timeToLive = 0;
+    long maxStaleness = -1;
+    boolean staleWhileRevalidate = false;
+    File persistentFile = null;
+    int persistentRecords = 0;
+    int persistentRecordSize = MappedResultStore.DEFAULT_RECORD_SIZE;
+    SharedGeoCache sharedCache = null;
+    int ipPrefixCacheSize = 0;
+    int ipv4PrefixLength = DEFAULT_IPV4_PREFIX_LENGTH;
+    int ipv6PrefixLength = DEFAULT_IPV6_PREFIX_LENGTH;
+    boolean prefetchNeighbours = false;
+    int prefetchBudget = DEFAULT_PREFETCH_BUDGET;
+    int deviceMemoSize = 0;
+    String deviceMemoKey = null;
+    double deviceMemoDistance = DEFAULT_DEVICE_MEMO_DISTANCE;
+    LocationTokenSigner locationTokenSigner = null;
+
+    /**
+     * Set the maximum number of results the cache holds.
+     * By default, this is {@link #DEFAULT_SIZE}.
+     * @param size the number of results
+     * @return this builder
+     */
+    public GeoResultsCacheBuilder setSize(int size) {
+        this.size = size;
+        return this;
+    }
+
+    /**
+     * Set the maximum estimated size in bytes of the results the cache
+     * holds. Results vary in size with the properties and providers in the
+     * resource key, so this gives a more predictable heap budget than the
+     * number of results alone. When set, results are admitted and removed
+     * by how often their location is requested (TinyLFU), so a burst of
+     * locations which are only requested once does not displace popular
+     * ones. The maximum number of results set with {@link #setSize(int)}
+     * still applies. By default, the cache is only bounded by the number of
+     * results.
+     * @param maxBytes the maximum size in bytes, or 0 for no limit
+     * @return this builder
+     */
+    public GeoResultsCacheBuilder setMaxBytes(long maxBytes) {
+        this.maxBytes = maxBytes;
+        return this;
+    }
+
+    /**
+     * Set the size in bytes of an off-heap store for results. Results are
+     * held outside the Java heap in a compact serialized form, so tens of
+     * millions of results can be held without increasing garbage
+     * collection pauses. The results on the heap, bounded by
+     * {@link #setSize(int)}, then act as a tier of the most recently used
+     * results in front of the off-heap store, and can be much smaller.
+     * When the store is full, the oldest results are evicted. By default,
+     * results are only held on the heap.
+     * @param bytes the size of the off-heap store, or 0 for none
+     * @return this builder
+     */
+    public GeoResultsCacheBuilder setOffHeapBytes(long bytes) {
+        this.offHeapBytes = bytes;
+        return this;
+    }
+
+    /**
+     * Set the level of the cells which results are shared within. Higher
+     * levels have smaller cells, so results are more accurate, but fewer
+     * requests share them. Each level halves the height and width of the
+     * cells. See {@link GeoCell#getCellSize(int)}.
+     * By default, this is {@link #DEFAULT_CELL_LEVEL}.
+     * @param level the cell level, between {@link GeoCell#MIN_LEVEL} and
+     *              {@link GeoCell#MAX_LEVEL}
+     * @return this builder
+     */
+    public GeoResultsCacheBuilder setCellLevel(int level) {
+        this.cellLevel = level;
+        return this;
+    }
+
+    /**
+     * Set whether the size of the cell should be chosen from the accuracy
+     * radius in the '51D_Pos_accuracy' cookie. The largest cells which are
+     * no taller than the accuracy are then used, between the minimum cell
+     * level for inaccurate coordinates and the cell level for accurate ones.
+     * By default, all requests use the cell level.
+     * @param adaptive true if the cell size should follow the accuracy
+     * @return this builder
+     */
+    public GeoResultsCacheBuilder setAccuracyAdaptive(boolean adaptive) {
+        this.accuracyAdaptive = adaptive;
+        return this;
+    }
+
+    /**
+     * Set the coarsest cell level used for inaccurate coordinates when the
+     * cache is accuracy adaptive.
+     * By default, this is {@link #DEFAULT_MIN_CELL_LEVEL}.
+     * @param level the minimum cell level
+     * @return this builder
+     */
+    public GeoResultsCacheBuilder setMinCellLevel(int level) {
+        this.minCellLevel = level;
+        return this;
+    }
+
+    /**
+     * Set the number of cells with no location to remember. Responses from
+     * the cloud service where every location property has no value are
+     * recorded against the coarser negative cell containing the
+     * coordinates. Once enough distinct cells inside the negative cell have
+     * no location (see {@link #setNegativeThreshold(int)}), any later
+     * request in the negative cell gets the same no-value result without
+     * calling the cloud service, until a response with a location is added
+     * for it or it expires. This avoids repeated requests from ships,
+     * aircraft or broken GPS reporting 0,0.
+     * By default, the negative cache is disabled.
+     * @param size the number of cells, or 0 to disable the negative cache
+     * @return this builder
+     */
+    public GeoResultsCacheBuilder setNegativeCacheSize(int size) {
+        this.negativeCacheSize = size;
+        return this;
+    }
+
+    /**
+     * Set the level of the cells which responses with no location are
+     * recorded against. This should be coarser (lower) than the cell
+     * level, as areas with no address such as the sea tend to be large.
+     * By default, this is {@link #DEFAULT_NEGATIVE_CELL_LEVEL}.
+     * @param level the negative cell level
+     * @return this builder
+     */
+    public GeoResultsCacheBuilder setNegativeCellLevel(int level) {
+        this.negativeCellLevel = level;
+        return this;
+    }
+
+    /**
+     * Set the number of distinct cells inside a negative cell which must
+     * have no location before requests for other cells inside it are
+     * answered with no location. A single empty response may be for a
+     * park or a lake next to addressable land, so this should be more
+     * than 1. By default, this is {@link #DEFAULT_NEGATIVE_THRESHOLD}.
+     * @param threshold the number of cells
+     * @return this builder
+     */
+    public GeoResultsCacheBuilder setNegativeThreshold(int threshold) {
+        this.negativeThreshold = threshold;
+        return this;
+    }
+
+    /**
+     * Set the time negative cells are remembered for. This is separate from
+     * the time to live of the results, so a mistaken negative cell does not
+     * last as long as a result. The time to live of the results still
+     * applies if it is shorter. By default, this is
+     * {@link #DEFAULT_NEGATIVE_TIME_TO_LIVE} milliseconds.
+     * @param timeToLive the time to live
+     * @param unit the unit of the time to live
+     * @return this builder
+     */
+    public GeoResultsCacheBuilder setNegativeTimeToLive(
+        long timeToLive,
+        TimeUnit unit) {
+        this.negativeTimeToLive = unit.toMillis(timeToLive);
+        return this;
+    }
+
+    /**
+     * Set the time that results are current for. After this time, a result
+     * is fetched from the cloud service again, either for the next request
+     * or in the background if stale-while-revalidate is enabled.
+     * By default, results do not expire.
+     * @param timeToLive the time to live, or 0 for results never to expire
+     * @param unit the unit of the time to live
+     * @return this builder
+     */
+    public GeoResultsCacheBuilder setTimeToLive(long timeToLive, TimeUnit unit) {
+        this.timeToLive = unit.toMillis(timeToLive);
+        return this;
+    }
+
+    /**
+     * Set whether an expired result is returned immediately while a new
+     * result is fetched in the background, rather than the request waiting
+     * for the cloud service. Only one refresh runs at a time for each
+     * result. By default, this is disabled.
+     * @param enabled true to enable stale-while-revalidate
+     * @return this builder
+     */
+    public GeoResultsCacheBuilder setStaleWhileRevalidate(boolean enabled) {
+        this.staleWhileRevalidate = enabled;
+        return this;
+    }
+
+    /**
+     * Set whether the 8 cells around a cell are resolved in the background
+     * when a request for it misses the cache, so that users moving into an
+     * adjacent cell find a result. Neighbours which are already in the
+     * cache are not resolved again, and those found in the persistent file
+     * or shared cache are read from there rather than requested from the
+     * cloud service. By default, this is disabled.
+     * @param enabled true to prefetch neighbouring cells
+     * @return this builder
+     */
+    public GeoResultsCacheBuilder setPrefetchNeighbours(boolean enabled) {
+        this.prefetchNeighbours = enabled;
+        return this;
+    }
+
+    /**
+     * Set the maximum number of neighbouring cells prefetched each second.
+     * Neighbours beyond this are not prefetched, so prefetching never
+     * takes more than this from the cloud service.
+     * By default, this is {@link #DEFAULT_PREFETCH_BUDGET}.
+     * @param budget the number of prefetches per second
+     * @return this builder
+     */
+    public GeoResultsCacheBuilder setPrefetchBudget(int budget) {
+        this.prefetchBudget = budget;
+        return this;
+    }
+
+    /**
+     * Set the number of devices to remember the last result for. A request
+     * from a device whose coordinates are within the memo distance of the
+     * ones its last result was resolved for is given that result until it
+     * expires, even if it has moved into another cell. Devices are
+     * identified by the evidence set with {@link #setDeviceMemoKey(String)}.
+     * By default, the last result for each device is not remembered.
+     * @param size the number of devices, or 0 to disable the memo
+     * @return this builder
+     */
+    public GeoResultsCacheBuilder setDeviceMemoSize(int size) {
+        this.deviceMemoSize = size;
+        return this;
+    }
+
+    /**
+     * Set the key of the evidence which identifies the device or session
+     * for the device memo, e.g. a session id cookie. Requests without this
+     * evidence do not use the memo.
+     * @param key the evidence key
+     * @return this builder
+     */
+    public GeoResultsCacheBuilder setDeviceMemoKey(String key) {
+        this.deviceMemoKey = key;
+        return this;
+    }
+
+    /**
+     * Set how far in metres a device can move from the coordinates its last
+     * result was resolved for and still be given that result.
+     * By default, this is {@link #DEFAULT_DEVICE_MEMO_DISTANCE}.
+     * @param metres the distance in metres
+     * @return this builder
+     */
+    public GeoResultsCacheBuilder setDeviceMemoDistance(double metres) {
+        this.deviceMemoDistance = metres;
+        return this;
+    }
+
+    /**
+     * Set how long after it expires a result can still be returned while it
+     * is refreshed. After this time, e.g. if refreshes keep failing, the
+     * request waits for the cloud service. By default, this is the same as
+     * the time to live.
+     * @param maxStaleness the maximum staleness
+     * @param unit the unit of the maximum staleness
+     * @return this builder
+     */
+    public GeoResultsCacheBuilder setMaxStaleness(long maxStaleness, TimeUnit unit) {
+        this.maxStaleness = unit.toMillis(maxStaleness);
+        return this;
+    }
+
+    /**
+     * Set a file to persist results in. The file is memory mapped, so
+     * results survive restarts of the process, and several processes on the
+     * same host can share it. Results are written to the file on a
+     * background thread. By default, results are only held in memory.
+     * @param file the file, which is created if it does not exist
+     * @return this builder
+     */
+    public GeoResultsCacheBuilder setPersistentFile(File file) {
+        this.persistentFile = file;
+        return this;
+    }
+
+    /**
+     * Set the number of results the persistent file holds. This is only
+     * used when the file is created. By default, it is the size of the
+     * cache.
+     * @param records the number of results
+     * @return this builder
+     */
+    public GeoResultsCacheBuilder setPersistentRecords(int records) {
+        this.persistentRecords = records;
+        return this;
+    }
+
+    /**
+     * Set the maximum size in bytes of each result in the persistent file.
+     * Responses larger than this are only held in memory. This is only
+     * used when the file is created. By default, this is
+     * {@link MappedResultStore#DEFAULT_RECORD_SIZE}.
+     * @param size the record size in bytes
+     * @return this builder
+     */
+    public GeoResultsCacheBuilder setPersistentRecordSize(int size) {
+        this.persistentRecordSize = size;
+        return this;
+    }
+
+    /**
+     * Set a cache shared with other nodes, which is consulted when a result
+     * is not held locally, and which results from the cloud service are
+     * added to on a background thread. When neighbouring cells are
+     * prefetched, they are read from the shared cache in one call to
+     * {@link SharedGeoCache#getAllAsync(long[])} before any are requested
+     * from the cloud service. The shared cache is not closed when the
+     * results cache is closed, as other caches may be using it. By default,
+     * there is no shared cache.
+     * @param cache the shared cache, or null for none
+     * @return this builder
+     */
+    public GeoResultsCacheBuilder setSharedCache(SharedGeoCache cache) {
+        this.sharedCache = cache;
+        return this;
+    }
+
+    /**
+     * Set the signer used to verify the location tokens sent by clients. A
+     * request with a valid token whose coordinates are in the token's cell
+     * is answered from the token without using the cache or the cloud
+     * service. Tokens are issued with
+     * {@link LocationTokenSigner#issue(fiftyone.pipeline.core.data.FlowData, String)}
+     * once a request has been processed. By default, tokens are not used.
+     * @param signer the signer, or null to ignore tokens
+     * @return this builder
+     */
+    public GeoResultsCacheBuilder setLocationTokenSigner(LocationTokenSigner signer) {
+        this.locationTokenSigner = signer;
+        return this;
+    }
+
+    /**
+     * Set the number of IP network prefixes to cache results for. Requests
+     * without coordinates are located by the cloud service from their
+     * client IP address, so their results are shared between all the
+     * addresses in the same network prefix. By default, requests without
+     * coordinates are not cached.
+     * @param size the number of prefixes, or 0 to disable the IP prefix
+     *             cache
+     * @return this builder
+     */
+    public GeoResultsCacheBuilder setIpPrefixCacheSize(int size) {
+        this.ipPrefixCacheSize = size;
+        return this;
+    }
+
+    /**
+     * Set the length of the network prefix IPv4 addresses share results
+     * within. By default, this is {@link #DEFAULT_IPV4_PREFIX_LENGTH}.
+     * @param length the prefix length, between 0 and 32
+     * @return this builder
+     */
+    public GeoResultsCacheBuilder setIpv4PrefixLength(int length) {
+        this.ipv4PrefixLength = length;
+        return this;
+    }
+
+    /**
+     * Set the length of the network prefix IPv6 addresses share results
+     * within. By default, this is {@link #DEFAULT_IPV6_PREFIX_LENGTH}.
+     * @param length the prefix length, between 0 and 128
+     * @return this builder
+     */
+    public GeoResultsCacheBuilder setIpv6PrefixLength(int length) {
+        this.ipv6PrefixLength = length;
+        return this;
+    }
+
+    /**
+     * Build a new cache.
+     * @return new cache
+     * @throws IOException if the persistent file could not be opened
+     */
+    public GeoResultsCache build() throws IOException {
+        checkLevel(cellLevel);
+        checkLevel(minCellLevel);
+        checkLevel(negativeCellLevel);
+        if (deviceMemoSize > 0 &&
+            (deviceMemoKey == null || deviceMemoKey.isEmpty())) {
+            throw new IllegalArgumentException(
+                "The device memo key must be set to use the device memo.");
+        }
+        if (deviceMemoDistance < 0) {
+            throw new IllegalArgumentException(
+                "The device memo distance must not be negative.");
+        }
+        if (prefetchNeighbours && prefetchBudget <= 0) {
+            throw new IllegalArgumentException(
+                "The prefetch budget must be greater than 0.");
+        }
+        if (ipv4PrefixLength < 0 || ipv4PrefixLength > 32) {
+            throw new IllegalArgumentException(
+                "The IPv4 prefix length must be between 0 and 32.");
+        }
+        if (ipv6PrefixLength < 0 || ipv6PrefixLength > 128) {
+            throw new IllegalArgumentException(
+                "The IPv6 prefix length must be between 0 and 128.");
+        }
+        if (negativeThreshold <= 0) {
+            throw new IllegalArgumentException(
+                "The negative threshold must be greater than 0.");
+        }
+        if (negativeTimeToLive <= 0) {
+            throw new IllegalArgumentException(
+                "The negative time to live must be greater than 0.");
+        }
+        if (timeToLive < 0) {
+            throw new IllegalArgumentException(
+                "The time to live must not be negative.");
+        }
+        return new GeoResultsCache(this);
+    }
+
+    private static void checkLevel(int level) {
+        if (level < GeoCell.MIN_LEVEL || level > GeoCell.MAX_LEVEL) {
+            throw new IllegalArgumentException(
+                "Cell level must be between " + GeoCell.MIN_LEVEL + " and " +
+                    GeoCell.MAX_LEVEL);
+        }
+    }
+}
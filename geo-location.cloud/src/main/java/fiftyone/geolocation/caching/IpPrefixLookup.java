@@ -0,0 +1,184 @@
+/* *********************************************************************
+ * This Original Work is copyright of 51 Degrees Mobile Experts Limited.
+ * Copyright 2023 51 Degrees Mobile Experts Limited, Davidson House,
+ * Forbury Square, Reading, Berkshire, United Kingdom RG1 3EU.
+ *
+ * This Original Work is licensed under the European Union Public Licence
+ * (EUPL) v.1.2 and is subject to its terms as set out below.
+ *
+ * If a copy of the EUPL was not distributed with this file, You can obtain
+ * one at https://opensource.org/licenses/EUPL-1.2.
+ *
+ * The 'Compatible Licences' set out in the Appendix to the EUPL (as may be
+ * amended by the European Commission) shall be deemed incompatible for
+ * the purposes of the Work and the provisions of the compatibility
+ * clause in Article 5 of the EUPL shall not apply.
+ *
+ * If using the Work as, or as part of, a network application, by
+ * including the attribution notice(s) required under Article 5 of the EUPL
+ * in the end user terms of the application under an appropriate heading,
+ * such notice(s) shall fulfill the requirements of that article.
+ * ********************************************************************* */
+
+package fiftyone.geolocation.caching;
+
+import java.util.Map;
+
+import static fiftyone.pipeline.core.Constants.EVIDENCE_CLIENTIP_KEY;
+
+/**
+ * Results for requests without coordinates, which the cloud service
+ * locates by their client IP address, keyed on the network prefix of the
+ * address (e.g. a /24 for IPv4 and a /48 for IPv6) in an
+ * {@link IpPrefixTrie}. Requests from the same residential or mobile
+ * carrier block then share one result.
+ *
+ * Each prefix holds results for a few different hashes of the other
+ * evidence, so results which depend on other evidence (e.g. a user-agent
+ * for device detection) are only shared between requests with the same
+ * values. When a prefix is full, the oldest result is replaced.
+ * @param <V> the type of the results
+ */
+public class IpPrefixLookup<V> {
+
+    /**
+     * The number of results with different other evidence held for each
+     * IP prefix.
+     */
+    private static final int RESULTS_PER_PREFIX = 4;
+
+    /**
+     * The results held for an IP prefix, keyed on the hash of the other
+     * evidence. Instances are never modified once they are in the trie.
+     */
+    private static class PrefixResults {
+        final long[] hashes;
+        final Object[] results;
+
+        PrefixResults(long[] hashes, Object[] results) {
+            this.hashes = hashes;
+            this.results = results;
+        }
+
+        Object get(long hash) {
+            for (int i = 0; i < hashes.length; i++) {
+                if (hashes[i] == hash) {
+                    return results[i];
+                }
+            }
+            return null;
+        }
+
+        /**
+         * Get a copy with the result added, replacing any result with the
+         * same hash, or the oldest result if there are already the maximum
+         * number.
+         */
+        PrefixResults with(long hash, Object result) {
+            int length = hashes.length;
+            int index = length;
+            for (int i = 0; i < length; i++) {
+                if (hashes[i] == hash) {
+                    index = i;
+                }
+            }
+            long[] newHashes;
+            Object[] newResults;
+            if (index < length) {
+                newHashes = hashes.clone();
+                newResults = results.clone();
+            }
+            else {
+                int start = length < RESULTS_PER_PREFIX ? 0 : 1;
+                newHashes = new long[length - start + 1];
+                newResults = new Object[length - start + 1];
+                System.arraycopy(hashes, start, newHashes, 0, length - start);
+                System.arraycopy(results, start, newResults, 0, length - start);
+                index = newHashes.length - 1;
+            }
+            newHashes[index] = hash;
+            newResults[index] = result;
+            return new PrefixResults(newHashes, newResults);
+        }
+    }
+
+    private final IpPrefixTrie<PrefixResults> prefixes;
+    private final int ipv4PrefixLength;
+    private final int ipv6PrefixLength;
+
+    /**
+     * @param capacity the maximum number of prefixes to hold
+     * @param ipv4PrefixLength the length of the prefix of IPv4 addresses
+     * @param ipv6PrefixLength the length of the prefix of IPv6 addresses
+     */
+    public IpPrefixLookup(
+        int capacity,
+        int ipv4PrefixLength,
+        int ipv6PrefixLength) {
+        this.prefixes = new IpPrefixTrie<>(capacity);
+        this.ipv4PrefixLength = ipv4PrefixLength;
+        this.ipv6PrefixLength = ipv6PrefixLength;
+    }
+
+    /**
+     * Get the client IP address from the evidence.
+     * @param evidence the evidence from the request
+     * @return the address returned by {@link IpPrefixTrie#parseAddress},
+     * or null if there is no valid address
+     */
+    public static long[] getAddress(Map<String, Object> evidence) {
+        Object ip = evidence.get(EVIDENCE_CLIENTIP_KEY);
+        return ip == null ? null : IpPrefixTrie.parseAddress(ip.toString());
+    }
+
+    /**
+     * Get the result for the network prefix of the address.
+     * @param address the address returned by {@link #getAddress(Map)}
+     * @param hash the hash of the other evidence in the request
+     * @return the result, or null if there is none
+     */
+    @SuppressWarnings("unchecked")
+    public V get(long[] address, long hash) {
+        PrefixResults prefix = prefixes.get(
+            address[0],
+            address[1],
+            getPrefixLength(address));
+        return prefix == null ? null : (V)prefix.get(hash);
+    }
+
+    /**
+     * Add a result for the network prefix of the address. The results for
+     * the prefix are replaced while the trie is locked, so a result added
+     * concurrently for other evidence is not lost.
+     * @param address the address returned by {@link #getAddress(Map)}
+     * @param hash the hash of the other evidence in the request
+     * @param result the result
+     */
+    public void put(long[] address, long hash, V result) {
+        prefixes.compute(
+            address[0],
+            address[1],
+            getPrefixLength(address),
+            prefix -> prefix == null ?
+                new PrefixResults(new long[] { hash }, new Object[] { result }) :
+                prefix.with(hash, result));
+    }
+
+    /**
+     * @return the trie the results are held in
+     */
+    public IpPrefixTrie<?> getTrie() {
+        return prefixes;
+    }
+
+    public void clear() {
+        prefixes.clear();
+    }
+
+    private int getPrefixLength(long[] address) {
+        return IpPrefixTrie.getPrefixLength(
+            address,
+            ipv4PrefixLength,
+            ipv6PrefixLength);
+    }
+}
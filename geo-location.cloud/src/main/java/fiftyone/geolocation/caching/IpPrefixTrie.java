@@ -0,0 +1,504 @@
+/* *********************************************************************
+ * This Original Work is copyright of 51 Degrees Mobile Experts Limited.
+ * Copyright 2023 51 Degrees Mobile Experts Limited, Davidson House,
+ * Forbury Square, Reading, Berkshire, United Kingdom RG1 3EU.
+ *
+ * This Original Work is licensed under the European Union Public Licence
+ * (EUPL) v.1.2 and is subject to its terms as set out below.
+ *
+ * If a copy of the EUPL was not distributed with this file, You can obtain
+ * one at https://opensource.org/licenses/EUPL-1.2.
+ *
+ * The 'Compatible Licences' set out in the Appendix to the EUPL (as may be
+ * amended by the European Commission) shall be deemed incompatible for
+ * the purposes of the Work and the provisions of the compatibility
+ * clause in Article 5 of the EUPL shall not apply.
+ *
+ * If using the Work as, or as part of, a network application, by
+ * including the attribution notice(s) required under Article 5 of the EUPL
+ * in the end user terms of the application under an appropriate heading,
+ * such notice(s) shall fulfill the requirements of that article.
+ * ********************************************************************* */
+
+package fiftyone.geolocation.caching;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.UnaryOperator;
+
+/**
+ * Bounded map from IP network prefixes to values, held in a path
+ * compressed binary trie (PATRICIA trie) keyed on the numeric address.
+ * Addresses are 128 bits, with IPv4 addresses mapped into the IPv6 space
+ * (::ffff:a.b.c.d), so both families share one trie. Each node holds the
+ * bits of its prefix, so chains of nodes with a single child are never
+ * created, and the depth of the trie is bounded by the number of prefixes
+ * rather than by the length of the addresses.
+ *
+ * When the trie is full, a prefix is chosen by a random walk from the root
+ * and removed.
+ *
+ * @param <V> type of the values
+ */
+public class IpPrefixTrie<V> {
+
+    /**
+     * The length in bits of the prefix which maps IPv4 addresses into the
+     * IPv6 space.
+     */
+    private static final int IPV4_MAPPED_PREFIX = 96;
+
+    private static class Node<V> {
+        final long hi;
+        final long lo;
+        final int length;
+        Node<V> left = null;
+        Node<V> right = null;
+        V value = null;
+
+        Node(long hi, long lo, int length) {
+            this.hi = hi;
+            this.lo = lo;
+            this.length = length;
+        }
+    }
+
+    private final StampedLock lock = new StampedLock();
+    private final int capacity;
+    private Node<V> root = new Node<>(0, 0, 0);
+    private int size = 0;
+
+    /**
+     * Construct a new trie.
+     * @param capacity the maximum number of prefixes held
+     */
+    public IpPrefixTrie(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException(
+                "The capacity of the trie must be greater than zero.");
+        }
+        this.capacity = capacity;
+    }
+
+    /**
+     * Parse a textual IPv4 or IPv6 address. Host names are not resolved.
+     * @param text the address
+     * @return the 128 bit address as the high and low 64 bits, with IPv4
+     * addresses mapped into the IPv6 space, followed by 32 for IPv4 or 128
+     * for IPv6. Null if the text is not an address
+     */
+    public static long[] parseAddress(String text) {
+        if (text == null) {
+            return null;
+        }
+        String address = text.trim();
+        int zone = address.indexOf('%');
+        if (zone >= 0) {
+            address = address.substring(0, zone);
+        }
+        if (address.indexOf(':') < 0) {
+            long ipv4 = parseIpv4(address);
+            return ipv4 < 0 ? null : new long[] { 0, 0xffff00000000L | ipv4, 32 };
+        }
+        long[] ipv6 = parseIpv6(address);
+        if (ipv6 != null && ipv6[0] == 0 && (ipv6[1] >>> 32) == 0xffffL) {
+            // An IPv4 mapped address, so use the IPv4 prefix length.
+            ipv6[2] = 32;
+        }
+        return ipv6;
+    }
+
+    /**
+     * Get the length in bits of the 128 bit prefix for a network prefix of
+     * an address.
+     * @param address the address returned by {@link #parseAddress(String)}
+     * @param ipv4Length the prefix length to use for IPv4 addresses
+     * @param ipv6Length the prefix length to use for IPv6 addresses
+     * @return the length of the prefix in the 128 bit address space
+     */
+    public static int getPrefixLength(
+        long[] address,
+        int ipv4Length,
+        int ipv6Length) {
+        return address[2] == 32 ?
+            IPV4_MAPPED_PREFIX + ipv4Length :
+            ipv6Length;
+    }
+
+    /**
+     * Get the value for the prefix of the address.
+     * @param hi the high 64 bits of the address
+     * @param lo the low 64 bits of the address
+     * @param length the length of the prefix in bits
+     * @return the value, or null if the prefix is not in the trie
+     */
+    public V get(long hi, long lo, int length) {
+        long mhi = maskHi(hi, length);
+        long mlo = maskLo(lo, length);
+        long stamp = lock.readLock();
+        try {
+            return find(mhi, mlo, length);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Add or replace the value for the prefix of the address.
+     * @param hi the high 64 bits of the address
+     * @param lo the low 64 bits of the address
+     * @param length the length of the prefix in bits
+     * @param value the value
+     */
+    public void put(long hi, long lo, int length, V value) {
+        long mhi = maskHi(hi, length);
+        long mlo = maskLo(lo, length);
+        long stamp = lock.writeLock();
+        try {
+            if (insert(mhi, mlo, length, value) && ++size > capacity) {
+                evict();
+            }
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Replace the value for the prefix of the address with one computed
+     * from the current value. The trie is locked for writing while the new
+     * value is computed, so concurrent calls for the same prefix each see
+     * the value computed by the one before.
+     * @param hi the high 64 bits of the address
+     * @param lo the low 64 bits of the address
+     * @param length the length of the prefix in bits
+     * @param function computes the new value from the current value, which
+     *                 is null if the prefix is not in the trie. Must not
+     *                 return null, and should be quick as it blocks all
+     *                 other access to the trie
+     * @return the new value
+     */
+    public V compute(long hi, long lo, int length, UnaryOperator<V> function) {
+        long mhi = maskHi(hi, length);
+        long mlo = maskLo(lo, length);
+        long stamp = lock.writeLock();
+        try {
+            V value = function.apply(find(mhi, mlo, length));
+            if (insert(mhi, mlo, length, value) && ++size > capacity) {
+                evict();
+            }
+            return value;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Remove all the prefixes.
+     */
+    public void clear() {
+        long stamp = lock.writeLock();
+        try {
+            root = new Node<>(0, 0, 0);
+            size = 0;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * @return the number of prefixes held
+     */
+    public int size() {
+        long stamp = lock.readLock();
+        try {
+            return size;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * @return the maximum number of prefixes held
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Find the value for a masked prefix. Must only be called while the
+     * trie is locked.
+     */
+    private V find(long hi, long lo, int length) {
+        Node<V> node = root;
+        while (node != null) {
+            if (node.length > length ||
+                commonLength(node.hi, node.lo, hi, lo, node.length) < node.length) {
+                return null;
+            }
+            if (node.length == length) {
+                return node.value;
+            }
+            node = bit(hi, lo, node.length) == 0 ? node.left : node.right;
+        }
+        return null;
+    }
+
+    /**
+     * Insert the value.
+     * @return true if a new prefix was added, false if an existing one was
+     * replaced
+     */
+    private boolean insert(long hi, long lo, int length, V value) {
+        Node<V> parent = null;
+        Node<V> node = root;
+        while (true) {
+            int limit = Math.min(node.length, length);
+            int common = commonLength(node.hi, node.lo, hi, lo, limit);
+            if (common < node.length) {
+                // The new prefix diverges from the node, or is a prefix of
+                // it, so split the edge at the common length.
+                Node<V> split = new Node<>(
+                    maskHi(hi, common),
+                    maskLo(lo, common),
+                    common);
+                setChild(split, node);
+                if (common == length) {
+                    split.value = value;
+                }
+                else {
+                    Node<V> leaf = new Node<>(hi, lo, length);
+                    leaf.value = value;
+                    setChild(split, leaf);
+                }
+                replaceChild(parent, node, split);
+                return true;
+            }
+            if (node.length == length) {
+                boolean added = node.value == null;
+                node.value = value;
+                return added;
+            }
+            Node<V> next = bit(hi, lo, node.length) == 0 ? node.left : node.right;
+            if (next == null) {
+                Node<V> leaf = new Node<>(hi, lo, length);
+                leaf.value = value;
+                setChild(node, leaf);
+                return true;
+            }
+            parent = node;
+            node = next;
+        }
+    }
+
+    /**
+     * Remove a prefix chosen by a random walk from the root, and merge any
+     * node left with a single child and no value into its child.
+     */
+    private void evict() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        Node<V> grandparent = null;
+        Node<V> parent = null;
+        Node<V> node = root;
+        while (node.left != null || node.right != null) {
+            Node<V> next;
+            if (node.left == null) {
+                next = node.right;
+            }
+            else if (node.right == null) {
+                next = node.left;
+            }
+            else {
+                next = random.nextBoolean() ? node.left : node.right;
+            }
+            grandparent = parent;
+            parent = node;
+            node = next;
+        }
+        if (node.value == null || parent == null) {
+            return;
+        }
+        node.value = null;
+        size--;
+        if (parent.left == node) {
+            parent.left = null;
+        }
+        else {
+            parent.right = null;
+        }
+        if (parent != root && parent.value == null) {
+            Node<V> remaining = parent.left != null ? parent.left : parent.right;
+            replaceChild(grandparent, parent, remaining);
+        }
+    }
+
+    private void setChild(Node<V> parent, Node<V> child) {
+        if (bit(child.hi, child.lo, parent.length) == 0) {
+            parent.left = child;
+        }
+        else {
+            parent.right = child;
+        }
+    }
+
+    private void replaceChild(Node<V> parent, Node<V> child, Node<V> replacement) {
+        if (parent == null) {
+            root = replacement;
+        }
+        else if (parent.left == child) {
+            parent.left = replacement;
+        }
+        else {
+            parent.right = replacement;
+        }
+    }
+
+    private static int bit(long hi, long lo, int index) {
+        return index < 64 ?
+            (int)(hi >>> (63 - index)) & 1 :
+            (int)(lo >>> (127 - index)) & 1;
+    }
+
+    private static int commonLength(
+        long hi1,
+        long lo1,
+        long hi2,
+        long lo2,
+        int limit) {
+        long x = hi1 ^ hi2;
+        int common = x != 0 ?
+            Long.numberOfLeadingZeros(x) :
+            64 + Long.numberOfLeadingZeros(lo1 ^ lo2);
+        return Math.min(common, limit);
+    }
+
+    private static long maskHi(long hi, int length) {
+        return length >= 64 ? hi : length == 0 ? 0 : hi & (-1L << (64 - length));
+    }
+
+    private static long maskLo(long lo, int length) {
+        return length >= 128 ? lo : length <= 64 ? 0 : lo & (-1L << (128 - length));
+    }
+
+    private static long parseIpv4(String text) {
+        long result = 0;
+        int parts = 0;
+        int value = -1;
+        for (int i = 0; i <= text.length(); i++) {
+            char c = i < text.length() ? text.charAt(i) : '.';
+            if (c >= '0' && c <= '9') {
+                value = (value < 0 ? 0 : value * 10) + (c - '0');
+                if (value > 255) {
+                    return -1;
+                }
+            }
+            else if (c == '.' && value >= 0 && parts < 4) {
+                result = (result << 8) | value;
+                parts++;
+                value = -1;
+            }
+            else {
+                return -1;
+            }
+        }
+        return parts == 4 ? result : -1;
+    }
+
+    private static long[] parseIpv6(String text) {
+        int[] groups = new int[8];
+        int count = 0;
+        int gap = -1;
+        int start = 0;
+        if (text.startsWith("::")) {
+            gap = 0;
+            start = 2;
+        }
+        int i = start;
+        while (i < text.length()) {
+            int end = text.indexOf(':', i);
+            if (end < 0) {
+                end = text.length();
+            }
+            String group = text.substring(i, end);
+            if (group.indexOf('.') >= 0 && end == text.length()) {
+                long ipv4 = parseIpv4(group);
+                if (ipv4 < 0 || count > 6) {
+                    return null;
+                }
+                groups[count++] = (int)(ipv4 >>> 16);
+                groups[count++] = (int)(ipv4 & 0xffff);
+            }
+            else {
+                if (group.isEmpty() || group.length() > 4 || count >= 8) {
+                    return null;
+                }
+                int value = parseHex(group);
+                if (value < 0) {
+                    return null;
+                }
+                groups[count++] = value;
+            }
+            i = end + 1;
+            if (end + 1 < text.length() && text.charAt(end + 1) == ':') {
+                if (gap >= 0) {
+                    return null;
+                }
+                gap = count;
+                i = end + 2;
+            }
+            else if (end == text.length() - 1) {
+                // A single trailing colon.
+                return null;
+            }
+        }
+        if (gap >= 0) {
+            if (count > 7) {
+                return null;
+            }
+            int shift = 8 - count;
+            for (int g = count - 1; g >= gap; g--) {
+                groups[g + shift] = groups[g];
+            }
+            for (int g = gap; g < gap + shift; g++) {
+                groups[g] = 0;
+            }
+        }
+        else if (count != 8) {
+            return null;
+        }
+        long hi = 0;
+        long lo = 0;
+        for (int g = 0; g < 4; g++) {
+            hi = (hi << 16) | groups[g];
+            lo = (lo << 16) | groups[g + 4];
+        }
+        return new long[] { hi, lo, 128 };
+    }
+
+    /**
+     * Parse a group of an IPv6 address. Only the ASCII hex digits are
+     * accepted, as Integer.parseInt would also accept a sign and non ASCII
+     * digits.
+     * @return the value, or -1 if the group is not all hex digits
+     */
+    private static int parseHex(String group) {
+        int value = 0;
+        for (int i = 0; i < group.length(); i++) {
+            char c = group.charAt(i);
+            int digit;
+            if (c >= '0' && c <= '9') {
+                digit = c - '0';
+            }
+            else if (c >= 'a' && c <= 'f') {
+                digit = c - 'a' + 10;
+            }
+            else if (c >= 'A' && c <= 'F') {
+                digit = c - 'A' + 10;
+            }
+            else {
+                return -1;
+            }
+            value = (value << 4) | digit;
+        }
+        return value;
+    }
+}
@@ -0,0 +1,279 @@
+/* *********************************************************************
+ * This Original Work is copyright of 51 Degrees Mobile Experts Limited.
+ * Copyright 2023 51 Degrees Mobile Experts Limited, Davidson House,
+ * Forbury Square, Reading, Berkshire, United Kingdom RG1 3EU.
+ *
+ * This Original Work is licensed under the European Union Public Licence
+ * (EUPL) v.1.2 and is subject to its terms as set out below.
+ *
+ * If a copy of the EUPL was not distributed with this file, You can obtain
+ * one at https://opensource.org/licenses/EUPL-1.2.
+ *
+ * The 'Compatible Licences' set out in the Appendix to the EUPL (as may be
+ * amended by the European Commission) shall be deemed incompatible for
+ * the purposes of the Work and the provisions of the compatibility
+ * clause in Article 5 of the EUPL shall not apply.
+ *
+ * If using the Work as, or as part of, a network application, by
+ * including the attribution notice(s) required under Article 5 of the EUPL
+ * in the end user terms of the application under an appropriate heading,
+ * such notice(s) shall fulfill the requirements of that article.
+ * ********************************************************************* */
+
+package fiftyone.geolocation.caching;
+
+import fiftyone.geolocation.core.data.Coordinates;
+import fiftyone.pipeline.cloudrequestengine.flowelements.CloudRequestEngine;
+import fiftyone.pipeline.core.data.AccessiblePropertyMetaData;
+import fiftyone.pipeline.core.data.ElementPropertyMetaData;
+import fiftyone.pipeline.core.flowelements.FlowElement;
+import fiftyone.pipeline.core.flowelements.Pipeline;
+import org.json.JSONObject;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Answers requests from the location token in their evidence, without
+ * looking in the cache or calling the cloud service. This lets a visitor's
+ * requests be answered by any node.
+ *
+ * A request is answered if its token is valid, its coordinates (if it has
+ * any) are in the token's cell, and the engines in the pipeline need nothing
+ * from the cloud service but the country code, region and town of the
+ * element the token was issued for. The response only holds that element,
+ * and any other properties of it are given a no value reason saying the
+ * result came from a location token.
+ */
+public class LocationTokenLookup {
+
+    /**
+     * The properties held by a location token, which are the only ones it
+     * can answer.
+     */
+    private static final Set<String> TOKEN_PROPERTIES = newNameSet(
+        "countrycode",
+        "region",
+        "town");
+
+    /**
+     * The no value reason for the properties of an element answered from a
+     * location token which the token does not hold.
+     */
+    private static final String TOKEN_PARTIAL_REASON =
+        "This result was answered from a location token, which only holds " +
+        "the country code, region and town.";
+
+    /**
+     * Whether location tokens for an element can answer requests, and the
+     * no value reasons for the properties of the element they do not hold.
+     */
+    private static class TokenElement {
+        final boolean answerable;
+        final String partial;
+
+        TokenElement(boolean answerable, String partial) {
+            this.answerable = answerable;
+            this.partial = partial;
+        }
+    }
+
+    private final LocationTokenSigner signer;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder rejects = new LongAdder();
+    private final LongAdder skips = new LongAdder();
+    private final ConcurrentMap<String, TokenElement> elements =
+        new ConcurrentHashMap<>();
+
+    /**
+     * @param signer the signer to verify location tokens with
+     */
+    public LocationTokenLookup(LocationTokenSigner signer) {
+        this.signer = signer;
+    }
+
+    /**
+     * Get the cloud response for the location token in the evidence, if it
+     * is valid, the coordinates are in its cell, and it can answer the
+     * request.
+     * @param evidence the evidence from the request
+     * @param coordinates the coordinates from the request, or null if there
+     *                    are none
+     * @param pipeline the pipeline the request is being processed by
+     * @param requestEngine the cloud request engine the response is for
+     * @return the JSON response, or null if the request can not be answered
+     * from a location token
+     */
+    public String getResponse(
+        Map<String, Object> evidence,
+        Coordinates coordinates,
+        Pipeline pipeline,
+        FlowElement<?, ?> requestEngine) {
+        Object value = evidence.get(signer.getEvidenceKey());
+        if (value == null) {
+            return null;
+        }
+        LocationTokenSigner.LocationToken token =
+            signer.verify(value.toString());
+        if (token == null) {
+            rejects.increment();
+            return null;
+        }
+        if (coordinates != null && token.contains(coordinates) == false) {
+            return null;
+        }
+        TokenElement element = getElement(
+            pipeline,
+            requestEngine,
+            token.getElementDataKey());
+        if (element == null || element.answerable == false) {
+            skips.increment();
+            return null;
+        }
+        hits.increment();
+        return getResponse(token, element);
+    }
+
+    /**
+     * @return the signer location tokens are verified with
+     */
+    public LocationTokenSigner getSigner() {
+        return signer;
+    }
+
+    /**
+     * @return the number of requests answered from their location token
+     */
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * @return the number of valid location tokens which were not used, as
+     * the pipeline needs properties they do not hold
+     */
+    public long getSkips() {
+        return skips.sum();
+    }
+
+    /**
+     * @return the number of location tokens which were malformed, expired,
+     * or had an invalid signature
+     */
+    public long getRejects() {
+        return rejects.sum();
+    }
+
+    /**
+     * Get a cloud response holding the properties in the location token
+     * for the element it was issued for.
+     */
+    private static String getResponse(
+        LocationTokenSigner.LocationToken token,
+        TokenElement element) {
+        StringBuilder json = new StringBuilder(128 + element.partial.length())
+            .append('{')
+            .append(JSONObject.quote(token.getElementDataKey()))
+            .append(":{");
+        appendProperty(json, "countrycode", token.getCountryCode()).append(',');
+        appendProperty(json, "region", token.getRegion()).append(',');
+        appendProperty(json, "town", token.getTown());
+        return json.append(element.partial).append("}}").toString();
+    }
+
+    /**
+     * Get whether location tokens for the element can answer requests to
+     * the pipeline. They can if the engines in the pipeline only need the
+     * properties held by the token from that element of the cloud response,
+     * and nothing from any other element. The result is remembered, as the
+     * properties do not change once the pipeline is built.
+     * @param pipeline the pipeline the request is being processed by
+     * @param requestEngine the cloud request engine the response is for
+     * @param elementDataKey the key of the element the token was issued for
+     * @return the element, or null if the pipeline or the cloud request
+     * engine's properties are not available
+     */
+    private TokenElement getElement(
+        Pipeline pipeline,
+        FlowElement<?, ?> requestEngine,
+        String elementDataKey) {
+        TokenElement element = elements.get(elementDataKey);
+        if (element == null && pipeline != null) {
+            element = newElement(pipeline, requestEngine, elementDataKey);
+            if (element != null) {
+                elements.put(elementDataKey, element);
+            }
+        }
+        return element;
+    }
+
+    private static TokenElement newElement(
+        Pipeline pipeline,
+        FlowElement<?, ?> requestEngine,
+        String elementDataKey) {
+        if (requestEngine instanceof CloudRequestEngine == false) {
+            return null;
+        }
+        Map<String, AccessiblePropertyMetaData.ProductMetaData> products =
+            ((CloudRequestEngine)requestEngine).getPublicProperties();
+        Map<String, Map<String, ElementPropertyMetaData>> available =
+            pipeline.getElementAvailableProperties();
+        if (products == null || available == null) {
+            return null;
+        }
+        if (products.containsKey(elementDataKey) == false ||
+            available.containsKey(elementDataKey) == false) {
+            return new TokenElement(false, null);
+        }
+        for (String product : products.keySet()) {
+            Map<String, ElementPropertyMetaData> properties =
+                available.get(product);
+            if (properties == null || properties.isEmpty()) {
+                // No engine in the pipeline reads this element.
+                continue;
+            }
+            if (product.equals(elementDataKey) == false ||
+                TOKEN_PROPERTIES.containsAll(properties.keySet()) == false) {
+                return new TokenElement(false, null);
+            }
+        }
+        StringBuilder partial = new StringBuilder();
+        for (AccessiblePropertyMetaData.PropertyMetaData property :
+            products.get(elementDataKey).properties) {
+            if (TOKEN_PROPERTIES.contains(property.name) == false) {
+                String name = property.name.toLowerCase();
+                partial.append(',')
+                    .append(JSONObject.quote(name))
+                    .append(":null,")
+                    .append(JSONObject.quote(name + "nullreason"))
+                    .append(':')
+                    .append(JSONObject.quote(TOKEN_PARTIAL_REASON));
+            }
+        }
+        return new TokenElement(true, partial.toString());
+    }
+
+    private static Set<String> newNameSet(String... names) {
+        Set<String> set = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
+        set.addAll(Arrays.asList(names));
+        return Collections.unmodifiableSet(set);
+    }
+
+    private static StringBuilder appendProperty(
+        StringBuilder json,
+        String name,
+        String value) {
+        json.append('"').append(name).append("\":");
+        if (value.isEmpty()) {
+            return json.append("null,\"").append(name).append("nullreason\":")
+                .append("\"The location token has no value for this property.\"");
+        }
+        return json.append(JSONObject.quote(value));
+    }
+}
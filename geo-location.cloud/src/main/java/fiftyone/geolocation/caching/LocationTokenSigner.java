@@ -0,0 +1,438 @@
+/* *********************************************************************
+ * This Original Work is copyright of 51 Degrees Mobile Experts Limited.
+ * Copyright 2023 51 Degrees Mobile Experts Limited, Davidson House,
+ * Forbury Square, Reading, Berkshire, United Kingdom RG1 3EU.
+ *
+ * This Original Work is licensed under the European Union Public Licence
+ * (EUPL) v.1.2 and is subject to its terms as set out below.
+ *
+ * If a copy of the EUPL was not distributed with this file, You can obtain
+ * one at https://opensource.org/licenses/EUPL-1.2.
+ *
+ * The 'Compatible Licences' set out in the Appendix to the EUPL (as may be
+ * amended by the European Commission) shall be deemed incompatible for
+ * the purposes of the Work and the provisions of the compatibility
+ * clause in Article 5 of the EUPL shall not apply.
+ *
+ * If using the Work as, or as part of, a network application, by
+ * including the attribution notice(s) required under Article 5 of the EUPL
+ * in the end user terms of the application under an appropriate heading,
+ * such notice(s) shall fulfill the requirements of that article.
+ * ********************************************************************* */
+
+
+package fiftyone.geolocation.caching;
+
+import fiftyone.geolocation.core.GeoEngineHelper;
+import fiftyone.geolocation.core.data.Coordinates;
+import fiftyone.geolocation.core.data.GeoData;
+import fiftyone.geolocation.core.spatial.GeoCell;
+import fiftyone.pipeline.core.data.ElementData;
+import fiftyone.pipeline.core.data.FlowData;
+import fiftyone.pipeline.engines.data.AspectPropertyValue;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Issues and verifies location tokens. A token is a compact, HMAC-SHA256
+ * signed encoding of the cell a request was located in, the element data
+ * key of the engine which located it, e.g. 'location', and the country
+ * code, region and town it resolved to. The token is given to the client
+ * in a cookie, and returned by it with later requests to any node. If the
+ * token is valid and the request's coordinates are in the same cell,
+ * {@link GeoResultsCache} can answer the request from the token for the
+ * same engine, without looking in the cache or calling the cloud service,
+ * so the visitor's requests need no shared state between nodes.
+ *
+ * The token is the URL safe base64 encoding, without padding, of:
+ * <pre>
+ * version   1 byte
+ * cell      8 bytes, see {@link GeoCell}
+ * expires   4 bytes, seconds since the epoch
+ * element   1 byte length, then UTF-8 bytes
+ * country   1 byte length, then UTF-8 bytes
+ * region    1 byte length, then UTF-8 bytes
+ * town      1 byte length, then UTF-8 bytes
+ * signature the first 16 bytes of the HMAC-SHA256 of all the above
+ * </pre>
+ *
+ * Every node must be given the same key. This class is thread-safe.
+ */
+public class LocationTokenSigner {
+
+    /**
+     * The default name of the cookie the token is held in.
+     */
+    public static final String DEFAULT_COOKIE_NAME = "51D_GeoToken";
+
+    /**
+     * The default level of the cell the token is valid for, where cells
+     * are around 300m high.
+     */
+    public static final int DEFAULT_CELL_LEVEL = 16;
+
+    /**
+     * The default time a token is valid for, in milliseconds.
+     */
+    public static final long DEFAULT_TIME_TO_LIVE = TimeUnit.HOURS.toMillis(24);
+
+    private static final String ALGORITHM = "HmacSHA256";
+    private static final byte VERSION = 2;
+    private static final int SIGNATURE_LENGTH = 16;
+    private static final int MAX_STRING_LENGTH = 255;
+
+    /**
+     * The smallest token, with empty strings.
+     */
+    private static final int MIN_LENGTH = 1 + 8 + 4 + 4 + SIGNATURE_LENGTH;
+
+    /**
+     * A location decoded from a valid token.
+     */
+    public static class LocationToken {
+        private final long cell;
+        private final long expires;
+        private final String elementDataKey;
+        private final String countryCode;
+        private final String region;
+        private final String town;
+
+        LocationToken(
+            long cell,
+            long expires,
+            String elementDataKey,
+            String countryCode,
+            String region,
+            String town) {
+            this.cell = cell;
+            this.expires = expires;
+            this.elementDataKey = elementDataKey;
+            this.countryCode = countryCode;
+            this.region = region;
+            this.town = town;
+        }
+
+        /**
+         * @return the code of the cell the token is valid for
+         */
+        public long getCell() {
+            return cell;
+        }
+
+        /**
+         * @return the time in milliseconds since the epoch the token
+         * expires
+         */
+        public long getExpires() {
+            return expires;
+        }
+
+        /**
+         * @return the element data key of the engine which located the
+         * request the token was issued for, e.g. 'location'
+         */
+        public String getElementDataKey() {
+            return elementDataKey;
+        }
+
+        /**
+         * @return the country code, or an empty string if it has no value
+         */
+        public String getCountryCode() {
+            return countryCode;
+        }
+
+        /**
+         * @return the region, or an empty string if it has no value
+         */
+        public String getRegion() {
+            return region;
+        }
+
+        /**
+         * @return the town, or an empty string if it has no value
+         */
+        public String getTown() {
+            return town;
+        }
+
+        /**
+         * Check whether the coordinates are in the cell the token is valid
+         * for.
+         * @param coordinates the coordinates
+         * @return true if they are in the cell
+         */
+        public boolean contains(Coordinates coordinates) {
+            return GeoCell.encode(
+                coordinates.getLatitude(),
+                coordinates.getLongitude(),
+                GeoCell.getLevel(cell)) == cell;
+        }
+    }
+
+    private final SecretKeySpec key;
+    private final int cellLevel;
+    private final long timeToLive;
+    private final String cookieName;
+    private final String evidenceKey;
+
+    /**
+     * One Mac for each thread, as creating one is much slower than
+     * verifying a token.
+     */
+    private final ThreadLocal<Mac> macs;
+
+    /**
+     * Construct a new instance with the default cell level, time to live
+     * and cookie name.
+     * @param key the secret key, which should be at least 32 random bytes
+     */
+    public LocationTokenSigner(byte[] key) {
+        this(key, DEFAULT_CELL_LEVEL, DEFAULT_TIME_TO_LIVE, DEFAULT_COOKIE_NAME);
+    }
+
+    /**
+     * Construct a new instance.
+     * @param key the secret key, which should be at least 32 random bytes
+     * @param cellLevel the level of the cells tokens are valid for. A
+     *                  request whose coordinates are outside the cell
+     *                  ignores the token
+     * @param timeToLive the time in milliseconds tokens are valid for
+     * @param cookieName the name of the cookie the token is held in
+     */
+    public LocationTokenSigner(
+        byte[] key,
+        int cellLevel,
+        long timeToLive,
+        String cookieName) {
+        if (key == null || key.length < 16) {
+            throw new IllegalArgumentException(
+                "The location token key must be at least 16 bytes.");
+        }
+        if (cellLevel < GeoCell.MIN_LEVEL || cellLevel > GeoCell.MAX_LEVEL) {
+            throw new IllegalArgumentException(
+                "The cell level must be between " + GeoCell.MIN_LEVEL +
+                " and " + GeoCell.MAX_LEVEL + ".");
+        }
+        if (timeToLive <= 0) {
+            throw new IllegalArgumentException(
+                "The location token time to live must be greater than 0.");
+        }
+        this.key = new SecretKeySpec(key.clone(), ALGORITHM);
+        this.cellLevel = cellLevel;
+        this.timeToLive = timeToLive;
+        this.cookieName = cookieName;
+        this.evidenceKey = "cookie." + cookieName;
+        this.macs = ThreadLocal.withInitial(this::newMac);
+    }
+
+    /**
+     * @return the name of the cookie the token is held in
+     */
+    public String getCookieName() {
+        return cookieName;
+    }
+
+    /**
+     * @return the key of the evidence the token is read from
+     */
+    public String getEvidenceKey() {
+        return evidenceKey;
+    }
+
+    /**
+     * @return the level of the cells tokens are valid for
+     */
+    public int getCellLevel() {
+        return cellLevel;
+    }
+
+    /**
+     * Issue a token for a processed request, to be set as the value of the
+     * cookie named by {@link #getCookieName()}. The token only holds the
+     * result of the engine with the element data key, and is only used to
+     * answer later requests for that engine.
+     * @param data the processed request
+     * @param elementDataKey the element data key of the engine whose result
+     *                       the token holds, e.g. 'location'
+     * @return the token, or null if the request has no coordinates or was
+     * not located by the engine
+     */
+    public String issue(FlowData data, String elementDataKey) {
+        Coordinates coordinates =
+            GeoEngineHelper.getCoordinates(data.getEvidence().asKeyMap());
+        if (coordinates == null) {
+            return null;
+        }
+        ElementData elementData;
+        try {
+            elementData = data.get(elementDataKey);
+        } catch (RuntimeException e) {
+            // The engine is not in the pipeline.
+            return null;
+        }
+        if (elementData instanceof GeoData == false) {
+            return null;
+        }
+        GeoData geoData = (GeoData)elementData;
+        String countryCode = getValue(geoData.getCountryCode());
+        String region = getValue(geoData.getRegion());
+        String town = getValue(geoData.getTown());
+        if (countryCode.isEmpty() && region.isEmpty() && town.isEmpty()) {
+            return null;
+        }
+        return issue(coordinates, elementDataKey, countryCode, region, town);
+    }
+
+    /**
+     * Issue a token for a location.
+     * @param coordinates the coordinates the location was resolved for
+     * @param elementDataKey the element data key of the engine which
+     *                       resolved the location, e.g. 'location'
+     * @param countryCode the country code, or null if it has no value
+     * @param region the region, or null if it has no value
+     * @param town the town, or null if it has no value
+     * @return the token
+     */
+    public String issue(
+        Coordinates coordinates,
+        String elementDataKey,
+        String countryCode,
+        String region,
+        String town) {
+        byte[][] strings = {
+            getBytes(elementDataKey),
+            getBytes(countryCode),
+            getBytes(region),
+            getBytes(town) };
+        int length = MIN_LENGTH;
+        for (byte[] string : strings) {
+            length += string.length;
+        }
+        ByteBuffer token = ByteBuffer.allocate(length);
+        token.put(VERSION);
+        token.putLong(GeoCell.encode(
+            coordinates.getLatitude(),
+            coordinates.getLongitude(),
+            cellLevel));
+        token.putInt((int)TimeUnit.MILLISECONDS.toSeconds(
+            System.currentTimeMillis() + timeToLive));
+        for (byte[] string : strings) {
+            token.put((byte)string.length);
+            token.put(string);
+        }
+        Mac mac = macs.get();
+        mac.update(token.array(), 0, token.position());
+        token.put(mac.doFinal(), 0, SIGNATURE_LENGTH);
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(
+            token.array());
+    }
+
+    /**
+     * Verify a token and decode the location it holds.
+     * @param value the token
+     * @return the location, or null if the token is malformed, the
+     * signature is not valid, or it has expired
+     */
+    public LocationToken verify(String value) {
+        byte[] token;
+        try {
+            token = Base64.getUrlDecoder().decode(value);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+        if (token.length < MIN_LENGTH || token[0] != VERSION) {
+            return null;
+        }
+        int signed = token.length - SIGNATURE_LENGTH;
+        Mac mac = macs.get();
+        mac.update(token, 0, signed);
+        byte[] expected = Arrays.copyOf(mac.doFinal(), SIGNATURE_LENGTH);
+        byte[] actual = Arrays.copyOfRange(token, signed, token.length);
+        if (MessageDigest.isEqual(expected, actual) == false) {
+            return null;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(token, 0, signed);
+        buffer.get();
+        long cell = buffer.getLong();
+        long expires = TimeUnit.SECONDS.toMillis(buffer.getInt() & 0xffffffffL);
+        if (expires <= System.currentTimeMillis() ||
+            GeoCell.getLevel(cell) > GeoCell.MAX_LEVEL) {
+            return null;
+        }
+        String[] strings = new String[4];
+        for (int i = 0; i < strings.length; i++) {
+            if (buffer.remaining() < 1) {
+                return null;
+            }
+            int length = buffer.get() & 0xff;
+            if (buffer.remaining() < length) {
+                return null;
+            }
+            strings[i] = new String(
+                token,
+                buffer.position(),
+                length,
+                StandardCharsets.UTF_8);
+            buffer.position(buffer.position() + length);
+        }
+        if (strings[0].isEmpty()) {
+            return null;
+        }
+        return new LocationToken(
+            cell,
+            expires,
+            strings[0],
+            strings[1],
+            strings[2],
+            strings[3]);
+    }
+
+    private Mac newMac() {
+        try {
+            Mac mac = Mac.getInstance(ALGORITHM);
+            mac.init(key);
+            return mac;
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(
+                "Unable to create the location token signature", e);
+        }
+    }
+
+    private static String getValue(AspectPropertyValue<String> value) {
+        try {
+            return value != null && value.hasValue() && value.getValue() != null ?
+                value.getValue() :
+                "";
+        } catch (Exception e) {
+            return "";
+        }
+    }
+
+    /**
+     * Get the UTF-8 bytes of the string, truncated to the maximum length
+     * without splitting a character.
+     */
+    private static byte[] getBytes(String value) {
+        if (value == null) {
+            return new byte[0];
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length <= MAX_STRING_LENGTH) {
+            return bytes;
+        }
+        int length = MAX_STRING_LENGTH;
+        while ((bytes[length] & 0xc0) == 0x80) {
+            length--;
+        }
+        return Arrays.copyOf(bytes, length);
+    }
+}
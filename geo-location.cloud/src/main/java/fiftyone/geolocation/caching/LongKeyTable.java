@@ -0,0 +1,555 @@
+/* *********************************************************************
+ * This Original Work is copyright of 51 Degrees Mobile Experts Limited.
+ * Copyright 2023 51 Degrees Mobile Experts Limited, Davidson House,
+ * Forbury Square, Reading, Berkshire, United Kingdom RG1 3EU.
+ *
+ * This Original Work is licensed under the European Union Public Licence
+ * (EUPL) v.1.2 and is subject to its terms as set out below.
+ *
+ * If a copy of the EUPL was not distributed with this file, You can obtain
+ * one at https://opensource.org/licenses/EUPL-1.2.
+ *
+ * The 'Compatible Licences' set out in the Appendix to the EUPL (as may be
+ * amended by the European Commission) shall be deemed incompatible for
+ * the purposes of the Work and the provisions of the compatibility
+ * clause in Article 5 of the EUPL shall not apply.
+ *
+ * If using the Work as, or as part of, a network application, by
+ * including the attribution notice(s) required under Article 5 of the EUPL
+ * in the end user terms of the application under an appropriate heading,
+ * such notice(s) shall fulfill the requirements of that article.
+ * ********************************************************************* */
+
+
+package fiftyone.geolocation.caching;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ToLongFunction;
+
+/**
+ * Bounded, lock-free hash table keyed on primitive longs. Keys are never
+ * boxed, and neither reads nor writes take a lock, so the table can sit on
+ * the hot path of every request.
+ *
+ * The table is split into independent segments, chosen by the high bits of
+ * the spread hash of the key, each with its own array of slots and, for a
+ * weighted table, its own frequency sketch. Threads working on different
+ * keys therefore rarely touch the same cache lines, so throughput scales
+ * with the number of request threads.
+ *
+ * Each key may be stored in one of a small window of slots following its
+ * home slot. When every slot in the window is taken by other keys, one of
+ * them is chosen at random and replaced, so the table never grows beyond
+ * its capacity and needs no separate eviction bookkeeping.
+ *
+ * A put replaces the existing value for the key if there is one. When
+ * several threads put the same key at the same time, they may briefly
+ * hold it in more than one slot of its window. Once they have all
+ * returned, the key is held in one slot, with the value nearest its home
+ * slot.
+ *
+ * A table constructed with a weigher is also bounded by the total weight
+ * of its values (e.g. their estimated size in bytes), and uses TinyLFU
+ * admission: a frequency sketch records how often each key is read or
+ * written, and a new value only replaces an existing one if its key is
+ * seen more often. When the total weight exceeds the maximum, a sample of
+ * values is taken and the least frequent is removed. A burst of keys which
+ * are only seen once therefore cannot displace frequently read values.
+ * The maximum weight is divided equally between the segments, and each
+ * segment keeps its own total, so writers to different segments do not
+ * contend on a shared counter.
+ *
+ * @param <V> type of the values
+ */
+public class LongKeyTable<V> {
+
+    /**
+     * The number of slots a key may be stored in.
+     */
+    private static final int WINDOW = 4;
+
+    /**
+     * The number of values sampled to find one to remove when the total
+     * weight exceeds the maximum.
+     */
+    private static final int SAMPLE = 8;
+
+    /**
+     * The maximum number of values removed by one put to bring the total
+     * weight back within the maximum.
+     */
+    private static final int MAX_REMOVALS = 16;
+
+    /**
+     * The smallest number of slots in a segment. Tables smaller than this
+     * have one segment.
+     */
+    private static final int MIN_SEGMENT_SIZE = 64;
+
+    /**
+     * The number of segments per available processor.
+     */
+    private static final int SEGMENTS_PER_PROCESSOR = 4;
+
+    private static class Entry<V> {
+        final long key;
+        final V value;
+        final long weight;
+
+        Entry(long key, V value, long weight) {
+            this.key = key;
+            this.value = value;
+            this.weight = weight;
+        }
+    }
+
+    private static class Segment<V> {
+        final AtomicReferenceArray<Entry<V>> slots;
+        final int mask;
+        final FrequencySketch sketch;
+        final AtomicLong weight = new AtomicLong();
+        final long maxWeight;
+
+        Segment(int size, boolean weighted, long maxWeight) {
+            slots = new AtomicReferenceArray<>(size);
+            mask = size - 1;
+            sketch = weighted ? new FrequencySketch(size) : null;
+            this.maxWeight = maxWeight;
+        }
+    }
+
+    private final Segment<V>[] segments;
+    private final int segmentMask;
+    private final int capacity;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    private final ToLongFunction<V> weigher;
+    private final long maxWeight;
+    private final LongAdder rejections = new LongAdder();
+
+    /**
+     * Construct a new instance.
+     * @param capacity the number of values the table can hold. This is
+     *                 rounded up to the next power of two
+     */
+    public LongKeyTable(int capacity) {
+        this(capacity, null, Long.MAX_VALUE);
+    }
+
+    /**
+     * Construct a new instance bounded by the total weight of its values,
+     * with TinyLFU admission.
+     * @param capacity the number of values the table can hold. This is
+     *                 rounded up to the next power of two
+     * @param weigher returns the weight of a value, e.g. its estimated size
+     *                in bytes, or null for an unweighted table
+     * @param maxWeight the maximum total weight of the values
+     */
+    public LongKeyTable(
+        int capacity,
+        ToLongFunction<V> weigher,
+        long maxWeight) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException(
+                "The capacity of the table must be greater than zero.");
+        }
+        int size = Math.max(WINDOW, Integer.highestOneBit(capacity));
+        if (size < capacity) {
+            size <<= 1;
+        }
+        int count = Integer.highestOneBit(Math.max(
+            1,
+            Math.min(
+                size / MIN_SEGMENT_SIZE,
+                Runtime.getRuntime().availableProcessors() *
+                    SEGMENTS_PER_PROCESSOR)));
+        segments = newSegments(count);
+        for (int i = 0; i < count; i++) {
+            segments[i] = new Segment<>(
+                size / count,
+                weigher != null,
+                maxWeight / count);
+        }
+        this.segmentMask = count - 1;
+        this.capacity = size;
+        this.weigher = weigher;
+        this.maxWeight = maxWeight;
+    }
+
+    /**
+     * Get the value for the key.
+     * @param key the key
+     * @return the value, or null if the key is not in the table
+     */
+    public V get(long key) {
+        long hash = spread(key);
+        Segment<V> segment = segment(hash);
+        if (segment.sketch != null) {
+            segment.sketch.increment(key);
+        }
+        int home = (int)hash & segment.mask;
+        for (int i = 0; i < WINDOW; i++) {
+            Entry<V> entry = segment.slots.get((home + i) & segment.mask);
+            if (entry != null && entry.key == key) {
+                hits.increment();
+                return entry.value;
+            }
+        }
+        misses.increment();
+        return null;
+    }
+
+    /**
+     * Check whether the key is in the table, without counting a hit or
+     * miss, or recording an access to the key.
+     * @param key the key
+     * @return true if the key is in the table
+     */
+    public boolean containsKey(long key) {
+        long hash = spread(key);
+        Segment<V> segment = segment(hash);
+        int home = (int)hash & segment.mask;
+        for (int i = 0; i < WINDOW; i++) {
+            Entry<V> entry = segment.slots.get((home + i) & segment.mask);
+            if (entry != null && entry.key == key) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Add or replace the value for the key.
+     * @param key the key
+     * @param value the value
+     */
+    public void put(long key, V value) {
+        long hash = spread(key);
+        Segment<V> segment = segment(hash);
+        int home = (int)hash & segment.mask;
+        if (weigher != null) {
+            putWeighted(segment, home, key, value);
+            return;
+        }
+        Entry<V> entry = new Entry<>(key, value, 0);
+        if (replace(segment, home, entry) == null &&
+            insert(segment, home, entry) == false) {
+            int position = ThreadLocalRandom.current().nextInt(WINDOW);
+            segment.slots.set((home + position) & segment.mask, entry);
+            removeDuplicates(segment, home, position, entry);
+        }
+    }
+
+    /**
+     * Replace the value for the entry's key, if the key is in the window.
+     * @return the entry which was replaced, or null if the key was not found
+     */
+    private static <V> Entry<V> replace(
+        Segment<V> segment,
+        int home,
+        Entry<V> entry) {
+        for (int i = 0; i < WINDOW; i++) {
+            int index = (home + i) & segment.mask;
+            Entry<V> existing = segment.slots.get(index);
+            if (existing != null &&
+                existing.key == entry.key &&
+                segment.slots.compareAndSet(index, existing, entry)) {
+                removeDuplicates(segment, home, i, entry);
+                return existing;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Add the entry to the first empty slot in the window.
+     * @return true if the entry was added, or false if the window is full
+     */
+    private static <V> boolean insert(
+        Segment<V> segment,
+        int home,
+        Entry<V> entry) {
+        for (int i = 0; i < WINDOW; i++) {
+            int index = (home + i) & segment.mask;
+            if (segment.slots.get(index) == null &&
+                segment.slots.compareAndSet(index, null, entry)) {
+                removeDuplicates(segment, home, i, entry);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Make sure the entry's key is only held once in the window, e.g. when
+     * another thread added the same key at the same time. The copy nearest
+     * the home slot is kept: copies which follow the entry are removed, and
+     * if a copy precedes it, the entry itself is removed. Each thread adds
+     * its entry before checking, so the last to check sees every copy, and
+     * as all threads keep the same copy the key is never lost altogether.
+     */
+    private static <V> void removeDuplicates(
+        Segment<V> segment,
+        int home,
+        int position,
+        Entry<V> entry) {
+        for (int i = 0; i < WINDOW; i++) {
+            int index = (home + i) & segment.mask;
+            Entry<V> existing = segment.slots.get(index);
+            if (i == position ||
+                existing == null ||
+                existing == entry ||
+                existing.key != entry.key) {
+                continue;
+            }
+            if (i < position) {
+                if (segment.slots.compareAndSet(
+                    (home + position) & segment.mask,
+                    entry,
+                    null)) {
+                    segment.weight.addAndGet(-entry.weight);
+                }
+                return;
+            }
+            if (segment.slots.compareAndSet(index, existing, null)) {
+                segment.weight.addAndGet(-existing.weight);
+            }
+        }
+    }
+
+    /**
+     * Add or replace the value for the key in a weighted table. If the
+     * window is full, the least frequent value in the window is replaced,
+     * but only if the key is more frequent. The total weight is then
+     * brought back within the maximum.
+     */
+    private void putWeighted(Segment<V> segment, int home, long key, V value) {
+        FrequencySketch sketch = segment.sketch;
+        AtomicReferenceArray<Entry<V>> slots = segment.slots;
+        sketch.increment(key);
+        Entry<V> entry = new Entry<>(key, value, weigher.applyAsLong(value));
+        if (entry.weight > segment.maxWeight) {
+            rejections.increment();
+            return;
+        }
+        Entry<V> replaced = replace(segment, home, entry);
+        if (replaced != null) {
+            added(segment, home, entry, replaced);
+            return;
+        }
+        if (insert(segment, home, entry)) {
+            added(segment, home, entry, null);
+            return;
+        }
+        int victim = -1;
+        Entry<V> victimEntry = null;
+        int victimFrequency = Integer.MAX_VALUE;
+        for (int i = 0; i < WINDOW; i++) {
+            Entry<V> existing = slots.get((home + i) & segment.mask);
+            if (existing != null) {
+                int frequency = sketch.frequency(existing.key);
+                if (frequency < victimFrequency) {
+                    victim = i;
+                    victimEntry = existing;
+                    victimFrequency = frequency;
+                }
+            }
+        }
+        if (victimEntry != null &&
+            sketch.frequency(key) > victimFrequency &&
+            slots.compareAndSet(
+                (home + victim) & segment.mask,
+                victimEntry,
+                entry)) {
+            removeDuplicates(segment, home, victim, entry);
+            added(segment, home, entry, victimEntry);
+        }
+        else {
+            rejections.increment();
+        }
+    }
+
+    /**
+     * Update the segment's total weight for an entry which has been added,
+     * then remove the least frequent of a sample of values from the segment
+     * until its total is within its share of the maximum.
+     */
+    private void added(
+        Segment<V> segment,
+        int home,
+        Entry<V> entry,
+        Entry<V> replaced) {
+        FrequencySketch sketch = segment.sketch;
+        AtomicReferenceArray<Entry<V>> slots = segment.slots;
+        long total = segment.weight.addAndGet(
+            entry.weight - (replaced == null ? 0 : replaced.weight));
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        for (int removals = 0;
+             total > segment.maxWeight && removals < MAX_REMOVALS;
+             removals++) {
+            int start = random.nextInt(slots.length());
+            int victim = -1;
+            Entry<V> victimEntry = null;
+            int victimFrequency = Integer.MAX_VALUE;
+            for (int i = 0; i < SAMPLE; i++) {
+                int index = (start + i * (WINDOW + 1)) & segment.mask;
+                Entry<V> existing = slots.get(index);
+                if (existing != null && existing != entry) {
+                    int frequency = sketch.frequency(existing.key);
+                    if (frequency < victimFrequency) {
+                        victim = index;
+                        victimEntry = existing;
+                        victimFrequency = frequency;
+                    }
+                }
+            }
+            if (victimEntry == null ||
+                sketch.frequency(entry.key) <= victimFrequency) {
+                // The new value is the least frequent, so remove it.
+                victimEntry = entry;
+                victim = -1;
+                for (int i = 0; i < WINDOW && victim < 0; i++) {
+                    int index = (home + i) & segment.mask;
+                    if (slots.get(index) == entry) {
+                        victim = index;
+                    }
+                }
+                rejections.increment();
+            }
+            if (victim >= 0 && slots.compareAndSet(victim, victimEntry, null)) {
+                total = segment.weight.addAndGet(-victimEntry.weight);
+            }
+            else {
+                total = segment.weight.get();
+            }
+            if (victimEntry == entry) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * Remove the value for the key.
+     * @param key the key
+     */
+    public void remove(long key) {
+        long hash = spread(key);
+        Segment<V> segment = segment(hash);
+        int home = (int)hash & segment.mask;
+        for (int i = 0; i < WINDOW; i++) {
+            int index = (home + i) & segment.mask;
+            Entry<V> entry = segment.slots.get(index);
+            if (entry != null &&
+                entry.key == key &&
+                segment.slots.compareAndSet(index, entry, null)) {
+                segment.weight.addAndGet(-entry.weight);
+            }
+        }
+    }
+
+    /**
+     * Remove all the values.
+     */
+    public void clear() {
+        for (Segment<V> segment : segments) {
+            for (int i = 0; i < segment.slots.length(); i++) {
+                Entry<V> entry = segment.slots.getAndSet(i, null);
+                if (entry != null) {
+                    segment.weight.addAndGet(-entry.weight);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the maximum number of values the table can hold
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * @return the number of independent segments the table is split into
+     */
+    public int getSegmentCount() {
+        return segments.length;
+    }
+
+    /**
+     * @return the total weight of the values in the table, or 0 if the
+     * table is not weighted
+     */
+    public long getWeight() {
+        long total = 0;
+        for (Segment<V> segment : segments) {
+            total += segment.weight.get();
+        }
+        return total;
+    }
+
+    /**
+     * @return the maximum total weight of the values in the table
+     */
+    public long getMaxWeight() {
+        return maxWeight;
+    }
+
+    /**
+     * @return the number of values which were not added, or were removed
+     * straight away, as their keys were seen less often than the values
+     * they would have replaced
+     */
+    public long getRejections() {
+        return rejections.sum();
+    }
+
+    /**
+     * @return the number of calls to {@link #get(long)} which found a value
+     */
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * @return the number of calls to {@link #get(long)} which did not find a
+     * value
+     */
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * @return the proportion of calls to {@link #get(long)} which found a
+     * value, or 0 if there have been none
+     */
+    public double getHitRatio() {
+        long hitCount = hits.sum();
+        long total = hitCount + misses.sum();
+        return total == 0 ? 0 : (double)hitCount / total;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <V> Segment<V>[] newSegments(int count) {
+        return (Segment<V>[])new Segment<?>[count];
+    }
+
+    private Segment<V> segment(long hash) {
+        return segments[(int)(hash >>> 40) & segmentMask];
+    }
+
+    private static long spread(long key) {
+        // Spread the bits of the key (the finalizer from MurmurHash3), as
+        // keys such as cell codes differ mostly in their low bits.
+        long h = key;
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
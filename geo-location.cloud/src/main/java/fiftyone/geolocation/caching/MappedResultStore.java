@@ -0,0 +1,453 @@
+/* *********************************************************************
+ * This Original Work is copyright of 51 Degrees Mobile Experts Limited.
+ * Copyright 2023 51 Degrees Mobile Experts Limited, Davidson House,
+ * Forbury Square, Reading, Berkshire, United Kingdom RG1 3EU.
+ *
+ * This Original Work is licensed under the European Union Public Licence
+ * (EUPL) v.1.2 and is subject to its terms as set out below.
+ *
+ * If a copy of the EUPL was not distributed with this file, You can obtain
+ * one at https://opensource.org/licenses/EUPL-1.2.
+ *
+ * The 'Compatible Licences' set out in the Appendix to the EUPL (as may be
+ * amended by the European Commission) shall be deemed incompatible for
+ * the purposes of the Work and the provisions of the compatibility
+ * clause in Article 5 of the EUPL shall not apply.
+ *
+ * If using the Work as, or as part of, a network application, by
+ * including the attribution notice(s) required under Article 5 of the EUPL
+ * in the end user terms of the application under an appropriate heading,
+ * such notice(s) shall fulfill the requirements of that article.
+ * ********************************************************************* */
+
+package fiftyone.geolocation.caching;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.CRC32;
+
+/**
+ * File backed store of cloud responses keyed on primitive longs, which is
+ * memory mapped so its contents survive restarts and can be shared by
+ * several processes on the same host.
+ *
+ * The file holds a header followed by a fixed number of fixed size
+ * records. Each key may be stored in one of a small window of records
+ * following its home record (open addressing with linear probing). A key
+ * which is already in the window is replaced where it is. Otherwise the
+ * first empty or expired record is used, and when every record in the
+ * window is taken by other current keys, the home record is replaced.
+ * Responses which do not fit in a record are not stored.
+ *
+ * Each record has a sequence number which is odd while the record is being
+ * written (a seqlock), and a CRC of its contents. Readers take no locks:
+ * they retry if the sequence number is odd or changes during the read, and
+ * ignore the record if the CRC does not match. Writers lock the whole
+ * window's region of the file before choosing a record, so writers in
+ * different processes cannot choose the same record for different keys or
+ * store the same key twice. File locks are held on behalf of the whole
+ * JVM, and overlapping locks from one JVM are not allowed, so writers in
+ * this JVM are serialized before taking the file lock.
+ *
+ * Record layout:
+ * <pre>
+ *   0  int    sequence
+ *   4  int    payload length, 0 if the record is empty
+ *   8  long   key
+ *  16  long   expiry time in milliseconds since the epoch
+ *  24  int    CRC32 of the key, expiry and payload
+ *  28  bytes  payload, the UTF-8 JSON response
+ * </pre>
+ */
+public class MappedResultStore implements Closeable {
+
+    /**
+     * The default size of each record in bytes.
+     */
+    public static final int DEFAULT_RECORD_SIZE = 4096;
+
+    private static final int MAGIC = 0x35314447;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 64;
+    private static final int RECORD_HEADER_SIZE = 28;
+    private static final int WINDOW = 8;
+    private static final int READ_ATTEMPTS = 4;
+
+    /**
+     * Held while writing to any store in this JVM. Stores opened on the same
+     * file share the JVM's file locks, so two writers in the same JVM must
+     * never wait on overlapping file locks.
+     */
+    private static final Object WRITE_LOCK = new Object();
+
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private final int recordSize;
+    private final int recordCount;
+    private final int mask;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder oversized = new LongAdder();
+
+    /**
+     * Used to order reads and writes of the mapped buffer within this
+     * process, as Java 8 has no fences for mapped memory.
+     */
+    @SuppressWarnings("unused")
+    private volatile int fence;
+
+    /**
+     * Open the store in the file provided, creating it if it does not exist.
+     * If the file was created by another process, the number and size of
+     * its records are used in place of those provided.
+     * @param path the file
+     * @param records the number of records, rounded up to the next power of
+     *                two
+     * @param recordSize the size of each record in bytes
+     * @throws IOException if the file could not be opened or is not a store
+     */
+    public MappedResultStore(
+        File path,
+        int records,
+        int recordSize) throws IOException {
+        if (records <= 0) {
+            throw new IllegalArgumentException(
+                "The number of records must be greater than zero.");
+        }
+        if (recordSize <= RECORD_HEADER_SIZE) {
+            throw new IllegalArgumentException(
+                "The record size must be greater than " +
+                RECORD_HEADER_SIZE + " bytes.");
+        }
+        int count = Math.max(WINDOW, Integer.highestOneBit(records));
+        if (count < records) {
+            count <<= 1;
+        }
+        file = new RandomAccessFile(path, "rw");
+        try {
+            channel = file.getChannel();
+            try (FileLock ignored = channel.lock(0, HEADER_SIZE, false)) {
+                ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+                if (channel.size() >= HEADER_SIZE) {
+                    channel.read(header, 0);
+                    header.flip();
+                    if (header.getInt(0) != MAGIC ||
+                        header.getInt(4) != VERSION) {
+                        throw new IOException("'" + path +
+                            "' is not a geo results store.");
+                    }
+                    recordSize = header.getInt(8);
+                    count = header.getInt(12);
+                }
+                else {
+                    header.putInt(0, MAGIC);
+                    header.putInt(4, VERSION);
+                    header.putInt(8, recordSize);
+                    header.putInt(12, count);
+                    channel.write(header, 0);
+                }
+                long length = HEADER_SIZE + (long)count * recordSize;
+                if (length > Integer.MAX_VALUE) {
+                    throw new IllegalArgumentException(
+                        "The store must be smaller than 2GB.");
+                }
+                if (channel.size() < length) {
+                    file.setLength(length);
+                }
+                buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, length);
+            }
+        } catch (IOException | RuntimeException e) {
+            file.close();
+            throw e;
+        }
+        this.recordSize = recordSize;
+        this.recordCount = count;
+        this.mask = count - 1;
+    }
+
+    /**
+     * Get the response for the key if it has not expired.
+     * @param key the key
+     * @param now the current time in milliseconds since the epoch
+     * @return the response and its expiry time, or null if there is none
+     */
+    public StoredResult get(long key, long now) {
+        int home = home(key);
+        for (int i = 0; i < WINDOW; i++) {
+            int offset = offset((home + i) & mask);
+            if (buffer.getLong(offset + 8) == key) {
+                StoredResult result = read(offset, key);
+                if (result != null && result.getExpires() > now) {
+                    hits.increment();
+                    return result;
+                }
+            }
+        }
+        misses.increment();
+        return null;
+    }
+
+    /**
+     * Add or replace the response for the key.
+     * @param key the key
+     * @param json the JSON response
+     * @param expires the time in milliseconds since the epoch that the
+     *                response expires
+     * @throws IOException if the records could not be locked
+     */
+    public void put(long key, String json, long expires) throws IOException {
+        byte[] payload = json.getBytes(StandardCharsets.UTF_8);
+        if (payload.length > recordSize - RECORD_HEADER_SIZE) {
+            oversized.increment();
+            return;
+        }
+        long now = System.currentTimeMillis();
+        int home = home(key);
+        synchronized (WRITE_LOCK) {
+            FileLock[] windowLocks = lockWindow(home);
+            try {
+                write(choose(home, key, now), key, payload, expires);
+            } finally {
+                for (FileLock lock : windowLocks) {
+                    lock.release();
+                }
+            }
+        }
+    }
+
+    /**
+     * Write any changes to the file.
+     */
+    public void flush() {
+        buffer.force();
+    }
+
+    /**
+     * @return the number of records in the store
+     */
+    public int getRecordCount() {
+        return recordCount;
+    }
+
+    /**
+     * @return the size of each record in bytes
+     */
+    public int getRecordSize() {
+        return recordSize;
+    }
+
+    /**
+     * @return the number of calls to get which found a current response
+     */
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * @return the number of calls to get which did not find a current
+     * response
+     */
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * @return the number of responses which were not stored as they did not
+     * fit in a record
+     */
+    public long getOversized() {
+        return oversized.sum();
+    }
+
+    /**
+     * Flush any changes to the file and close it.
+     * @throws IOException if the file could not be closed
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            file.close();
+        }
+    }
+
+    private StoredResult read(int offset, long key) {
+        for (int attempt = 0; attempt < READ_ATTEMPTS; attempt++) {
+            int sequence = buffer.getInt(offset);
+            if ((sequence & 1) != 0) {
+                Thread.yield();
+                continue;
+            }
+            int ignored = fence;
+            int length = buffer.getInt(offset + 4);
+            long storedKey = buffer.getLong(offset + 8);
+            long expires = buffer.getLong(offset + 16);
+            int crc = buffer.getInt(offset + 24);
+            if (length <= 0 ||
+                length > recordSize - RECORD_HEADER_SIZE ||
+                storedKey != key) {
+                return null;
+            }
+            byte[] payload = new byte[length];
+            ByteBuffer view = buffer.duplicate();
+            view.position(offset + RECORD_HEADER_SIZE);
+            view.get(payload);
+            ignored = fence;
+            if (buffer.getInt(offset) == sequence) {
+                if (crc(storedKey, expires, payload) != crc) {
+                    return null;
+                }
+                return new StoredResult(
+                    new String(payload, StandardCharsets.UTF_8),
+                    expires);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Lock the region of the file holding the window of records following
+     * the home record. A window which wraps past the last record is locked
+     * as two regions, always in file order so that writers in different
+     * processes cannot deadlock.
+     * @param home the home record
+     * @return the locks to release once the write is complete
+     * @throws IOException if the file could not be locked
+     */
+    private FileLock[] lockWindow(int home) throws IOException {
+        int end = home + WINDOW;
+        if (end <= recordCount) {
+            return new FileLock[] {
+                channel.lock(offset(home), (long)WINDOW * recordSize, false)
+            };
+        }
+        FileLock head = channel.lock(
+            offset(0),
+            (long)(end - recordCount) * recordSize,
+            false);
+        try {
+            return new FileLock[] {
+                head,
+                channel.lock(
+                    offset(home),
+                    (long)(recordCount - home) * recordSize,
+                    false)
+            };
+        } catch (IOException | RuntimeException e) {
+            head.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Choose the record to write the key to. The whole window is checked
+     * for the key before a free record is used, so a key is never stored
+     * twice. Must only be called while the window is locked.
+     * @param home the home record of the key
+     * @param key the key
+     * @param now the current time in milliseconds since the epoch
+     * @return the record holding the key, or the first empty or expired
+     * record, or the home record if there are none
+     */
+    private int choose(int home, long key, long now) {
+        int free = -1;
+        for (int i = 0; i < WINDOW; i++) {
+            int index = (home + i) & mask;
+            int offset = offset(index);
+            boolean empty = buffer.getInt(offset + 4) == 0;
+            if (empty == false && buffer.getLong(offset + 8) == key) {
+                return index;
+            }
+            if (free < 0 && (empty || buffer.getLong(offset + 16) <= now)) {
+                free = index;
+            }
+        }
+        return free < 0 ? home : free;
+    }
+
+    /**
+     * Write a record. Must only be called while the record is locked.
+     */
+    private void write(
+        int index,
+        long key,
+        byte[] payload,
+        long expires) {
+        int offset = offset(index);
+        int sequence = buffer.getInt(offset);
+        buffer.putInt(offset, sequence | 1);
+        fence = 0;
+        buffer.putInt(offset + 4, payload.length);
+        buffer.putLong(offset + 8, key);
+        buffer.putLong(offset + 16, expires);
+        buffer.putInt(offset + 24, crc(key, expires, payload));
+        ByteBuffer view = buffer.duplicate();
+        view.position(offset + RECORD_HEADER_SIZE);
+        view.put(payload);
+        fence = 0;
+        buffer.putInt(offset, (sequence | 1) + 1);
+    }
+
+    private static int crc(long key, long expires, byte[] payload) {
+        CRC32 crc = new CRC32();
+        for (int i = 0; i < 8; i++) {
+            crc.update((int)(key >>> (i * 8)));
+            crc.update((int)(expires >>> (i * 8)));
+        }
+        crc.update(payload, 0, payload.length);
+        return (int)crc.getValue();
+    }
+
+    private int offset(int index) {
+        return HEADER_SIZE + index * recordSize;
+    }
+
+    private int home(long key) {
+        long h = key;
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return (int)h & mask;
+    }
+
+    /**
+     * A response read from the store.
+     */
+    public static class StoredResult {
+
+        private final String json;
+        private final long expires;
+
+        StoredResult(String json, long expires) {
+            this.json = json;
+            this.expires = expires;
+        }
+
+        /**
+         * @return the JSON response
+         */
+        public String getJson() {
+            return json;
+        }
+
+        /**
+         * @return the time in milliseconds since the epoch that the response
+         * expires
+         */
+        public long getExpires() {
+            return expires;
+        }
+    }
+}
@@ -0,0 +1,211 @@
+/* *********************************************************************
+ * This Original Work is copyright of 51 Degrees Mobile Experts Limited.
+ * Copyright 2023 51 Degrees Mobile Experts Limited, Davidson House,
+ * Forbury Square, Reading, Berkshire, United Kingdom RG1 3EU.
+ *
+ * This Original Work is licensed under the European Union Public Licence
+ * (EUPL) v.1.2 and is subject to its terms as set out below.
+ *
+ * If a copy of the EUPL was not distributed with this file, You can obtain
+ * one at https://opensource.org/licenses/EUPL-1.2.
+ *
+ * The 'Compatible Licences' set out in the Appendix to the EUPL (as may be
+ * amended by the European Commission) shall be deemed incompatible for
+ * the purposes of the Work and the provisions of the compatibility
+ * clause in Article 5 of the EUPL shall not apply.
+ *
+ * If using the Work as, or as part of, a network application, by
+ * including the attribution notice(s) required under Article 5 of the EUPL
+ * in the end user terms of the application under an appropriate heading,
+ * such notice(s) shall fulfill the requirements of that article.
+ * ********************************************************************* */
+
+
+package fiftyone.geolocation.caching;
+
+import fiftyone.pipeline.core.data.ElementData;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Remembers the coarse cells where the cloud service found no location,
+ * e.g. over the sea, so requests for other cells inside them can be
+ * answered without calling the cloud service.
+ *
+ * A single empty response says little about the land around it, which may
+ * be a park next to a street, so a coarse cell is only answered from once
+ * several distinct fine cells inside it have come back empty. A response
+ * with a location for any fine cell inside the coarse cell removes it.
+ * Empty cells expire after their own time to live, which is usually much
+ * shorter than that of the results.
+ *
+ * A Bloom filter of the coarse cells which are known to be empty means
+ * requests in other cells are rejected without a lookup. The filter is
+ * aged in two generations: when the current generation has had as many
+ * cells added as the cache holds, or the time to live has passed, the
+ * previous generation is cleared and becomes the current one. Cells which
+ * are still answered from are added to the current generation again, so
+ * the filter never fills up with cells which have been removed.
+ */
+class NegativeCache {
+
+    /**
+     * A coarse cell with the distinct fine cells inside it which came back
+     * empty, up to the number needed to answer from it.
+     */
+    private static class EmptyCell {
+        final ElementData value;
+        final long[] cells;
+        final long expires;
+
+        EmptyCell(ElementData value, long[] cells, long expires) {
+            this.value = value;
+            this.cells = cells;
+            this.expires = expires;
+        }
+    }
+
+    private final LongKeyTable<EmptyCell> cells;
+    private final int capacity;
+    private final int threshold;
+    private final long timeToLive;
+
+    private volatile BloomFilter current;
+    private volatile BloomFilter previous;
+    private final AtomicInteger added = new AtomicInteger();
+    private volatile long rotated;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder rejects = new LongAdder();
+
+    /**
+     * @param capacity the number of coarse cells to remember
+     * @param threshold the number of distinct fine cells which must come
+     *                  back empty before the coarse cell is answered from
+     * @param timeToLive the time in milliseconds an empty cell is remembered
+     */
+    NegativeCache(int capacity, int threshold, long timeToLive) {
+        this.cells = new LongKeyTable<>(capacity);
+        this.capacity = capacity;
+        this.threshold = threshold;
+        this.timeToLive = timeToLive;
+        this.current = new BloomFilter(capacity);
+        this.previous = new BloomFilter(capacity);
+        this.rotated = System.currentTimeMillis();
+    }
+
+    /**
+     * Get the empty result for a coarse cell, if enough fine cells inside it
+     * have come back empty and it has not expired.
+     * @param key the key of the coarse cell
+     * @param now the current time in milliseconds since the epoch
+     * @return the empty result, or null if the cell is not known to be empty
+     */
+    ElementData get(long key, long now) {
+        if (current.mightContain(key) == false &&
+            previous.mightContain(key) == false) {
+            rejects.increment();
+            return null;
+        }
+        EmptyCell cell = cells.get(key);
+        if (cell == null ||
+            cell.cells.length < threshold ||
+            now >= cell.expires) {
+            return null;
+        }
+        current.add(key);
+        hits.increment();
+        return cell.value;
+    }
+
+    /**
+     * Record that a fine cell inside a coarse cell came back empty.
+     * Concurrent adds for the same coarse cell may lose a fine cell, which
+     * only delays answering from it.
+     * @param key the key of the coarse cell
+     * @param cellKey the key of the fine cell
+     * @param value the empty result
+     * @param expires the time the result expires
+     * @param now the current time in milliseconds since the epoch
+     */
+    void add(long key, long cellKey, ElementData value, long expires, long now) {
+        EmptyCell existing = cells.get(key);
+        long[] fine;
+        if (existing == null || now >= existing.expires) {
+            fine = new long[] { cellKey };
+        }
+        else if (existing.cells.length >= threshold ||
+            contains(existing.cells, cellKey)) {
+            fine = existing.cells;
+        }
+        else {
+            fine = Arrays.copyOf(existing.cells, existing.cells.length + 1);
+            fine[existing.cells.length] = cellKey;
+        }
+        cells.put(key, new EmptyCell(
+            value,
+            fine,
+            Math.min(expires, now + timeToLive)));
+        current.add(key);
+        if (added.incrementAndGet() >= capacity || now - rotated >= timeToLive) {
+            rotate(now);
+        }
+    }
+
+    /**
+     * Forget a coarse cell, as a fine cell inside it has a location.
+     * @param key the key of the coarse cell
+     */
+    void remove(long key) {
+        cells.remove(key);
+    }
+
+    /**
+     * @return the number of requests answered with an empty result
+     */
+    long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * @return the number of requests rejected by the Bloom filter without
+     * a lookup
+     */
+    long getRejects() {
+        return rejects.sum();
+    }
+
+    void clear() {
+        cells.clear();
+        current.clear();
+        previous.clear();
+        added.set(0);
+    }
+
+    /**
+     * Start a new generation of the Bloom filter, unless another thread has
+     * just done so.
+     */
+    private synchronized void rotate(long now) {
+        if (added.get() < capacity && now - rotated < timeToLive) {
+            return;
+        }
+        BloomFilter oldest = previous;
+        oldest.clear();
+        previous = current;
+        current = oldest;
+        added.set(0);
+        rotated = now;
+    }
+
+    private static boolean contains(long[] keys, long key) {
+        for (long k : keys) {
+            if (k == key) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
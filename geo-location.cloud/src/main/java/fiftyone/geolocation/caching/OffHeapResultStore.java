@@ -0,0 +1,312 @@
+/* *********************************************************************
+ * This Original Work is copyright of 51 Degrees Mobile Experts Limited.
+ * Copyright 2023 51 Degrees Mobile Experts Limited, Davidson House,
+ * Forbury Square, Reading, Berkshire, United Kingdom RG1 3EU.
+ *
+ * This Original Work is licensed under the European Union Public Licence
+ * (EUPL) v.1.2 and is subject to its terms as set out below.
+ *
+ * If a copy of the EUPL was not distributed with this file, You can obtain
+ * one at https://opensource.org/licenses/EUPL-1.2.
+ *
+ * The 'Compatible Licences' set out in the Appendix to the EUPL (as may be
+ * amended by the European Commission) shall be deemed incompatible for
+ * the purposes of the Work and the provisions of the compatibility
+ * clause in Article 5 of the EUPL shall not apply.
+ *
+ * If using the Work as, or as part of, a network application, by
+ * including the attribution notice(s) required under Article 5 of the EUPL
+ * in the end user terms of the application under an appropriate heading,
+ * such notice(s) shall fulfill the requirements of that article.
+ * ********************************************************************* */
+
+package fiftyone.geolocation.caching;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Store of serialized results keyed on primitive longs, held outside the
+ * Java heap so very large numbers of results add nothing to garbage
+ * collection pauses.
+ *
+ * The store is split into segments by key, each with its own lock, a ring
+ * of direct {@link ByteBuffer} slabs and an index. Results are appended to
+ * the current slab. When it is full, the next slab in the ring is cleared
+ * and reused, so the oldest results are evicted a slab at a time. The
+ * index is a pair of primitive arrays holding each key and the position of
+ * its record, so the only objects on the heap are the arrays themselves.
+ *
+ * Reads are optimistic: the record is copied without taking the lock, and
+ * the copy is discarded and the read repeated under the lock if a write
+ * happened at the same time.
+ *
+ * Slab record layout:
+ * <pre>
+ *   0  long   key
+ *   8  int    length of the value
+ *  12  bytes  value
+ * </pre>
+ */
+public class OffHeapResultStore {
+
+    /**
+     * The default size of each slab in bytes.
+     */
+    public static final int DEFAULT_SLAB_SIZE = 4 * 1024 * 1024;
+
+    private static final int SEGMENTS = 16;
+    private static final int RECORD_HEADER_SIZE = 12;
+    private static final int PROBES = 8;
+
+    /**
+     * Estimated average record size, used to size the index.
+     */
+    private static final int AVERAGE_RECORD_SIZE = 512;
+
+    private final Segment[] segments = new Segment[SEGMENTS];
+    private final long capacity;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * Construct a new store.
+     * @param capacity the total size in bytes of the slabs. This is
+     *                 rounded down to a whole number of slabs in each
+     *                 segment, with at least two per segment
+     * @param slabSize the size of each slab in bytes. Values larger than a
+     *                 slab are not stored
+     */
+    public OffHeapResultStore(long capacity, int slabSize) {
+        if (slabSize <= RECORD_HEADER_SIZE) {
+            throw new IllegalArgumentException(
+                "The slab size must be greater than " +
+                RECORD_HEADER_SIZE + " bytes.");
+        }
+        int slabs = (int)Math.max(2, capacity / SEGMENTS / slabSize);
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment(slabs, slabSize);
+        }
+        this.capacity = (long)slabs * slabSize * SEGMENTS;
+    }
+
+    /**
+     * Get the value for the key.
+     * @param key the key
+     * @return a copy of the value, or null if the key is not in the store
+     */
+    public byte[] get(long key) {
+        long hash = mix(key);
+        byte[] value = segments[(int)(hash >>> 60)].get(key, hash);
+        if (value == null) {
+            misses.increment();
+        }
+        else {
+            hits.increment();
+        }
+        return value;
+    }
+
+    /**
+     * Add or replace the value for the key.
+     * @param key the key
+     * @param value the value, which is copied into the store
+     */
+    public void put(long key, byte[] value) {
+        long hash = mix(key);
+        segments[(int)(hash >>> 60)].put(key, hash, value);
+    }
+
+    /**
+     * Remove all the values.
+     */
+    public void clear() {
+        for (Segment segment : segments) {
+            segment.clear();
+        }
+    }
+
+    /**
+     * @return the total size in bytes of the slabs
+     */
+    public long getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * @return the number of calls to get which found a value
+     */
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * @return the number of calls to get which did not find a value
+     */
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    private static long mix(long key) {
+        long h = key;
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    private static class Segment {
+
+        private final StampedLock lock = new StampedLock();
+        private final ByteBuffer[] slabs;
+        private final int slabSize;
+
+        /**
+         * The keys in the index, and the position of each key's record as
+         * the slab generation in the high 32 bits and the offset in the slab
+         * in the low 32 bits. A position of 0 means the entry is empty, so
+         * generations start at 1.
+         */
+        private final long[] keys;
+        private final long[] positions;
+        private final int mask;
+
+        /**
+         * The generation of the current slab, which is increased each time
+         * the next slab in the ring is reused. The slab for a generation is
+         * the generation modulo the number of slabs.
+         */
+        private long generation = 1;
+        private int offset = 0;
+
+        Segment(int slabCount, int slabSize) {
+            this.slabs = new ByteBuffer[slabCount];
+            for (int i = 0; i < slabCount; i++) {
+                slabs[i] = ByteBuffer.allocateDirect(slabSize);
+            }
+            this.slabSize = slabSize;
+            long records = (long)slabCount * slabSize / AVERAGE_RECORD_SIZE;
+            int size = Integer.highestOneBit(
+                (int)Math.min(1 << 30, Math.max(PROBES, records * 2)));
+            this.keys = new long[size];
+            this.positions = new long[size];
+            this.mask = size - 1;
+        }
+
+        byte[] get(long key, long hash) {
+            long stamp = lock.tryOptimisticRead();
+            byte[] value = stamp == 0 ? null : read(key, hash);
+            if (stamp == 0 || lock.validate(stamp) == false) {
+                stamp = lock.readLock();
+                try {
+                    value = read(key, hash);
+                } finally {
+                    lock.unlockRead(stamp);
+                }
+            }
+            return value;
+        }
+
+        void put(long key, long hash, byte[] value) {
+            int length = RECORD_HEADER_SIZE + value.length;
+            if (length > slabSize) {
+                return;
+            }
+            long stamp = lock.writeLock();
+            try {
+                if (offset + length > slabSize) {
+                    generation++;
+                    offset = 0;
+                }
+                ByteBuffer slab = slabs[(int)(generation % slabs.length)];
+                slab.putLong(offset, key);
+                slab.putInt(offset + 8, value.length);
+                ByteBuffer view = slab.duplicate();
+                view.position(offset + RECORD_HEADER_SIZE);
+                view.put(value);
+                long position = (generation << 32) | offset;
+                offset += length;
+
+                int home = (int)hash & mask;
+                int index = -1;
+                for (int i = 0; i < PROBES; i++) {
+                    int candidate = (home + i) & mask;
+                    if (positions[candidate] != 0 && keys[candidate] == key) {
+                        index = candidate;
+                        break;
+                    }
+                    if (index < 0 && isCurrent(positions[candidate]) == false) {
+                        index = candidate;
+                    }
+                }
+                if (index < 0) {
+                    index = home;
+                }
+                keys[index] = key;
+                positions[index] = position;
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+        }
+
+        void clear() {
+            long stamp = lock.writeLock();
+            try {
+                Arrays.fill(positions, 0);
+                generation++;
+                offset = 0;
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+        }
+
+        /**
+         * Read the value for the key. When called without the lock, the
+         * state may change during the read, so every position is checked
+         * against the bounds of the slab before it is used, and the caller
+         * discards the result if the lock was taken for writing.
+         */
+        private byte[] read(long key, long hash) {
+            int home = (int)hash & mask;
+            for (int i = 0; i < PROBES; i++) {
+                int index = (home + i) & mask;
+                long position = positions[index];
+                if (position != 0 && keys[index] == key && isCurrent(position)) {
+                    ByteBuffer slab = slabs[(int)((position >>> 32) % slabs.length)];
+                    int start = (int)position;
+                    if (start < 0 || start + RECORD_HEADER_SIZE > slabSize ||
+                        slab.getLong(start) != key) {
+                        return null;
+                    }
+                    int length = slab.getInt(start + 8);
+                    if (length < 0 ||
+                        start + RECORD_HEADER_SIZE + length > slabSize) {
+                        return null;
+                    }
+                    byte[] value = new byte[length];
+                    ByteBuffer view = slab.duplicate();
+                    view.position(start + RECORD_HEADER_SIZE);
+                    view.get(value);
+                    return value;
+                }
+            }
+            return null;
+        }
+
+        /**
+         * Check whether a position is in a slab which has not been reused
+         * since the record was written.
+         */
+        private boolean isCurrent(long position) {
+            long recordGeneration = position >>> 32;
+            long current = generation;
+            return recordGeneration != 0 &&
+                recordGeneration <= current &&
+                current - recordGeneration < slabs.length;
+        }
+    }
+}
@@ -0,0 +1,246 @@
+/* *********************************************************************
+ * This Original Work is copyright of 51 Degrees Mobile Experts Limited.
+ * Copyright 2023 51 Degrees Mobile Experts Limited, Davidson House,
+ * Forbury Square, Reading, Berkshire, United Kingdom RG1 3EU.
+ *
+ * This Original Work is licensed under the European Union Public Licence
+ * (EUPL) v.1.2 and is subject to its terms as set out below.
+ *
+ * If a copy of the EUPL was not distributed with this file, You can obtain
+ * one at https://opensource.org/licenses/EUPL-1.2.
+ *
+ * The 'Compatible Licences' set out in the Appendix to the EUPL (as may be
+ * amended by the European Commission) shall be deemed incompatible for
+ * the purposes of the Work and the provisions of the compatibility
+ * clause in Article 5 of the EUPL shall not apply.
+ *
+ * If using the Work as, or as part of, a network application, by
+ * including the attribution notice(s) required under Article 5 of the EUPL
+ * in the end user terms of the application under an appropriate heading,
+ * such notice(s) shall fulfill the requirements of that article.
+ * ********************************************************************* */
+
+
+package fiftyone.geolocation.caching;
+
+import fiftyone.geolocation.core.Constants;
+import fiftyone.geolocation.core.spatial.GeoCell;
+import fiftyone.pipeline.core.data.FlowData;
+import fiftyone.pipeline.core.flowelements.FlowElement;
+import fiftyone.pipeline.core.flowelements.Pipeline;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Resolves the cells around a cell which has just been resolved, so that
+ * a user who moves into an adjacent cell finds a result in the
+ * {@link GeoResultsCache}. Each prefetch creates a new FlowData from the
+ * same pipeline with a copy of the request's evidence, with the coordinates
+ * replaced by the centre of the neighbouring cell, and processes it with
+ * only the element the cache belongs to, i.e. the cloud request engine,
+ * rather than the whole pipeline. While it runs, the cache is bypassed on
+ * the prefetching thread, so the request goes to the cloud service and the
+ * result is put into the cache.
+ *
+ * Prefetches run on low priority threads with a bounded queue, and no more
+ * than the budget are started each second, so they never compete with
+ * real requests for the cloud service.
+ */
+class Prefetcher implements AutoCloseable {
+
+    /**
+     * The maximum number of prefetches waiting for a thread. Further
+     * prefetches are dropped until the queue drains.
+     */
+    private static final int QUEUE_SIZE = 256;
+
+    private static final ThreadLocal<Boolean> prefetching = new ThreadLocal<>();
+
+    private final ThreadPoolExecutor executor;
+    private final int budget;
+
+    /**
+     * The current second in the upper 32 bits, and the number of
+     * prefetches started in it in the lower 32 bits.
+     */
+    private final AtomicLong window = new AtomicLong();
+
+    private final LongAdder prefetches = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+
+    Prefetcher(int threads, int budget) {
+        this.budget = budget;
+        executor = new ThreadPoolExecutor(
+            threads,
+            threads,
+            30,
+            TimeUnit.SECONDS,
+            new ArrayBlockingQueue<>(QUEUE_SIZE),
+            runnable -> {
+                Thread thread = new Thread(runnable, "geo-results-prefetch");
+                thread.setDaemon(true);
+                thread.setPriority(Thread.MIN_PRIORITY);
+                return thread;
+            });
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * @return true if the current thread is prefetching a result, so the
+     * cache should be bypassed, and the result marked as prefetched when
+     * it is added
+     */
+    static boolean isPrefetching() {
+        return prefetching.get() != null;
+    }
+
+    /**
+     * Start background resolution of the cells, within the budget for the
+     * current second.
+     * @param data the request which resolved the cell the others surround
+     * @param element the element which produced the result for the cell
+     * @param cells the codes of the cells to resolve
+     * @param count the number of cells in the array to resolve
+     */
+    void prefetch(
+        FlowData data,
+        FlowElement<?, ?> element,
+        long[] cells,
+        int count) {
+        prefetch(data.getPipeline(), copyEvidence(data), element, cells, count);
+    }
+
+    /**
+     * Start background resolution of the cells, within the budget for the
+     * current second.
+     * @param pipeline the pipeline of the request which resolved the cell
+     *                 the others surround
+     * @param evidence the copy of the request's evidence returned by
+     *                 {@link #copyEvidence(FlowData)}
+     * @param element the element which produced the result for the cell
+     * @param cells the codes of the cells to resolve
+     * @param count the number of cells in the array to resolve
+     */
+    void prefetch(
+        Pipeline pipeline,
+        Map<String, Object> evidence,
+        FlowElement<?, ?> element,
+        long[] cells,
+        int count) {
+        if (pipeline == null || element == null || count == 0) {
+            return;
+        }
+        for (int i = 0; i < count; i++) {
+            if (tryAcquire() == false) {
+                dropped.add(count - i);
+                return;
+            }
+            long cell = cells[i];
+            try {
+                executor.execute(() -> resolve(pipeline, element, evidence, cell));
+            } catch (RejectedExecutionException e) {
+                dropped.add(count - i);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Copy the evidence of a request, as the request's flow data may be
+     * closed before the prefetches run. The copy is shared by all of them.
+     * @param data the request
+     * @return an unmodifiable copy of the evidence
+     */
+    static Map<String, Object> copyEvidence(FlowData data) {
+        return Collections.unmodifiableMap(
+            new HashMap<>(data.getEvidence().asKeyMap()));
+    }
+
+    /**
+     * @return the number of prefetches which have completed
+     */
+    long getPrefetches() {
+        return prefetches.sum();
+    }
+
+    /**
+     * @return the number of prefetches which failed
+     */
+    long getFailures() {
+        return failures.sum();
+    }
+
+    /**
+     * @return the number of prefetches which were not started because the
+     * budget was used, or the queue was full
+     */
+    long getDropped() {
+        return dropped.sum();
+    }
+
+    /**
+     * Take one prefetch from the budget for the current second.
+     * @return true if the budget was not already used
+     */
+    private boolean tryAcquire() {
+        long second = TimeUnit.NANOSECONDS.toSeconds(System.nanoTime());
+        while (true) {
+            long current = window.get();
+            long next;
+            if (current >>> 32 != (second & 0xffffffffL)) {
+                next = (second << 32) | 1;
+            }
+            else if ((int)current < budget) {
+                next = current + 1;
+            }
+            else {
+                return false;
+            }
+            if (window.compareAndSet(current, next)) {
+                return true;
+            }
+        }
+    }
+
+    private void resolve(
+        Pipeline pipeline,
+        FlowElement<?, ?> element,
+        Map<String, Object> evidence,
+        long cell) {
+        prefetching.set(Boolean.TRUE);
+        try (FlowData data = pipeline.createFlowData()) {
+            for (Map.Entry<String, Object> entry : evidence.entrySet()) {
+                data.addEvidence(entry.getKey(), entry.getValue());
+            }
+            // The location evidence takes precedence over the cookie and
+            // query parameters, so replaces the coordinates wherever they
+            // came from. The accuracy is kept so the cell level is the same.
+            data.addEvidence(
+                Constants.EVIDENCE_GEO_LAT_KEY,
+                Double.toString(GeoCell.getLatitude(cell)));
+            data.addEvidence(
+                Constants.EVIDENCE_GEO_LON_KEY,
+                Double.toString(GeoCell.getLongitude(cell)));
+            element.process(data);
+            prefetches.increment();
+        } catch (Exception e) {
+            failures.increment();
+        } finally {
+            prefetching.remove();
+        }
+    }
+
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,184 @@
+/* *********************************************************************
+ * This Original Work is copyright of 51 Degrees Mobile Experts Limited.
+ * Copyright 2023 51 Degrees Mobile Experts Limited, Davidson House,
+ * Forbury Square, Reading, Berkshire, United Kingdom RG1 3EU.
+ *
+ * This Original Work is licensed under the European Union Public Licence
+ * (EUPL) v.1.2 and is subject to its terms as set out below.
+ *
+ * If a copy of the EUPL was not distributed with this file, You can obtain
+ * one at https://opensource.org/licenses/EUPL-1.2.
+ *
+ * The 'Compatible Licences' set out in the Appendix to the EUPL (as may be
+ * amended by the European Commission) shall be deemed incompatible for
+ * the purposes of the Work and the provisions of the compatibility
+ * clause in Article 5 of the EUPL shall not apply.
+ *
+ * If using the Work as, or as part of, a network application, by
+ * including the attribution notice(s) required under Article 5 of the EUPL
+ * in the end user terms of the application under an appropriate heading,
+ * such notice(s) shall fulfill the requirements of that article.
+ * ********************************************************************* */
+
+
+package fiftyone.geolocation.caching;
+
+import fiftyone.geolocation.core.caching.SharedGeoCache;
+import fiftyone.geolocation.core.caching.SharedGeoResult;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * A store of serialized results behind the results {@link GeoResultsCache}
+ * holds in memory. The {@link ResultTiers} are consulted in order when a
+ * result is not in memory, and each response from the cloud service is
+ * written to all of them.
+ */
+interface ResultTier {
+
+    /**
+     * Get the result for a key.
+     * @param key the key of the result
+     * @param now the current time in milliseconds since the epoch
+     * @return the result, or null if the tier does not hold it
+     * @throws IOException if the tier could not be read
+     */
+    SharedGeoResult get(long key, long now) throws IOException;
+
+    /**
+     * Get the results for several keys without waiting for them. The
+     * default implementation gets each key in turn on the calling thread,
+     * which suits tiers held on this host.
+     * @param keys the keys of the results
+     * @param now the current time in milliseconds since the epoch
+     * @return future map of each key found to its result. Keys which are
+     * not found are not in the map
+     */
+    default CompletableFuture<Map<Long, SharedGeoResult>> getAllAsync(
+        long[] keys,
+        long now) {
+        CompletableFuture<Map<Long, SharedGeoResult>> future =
+            new CompletableFuture<>();
+        try {
+            Map<Long, SharedGeoResult> results = new HashMap<>();
+            for (long key : keys) {
+                SharedGeoResult result = get(key, now);
+                if (result != null) {
+                    results.put(key, result);
+                }
+            }
+            future.complete(results);
+        } catch (IOException | RuntimeException e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    /**
+     * Add or replace the result for a key.
+     * @param key the key of the result
+     * @param result the result
+     * @throws IOException if the tier could not be written
+     */
+    void put(long key, SharedGeoResult result) throws IOException;
+
+    /**
+     * Release the resources used by the tier.
+     * @throws IOException if the tier could not be closed
+     */
+    void close() throws IOException;
+
+    /**
+     * @param store the off-heap store to hold results in
+     * @return a tier which holds results in the store, and clears it when
+     * closed
+     */
+    static ResultTier of(OffHeapResultStore store) {
+        return new ResultTier() {
+            @Override
+            public SharedGeoResult get(long key, long now) {
+                return SharedGeoResult.fromBytes(store.get(key));
+            }
+
+            @Override
+            public void put(long key, SharedGeoResult result) {
+                store.put(key, result.toBytes());
+            }
+
+            @Override
+            public void close() {
+                store.clear();
+            }
+        };
+    }
+
+    /**
+     * @param store the persistent store to hold results in
+     * @return a tier which holds results in the store, and closes it when
+     * closed
+     */
+    static ResultTier of(MappedResultStore store) {
+        return new ResultTier() {
+            @Override
+            public SharedGeoResult get(long key, long now) {
+                MappedResultStore.StoredResult stored = store.get(key, now);
+                return stored == null ?
+                    null :
+                    new SharedGeoResult(stored.getJson(), stored.getExpires());
+            }
+
+            @Override
+            public void put(long key, SharedGeoResult result) throws IOException {
+                store.put(key, result.getJson(), result.getExpires());
+            }
+
+            @Override
+            public void close() throws IOException {
+                store.close();
+            }
+        };
+    }
+
+    /**
+     * @param cache the cache shared with other nodes
+     * @return a tier which holds results in the shared cache. The shared
+     * cache is not closed with the tier, as other caches may be using it.
+     */
+    static ResultTier of(SharedGeoCache cache) {
+        return new ResultTier() {
+            @Override
+            public SharedGeoResult get(long key, long now) throws IOException {
+                return SharedGeoResult.fromBytes(cache.get(key));
+            }
+
+            @Override
+            public CompletableFuture<Map<Long, SharedGeoResult>> getAllAsync(
+                long[] keys,
+                long now) {
+                return cache.getAllAsync(keys).thenApply(found -> {
+                    Map<Long, SharedGeoResult> results = new HashMap<>();
+                    for (Map.Entry<Long, byte[]> entry : found.entrySet()) {
+                        SharedGeoResult result =
+                            SharedGeoResult.fromBytes(entry.getValue());
+                        if (result != null) {
+                            results.put(entry.getKey(), result);
+                        }
+                    }
+                    return results;
+                });
+            }
+
+            @Override
+            public void put(long key, SharedGeoResult result) throws IOException {
+                cache.put(key, result.toBytes(), result.getExpires());
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+    }
+}
@@ -0,0 +1,293 @@
+/* *********************************************************************
+ * This Original Work is copyright of 51 Degrees Mobile Experts Limited.
+ * Copyright 2023 51 Degrees Mobile Experts Limited, Davidson House,
+ * Forbury Square, Reading, Berkshire, United Kingdom RG1 3EU.
+ *
+ * This Original Work is licensed under the European Union Public Licence
+ * (EUPL) v.1.2 and is subject to its terms as set out below.
+ *
+ * If a copy of the EUPL was not distributed with this file, You can obtain
+ * one at https://opensource.org/licenses/EUPL-1.2.
+ *
+ * The 'Compatible Licences' set out in the Appendix to the EUPL (as may be
+ * amended by the European Commission) shall be deemed incompatible for
+ * the purposes of the Work and the provisions of the compatibility
+ * clause in Article 5 of the EUPL shall not apply.
+ *
+ * If using the Work as, or as part of, a network application, by
+ * including the attribution notice(s) required under Article 5 of the EUPL
+ * in the end user terms of the application under an appropriate heading,
+ * such notice(s) shall fulfill the requirements of that article.
+ * ********************************************************************* */
+
+package fiftyone.geolocation.caching;
+
+import fiftyone.geolocation.core.caching.SharedGeoCache;
+import fiftyone.geolocation.core.caching.SharedGeoResult;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
+
+/**
+ * The stores of serialized results behind the results a
+ * {@link GeoResultsCache} holds in memory: an {@link OffHeapResultStore},
+ * a persistent {@link MappedResultStore} and a {@link SharedGeoCache}, any
+ * of which may be absent. Reads consult them in that order, and each
+ * response from the cloud service is written to all of them.
+ *
+ * The persistent store and shared cache are written on a background
+ * thread, so a request never waits for a file lock or another node. If
+ * their writes fall behind, further writes are dropped and counted until
+ * they catch up. Failures of any store are counted and treated as a miss,
+ * so requests still reach the cloud service.
+ */
+public class ResultTiers implements Closeable {
+
+    /**
+     * A tier with the number of results found in it, and the number of
+     * reads and writes which failed or were dropped.
+     */
+    private static class Tier {
+        final ResultTier tier;
+        final LongAdder hits = new LongAdder();
+        final LongAdder failures = new LongAdder();
+        final LongAdder dropped = new LongAdder();
+
+        Tier(ResultTier tier) {
+            this.tier = tier;
+        }
+
+        /**
+         * @param tier the tier to write to on a background thread
+         * @param name the name of the thread
+         */
+        Tier(ResultTier tier, String name) {
+            this.tier = new WriteBehindTier(tier, name, failures, dropped);
+        }
+    }
+
+    private final OffHeapResultStore offHeap;
+    private final MappedResultStore store;
+    private final SharedGeoCache shared;
+    private final Tier storeTier;
+    private final Tier sharedTier;
+    private final Tier[] tiers;
+
+    /**
+     * @param offHeap the off-heap store, or null if there is none
+     * @param store the persistent store, or null if there is none. It is
+     *              closed when the tiers are closed
+     * @param shared the cache shared with other nodes, or null if there is
+     *               none. It is not closed with the tiers, as other caches
+     *               may be using it
+     */
+    public ResultTiers(
+        OffHeapResultStore offHeap,
+        MappedResultStore store,
+        SharedGeoCache shared) {
+        this.offHeap = offHeap;
+        this.store = store;
+        this.shared = shared;
+        this.storeTier = store == null ? null :
+            new Tier(ResultTier.of(store), "geo-results-write-persistent");
+        this.sharedTier = shared == null ? null :
+            new Tier(ResultTier.of(shared), "geo-results-write-shared");
+        this.tiers = Stream.of(
+                offHeap == null ? null : new Tier(ResultTier.of(offHeap)),
+                storeTier,
+                sharedTier)
+            .filter(Objects::nonNull)
+            .toArray(Tier[]::new);
+    }
+
+    /**
+     * @return true if there are no tiers
+     */
+    public boolean isEmpty() {
+        return tiers.length == 0;
+    }
+
+    /**
+     * Get the result for a key from the first tier which holds a current
+     * one.
+     * @param key the key of the result
+     * @param now the current time in milliseconds since the epoch
+     * @return the result, or null if no tier holds a current result
+     */
+    public SharedGeoResult get(long key, long now) {
+        for (Tier tier : tiers) {
+            SharedGeoResult stored;
+            try {
+                stored = tier.tier.get(key, now);
+            } catch (IOException | RuntimeException e) {
+                tier.failures.increment();
+                continue;
+            }
+            if (stored != null && stored.getExpires() > now) {
+                tier.hits.increment();
+                return stored;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Get the results for several keys without waiting for them. Each tier
+     * is read once for all the keys which have not been found in the tiers
+     * before it.
+     * @param keys the keys of the results
+     * @param now the current time in milliseconds since the epoch
+     * @return future map of each key found to its current result. Keys
+     * which are not found are not in the map
+     */
+    public CompletableFuture<Map<Long, SharedGeoResult>> getAllAsync(
+        long[] keys,
+        long now) {
+        return getAllAsync(keys, now, 0, new HashMap<>());
+    }
+
+    /**
+     * Write a result to every tier.
+     * @param key the key of the result
+     * @param result the result
+     */
+    public void put(long key, SharedGeoResult result) {
+        for (Tier tier : tiers) {
+            try {
+                tier.tier.put(key, result);
+            } catch (IOException | RuntimeException e) {
+                tier.failures.increment();
+            }
+        }
+    }
+
+    /**
+     * @return the off-heap store, or null if there is none
+     */
+    public OffHeapResultStore getOffHeapStore() {
+        return offHeap;
+    }
+
+    /**
+     * @return the persistent store, or null if there is none
+     */
+    public MappedResultStore getPersistentStore() {
+        return store;
+    }
+
+    /**
+     * @return the number of results which could not be written to the
+     * persistent store
+     */
+    public long getPersistentStoreFailures() {
+        return storeTier == null ? 0 : storeTier.failures.sum();
+    }
+
+    /**
+     * @return the cache shared with other nodes, or null if there is none
+     */
+    public SharedGeoCache getSharedCache() {
+        return shared;
+    }
+
+    /**
+     * @return the number of results found in the shared cache
+     */
+    public long getSharedHits() {
+        return sharedTier == null ? 0 : sharedTier.hits.sum();
+    }
+
+    /**
+     * @return the number of reads and writes of the shared cache which
+     * failed
+     */
+    public long getSharedFailures() {
+        return sharedTier == null ? 0 : sharedTier.failures.sum();
+    }
+
+    /**
+     * @return the number of writes to the persistent store and shared cache
+     * which were dropped because the background writes had fallen behind
+     */
+    public long getWritesDropped() {
+        long dropped = 0;
+        for (Tier tier : tiers) {
+            dropped += tier.dropped.sum();
+        }
+        return dropped;
+    }
+
+    /**
+     * Clear the off-heap store, finish the background writes and close the
+     * persistent store.
+     * @throws IOException if the persistent store could not be closed
+     */
+    @Override
+    public void close() throws IOException {
+        IOException failure = null;
+        for (Tier tier : tiers) {
+            try {
+                tier.tier.close();
+            } catch (IOException e) {
+                failure = failure == null ? e : failure;
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * Read the keys from the tier at the index, add those found to the
+     * results, then read the rest from the following tiers.
+     */
+    private CompletableFuture<Map<Long, SharedGeoResult>> getAllAsync(
+        long[] keys,
+        long now,
+        int index,
+        Map<Long, SharedGeoResult> results) {
+        if (keys.length == 0 || index == tiers.length) {
+            return CompletableFuture.completedFuture(results);
+        }
+        Tier tier = tiers[index];
+        CompletableFuture<Map<Long, SharedGeoResult>> found;
+        try {
+            found = tier.tier.getAllAsync(keys, now);
+        } catch (RuntimeException e) {
+            found = new CompletableFuture<>();
+            found.completeExceptionally(e);
+        }
+        return found
+            .exceptionally(e -> {
+                tier.failures.increment();
+                return Collections.emptyMap();
+            })
+            .thenCompose(stored -> {
+                long[] missing = new long[keys.length];
+                int count = 0;
+                for (long key : keys) {
+                    SharedGeoResult result = stored.get(key);
+                    if (result != null && result.getExpires() > now) {
+                        tier.hits.increment();
+                        results.put(key, result);
+                    }
+                    else {
+                        missing[count++] = key;
+                    }
+                }
+                return getAllAsync(
+                    Arrays.copyOf(missing, count),
+                    now,
+                    index + 1,
+                    results);
+            });
+    }
+}
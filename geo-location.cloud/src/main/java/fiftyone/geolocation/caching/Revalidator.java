@@ -0,0 +1,150 @@
+/* *********************************************************************
+ * This Original Work is copyright of 51 Degrees Mobile Experts Limited.
+ * Copyright 2023 51 Degrees Mobile Experts Limited, Davidson House,
+ * Forbury Square, Reading, Berkshire, United Kingdom RG1 3EU.
+ *
+ * This Original Work is licensed under the European Union Public Licence
+ * (EUPL) v.1.2 and is subject to its terms as set out below.
+ *
+ * If a copy of the EUPL was not distributed with this file, You can obtain
+ * one at https://opensource.org/licenses/EUPL-1.2.
+ *
+ * The 'Compatible Licences' set out in the Appendix to the EUPL (as may be
+ * amended by the European Commission) shall be deemed incompatible for
+ * the purposes of the Work and the provisions of the compatibility
+ * clause in Article 5 of the EUPL shall not apply.
+ *
+ * If using the Work as, or as part of, a network application, by
+ * including the attribution notice(s) required under Article 5 of the EUPL
+ * in the end user terms of the application under an appropriate heading,
+ * such notice(s) shall fulfill the requirements of that article.
+ * ********************************************************************* */
+
+package fiftyone.geolocation.caching;
+
+import fiftyone.pipeline.core.data.FlowData;
+import fiftyone.pipeline.core.flowelements.FlowElement;
+import fiftyone.pipeline.core.flowelements.Pipeline;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Refreshes stale results held by {@link GeoResultsCache} in the
+ * background. A refresh creates a new FlowData from the same pipeline with a
+ * copy of the request's evidence, and processes it with only the element
+ * the cache belongs to, i.e. the cloud request engine, rather than the
+ * whole pipeline. While it runs, the cache is bypassed on the refreshing
+ * thread, so the request goes to the cloud service and the new result is
+ * put into the cache in place of the stale one.
+ */
+class Revalidator implements AutoCloseable {
+
+    /**
+     * The maximum number of refreshes waiting for a thread. Further stale
+     * results are served without a refresh until the queue drains.
+     */
+    private static final int QUEUE_SIZE = 1024;
+
+    private static final ThreadLocal<Boolean> refreshing = new ThreadLocal<>();
+
+    private final ThreadPoolExecutor executor;
+    private final LongAdder refreshes = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+
+    Revalidator(int threads) {
+        executor = new ThreadPoolExecutor(
+            threads,
+            threads,
+            30,
+            TimeUnit.SECONDS,
+            new ArrayBlockingQueue<>(QUEUE_SIZE),
+            runnable -> {
+                Thread thread = new Thread(runnable, "geo-results-revalidate");
+                thread.setDaemon(true);
+                return thread;
+            });
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * @return true if the current thread is refreshing a result, so the
+     * cache should be bypassed
+     */
+    static boolean isRefreshing() {
+        return refreshing.get() != null;
+    }
+
+    /**
+     * Start a background refresh of the result, unless one is already in
+     * progress.
+     * @param data the request which found the result stale
+     * @param element the element which produced the result
+     * @param result the stale result
+     */
+    void revalidate(
+        FlowData data,
+        FlowElement<?, ?> element,
+        CachedResult result) {
+        Pipeline pipeline = data.getPipeline();
+        if (pipeline == null ||
+            element == null ||
+            result.refreshing.compareAndSet(false, true) == false) {
+            return;
+        }
+        // Copy the evidence now, as the request's flow data may be closed
+        // before the refresh runs.
+        Map<String, Object> evidence =
+            new HashMap<>(data.getEvidence().asKeyMap());
+        try {
+            executor.execute(() -> refresh(pipeline, element, evidence, result));
+        } catch (RejectedExecutionException e) {
+            result.refreshing.set(false);
+        }
+    }
+
+    /**
+     * @return the number of refreshes which have completed
+     */
+    long getRefreshes() {
+        return refreshes.sum();
+    }
+
+    /**
+     * @return the number of refreshes which failed. The stale result
+     * remains in the cache and will be refreshed again when next requested
+     */
+    long getFailures() {
+        return failures.sum();
+    }
+
+    private void refresh(
+        Pipeline pipeline,
+        FlowElement<?, ?> element,
+        Map<String, Object> evidence,
+        CachedResult result) {
+        refreshing.set(Boolean.TRUE);
+        try (FlowData data = pipeline.createFlowData()) {
+            for (Map.Entry<String, Object> entry : evidence.entrySet()) {
+                data.addEvidence(entry.getKey(), entry.getValue());
+            }
+            element.process(data);
+            refreshes.increment();
+        } catch (Exception e) {
+            failures.increment();
+        } finally {
+            refreshing.remove();
+            result.refreshing.set(false);
+        }
+    }
+
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,136 @@
+/* *********************************************************************
+ * This Original Work is copyright of 51 Degrees Mobile Experts Limited.
+ * Copyright 2023 51 Degrees Mobile Experts Limited, Davidson House,
+ * Forbury Square, Reading, Berkshire, United Kingdom RG1 3EU.
+ *
+ * This Original Work is licensed under the European Union Public Licence
+ * (EUPL) v.1.2 and is subject to its terms as set out below.
+ *
+ * If a copy of the EUPL was not distributed with this file, You can obtain
+ * one at https://opensource.org/licenses/EUPL-1.2.
+ *
+ * The 'Compatible Licences' set out in the Appendix to the EUPL (as may be
+ * amended by the European Commission) shall be deemed incompatible for
+ * the purposes of the Work and the provisions of the compatibility
+ * clause in Article 5 of the EUPL shall not apply.
+ *
+ * If using the Work as, or as part of, a network application, by
+ * including the attribution notice(s) required under Article 5 of the EUPL
+ * in the end user terms of the application under an appropriate heading,
+ * such notice(s) shall fulfill the requirements of that article.
+ * ********************************************************************* */
+
+
+package fiftyone.geolocation.caching;
+
+import fiftyone.geolocation.core.caching.SharedGeoResult;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A {@link ResultTier} whose writes are made on a background thread, so
+ * a tier which is slow to write, such as a file which is locked for each
+ * record or a cache on another node, does not hold up the request which
+ * produced the result. Reads are made on the calling thread.
+ *
+ * Writes wait in a bounded queue, and are made in the order they were
+ * added. If the queue is full, the write is dropped, as the result is
+ * still held in memory and only the tier misses out on it. Closing the
+ * tier waits for the queued writes before the tier it wraps is closed.
+ */
+class WriteBehindTier implements ResultTier {
+
+    /**
+     * The maximum number of writes waiting for the thread.
+     */
+    private static final int QUEUE_SIZE = 1024;
+
+    /**
+     * The time in seconds closing the tier waits for queued writes.
+     */
+    private static final int CLOSE_TIMEOUT = 10;
+
+    private final ResultTier tier;
+    private final ThreadPoolExecutor executor;
+    private final LongAdder failures;
+    private final LongAdder dropped;
+
+    /**
+     * @param tier the tier to write to
+     * @param name the name of the thread which writes to the tier
+     * @param failures incremented for each write which fails
+     * @param dropped incremented for each write which is dropped because
+     *                the queue is full
+     */
+    WriteBehindTier(
+        ResultTier tier,
+        String name,
+        LongAdder failures,
+        LongAdder dropped) {
+        this.tier = tier;
+        this.failures = failures;
+        this.dropped = dropped;
+        executor = new ThreadPoolExecutor(
+            1,
+            1,
+            30,
+            TimeUnit.SECONDS,
+            new ArrayBlockingQueue<>(QUEUE_SIZE),
+            runnable -> {
+                Thread thread = new Thread(runnable, name);
+                thread.setDaemon(true);
+                return thread;
+            });
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    @Override
+    public SharedGeoResult get(long key, long now) throws IOException {
+        return tier.get(key, now);
+    }
+
+    @Override
+    public CompletableFuture<Map<Long, SharedGeoResult>> getAllAsync(
+        long[] keys,
+        long now) {
+        return tier.getAllAsync(keys, now);
+    }
+
+    @Override
+    public void put(long key, SharedGeoResult result) {
+        try {
+            executor.execute(() -> write(key, result));
+        } catch (RejectedExecutionException e) {
+            dropped.increment();
+        }
+    }
+
+    private void write(long key, SharedGeoResult result) {
+        try {
+            tier.put(key, result);
+        } catch (IOException | RuntimeException e) {
+            failures.increment();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        executor.shutdown();
+        try {
+            if (executor.awaitTermination(CLOSE_TIMEOUT, TimeUnit.SECONDS) == false) {
+                executor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+        tier.close();
+    }
+}
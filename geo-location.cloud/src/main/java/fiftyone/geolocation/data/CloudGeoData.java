@@ -24,6 +24,7 @@ package fiftyone.geolocation.data;
 
 import fiftyone.geolocation.core.data.GeoData;
 import java.util.Map;
+import java.util.TreeMap;
 
 /**
  *
@@ -31,4 +32,60 @@ import java.util.Map;
  */
 public interface CloudGeoData extends GeoData {
     public void setNoValueReasons(Map<String, String> value);
+
+    /**
+     * Set the source from which property values are decoded the first time
+     * they are requested, instead of being populated up front. The default
+     * implementation decodes every value immediately and passes them to
+     * {@link #setValues(GeoPropertyLayout, Object[], String[])}, so
+     * implementations which do not support lazy decoding still work.
+     * @param source the source to decode values from
+     */
+    public default void setValueSource(GeoValueSource source) {
+        GeoPropertyLayout layout = source.getLayout();
+        Object[] values = new Object[layout.size()];
+        String[] noValueReasons = new String[layout.size()];
+        for (int slot = 0; slot < values.length; slot++) {
+            values[slot] = source.getValue(slot);
+            if (values[slot] == null) {
+                noValueReasons[slot] = source.getNoValueReason(slot);
+            }
+        }
+        setValues(layout, values, noValueReasons);
+    }
+
+    /**
+     * Set the values of all the properties in the layout. The arrays may be
+     * shared with other instances, so are never modified. The default
+     * implementation populates the values by name with
+     * {@link #populateFromMap(Map)} and the reasons with
+     * {@link #setNoValueReasons(Map)}, as the engine did before the layout
+     * was introduced.
+     * @param layout the layout of the properties
+     * @param values the value of each property, indexed by slot. Null if the
+     *               property has no value
+     * @param noValueReasons the reason each property without a value has no
+     *                       value, indexed by slot
+     */
+    public default void setValues(
+        GeoPropertyLayout layout,
+        Object[] values,
+        String[] noValueReasons) {
+        Map<String, Object> valueMap =
+            new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        Map<String, String> noValueReasonMap =
+            new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        for (int slot = 0; slot < layout.size(); slot++) {
+            String name = layout.getName(slot);
+            valueMap.put(name, values[slot]);
+            if (values[slot] == null) {
+                String reason = noValueReasons[slot];
+                noValueReasonMap.put(
+                    name.toLowerCase(),
+                    reason == null ? "" : reason);
+            }
+        }
+        populateFromMap(valueMap);
+        setNoValueReasons(noValueReasonMap);
+    }
 }
@@ -23,6 +23,7 @@
 package fiftyone.geolocation.data;
 
 import fiftyone.geolocation.core.data.GeoDataDefault;
+import fiftyone.geolocation.core.data.GeoProperty;
 import fiftyone.pipeline.core.data.FlowData;
 import fiftyone.pipeline.core.data.TryGetResult;
 import fiftyone.pipeline.core.data.types.JavaScript;
@@ -30,17 +31,68 @@ import fiftyone.pipeline.engines.data.AspectData;
 import fiftyone.pipeline.engines.data.AspectPropertyMetaData;
 import fiftyone.pipeline.engines.data.AspectPropertyValue;
 import fiftyone.pipeline.engines.data.AspectPropertyValueDefault;
+import fiftyone.pipeline.engines.exceptions.NoValueException;
 import fiftyone.pipeline.engines.flowelements.AspectEngine;
 import fiftyone.pipeline.engines.services.MissingPropertyService;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
 import org.json.JSONObject;
 import org.slf4j.Logger;
 
+/**
+ * Geo-location data populated by the cloud engine.
+ * <p>
+ * The property values returned by the getters are built once per property
+ * and the same instance is returned by every read, so they are read only.
+ * Calling {@link AspectPropertyValue#setValue(Object)} or
+ * {@link AspectPropertyValue#setNoValueMessage(String)} on them throws
+ * {@link UnsupportedOperationException}. This is a breaking change from
+ * earlier versions, where each read returned a new value which the caller
+ * could modify. To change a property use the setter on this instance, e.g.
+ * {@link #setCountry(AspectPropertyValue)}, or copy the value into a new
+ * {@link AspectPropertyValueDefault} to modify it locally.
+ */
 public class CloudGeoDataDefault extends GeoDataDefault implements CloudGeoData {
 
     private Map<String, String> noValueReasons;
 
+    /**
+     * Values stored by slot, set by the engine using
+     * {@link #setValues(GeoPropertyLayout, Object[], String[])} or
+     * {@link #setValueSource(GeoValueSource)}. The layout is only assigned
+     * once the arrays are ready, so a null layout means that the values
+     * have not been set.
+     */
+    private volatile GeoPropertyLayout layout = null;
+    private Object[] values;
+    private String[] slotNoValueReasons;
+
+    /**
+     * True if the arrays were created by this instance rather than passed
+     * to {@link #setValues(GeoPropertyLayout, Object[], String[])}, so can
+     * be modified.
+     */
+    private boolean ownsArrays = false;
+
+    /**
+     * Property values returned by getters, built the first time each slot
+     * is read and then returned by every subsequent read.
+     */
+    private AspectPropertyValue<?>[] wrapped;
+
+    /**
+     * When values are decoded lazily, the source to decode them from and
+     * which slots have been decoded so far.
+     */
+    private volatile GeoValueSource valueSource = null;
+    private boolean[] decoded = null;
+
     public CloudGeoDataDefault(Logger logger, FlowData flowData, AspectEngine<? extends AspectData, ? extends AspectPropertyMetaData> engine, MissingPropertyService missingPropertyService) {
         super(logger, flowData, engine, missingPropertyService);
     }
@@ -49,67 +101,157 @@ public class CloudGeoDataDefault extends GeoDataDefault implements CloudGeoData
         noValueReasons = value;
     }
 
-    @SuppressWarnings("unchecked")
+    @Override
+    public void setValues(
+        GeoPropertyLayout layout,
+        Object[] values,
+        String[] noValueReasons) {
+        this.values = values;
+        this.slotNoValueReasons = noValueReasons;
+        this.ownsArrays = false;
+        this.wrapped = new AspectPropertyValue<?>[layout.size()];
+        this.layout = layout;
+    }
+
+    @Override
+    public synchronized void setValueSource(GeoValueSource source) {
+        GeoPropertyLayout sourceLayout = source.getLayout();
+        values = new Object[sourceLayout.size()];
+        slotNoValueReasons = new String[sourceLayout.size()];
+        decoded = new boolean[sourceLayout.size()];
+        ownsArrays = true;
+        wrapped = new AspectPropertyValue<?>[sourceLayout.size()];
+        valueSource = source;
+        layout = sourceLayout;
+    }
+
+    /**
+     * Once the values have been set, a property which is in the layout is
+     * stored in its slot, so that setters such as
+     * {@link #setCountry(AspectPropertyValue)} replace the value returned by
+     * the getters. Other properties are stored as normal.
+     */
+    @Override
+    public void put(String key, Object value) {
+        GeoPropertyLayout current = layout;
+        int slot = current == null ? -1 : current.getSlot(key);
+        if (slot >= 0) {
+            setSlot(slot, value);
+        }
+        else {
+            super.put(key, value);
+        }
+    }
+
+    /**
+     * Returns a view of the values. Values which are decoded lazily are
+     * decoded as they are read from the view.
+     */
+    @Override
+    public Map<String, Object> asKeyMap() {
+        if (layout == null) {
+            return super.asKeyMap();
+        }
+        return new SlotMap();
+    }
+
     @Override
     public AspectPropertyValue<JavaScript> getJavaScript() {
-        return getAs("javascript", AspectPropertyValue.class, JavaScript.class);
+        return getSlotValue(GeoProperty.JAVASCRIPT);
     }
 
     @Override
     public AspectPropertyValue<String> getRoad() {
-        return getValueAsString("road");
+        return getSlotValue(GeoProperty.ROAD);
     }
 
     @Override
     public AspectPropertyValue<String> getTown() {
-        return getValueAsString("town");
+        return getSlotValue(GeoProperty.TOWN);
     }
 
     @Override
     public AspectPropertyValue<String> getSuburb() {
-        return getValueAsString("suburb");
+        return getSlotValue(GeoProperty.SUBURB);
     }
 
     @Override
     public AspectPropertyValue<String> getCounty() {
-        return getValueAsString("county");
+        return getSlotValue(GeoProperty.COUNTY);
     }
 
     @Override
     public AspectPropertyValue<String> getRegion() {
-        return getValueAsString("region");
+        return getSlotValue(GeoProperty.REGION);
     }
 
     @Override
     public AspectPropertyValue<String> getState() {
-        return getValueAsString("state");
+        return getSlotValue(GeoProperty.STATE);
     }
 
     @Override
     public AspectPropertyValue<String> getZipCode() {
-        return getValueAsString("zipcode");
+        return getSlotValue(GeoProperty.ZIP_CODE);
     }
 
     @Override
     public AspectPropertyValue<String> getCountry() {
-        return getValueAsString("country");
+        return getSlotValue(GeoProperty.COUNTRY);
     }
 
     @Override
     public AspectPropertyValue<String> getCountryCode() {
-        return getValueAsString("countrycode");
+        return getSlotValue(GeoProperty.COUNTRY_CODE);
     }
 
     @Override
     public AspectPropertyValue<String> getAddress() {
-        return getValueAsString("address");
+        return getSlotValue(GeoProperty.ADDRESS);
+    }
+
+    @Override
+    public AspectPropertyValue<String> getBuilding() {
+        return getSlotValue(GeoProperty.BUILDING);
+    }
+
+    @Override
+    public AspectPropertyValue<String> getStreetNumber() {
+        return getSlotValue(GeoProperty.STREET_NUMBER);
+    }
+
+    /**
+     * Get the value of a property with a typed getter. If the values have
+     * been set and the property is in the layout, its slot is read directly.
+     * Otherwise the value is requested through getAs, which waits for lazy
+     * loading to complete and reports missing properties.
+     * @param property the property to get
+     * @return the value of the property
+     */
+    @SuppressWarnings("unchecked")
+    private <T> AspectPropertyValue<T> getSlotValue(GeoProperty property) {
+        GeoPropertyLayout current = layout;
+        if (current != null) {
+            int slot = current.getSlot(property);
+            if (slot >= 0) {
+                return (AspectPropertyValue<T>)wrapSlot(slot);
+            }
+        }
+        if (property == GeoProperty.JAVASCRIPT) {
+            return getAs(
+                property.getName().toLowerCase(),
+                AspectPropertyValue.class,
+                JavaScript.class);
+        }
+        return (AspectPropertyValue<T>)(AspectPropertyValue<?>)getValueAsString(
+            property.getName().toLowerCase());
     }
 
     @SuppressWarnings("unchecked")
     private AspectPropertyValue<String> getValueAsString(String key) {
         AspectPropertyValue<String> value = getAs(key, AspectPropertyValue.class);
 
-        if(noValueReasons.containsKey(key))
+        if(noValueReasons != null && noValueReasons.containsKey(key))
             value.setNoValueMessage(noValueReasons.get(key));
 
         return value;
@@ -117,7 +259,23 @@ public class CloudGeoDataDefault extends GeoDataDefault implements CloudGeoData
 
     @Override
     protected <T> TryGetResult<T> tryGetValue(String key, Class<T> type, Class<?>... parameterisedTypes) {
-        if (AspectPropertyValue.class.isAssignableFrom(type)) {
+        GeoPropertyLayout current = layout;
+        int slot = current == null ? -1 : current.getSlot(key);
+        if (slot >= 0) {
+            TryGetResult<T> result = new TryGetResult<>();
+            Object obj = AspectPropertyValue.class.isAssignableFrom(type) ?
+                wrapSlot(slot) :
+                getSlot(slot);
+            try {
+                result.setValue(type.cast(obj));
+            } catch (ClassCastException e) {
+                throw new ClassCastException("Expected property '" + key +
+                    "' to be of type '" + type.getSimpleName() +
+                    "' but it is '" + obj.getClass().getSimpleName() + "'");
+            }
+            return result;
+        }
+        else if (AspectPropertyValue.class.isAssignableFrom(type)) {
             TryGetResult<T> result = new TryGetResult<>();
             Map<String, Object> map = asKeyMap();
             if (map.containsKey(key)) {
@@ -143,7 +301,9 @@ public class CloudGeoDataDefault extends GeoDataDefault implements CloudGeoData
     private AspectPropertyValue<Object> setValue(String key, Object obj) {
         AspectPropertyValue<Object> temp = new AspectPropertyValueDefault<Object>();
         if (Objects.isNull(obj) || obj == JSONObject.NULL) {
-            temp.setNoValueMessage(noValueReasons.get(key));
+            if (noValueReasons != null) {
+                temp.setNoValueMessage(noValueReasons.get(key));
+            }
         }
         else {
             temp.setValue(obj);
@@ -151,4 +311,131 @@ public class CloudGeoDataDefault extends GeoDataDefault implements CloudGeoData
         return temp;
     }
 
+    /**
+     * Get the raw value in a slot, decoding it first if values are decoded
+     * lazily.
+     * @param slot the slot to get
+     * @return the value, or null if there is no value
+     */
+    private Object getSlot(int slot) {
+        if (valueSource != null) {
+            decode(slot);
+        }
+        return values[slot];
+    }
+
+    /**
+     * Get the property value for a slot, building it the first time the
+     * slot is read. The value is immutable, so the same instance can be
+     * returned to every caller.
+     * @param slot the slot to get
+     * @return property value
+     */
+    private synchronized AspectPropertyValue<?> wrapSlot(int slot) {
+        AspectPropertyValue<?> result = wrapped[slot];
+        if (result == null) {
+            Object value = getSlot(slot);
+            result = new ImmutableAspectPropertyValue<>(
+                value,
+                value == null ? slotNoValueReasons[slot] : null);
+            wrapped[slot] = result;
+        }
+        return result;
+    }
+
+    /**
+     * Replace the value in a slot. The arrays passed to
+     * {@link #setValues(GeoPropertyLayout, Object[], String[])} may be
+     * shared, so are copied before the first change.
+     * @param slot the slot to set
+     * @param value the new value, either a property value or the raw value
+     */
+    private synchronized void setSlot(int slot, Object value) {
+        if (ownsArrays == false) {
+            values = values.clone();
+            slotNoValueReasons = slotNoValueReasons.clone();
+            ownsArrays = true;
+        }
+        Object raw = value;
+        String noValueReason = null;
+        if (value instanceof AspectPropertyValue) {
+            AspectPropertyValue<?> propertyValue = (AspectPropertyValue<?>)value;
+            raw = propertyValue.hasValue() ? getValue(propertyValue) : null;
+            noValueReason = propertyValue.getNoValueMessage();
+        }
+        else if (value == JSONObject.NULL) {
+            raw = null;
+        }
+        values[slot] = raw;
+        slotNoValueReasons[slot] = raw == null ? noValueReason : null;
+        if (decoded != null) {
+            decoded[slot] = true;
+        }
+        wrapped[slot] = null;
+    }
+
+    private static Object getValue(AspectPropertyValue<?> value) {
+        try {
+            return value.getValue();
+        } catch (NoValueException e) {
+            return null;
+        }
+    }
+
+    private synchronized void decode(int slot) {
+        if (decoded[slot] == false) {
+            Object value = valueSource.getValue(slot);
+            values[slot] = value;
+            if (value == null) {
+                slotNoValueReasons[slot] = valueSource.getNoValueReason(slot);
+            }
+            decoded[slot] = true;
+        }
+    }
+
+    /**
+     * Map view of the values in the slots. Any entries in the underlying
+     * map which are not in the layout, such as the default JavaScript value,
+     * are also included.
+     */
+    private class SlotMap extends AbstractMap<String, Object> {
+
+        @Override
+        public Object get(Object key) {
+            int slot = key instanceof String ? layout.getSlot((String)key) : -1;
+            return slot >= 0 ? getSlot(slot) : CloudGeoDataDefault.super.asKeyMap().get(key);
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return (key instanceof String && layout.getSlot((String)key) >= 0) ||
+                CloudGeoDataDefault.super.asKeyMap().containsKey(key);
+        }
+
+        @Override
+        public Set<Entry<String, Object>> entrySet() {
+            final List<Entry<String, Object>> entries = new ArrayList<>();
+            GeoPropertyLayout current = layout;
+            for (int i = 0; i < current.size(); i++) {
+                entries.add(new SimpleImmutableEntry<>(current.getName(i), getSlot(i)));
+            }
+            for (Entry<String, Object> entry :
+                CloudGeoDataDefault.super.asKeyMap().entrySet()) {
+                if (current.getSlot(entry.getKey()) < 0) {
+                    entries.add(entry);
+                }
+            }
+            return new AbstractSet<Entry<String, Object>>() {
+                @Override
+                public Iterator<Entry<String, Object>> iterator() {
+                    return entries.iterator();
+                }
+
+                @Override
+                public int size() {
+                    return entries.size();
+                }
+            };
+        }
+    }
 }
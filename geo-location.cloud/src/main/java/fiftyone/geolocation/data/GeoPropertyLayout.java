@@ -0,0 +1,104 @@
+/* *********************************************************************
+ * This Original Work is copyright of 51 Degrees Mobile Experts Limited.
+ * Copyright 2023 51 Degrees Mobile Experts Limited, Davidson House,
+ * Forbury Square, Reading, Berkshire, United Kingdom RG1 3EU.
+ *
+ * This Original Work is licensed under the European Union Public Licence
+ * (EUPL) v.1.2 and is subject to its terms as set out below.
+ *
+ * If a copy of the EUPL was not distributed with this file, You can obtain
+ * one at https://opensource.org/licenses/EUPL-1.2.
+ *
+ * The 'Compatible Licences' set out in the Appendix to the EUPL (as may be
+ * amended by the European Commission) shall be deemed incompatible for
+ * the purposes of the Work and the provisions of the compatibility
+ * clause in Article 5 of the EUPL shall not apply.
+ *
+ * If using the Work as, or as part of, a network application, by
+ * including the attribution notice(s) required under Article 5 of the EUPL
+ * in the end user terms of the application under an appropriate heading,
+ * such notice(s) shall fulfill the requirements of that article.
+ * ********************************************************************* */
+
+
+package fiftyone.geolocation.data;
+
+import fiftyone.geolocation.core.data.GeoProperty;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Immutable mapping of property names to slots in the arrays which hold the
+ * values of a {@link CloudGeoData} instance. A layout is created once, when
+ * the engine's property meta data is loaded, and shared by every request.
+ * The properties with typed getters are also mapped directly from their
+ * {@link GeoProperty} ordinal, so a typed getter needs no string lookup.
+ */
+public class GeoPropertyLayout {
+
+    private final List<String> names;
+    private final Map<String, Integer> slots =
+        new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+    private final int[] knownSlots = new int[GeoProperty.values().length];
+
+    /**
+     * Construct a new layout.
+     * @param names the names of the properties, in slot order
+     */
+    public GeoPropertyLayout(List<String> names) {
+        this.names = Collections.unmodifiableList(names);
+        for (int i = 0; i < names.size(); i++) {
+            slots.put(names.get(i), i);
+        }
+        Arrays.fill(knownSlots, -1);
+        for (GeoProperty property : GeoProperty.values()) {
+            Integer slot = slots.get(property.getName());
+            if (slot != null) {
+                knownSlots[property.ordinal()] = slot;
+            }
+        }
+    }
+
+    /**
+     * @return the number of slots in the layout
+     */
+    public int size() {
+        return names.size();
+    }
+
+    /**
+     * @return the names of the properties, in slot order
+     */
+    public List<String> getNames() {
+        return names;
+    }
+
+    /**
+     * @param slot the slot of the property
+     * @return the name of the property as it appears in the meta data
+     */
+    public String getName(int slot) {
+        return names.get(slot);
+    }
+
+    /**
+     * @param name the name of the property in any case
+     * @return the slot of the property, or -1 if it is not in the layout
+     */
+    public int getSlot(String name) {
+        Integer slot = slots.get(name);
+        return slot == null ? -1 : slot;
+    }
+
+    /**
+     * @param property the property
+     * @return the slot of the property, or -1 if it is not in the layout
+     */
+    public int getSlot(GeoProperty property) {
+        return knownSlots[property.ordinal()];
+    }
+}
@@ -0,0 +1,51 @@
+/* *********************************************************************
+ * This Original Work is copyright of 51 Degrees Mobile Experts Limited.
+ * Copyright 2023 51 Degrees Mobile Experts Limited, Davidson House,
+ * Forbury Square, Reading, Berkshire, United Kingdom RG1 3EU.
+ *
+ * This Original Work is licensed under the European Union Public Licence
+ * (EUPL) v.1.2 and is subject to its terms as set out below.
+ *
+ * If a copy of the EUPL was not distributed with this file, You can obtain
+ * one at https://opensource.org/licenses/EUPL-1.2.
+ *
+ * The 'Compatible Licences' set out in the Appendix to the EUPL (as may be
+ * amended by the European Commission) shall be deemed incompatible for
+ * the purposes of the Work and the provisions of the compatibility
+ * clause in Article 5 of the EUPL shall not apply.
+ *
+ * If using the Work as, or as part of, a network application, by
+ * including the attribution notice(s) required under Article 5 of the EUPL
+ * in the end user terms of the application under an appropriate heading,
+ * such notice(s) shall fulfill the requirements of that article.
+ * ********************************************************************* */
+
+
+package fiftyone.geolocation.data;
+
+/**
+ * Source of property values which are decoded from the cloud response the
+ * first time they are requested, rather than all being populated when the
+ * engine processes.
+ */
+public interface GeoValueSource {
+
+    /**
+     * @return the layout of the properties in the source
+     */
+    GeoPropertyLayout getLayout();
+
+    /**
+     * Decode the value of a property.
+     * @param slot the slot of the property in the layout
+     * @return the value, or null if there is no value
+     */
+    Object getValue(int slot);
+
+    /**
+     * Get the reason a property has no value.
+     * @param slot the slot of the property in the layout
+     * @return the reason, or an empty string if none was given
+     */
+    String getNoValueReason(int slot);
+}
@@ -0,0 +1,78 @@
+/* *********************************************************************
+ * This Original Work is copyright of 51 Degrees Mobile Experts Limited.
+ * Copyright 2023 51 Degrees Mobile Experts Limited, Davidson House,
+ * Forbury Square, Reading, Berkshire, United Kingdom RG1 3EU.
+ *
+ * This Original Work is licensed under the European Union Public Licence
+ * (EUPL) v.1.2 and is subject to its terms as set out below.
+ *
+ * If a copy of the EUPL was not distributed with this file, You can obtain
+ * one at https://opensource.org/licenses/EUPL-1.2.
+ *
+ * The 'Compatible Licences' set out in the Appendix to the EUPL (as may be
+ * amended by the European Commission) shall be deemed incompatible for
+ * the purposes of the Work and the provisions of the compatibility
+ * clause in Article 5 of the EUPL shall not apply.
+ *
+ * If using the Work as, or as part of, a network application, by
+ * including the attribution notice(s) required under Article 5 of the EUPL
+ * in the end user terms of the application under an appropriate heading,
+ * such notice(s) shall fulfill the requirements of that article.
+ * ********************************************************************* */
+
+
+package fiftyone.geolocation.data;
+
+import fiftyone.pipeline.engines.data.AspectPropertyValueDefault;
+
+/**
+ * Property value which cannot be changed once it has been constructed.
+ * Instances are memoized by {@link CloudGeoDataDefault} and returned by
+ * every call to a getter, so they must not be modified by the caller.
+ * Earlier versions returned a new modifiable value from every getter, so
+ * callers which modified the values they read now get an
+ * {@link UnsupportedOperationException}.
+ * @param <T> type of the value
+ */
+class ImmutableAspectPropertyValue<T> extends AspectPropertyValueDefault<T> {
+
+    private static final String MESSAGE =
+        "Geo-location property values are shared between reads so cannot " +
+        "be modified. Use the setter on the geo-location data, or copy the " +
+        "value into a new AspectPropertyValueDefault.";
+
+    private final boolean constructed;
+
+    /**
+     * Construct a new instance.
+     * @param value the value, or null if there is no value
+     * @param noValueMessage the reason there is no value, used if value is
+     *                       null
+     */
+    ImmutableAspectPropertyValue(T value, String noValueMessage) {
+        super();
+        if (value == null) {
+            super.setNoValueMessage(noValueMessage);
+        }
+        else {
+            super.setValue(value);
+        }
+        constructed = true;
+    }
+
+    @Override
+    public void setValue(T value) {
+        if (constructed) {
+            throw new UnsupportedOperationException(MESSAGE);
+        }
+        super.setValue(value);
+    }
+
+    @Override
+    public void setNoValueMessage(String message) {
+        if (constructed) {
+            throw new UnsupportedOperationException(MESSAGE);
+        }
+        super.setNoValueMessage(message);
+    }
+}
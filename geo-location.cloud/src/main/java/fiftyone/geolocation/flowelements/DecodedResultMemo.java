@@ -0,0 +1,233 @@
+/* *********************************************************************
+ * This Original Work is copyright of 51 Degrees Mobile Experts Limited.
+ * Copyright 2023 51 Degrees Mobile Experts Limited, Davidson House,
+ * Forbury Square, Reading, Berkshire, United Kingdom RG1 3EU.
+ *
+ * This Original Work is licensed under the European Union Public Licence
+ * (EUPL) v.1.2 and is subject to its terms as set out below.
+ *
+ * If a copy of the EUPL was not distributed with this file, You can obtain
+ * one at https://opensource.org/licenses/EUPL-1.2.
+ *
+ * The 'Compatible Licences' set out in the Appendix to the EUPL (as may be
+ * amended by the European Commission) shall be deemed incompatible for
+ * the purposes of the Work and the provisions of the compatibility
+ * clause in Article 5 of the EUPL shall not apply.
+ *
+ * If using the Work as, or as part of, a network application, by
+ * including the attribution notice(s) required under Article 5 of the EUPL
+ * in the end user terms of the application under an appropriate heading,
+ * such notice(s) shall fulfill the requirements of that article.
+ * ********************************************************************* */
+
+
+package fiftyone.geolocation.flowelements;
+
+import fiftyone.geolocation.json.JsonSpan;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded memo of the property values decoded from an element of the cloud
+ * response, keyed on a hash of the element's raw text. Nearby users often
+ * get byte-identical location results, so when a response contains an
+ * element which has already been decoded, the values can be reused without
+ * decoding anything.
+ *
+ * A hash match is always confirmed by comparing the raw text, so a hash
+ * collision results in a miss rather than the wrong values. When the memo
+ * is full, the least recently used entry is evicted.
+ *
+ * The memo holds its own copies of the values, and {@link #get} returns
+ * new copies, so the values given to each FlowData can be modified without
+ * affecting other requests. Lists and maps, which is how arrays and
+ * objects in the JSON are decoded, are copied all the way down. Other
+ * values are immutable so are shared. This class is thread-safe.
+ */
+public class DecodedResultMemo {
+
+    /**
+     * The values decoded from one element. The arrays and any lists or maps
+     * in them are copies which are not shared with the memo.
+     */
+    static class Result {
+        final String content;
+        final Object[] values;
+        final String[] noValueReasons;
+
+        Result(String content, Object[] values, String[] noValueReasons) {
+            this.content = content;
+            this.values = values;
+            this.noValueReasons = noValueReasons;
+        }
+    }
+
+    private final int capacity;
+    private final Map<Long, Result> results;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * Construct a new instance.
+     * @param capacity the maximum number of results to hold
+     */
+    public DecodedResultMemo(final int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException(
+                "The capacity of the memo must be greater than zero.");
+        }
+        this.capacity = capacity;
+        this.results = new LinkedHashMap<Long, Result>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, Result> eldest) {
+                if (size() > capacity) {
+                    evictions.increment();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Get the values previously decoded from an element with the same raw
+     * text as the one provided.
+     * @param hash the hash of the element returned by {@link JsonSpan#hash()}
+     * @param span the raw text of the element
+     * @return the result, or null if the element has not been seen
+     */
+    Result get(long hash, JsonSpan span) {
+        Result result;
+        synchronized (results) {
+            result = results.get(hash);
+        }
+        if (result != null && span.contentEquals(result.content)) {
+            hits.increment();
+            return new Result(
+                result.content,
+                copy(result.values),
+                result.noValueReasons.clone());
+        }
+        misses.increment();
+        return null;
+    }
+
+    /**
+     * Add the values decoded from an element.
+     * @param hash the hash of the element returned by {@link JsonSpan#hash()}
+     * @param span the raw text of the element
+     * @param values the values, which are copied
+     * @param noValueReasons the no value reasons, which are copied
+     */
+    void put(long hash, JsonSpan span, Object[] values, String[] noValueReasons) {
+        Result result = new Result(
+            span.toString(),
+            copy(values),
+            noValueReasons.clone());
+        synchronized (results) {
+            results.put(hash, result);
+        }
+    }
+
+    /**
+     * Copy the values so that none of the mutable values are shared.
+     * @param values the values to copy
+     * @return a new array of values
+     */
+    private static Object[] copy(Object[] values) {
+        Object[] copy = new Object[values.length];
+        for (int i = 0; i < values.length; i++) {
+            copy[i] = copyValue(values[i]);
+        }
+        return copy;
+    }
+
+    /**
+     * Copy a value if it can be modified, including any values it holds.
+     * @param value the value to copy
+     * @return the copy, or the value itself if it is immutable
+     */
+    private static Object copyValue(Object value) {
+        if (value instanceof List) {
+            List<?> list = (List<?>)value;
+            List<Object> copy = new ArrayList<>(list.size());
+            for (Object item : list) {
+                copy.add(copyValue(item));
+            }
+            return copy;
+        }
+        if (value instanceof Map) {
+            Map<?, ?> map = (Map<?, ?>)value;
+            Map<Object, Object> copy = new HashMap<>();
+            for (Map.Entry<?, ?> entry : map.entrySet()) {
+                copy.put(entry.getKey(), copyValue(entry.getValue()));
+            }
+            return copy;
+        }
+        if (value instanceof JSONArray) {
+            JSONArray array = (JSONArray)value;
+            JSONArray copy = new JSONArray();
+            for (int i = 0; i < array.length(); i++) {
+                copy.put(copyValue(array.opt(i)));
+            }
+            return copy;
+        }
+        if (value instanceof JSONObject) {
+            JSONObject object = (JSONObject)value;
+            JSONObject copy = new JSONObject();
+            for (String key : object.keySet()) {
+                copy.put(key, copyValue(object.opt(key)));
+            }
+            return copy;
+        }
+        return value;
+    }
+
+    /**
+     * @return the maximum number of results held
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * @return the number of results currently held
+     */
+    public int getSize() {
+        synchronized (results) {
+            return results.size();
+        }
+    }
+
+    /**
+     * @return the number of elements whose values were found in the memo
+     */
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * @return the number of elements whose values were not found in the memo
+     */
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * @return the number of results which have been evicted to keep the memo
+     * within its capacity
+     */
+    public long getEvictions() {
+        return evictions.sum();
+    }
+}
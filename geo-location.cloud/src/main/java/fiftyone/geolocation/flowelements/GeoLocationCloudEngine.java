@@ -24,6 +24,9 @@ package fiftyone.geolocation.flowelements;
 
 import fiftyone.geolocation.core.Enums;
 import fiftyone.geolocation.data.CloudGeoData;
+import fiftyone.geolocation.json.CanonicalStringTable;
+import fiftyone.geolocation.json.JsonSpan;
+import fiftyone.geolocation.json.ParsedCloudResponse;
 import fiftyone.pipeline.cloudrequestengine.data.CloudRequestData;
 import fiftyone.pipeline.cloudrequestengine.flowelements.CloudAspectEngineBase;
 import fiftyone.pipeline.cloudrequestengine.flowelements.CloudRequestEngine;
@@ -32,17 +35,16 @@ import fiftyone.pipeline.core.data.EvidenceKeyFilter;
 import fiftyone.pipeline.core.data.EvidenceKeyFilterWhitelist;
 import fiftyone.pipeline.core.data.FlowData;
 import fiftyone.pipeline.core.data.factories.ElementDataFactory;
-import fiftyone.pipeline.core.data.types.JavaScript;
 import fiftyone.pipeline.core.exceptions.PipelineConfigurationException;
 import fiftyone.pipeline.core.flowelements.Pipeline;
 import fiftyone.pipeline.engines.data.AspectPropertyMetaData;
 import fiftyone.pipeline.engines.data.AspectPropertyMetaDataDefault;
 
+import org.json.JSONException;
 import org.json.JSONObject;
 import org.slf4j.Logger;
 
 import java.util.*;
-import org.json.JSONArray;
 
 public class GeoLocationCloudEngine extends CloudAspectEngineBase<CloudGeoData> {
 
@@ -52,6 +54,11 @@ public class GeoLocationCloudEngine extends CloudAspectEngineBase<CloudGeoData>
     private String elementDataKey;
     private EvidenceKeyFilter evidenceKeyFilter = new EvidenceKeyFilterWhitelist(Collections.emptyList());
     private String dataProviderPrefix;
+    private PropertyExtractionPlan extractionPlan = PropertyExtractionPlan.EMPTY;
+    private final boolean lazyPropertyDecoding;
+    private final CanonicalStringTable canonicalStrings;
+    private final Set<String> requestedProperties;
+    private final DecodedResultMemo resultMemo;
 
     @Override
     public List<AspectPropertyMetaData> getProperties() {
@@ -79,11 +86,92 @@ public class GeoLocationCloudEngine extends CloudAspectEngineBase<CloudGeoData>
         return dataProviderPrefix;
     }
 
+    /**
+     * Returns true if property values are only decoded from the cloud
+     * response when they are first requested from the aspect data.
+     * @return true if property decoding is lazy
+     */
+    public boolean getLazyPropertyDecoding() {
+        return lazyPropertyDecoding;
+    }
+
+    /**
+     * Get the table used to canonicalize repeated string values, such as
+     * country names and no value reasons, as they are decoded. The table
+     * records how many of the strings were already in it.
+     * @return the table, or null if strings are not canonicalized
+     */
+    public CanonicalStringTable getCanonicalStrings() {
+        return canonicalStrings;
+    }
+
+    /**
+     * Get the memo of values already decoded from identical elements of
+     * previous responses, which records hits, misses and evictions.
+     * @return the memo, or null if results are not memoized
+     */
+    public DecodedResultMemo getResultMemo() {
+        return resultMemo;
+    }
+
+    /**
+     * Construct a new instance of the engine which decodes all the
+     * properties available from the cloud service when it processes.
+     * @param logger logger to use
+     * @param aspectDataFactory factory used to create the aspect data
+     * @param provider the geo-location provider to read results for
+     */
     public GeoLocationCloudEngine(
         Logger logger,
         ElementDataFactory<CloudGeoData> aspectDataFactory,
         Enums.GeoLocationProvider provider) {
+        this(
+            logger,
+            aspectDataFactory,
+            provider,
+            false,
+            null,
+            Collections.<String>emptyList(),
+            null);
+    }
+
+    /**
+     * Construct a new instance of the engine.
+     * @param logger logger to use
+     * @param aspectDataFactory factory used to create the aspect data
+     * @param provider the geo-location provider to read results for
+     * @param lazyPropertyDecoding if true, property values are decoded from
+     *                             the cloud response the first time they are
+     *                             requested rather than all up front
+     * @param canonicalStrings table used to canonicalize repeated string
+     *                         values as they are decoded, or null if they
+     *                         should not be canonicalized
+     * @param properties the names of the properties to populate, or an
+     *                   empty list to populate all the properties available
+     *                   from the cloud service. Properties which are not in
+     *                   the list have no meta data, and are not decoded or
+     *                   stored
+     * @param resultMemo memo of values decoded from previous responses,
+     *                   used to skip decoding when a response contains an
+     *                   identical element, or null to always decode. This is
+     *                   not used if lazyPropertyDecoding is true
+     */
+    public GeoLocationCloudEngine(
+        Logger logger,
+        ElementDataFactory<CloudGeoData> aspectDataFactory,
+        Enums.GeoLocationProvider provider,
+        boolean lazyPropertyDecoding,
+        CanonicalStringTable canonicalStrings,
+        List<String> properties,
+        DecodedResultMemo resultMemo) {
         super(logger, aspectDataFactory);
+        this.resultMemo = resultMemo;
+        this.lazyPropertyDecoding = lazyPropertyDecoding;
+        this.canonicalStrings = canonicalStrings;
+        this.requestedProperties = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
+        if (properties != null) {
+            this.requestedProperties.addAll(properties);
+        }
 
         switch (provider) {
             case DigitalElement:
@@ -104,47 +192,43 @@ public class GeoLocationCloudEngine extends CloudAspectEngineBase<CloudGeoData>
     protected void processEngine(FlowData data, CloudGeoData aspectData) {
         if (cloudRequestEngine != null) {
             CloudRequestData requestData = data.getFromElement(cloudRequestEngine);
-            String json = requestData.getJsonResponse();
-
-            JSONObject jsonObj = new JSONObject(json);
-            JSONObject geoObj = jsonObj.getJSONObject(getElementDataKey());
-
-            Map<String, Object> methodData = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
-
-            for (AspectPropertyMetaData property : getProperties()) {
-                switch(property.getType().getSimpleName()) {
-                    case ("List"):
-                        JSONArray jsonArray = geoObj.optJSONArray(property.getName().toLowerCase());
-                        methodData.put(
-                            property.getName(),
-                            jsonArray == null ? null : jsonArray.toList());
-                        break;
-                    case ("JavaScript"):
-                        String javascript = geoObj.optString(property.getName().toLowerCase(), null);
-                        methodData.put(
-                            property.getName(),
-                            javascript == null ? null : new JavaScript(javascript));
-                        break;
-                    default:
-                        methodData.put(
-                            property.getName(),
-                            geoObj.opt(property.getName().toLowerCase()));
-                            break;
+
+            // If this element has been seen before, use the values which
+            // were decoded then. When decoding is lazy there are no decoded
+            // values to reuse, so the memo is not used.
+            JsonSpan span = resultMemo == null || lazyPropertyDecoding ?
+                null :
+                getElementSpan(requestData);
+            long hash = span == null ? 0 : span.hash();
+            if (span != null) {
+                DecodedResultMemo.Result result = resultMemo.get(hash, span);
+                if (result != null) {
+                    aspectData.setValues(
+                        extractionPlan.getLayout(),
+                        result.values,
+                        result.noValueReasons);
+                    return;
                 }
             }
 
-            aspectData.populateFromMap(methodData);
+            Map<String, Object> geoValues = readElementData(requestData);
 
-            Map<String, String> noValueReasonsMap = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
-            for(Map.Entry<String, Object> entry : methodData.entrySet()){
-                if("null".equals(String.valueOf(entry.getValue()))){
-                    String key = entry.getKey().toLowerCase();
-                    Object reason = tryToGet(geoObj, key);
-                    noValueReasonsMap.put(entry.getKey().toLowerCase(), (reason == null ? "" : reason.toString()));
-                }
+            if (lazyPropertyDecoding) {
+                aspectData.setValueSource(extractionPlan.source(geoValues));
+                return;
             }
 
-            aspectData.setNoValueReasons(noValueReasonsMap);
+            Object[] values = new Object[extractionPlan.size()];
+            String[] noValueReasons = new String[extractionPlan.size()];
+            extractionPlan.extract(geoValues, values, noValueReasons);
+
+            if (span != null) {
+                resultMemo.put(hash, span, values, noValueReasons);
+            }
+            aspectData.setValues(
+                extractionPlan.getLayout(),
+                values,
+                noValueReasons);
         }
         else {
             throw new PipelineConfigurationException(
@@ -154,6 +238,69 @@ public class GeoLocationCloudEngine extends CloudAspectEngineBase<CloudGeoData>
         }
     }
 
+    /**
+     * Decode the values for this engine from the JSON response. Only the
+     * subtree with this engine's element data key is decoded, and the
+     * response is only indexed once however many engines read from it. The
+     * subtree is validated when it is indexed, so values decoded later,
+     * including lazily after this method has returned, cannot fail. If the
+     * streaming reader is unable to find or validate the subtree, the whole
+     * response is parsed by org.json instead so that any errors are reported
+     * as before. Either way numbers are decoded to the same types.
+     * @param requestData the data from the cloud request engine
+     * @return the decoded values keyed on the lower case property name. This
+     * may be shared with other engines so must not be modified
+     */
+    private Map<String, Object> readElementData(CloudRequestData requestData) {
+        try {
+            Map<String, Object> values =
+                parse(requestData).getElement(getElementDataKey());
+            if (values != null) {
+                return values;
+            }
+        } catch (JSONException e) {
+            logger.debug("Streaming read of '" + getElementDataKey() +
+                "' failed, falling back to a full parse of the response", e);
+        }
+        return new JSONObject(requestData.getJsonResponse())
+            .getJSONObject(getElementDataKey())
+            .toMap();
+    }
+
+    /**
+     * Get the raw text of this engine's element of the JSON response,
+     * without decoding it.
+     * @param requestData the data from the cloud request engine
+     * @return the span of the element, or null if it could not be found
+     */
+    private JsonSpan getElementSpan(CloudRequestData requestData) {
+        try {
+            return parse(requestData).getElementSpan(getElementDataKey());
+        } catch (JSONException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Get the shared parsed response.
+     */
+    private static ParsedCloudResponse parse(CloudRequestData requestData) {
+        ParsedCloudResponse response = ParsedCloudResponse.of(requestData);
+        if (response == null) {
+            throw new JSONException("There is no JSON response");
+        }
+        return response;
+    }
+
+    /**
+     * Get the reason a property has no value from the JSON for an element.
+     * @param jsonObj the JSON for the element
+     * @param key the lower case name of the property
+     * @return the reason, or null if there is none
+     * @deprecated the reasons are now read by the property extraction plan
+     * when the response is decoded, so this is no longer used by the engine
+     */
+    @Deprecated
     public static Object tryToGet(JSONObject jsonObj, String key) {
         return jsonObj.opt(key + "nullreason");
     }
@@ -176,6 +323,19 @@ public class GeoLocationCloudEngine extends CloudAspectEngineBase<CloudGeoData>
         super.addPipeline(pipeline);
     }
 
+    /**
+     * Check whether a property was requested when the engine was built.
+     * Names may be given either on their own, or prefixed with the element
+     * data key e.g. 'location.country'.
+     * @param name the name of the property
+     * @return true if the property should be populated
+     */
+    private boolean isRequested(String name) {
+        return requestedProperties.isEmpty() ||
+            requestedProperties.contains(name) ||
+            requestedProperties.contains(getElementDataKey() + "." + name);
+    }
+
     private boolean loadAspectProperties(CloudRequestEngine engine) {
         Map<String, AccessiblePropertyMetaData.ProductMetaData> map =
             engine.getPublicProperties();
@@ -188,6 +348,9 @@ public class GeoLocationCloudEngine extends CloudAspectEngineBase<CloudGeoData>
 
             for (AccessiblePropertyMetaData.PropertyMetaData item : map.get(getElementDataKey()).properties)
             {
+                if (isRequested(item.name) == false) {
+                    continue;
+                }
                 AspectPropertyMetaData property = new AspectPropertyMetaDataDefault(
                     item.name,
                     this,
@@ -201,6 +364,9 @@ public class GeoLocationCloudEngine extends CloudAspectEngineBase<CloudGeoData>
                 
                 properties.add(property);
             }
+            extractionPlan = new PropertyExtractionPlan(
+                properties,
+                canonicalStrings);
             return true;
         }
         else {
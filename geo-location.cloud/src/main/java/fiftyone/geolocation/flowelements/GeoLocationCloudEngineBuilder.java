@@ -26,6 +26,7 @@ import fiftyone.geolocation.core.Enums;
 import fiftyone.geolocation.core.data.GeoDataDefault;
 import fiftyone.geolocation.data.CloudGeoData;
 import fiftyone.geolocation.data.CloudGeoDataDefault;
+import fiftyone.geolocation.json.CanonicalStringTable;
 import fiftyone.pipeline.annotations.ElementBuilder;
 import fiftyone.pipeline.cloudrequestengine.flowelements.CloudRequestEngine;
 import fiftyone.pipeline.core.data.FlowData;
@@ -44,6 +45,9 @@ public class GeoLocationCloudEngineBuilder extends CloudAspectEngineBuilderBase<
 
     private CloudRequestEngine requestEngine;
     private Enums.GeoLocationProvider provider;
+    private boolean lazyPropertyDecoding = false;
+    private int canonicalStringTableSize = 0;
+    private int resultMemoSize = 0;
 
     public GeoLocationCloudEngineBuilder(ILoggerFactory loggerFactory) {
         super(loggerFactory);
@@ -54,6 +58,51 @@ public class GeoLocationCloudEngineBuilder extends CloudAspectEngineBuilderBase<
         return this;
     }
     
+    /**
+     * Set whether property values should only be decoded from the cloud
+     * response when they are first requested. This reduces the work done
+     * for each request when only a few of the properties are used.
+     * By default, all properties are decoded when the engine processes.
+     * @param lazy true if property values should be decoded on access
+     * @return this builder
+     */
+    public GeoLocationCloudEngineBuilder setLazyPropertyDecoding(boolean lazy) {
+        this.lazyPropertyDecoding = lazy;
+        return this;
+    }
+
+    /**
+     * Set the number of entries in the table used to canonicalize repeated
+     * string values, such as country names and no value reasons, so that
+     * identical values from different responses share one instance.
+     * This is worth enabling when results are retained, e.g. by a results
+     * cache, and {@link CanonicalStringTable#DEFAULT_SIZE} entries are
+     * enough for the values in a typical response.
+     * By default, strings are not canonicalized.
+     * @param size the number of entries, or 0 to disable canonicalization
+     * @return this builder
+     */
+    public GeoLocationCloudEngineBuilder setCanonicalStringTableSize(int size) {
+        this.canonicalStringTableSize = size;
+        return this;
+    }
+
+    /**
+     * Set the number of decoded results to memoize. When a response contains
+     * an element which is identical to one in the memo, the values decoded
+     * from it before are used instead of decoding it again. This helps when
+     * many requests come from the same place, so get the same result.
+     * The memo is not used if property decoding is lazy, as values are then
+     * only decoded when they are requested.
+     * By default, results are not memoized.
+     * @param size the maximum number of results, or 0 to disable the memo
+     * @return this builder
+     */
+    public GeoLocationCloudEngineBuilder setResultMemoSize(int size) {
+        this.resultMemoSize = size;
+        return this;
+    }
+
     public GeoLocationCloudEngine build() throws Exception {
         return buildEngine();
     }
@@ -68,7 +117,15 @@ public class GeoLocationCloudEngineBuilder extends CloudAspectEngineBuilderBase<
         return new GeoLocationCloudEngine(
             loggerFactory.getLogger(GeoLocationCloudEngine.class.getName()),
             new GeoLocationCloudDataFactory(),
-            provider);
+            provider,
+            lazyPropertyDecoding,
+            canonicalStringTableSize > 0 ?
+                new CanonicalStringTable(canonicalStringTableSize) :
+                null,
+            properties,
+            resultMemoSize > 0 ?
+                new DecodedResultMemo(resultMemoSize) :
+                null);
     }
 
     private class GeoLocationCloudDataFactory implements ElementDataFactory<CloudGeoData> {
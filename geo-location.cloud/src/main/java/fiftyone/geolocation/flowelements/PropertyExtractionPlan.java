@@ -0,0 +1,239 @@
+/* *********************************************************************
+ * This Original Work is copyright of 51 Degrees Mobile Experts Limited.
+ * Copyright 2023 51 Degrees Mobile Experts Limited, Davidson House,
+ * Forbury Square, Reading, Berkshire, United Kingdom RG1 3EU.
+ *
+ * This Original Work is licensed under the European Union Public Licence
+ * (EUPL) v.1.2 and is subject to its terms as set out below.
+ *
+ * If a copy of the EUPL was not distributed with this file, You can obtain
+ * one at https://opensource.org/licenses/EUPL-1.2.
+ *
+ * The 'Compatible Licences' set out in the Appendix to the EUPL (as may be
+ * amended by the European Commission) shall be deemed incompatible for
+ * the purposes of the Work and the provisions of the compatibility
+ * clause in Article 5 of the EUPL shall not apply.
+ *
+ * If using the Work as, or as part of, a network application, by
+ * including the attribution notice(s) required under Article 5 of the EUPL
+ * in the end user terms of the application under an appropriate heading,
+ * such notice(s) shall fulfill the requirements of that article.
+ * ********************************************************************* */
+
+
+package fiftyone.geolocation.flowelements;
+
+import fiftyone.geolocation.core.data.GeoProperty;
+import fiftyone.geolocation.data.GeoPropertyLayout;
+import fiftyone.geolocation.data.GeoValueSource;
+import fiftyone.geolocation.json.CanonicalStringTable;
+import fiftyone.pipeline.core.data.types.JavaScript;
+import fiftyone.pipeline.engines.data.AspectPropertyMetaData;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Immutable plan for extracting the values of an engine's properties from
+ * the decoded cloud response. This is compiled once when the property
+ * meta data is loaded, so that processing a request involves no string
+ * manipulation or type inspection, just a single pass over the entries
+ * filling the slots of a {@link GeoPropertyLayout}.
+ *
+ * If the plan has a {@link CanonicalStringTable}, the values of properties
+ * which come from a small set of strings, and all the no value reasons, are
+ * canonicalized as they are extracted.
+ */
+class PropertyExtractionPlan {
+
+    /**
+     * Properties whose values are drawn from a small set of strings, so are
+     * worth canonicalizing.
+     */
+    private static final Set<GeoProperty> CANONICAL_PROPERTIES = EnumSet.of(
+        GeoProperty.COUNTRY,
+        GeoProperty.COUNTRY_CODE,
+        GeoProperty.STATE,
+        GeoProperty.REGION,
+        GeoProperty.COUNTY);
+
+    /**
+     * Converts a value decoded from the JSON to the type of the property.
+     */
+    enum Extractor {
+        LIST {
+            @Override
+            Object extract(Object value) {
+                return value instanceof List ? value : null;
+            }
+        },
+        JAVASCRIPT {
+            @Override
+            Object extract(Object value) {
+                return value == null ? null : new JavaScript(value.toString());
+            }
+        },
+        VALUE {
+            @Override
+            Object extract(Object value) {
+                return value;
+            }
+        };
+
+        abstract Object extract(Object value);
+
+        static Extractor forType(Class<?> type) {
+            switch (type.getSimpleName()) {
+                case ("List"):
+                    return LIST;
+                case ("JavaScript"):
+                    return JAVASCRIPT;
+                default:
+                    return VALUE;
+            }
+        }
+    }
+
+    /**
+     * The precomputed keys and extractor for a single property.
+     */
+    static class Entry {
+        final String name;
+        final String jsonKey;
+        final String nullReasonKey;
+        final Extractor extractor;
+        final boolean canonical;
+
+        Entry(AspectPropertyMetaData property) {
+            name = property.getName();
+            jsonKey = name.toLowerCase();
+            nullReasonKey = jsonKey + "nullreason";
+            extractor = Extractor.forType(property.getType());
+            canonical = isCanonical(name);
+        }
+
+        private static boolean isCanonical(String name) {
+            for (GeoProperty property : CANONICAL_PROPERTIES) {
+                if (property.getName().equalsIgnoreCase(name)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    static final PropertyExtractionPlan EMPTY = new PropertyExtractionPlan(
+        Collections.<AspectPropertyMetaData>emptyList(),
+        null);
+
+    private final Entry[] entries;
+    private final GeoPropertyLayout layout;
+    private final CanonicalStringTable canonicalStrings;
+
+    /**
+     * Construct a new plan.
+     * @param properties the properties to extract
+     * @param canonicalStrings table to canonicalize strings with, or null
+     *                         if strings should not be canonicalized
+     */
+    PropertyExtractionPlan(
+        List<AspectPropertyMetaData> properties,
+        CanonicalStringTable canonicalStrings) {
+        this.canonicalStrings = canonicalStrings;
+        entries = new Entry[properties.size()];
+        List<String> names = new ArrayList<>();
+        for (int i = 0; i < entries.length; i++) {
+            entries[i] = new Entry(properties.get(i));
+            names.add(entries[i].name);
+        }
+        layout = new GeoPropertyLayout(names);
+    }
+
+    /**
+     * @return the layout of the slots the plan extracts values into. The
+     * slot of each property is its index in the plan
+     */
+    GeoPropertyLayout getLayout() {
+        return layout;
+    }
+
+    /**
+     * @return the number of properties in the plan
+     */
+    int size() {
+        return entries.length;
+    }
+
+    /**
+     * Extract the value of every property in the plan, and the reason for
+     * any which do not have a value.
+     * @param geoValues the decoded element from the cloud response
+     * @param values array to set the property values in, indexed by slot
+     * @param noValueReasons array to set the reasons for missing values in,
+     *                       indexed by slot
+     */
+    void extract(
+        Map<String, Object> geoValues,
+        Object[] values,
+        String[] noValueReasons) {
+        for (int i = 0; i < entries.length; i++) {
+            Entry entry = entries[i];
+            Object value = getValue(geoValues, entry);
+            values[i] = value;
+            if (value == null) {
+                noValueReasons[i] = getNoValueReason(geoValues, entry);
+            }
+        }
+    }
+
+    /**
+     * Get a source which extracts the value of each property in the plan
+     * the first time it is requested.
+     * @param geoValues the element from the cloud response
+     * @return a new value source
+     */
+    GeoValueSource source(final Map<String, Object> geoValues) {
+        return new GeoValueSource() {
+            @Override
+            public GeoPropertyLayout getLayout() {
+                return layout;
+            }
+
+            @Override
+            public Object getValue(int slot) {
+                return PropertyExtractionPlan.this.getValue(
+                    geoValues,
+                    entries[slot]);
+            }
+
+            @Override
+            public String getNoValueReason(int slot) {
+                return PropertyExtractionPlan.this.getNoValueReason(
+                    geoValues,
+                    entries[slot]);
+            }
+        };
+    }
+
+    private Object getValue(Map<String, Object> geoValues, Entry entry) {
+        Object value = entry.extractor.extract(geoValues.get(entry.jsonKey));
+        if (entry.canonical && canonicalStrings != null) {
+            value = canonicalStrings.canonicalize(value);
+        }
+        return value;
+    }
+
+    private String getNoValueReason(Map<String, Object> geoValues, Entry entry) {
+        Object reason = geoValues.get(entry.nullReasonKey);
+        if (reason == null) {
+            return "";
+        }
+        return canonicalStrings == null ?
+            reason.toString() :
+            canonicalStrings.canonicalize(reason.toString());
+    }
+}
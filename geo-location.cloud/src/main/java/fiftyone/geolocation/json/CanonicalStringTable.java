@@ -0,0 +1,143 @@
+/* *********************************************************************
+ * This Original Work is copyright of 51 Degrees Mobile Experts Limited.
+ * Copyright 2023 51 Degrees Mobile Experts Limited, Davidson House,
+ * Forbury Square, Reading, Berkshire, United Kingdom RG1 3EU.
+ *
+ * This Original Work is licensed under the European Union Public Licence
+ * (EUPL) v.1.2 and is subject to its terms as set out below.
+ *
+ * If a copy of the EUPL was not distributed with this file, You can obtain
+ * one at https://opensource.org/licenses/EUPL-1.2.
+ *
+ * The 'Compatible Licences' set out in the Appendix to the EUPL (as may be
+ * amended by the European Commission) shall be deemed incompatible for
+ * the purposes of the Work and the provisions of the compatibility
+ * clause in Article 5 of the EUPL shall not apply.
+ *
+ * If using the Work as, or as part of, a network application, by
+ * including the attribution notice(s) required under Article 5 of the EUPL
+ * in the end user terms of the application under an appropriate heading,
+ * such notice(s) shall fulfill the requirements of that article.
+ * ********************************************************************* */
+
+
+package fiftyone.geolocation.json;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded table of canonical string instances. Values such as country names
+ * and no value reasons are repeated in almost every cloud response, but each
+ * response decodes them as new strings. Passing the decoded strings through
+ * {@link #canonicalize(String)} means identical values share one instance,
+ * so results which are retained, e.g. by a results cache, take less heap.
+ *
+ * The table is direct mapped: each string hashes to a single entry, and a
+ * string which collides with a different value replaces it. This keeps the
+ * table bounded without any locking or eviction bookkeeping. As the set of
+ * values is small compared to the size of the table, collisions are rare
+ * and a replaced value is simply added again the next time it is seen.
+ *
+ * This class is thread-safe.
+ */
+public class CanonicalStringTable {
+
+    /**
+     * The suggested number of entries in the table. Engines do not use a
+     * table unless one is configured.
+     */
+    public static final int DEFAULT_SIZE = 4096;
+
+    /**
+     * Strings longer than this are returned as they are. Values which are
+     * worth canonicalizing are short, and long strings are unlikely to be
+     * repeated.
+     */
+    private static final int MAX_LENGTH = 256;
+
+    private final AtomicReferenceArray<String> entries;
+    private final int mask;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * Construct a new instance.
+     * @param size the number of entries in the table. This is rounded up to
+     *             the next power of two
+     */
+    public CanonicalStringTable(int size) {
+        if (size <= 0) {
+            throw new IllegalArgumentException(
+                "The size of the table must be greater than zero.");
+        }
+        int capacity = Integer.highestOneBit(size);
+        if (capacity < size) {
+            capacity <<= 1;
+        }
+        entries = new AtomicReferenceArray<>(capacity);
+        mask = capacity - 1;
+    }
+
+    /**
+     * Get the canonical instance of the string. If an equal string is in
+     * the table it is returned, otherwise the string is added and returned.
+     * @param value the string to canonicalize
+     * @return the canonical instance equal to value, or null if value is null
+     */
+    public String canonicalize(String value) {
+        if (value == null || value.length() > MAX_LENGTH) {
+            return value;
+        }
+        int hash = value.hashCode();
+        int index = (hash ^ (hash >>> 16)) & mask;
+        String existing = entries.get(index);
+        if (existing != null && existing.equals(value)) {
+            hits.increment();
+            return existing;
+        }
+        misses.increment();
+        entries.lazySet(index, value);
+        return value;
+    }
+
+    /**
+     * Get the canonical instance of the value if it is a string.
+     * @param value the value to canonicalize
+     * @return the canonical string, or value if it is not a string
+     */
+    public Object canonicalize(Object value) {
+        return value instanceof String ? canonicalize((String)value) : value;
+    }
+
+    /**
+     * @return the number of entries in the table
+     */
+    public int getSize() {
+        return entries.length();
+    }
+
+    /**
+     * @return the number of strings which were already in the table
+     */
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * @return the number of strings which were not already in the table
+     */
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * @return the proportion of strings which were already in the table, or
+     * 0 if no strings have been canonicalized
+     */
+    public double getHitRate() {
+        long hitCount = hits.sum();
+        long total = hitCount + misses.sum();
+        return total == 0 ? 0 : (double)hitCount / total;
+    }
+}
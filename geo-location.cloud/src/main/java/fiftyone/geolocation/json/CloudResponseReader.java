@@ -0,0 +1,608 @@
+/* *********************************************************************
+ * This Original Work is copyright of 51 Degrees Mobile Experts Limited.
+ * Copyright 2023 51 Degrees Mobile Experts Limited, Davidson House,
+ * Forbury Square, Reading, Berkshire, United Kingdom RG1 3EU.
+ *
+ * This Original Work is licensed under the European Union Public Licence
+ * (EUPL) v.1.2 and is subject to its terms as set out below.
+ *
+ * If a copy of the EUPL was not distributed with this file, You can obtain
+ * one at https://opensource.org/licenses/EUPL-1.2.
+ *
+ * The 'Compatible Licences' set out in the Appendix to the EUPL (as may be
+ * amended by the European Commission) shall be deemed incompatible for
+ * the purposes of the Work and the provisions of the compatibility
+ * clause in Article 5 of the EUPL shall not apply.
+ *
+ * If using the Work as, or as part of, a network application, by
+ * including the attribution notice(s) required under Article 5 of the EUPL
+ * in the end user terms of the application under an appropriate heading,
+ * such notice(s) shall fulfill the requirements of that article.
+ * ********************************************************************* */
+
+
+package fiftyone.geolocation.json;
+
+import org.json.JSONException;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Streaming reader for the JSON returned by the 51Degrees cloud service.
+ * Rather than building a DOM of the whole response, the reader skips over
+ * the top level members which are not needed (e.g. 'device' or another
+ * provider's location data) without allocating, and only decodes the
+ * subtree belonging to the requested element.
+ *
+ * Objects are decoded to maps and arrays to lists, as
+ * {@link org.json.JSONObject#toMap()} does, and JSON null is decoded to Java
+ * null, also as toMap does. Note that this differs from
+ * {@link org.json.JSONObject#opt(String)}, which returns
+ * {@link org.json.JSONObject#NULL}. Numbers are decoded to the same types
+ * toMap returns: Integer, Long or BigInteger for whole numbers, BigDecimal
+ * for numbers with a fraction or exponent, and Double for negative zero.
+ *
+ * Any malformed input results in a {@link JSONException} so that callers can
+ * fall back to the org.json parser. Skipping a value only finds its end, so
+ * a value which is to be decoded later, outside the caller's fallback, should
+ * be checked first with {@link #validateValueAt(int)}.
+ */
+public class CloudResponseReader {
+
+    private final CharSequence json;
+    private int position = 0;
+
+    /**
+     * Construct a new reader.
+     * @param json the complete JSON response from the cloud service
+     */
+    public CloudResponseReader(CharSequence json) {
+        this.json = json;
+    }
+
+    /**
+     * Find the top level member with the key provided and decode it.
+     * @param json the complete JSON response from the cloud service
+     * @param elementKey the key of the member to decode e.g. 'location'
+     * @return the decoded object, or null if the response does not contain
+     * an object with the key provided
+     * @throws JSONException if the response is not valid JSON
+     */
+    public static Map<String, Object> readElement(
+        CharSequence json,
+        String elementKey) {
+        return new CloudResponseReader(json).readElement(elementKey);
+    }
+
+    /**
+     * Find the top level member with the key provided and decode it.
+     * @param elementKey the key of the member to decode e.g. 'location'
+     * @return the decoded object, or null if the response does not contain
+     * an object with the key provided
+     * @throws JSONException if the response is not valid JSON
+     */
+    public Map<String, Object> readElement(String elementKey) {
+        position = 0;
+        expect('{');
+        if (peek() == '}') {
+            return null;
+        }
+        while (true) {
+            expect('"');
+            boolean match = keyEquals(elementKey);
+            expect(':');
+            if (match) {
+                if (peek() != '{') {
+                    return null;
+                }
+                return readObject();
+            }
+            skipValue();
+            if (next() == '}') {
+                return null;
+            }
+            expectCurrent(',');
+        }
+    }
+
+    /**
+     * Find the position of the value of every member of the object which
+     * starts at the position provided, in a single pass and without
+     * decoding any of the values.
+     * @param start position of the object, 0 for the top level members of
+     *              the response
+     * @return map of keys to the position of their value, to be passed to
+     * {@link #readValueAt(int)}, or null if the value at the position is
+     * not an object
+     * @throws JSONException if the response is not valid JSON
+     */
+    public Map<String, Integer> indexObjectAt(int start) {
+        position = start;
+        if (peek() != '{') {
+            return null;
+        }
+        position++;
+        Map<String, Integer> result = new HashMap<>();
+        if (peek() == '}') {
+            return result;
+        }
+        while (true) {
+            expect('"');
+            String key = readString();
+            expect(':');
+            skipWhitespace();
+            result.put(key, position);
+            skipValue();
+            if (next() == '}') {
+                return result;
+            }
+            expectCurrent(',');
+        }
+    }
+
+    /**
+     * Decode the value which starts at the position provided.
+     * @param start position of the value, as returned by
+     * {@link #indexObjectAt(int)}
+     * @return the decoded value
+     * @throws JSONException if the response is not valid JSON
+     */
+    public Object readValueAt(int start) {
+        position = start;
+        return readValue();
+    }
+
+    /**
+     * Check that the value which starts at the position provided is valid
+     * JSON, without decoding it. Once a value has been checked, decoding it
+     * with {@link #readValueAt(int)} will not throw.
+     * @param start position of the value, as returned by
+     * {@link #indexObjectAt(int)}
+     * @throws JSONException if the value is not valid JSON
+     */
+    public void validateValueAt(int start) {
+        position = start;
+        validateValue();
+    }
+
+    /**
+     * Find the end of the value which starts at the position provided,
+     * without decoding it.
+     * @param start position of the value, as returned by
+     * {@link #indexObjectAt(int)}
+     * @return the position after the last character of the value
+     * @throws JSONException if the response is not valid JSON
+     */
+    public int endOfValueAt(int start) {
+        position = start;
+        skipValue();
+        return position;
+    }
+
+    /**
+     * Compare the key at the current position with the one provided,
+     * consuming the key and its closing quote. No allocation takes place
+     * unless the key contains escape sequences.
+     */
+    private boolean keyEquals(String key) {
+        int start = position;
+        int index = 0;
+        boolean match = true;
+        while (true) {
+            char c = charAt(position++);
+            if (c == '"') {
+                return match && index == key.length();
+            }
+            if (c == '\\') {
+                // Escaped keys are not expected, so take the slow path.
+                position = start;
+                return key.equals(readString());
+            }
+            if (match &&
+                (index >= key.length() || key.charAt(index) != c)) {
+                match = false;
+            }
+            index++;
+        }
+    }
+
+    private Object readValue() {
+        char c = peek();
+        switch (c) {
+            case '{':
+                return readObject();
+            case '[':
+                return readArray();
+            case '"':
+                position++;
+                return readString();
+            case 't':
+                expectLiteral("true");
+                return Boolean.TRUE;
+            case 'f':
+                expectLiteral("false");
+                return Boolean.FALSE;
+            case 'n':
+                expectLiteral("null");
+                return null;
+            default:
+                return readNumber();
+        }
+    }
+
+    private Map<String, Object> readObject() {
+        expect('{');
+        Map<String, Object> result = new HashMap<>();
+        if (peek() == '}') {
+            position++;
+            return result;
+        }
+        while (true) {
+            expect('"');
+            String key = readString();
+            expect(':');
+            result.put(key, readValue());
+            if (next() == '}') {
+                return result;
+            }
+            expectCurrent(',');
+        }
+    }
+
+    private List<Object> readArray() {
+        expect('[');
+        List<Object> result = new ArrayList<>();
+        if (peek() == ']') {
+            position++;
+            return result;
+        }
+        while (true) {
+            result.add(readValue());
+            if (next() == ']') {
+                return result;
+            }
+            expectCurrent(',');
+        }
+    }
+
+    /**
+     * Read a string whose opening quote has already been consumed, leaving
+     * the position after the closing quote.
+     */
+    private String readString() {
+        int start = position;
+        while (true) {
+            char c = charAt(position);
+            if (c == '"') {
+                String result = json.subSequence(start, position).toString();
+                position++;
+                return result;
+            }
+            if (c == '\\') {
+                break;
+            }
+            position++;
+        }
+        // The string contains escape sequences so needs to be built up.
+        StringBuilder builder = new StringBuilder(position - start + 16);
+        builder.append(json, start, position);
+        while (true) {
+            char c = charAt(position++);
+            if (c == '"') {
+                return builder.toString();
+            }
+            if (c == '\\') {
+                c = charAt(position++);
+                switch (c) {
+                    case 'b': builder.append('\b'); break;
+                    case 'f': builder.append('\f'); break;
+                    case 'n': builder.append('\n'); break;
+                    case 'r': builder.append('\r'); break;
+                    case 't': builder.append('\t'); break;
+                    case 'u':
+                        if (position + 4 > json.length()) {
+                            throw error("Invalid unicode escape");
+                        }
+                        try {
+                            builder.append((char)Integer.parseInt(
+                                json.subSequence(position, position + 4).toString(),
+                                16));
+                        } catch (NumberFormatException e) {
+                            throw error("Invalid unicode escape");
+                        }
+                        position += 4;
+                        break;
+                    default:
+                        builder.append(c);
+                        break;
+                }
+            }
+            else {
+                builder.append(c);
+            }
+        }
+    }
+
+    private Object readNumber() {
+        int start = position;
+        boolean decimal = false;
+        while (position < json.length()) {
+            char c = json.charAt(position);
+            if (c == '.' || c == 'e' || c == 'E') {
+                decimal = true;
+            }
+            else if ((c < '0' || c > '9') && c != '-' && c != '+') {
+                break;
+            }
+            position++;
+        }
+        if (start == position) {
+            throw error("Unexpected character '" + charAt(start) + "'");
+        }
+        String text = json.subSequence(start, position).toString();
+        try {
+            if (decimal) {
+                BigDecimal value = new BigDecimal(text);
+                return text.charAt(0) == '-' && value.signum() == 0 ?
+                    (Object)(-0.0d) :
+                    value;
+            }
+            long value;
+            try {
+                value = Long.parseLong(text);
+            } catch (NumberFormatException e) {
+                // Too large for a long.
+                return new BigInteger(text);
+            }
+            if (value == 0 && text.charAt(0) == '-') {
+                return -0.0d;
+            }
+            if (value >= Integer.MIN_VALUE && value <= Integer.MAX_VALUE) {
+                return (int)value;
+            }
+            return value;
+        } catch (NumberFormatException e) {
+            throw error("Invalid number '" + text + "'");
+        }
+    }
+
+    /**
+     * Move the position past the value which starts at the current
+     * position, checking it against the JSON grammar but without decoding
+     * it.
+     */
+    private void validateValue() {
+        char c = peek();
+        switch (c) {
+            case '{':
+                position++;
+                if (peek() == '}') {
+                    position++;
+                    return;
+                }
+                while (true) {
+                    expect('"');
+                    validateString();
+                    expect(':');
+                    validateValue();
+                    if (next() == '}') {
+                        return;
+                    }
+                    expectCurrent(',');
+                }
+            case '[':
+                position++;
+                if (peek() == ']') {
+                    position++;
+                    return;
+                }
+                while (true) {
+                    validateValue();
+                    if (next() == ']') {
+                        return;
+                    }
+                    expectCurrent(',');
+                }
+            case '"':
+                position++;
+                validateString();
+                return;
+            case 't':
+                expectLiteral("true");
+                return;
+            case 'f':
+                expectLiteral("false");
+                return;
+            case 'n':
+                expectLiteral("null");
+                return;
+            default:
+                validateNumber();
+        }
+    }
+
+    /**
+     * Move the position past a string whose opening quote has already been
+     * consumed, checking its escape sequences.
+     */
+    private void validateString() {
+        while (true) {
+            char c = charAt(position++);
+            if (c == '"') {
+                return;
+            }
+            if (c == '\\' && charAt(position++) == 'u') {
+                for (int i = 0; i < 4; i++) {
+                    if (Character.digit(charAt(position++), 16) < 0) {
+                        throw error("Invalid unicode escape");
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Move the position past a number, checking it has an optional minus
+     * sign, an integer part without leading zeros, and optional fraction
+     * and exponent parts.
+     */
+    private void validateNumber() {
+        int start = position;
+        if (position < json.length() && json.charAt(position) == '-') {
+            position++;
+        }
+        if (position < json.length() && json.charAt(position) == '0') {
+            position++;
+        }
+        else {
+            validateDigits(start);
+        }
+        if (position < json.length() && json.charAt(position) == '.') {
+            position++;
+            validateDigits(start);
+        }
+        if (position < json.length() &&
+            (json.charAt(position) == 'e' || json.charAt(position) == 'E')) {
+            position++;
+            if (position < json.length() &&
+                (json.charAt(position) == '+' || json.charAt(position) == '-')) {
+                position++;
+            }
+            validateDigits(start);
+        }
+    }
+
+    /**
+     * Move the position past one or more digits.
+     */
+    private void validateDigits(int start) {
+        int first = position;
+        while (position < json.length() &&
+            json.charAt(position) >= '0' && json.charAt(position) <= '9') {
+            position++;
+        }
+        if (first == position) {
+            throw error("Invalid number '" +
+                json.subSequence(start, Math.min(position + 1, json.length())) +
+                "'");
+        }
+    }
+
+    /**
+     * Move the position past the value which starts at the current
+     * position without decoding it.
+     */
+    private void skipValue() {
+        char c = peek();
+        if (c == '"') {
+            position++;
+            skipString();
+        }
+        else if (c == '{' || c == '[') {
+            int depth = 0;
+            do {
+                c = charAt(position++);
+                if (c == '"') {
+                    skipString();
+                }
+                else if (c == '{' || c == '[') {
+                    depth++;
+                }
+                else if (c == '}' || c == ']') {
+                    depth--;
+                }
+            } while (depth > 0);
+        }
+        else {
+            // A number or literal, which ends at the next delimiter.
+            while (position < json.length()) {
+                c = json.charAt(position);
+                if (c == ',' || c == '}' || c == ']' ||
+                    Character.isWhitespace(c)) {
+                    break;
+                }
+                position++;
+            }
+        }
+    }
+
+    /**
+     * Move the position past a string whose opening quote has already been
+     * consumed.
+     */
+    private void skipString() {
+        while (true) {
+            char c = charAt(position++);
+            if (c == '"') {
+                return;
+            }
+            if (c == '\\') {
+                position++;
+            }
+        }
+    }
+
+    private void expectLiteral(String literal) {
+        for (int i = 0; i < literal.length(); i++) {
+            if (charAt(position++) != literal.charAt(i)) {
+                throw error("Expected '" + literal + "'");
+            }
+        }
+    }
+
+    /**
+     * Skip whitespace and return the next character without consuming it.
+     */
+    private char peek() {
+        skipWhitespace();
+        return charAt(position);
+    }
+
+    /**
+     * Skip whitespace and consume the next character.
+     */
+    private char next() {
+        skipWhitespace();
+        return charAt(position++);
+    }
+
+    private void expect(char expected) {
+        if (next() != expected) {
+            position--;
+            throw error("Expected '" + expected + "'");
+        }
+    }
+
+    /**
+     * Check the character which was just consumed by {@link #next()}.
+     */
+    private void expectCurrent(char expected) {
+        if (charAt(position - 1) != expected) {
+            position--;
+            throw error("Expected '" + expected + "'");
+        }
+    }
+
+    private void skipWhitespace() {
+        while (position < json.length() &&
+            Character.isWhitespace(json.charAt(position))) {
+            position++;
+        }
+    }
+
+    private char charAt(int index) {
+        if (index >= json.length()) {
+            throw error("Unexpected end of JSON");
+        }
+        return json.charAt(index);
+    }
+
+    private JSONException error(String message) {
+        return new JSONException(message + " at position " + position);
+    }
+}
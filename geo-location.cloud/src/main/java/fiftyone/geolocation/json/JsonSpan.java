@@ -0,0 +1,96 @@
+/* *********************************************************************
+ * This Original Work is copyright of 51 Degrees Mobile Experts Limited.
+ * Copyright 2023 51 Degrees Mobile Experts Limited, Davidson House,
+ * Forbury Square, Reading, Berkshire, United Kingdom RG1 3EU.
+ *
+ * This Original Work is licensed under the European Union Public Licence
+ * (EUPL) v.1.2 and is subject to its terms as set out below.
+ *
+ * If a copy of the EUPL was not distributed with this file, You can obtain
+ * one at https://opensource.org/licenses/EUPL-1.2.
+ *
+ * The 'Compatible Licences' set out in the Appendix to the EUPL (as may be
+ * amended by the European Commission) shall be deemed incompatible for
+ * the purposes of the Work and the provisions of the compatibility
+ * clause in Article 5 of the EUPL shall not apply.
+ *
+ * If using the Work as, or as part of, a network application, by
+ * including the attribution notice(s) required under Article 5 of the EUPL
+ * in the end user terms of the application under an appropriate heading,
+ * such notice(s) shall fulfill the requirements of that article.
+ * ********************************************************************* */
+
+
+package fiftyone.geolocation.json;
+
+/**
+ * The raw text of a value within a cloud response, without copying it.
+ * Used to recognise responses whose value for an element is identical to
+ * one which has already been seen, without decoding it.
+ */
+public class JsonSpan {
+
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private final CharSequence json;
+    private final int start;
+    private final int end;
+
+    JsonSpan(CharSequence json, int start, int end) {
+        this.json = json;
+        this.start = start;
+        this.end = end;
+    }
+
+    /**
+     * @return the number of characters in the span
+     */
+    public int length() {
+        return end - start;
+    }
+
+    /**
+     * Get a 64 bit FNV-1a hash of the raw text. This is cheap to compute,
+     * but is not collision resistant, so callers must confirm a match with
+     * {@link #contentEquals(String)}.
+     * @return hash of the text
+     */
+    public long hash() {
+        long result = FNV_OFFSET;
+        for (int i = start; i < end; i++) {
+            result = (result ^ json.charAt(i)) * FNV_PRIME;
+        }
+        return result;
+    }
+
+    /**
+     * Check whether the raw text is the same as the text provided, which
+     * was returned by {@link #toString()} for another span.
+     * @param other text to compare with
+     * @return true if the text is identical
+     */
+    public boolean contentEquals(String other) {
+        if (other.length() != length()) {
+            return false;
+        }
+        for (int i = 0; i < other.length(); i++) {
+            if (other.charAt(i) != json.charAt(start + i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return a copy of the raw text
+     */
+    @Override
+    public String toString() {
+        char[] chars = new char[length()];
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = json.charAt(start + i);
+        }
+        return new String(chars);
+    }
+}
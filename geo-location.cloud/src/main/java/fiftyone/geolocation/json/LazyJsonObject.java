@@ -0,0 +1,107 @@
+/* *********************************************************************
+ * This Original Work is copyright of 51 Degrees Mobile Experts Limited.
+ * Copyright 2023 51 Degrees Mobile Experts Limited, Davidson House,
+ * Forbury Square, Reading, Berkshire, United Kingdom RG1 3EU.
+ *
+ * This Original Work is licensed under the European Union Public Licence
+ * (EUPL) v.1.2 and is subject to its terms as set out below.
+ *
+ * If a copy of the EUPL was not distributed with this file, You can obtain
+ * one at https://opensource.org/licenses/EUPL-1.2.
+ *
+ * The 'Compatible Licences' set out in the Appendix to the EUPL (as may be
+ * amended by the European Commission) shall be deemed incompatible for
+ * the purposes of the Work and the provisions of the compatibility
+ * clause in Article 5 of the EUPL shall not apply.
+ *
+ * If using the Work as, or as part of, a network application, by
+ * including the attribution notice(s) required under Article 5 of the EUPL
+ * in the end user terms of the application under an appropriate heading,
+ * such notice(s) shall fulfill the requirements of that article.
+ * ********************************************************************* */
+
+
+package fiftyone.geolocation.json;
+
+import org.json.JSONException;
+
+import java.util.AbstractMap;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Read only map view of an object in a cloud response. Only the positions of
+ * the object's members are found up front. Each value is decoded the first
+ * time it is requested, and then kept for subsequent requests. Instances are
+ * safe to share between threads.
+ */
+public class LazyJsonObject extends AbstractMap<String, Object> {
+
+    private final CharSequence json;
+    private final Map<String, Integer> index;
+    private final Map<String, Object> decoded = new HashMap<>();
+    private Set<Entry<String, Object>> entries = null;
+
+    /**
+     * Construct a new view of the object which starts at the position
+     * provided.
+     * @param json the complete JSON response
+     * @param index the member positions returned by
+     *              {@link CloudResponseReader#indexObjectAt(int)}, for an
+     *              object already checked with
+     *              {@link CloudResponseReader#validateValueAt(int)}
+     */
+    LazyJsonObject(CharSequence json, Map<String, Integer> index) {
+        this.json = json;
+        this.index = index;
+    }
+
+    /**
+     * Decode the value with the key provided, if it has not already been
+     * decoded.
+     * @param key the key in the JSON object
+     * @return the decoded value, or null if the value is JSON null or the
+     * object does not contain the key
+     * @throws JSONException if the value is not valid JSON, which can only
+     * happen if the object was not checked before it was indexed
+     */
+    @Override
+    public synchronized Object get(Object key) {
+        Object value = decoded.get(key);
+        if (value == null && decoded.containsKey(key) == false) {
+            Integer start = index.get(key);
+            if (start != null) {
+                value = new CloudResponseReader(json).readValueAt(start);
+                decoded.put((String)key, value);
+            }
+        }
+        return value;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return index.containsKey(key);
+    }
+
+    @Override
+    public int size() {
+        return index.size();
+    }
+
+    /**
+     * Decodes all the values which have not already been decoded.
+     */
+    @Override
+    public synchronized Set<Entry<String, Object>> entrySet() {
+        if (entries == null) {
+            Map<String, Object> all = new HashMap<>();
+            for (String key : index.keySet()) {
+                all.put(key, get(key));
+            }
+            entries = Collections.unmodifiableMap(all).entrySet();
+        }
+        return entries;
+    }
+}
@@ -0,0 +1,171 @@
+/* *********************************************************************
+ * This Original Work is copyright of 51 Degrees Mobile Experts Limited.
+ * Copyright 2023 51 Degrees Mobile Experts Limited, Davidson House,
+ * Forbury Square, Reading, Berkshire, United Kingdom RG1 3EU.
+ *
+ * This Original Work is licensed under the European Union Public Licence
+ * (EUPL) v.1.2 and is subject to its terms as set out below.
+ *
+ * If a copy of the EUPL was not distributed with this file, You can obtain
+ * one at https://opensource.org/licenses/EUPL-1.2.
+ *
+ * The 'Compatible Licences' set out in the Appendix to the EUPL (as may be
+ * amended by the European Commission) shall be deemed incompatible for
+ * the purposes of the Work and the provisions of the compatibility
+ * clause in Article 5 of the EUPL shall not apply.
+ *
+ * If using the Work as, or as part of, a network application, by
+ * including the attribution notice(s) required under Article 5 of the EUPL
+ * in the end user terms of the application under an appropriate heading,
+ * such notice(s) shall fulfill the requirements of that article.
+ * ********************************************************************* */
+
+
+package fiftyone.geolocation.json;
+
+import fiftyone.pipeline.cloudrequestengine.data.CloudRequestData;
+import org.json.JSONException;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A cloud response which is shared by all the engines which read from it.
+ * Every geo-location engine in a Pipeline (and any other engine using this
+ * class) reads from the same JSON response string, so rather than each of
+ * them scanning it from the start, the first engine to ask for an element
+ * indexes the top level members in a single pass. Elements are returned as
+ * {@link LazyJsonObject} views which are kept, so each value is decoded at
+ * most once per response, and only if an engine asks for it.
+ *
+ * Shared instances are obtained using {@link #of(CloudRequestData)}, which
+ * keeps recently parsed responses in a small fixed size table keyed on the
+ * identity of the response string. The engines in a Pipeline read the
+ * response one after another, so they find the same instance, while the
+ * request data itself is never modified. As the table has a fixed number of
+ * slots, a parsed response is released once other responses replace it,
+ * however long the request data is kept, e.g. by a results cache. The maps
+ * returned by {@link #getElement(String)} are shared, so must not be
+ * modified.
+ */
+public class ParsedCloudResponse {
+
+    /**
+     * The number of recently parsed responses which are shared. This must
+     * be a power of two.
+     */
+    private static final int SHARED_SLOTS = 256;
+
+    private static final AtomicReferenceArray<ParsedCloudResponse> shared =
+        new AtomicReferenceArray<>(SHARED_SLOTS);
+
+    private final String json;
+    private Map<String, Integer> index = null;
+    private final Map<String, LazyJsonObject> elements = new HashMap<>();
+    private final Map<String, JsonSpan> spans = new HashMap<>();
+
+    private ParsedCloudResponse(String json) {
+        this.json = json;
+    }
+
+    /**
+     * Get the shared parsed response for the request data provided, creating
+     * it if this is the first engine to read it.
+     * @param requestData the data from the cloud request engine
+     * @return parsed response, or null if there is no JSON response
+     */
+    public static ParsedCloudResponse of(CloudRequestData requestData) {
+        String json = requestData.getJsonResponse();
+        if (json == null) {
+            return null;
+        }
+        int slot = System.identityHashCode(json) & (SHARED_SLOTS - 1);
+        ParsedCloudResponse existing = shared.get(slot);
+        if (existing != null && existing.json == json) {
+            return existing;
+        }
+        ParsedCloudResponse response = new ParsedCloudResponse(json);
+        if (shared.compareAndSet(slot, existing, response) == false) {
+            // Another engine parsed a response for the slot at the same
+            // time, so use it if it is for the same response.
+            ParsedCloudResponse other = shared.get(slot);
+            if (other != null && other.json == json) {
+                return other;
+            }
+        }
+        return response;
+    }
+
+    /**
+     * Parse the JSON provided. The instance returned is not shared, so
+     * {@link #of(CloudRequestData)} should be used where the request data is
+     * available.
+     * @param json the JSON response from the cloud request engine
+     * @return parsed response
+     */
+    public static ParsedCloudResponse of(String json) {
+        return new ParsedCloudResponse(json);
+    }
+
+    /**
+     * Get the element with the key provided. The first time it is
+     * requested, the element is checked to be valid JSON and the positions of
+     * its members are found. Its values are decoded as they are read, which
+     * will not throw, so a caller which falls back to another parser only
+     * needs to guard this method.
+     * @param elementKey the key of the element e.g. 'location'
+     * @return the element, or null if the response does not contain an
+     * object with the key provided
+     * @throws JSONException if the response or the element is not valid JSON
+     */
+    public synchronized LazyJsonObject getElement(String elementKey) {
+        if (elements.containsKey(elementKey)) {
+            return elements.get(elementKey);
+        }
+        CloudResponseReader reader = new CloudResponseReader(json);
+        Integer start = getIndex(reader).get(elementKey);
+        if (start != null) {
+            reader.validateValueAt(start);
+        }
+        Map<String, Integer> members = start == null ?
+            null :
+            reader.indexObjectAt(start);
+        LazyJsonObject element = members == null ?
+            null :
+            new LazyJsonObject(json, members);
+        elements.put(elementKey, element);
+        return element;
+    }
+
+    /**
+     * Get the raw text of the element with the key provided, without
+     * decoding it.
+     * @param elementKey the key of the element e.g. 'location'
+     * @return the span of the element's value, or null if the response
+     * does not contain a member with the key provided
+     * @throws JSONException if the response is not valid JSON
+     */
+    public synchronized JsonSpan getElementSpan(String elementKey) {
+        if (spans.containsKey(elementKey)) {
+            return spans.get(elementKey);
+        }
+        CloudResponseReader reader = new CloudResponseReader(json);
+        Integer start = getIndex(reader).get(elementKey);
+        JsonSpan span = start == null ?
+            null :
+            new JsonSpan(json, start, reader.endOfValueAt(start));
+        spans.put(elementKey, span);
+        return span;
+    }
+
+    private Map<String, Integer> getIndex(CloudResponseReader reader) {
+        if (index == null) {
+            index = reader.indexObjectAt(0);
+            if (index == null) {
+                throw new JSONException("The response is not a JSON object");
+            }
+        }
+        return index;
+    }
+}
@@ -36,6 +36,8 @@ public class Constants {
     public static final String EVIDENCE_GEO_LON_COOKIE_KEY = "cookie." + EVIDENCE_GEO_LON_COOKIE_NAME;
     public static final String EVIDENCE_GEO_LAT_PARAM_KEY = "query." + EVIDENCE_GEO_LAT_COOKIE_NAME;
     public static final String EVIDENCE_GEO_LON_PARAM_KEY = "query." + EVIDENCE_GEO_LON_COOKIE_NAME;
+    public static final String EVIDENCE_GEO_ACCURACY_COOKIE_NAME = "51D_Pos_accuracy";
+    public static final String EVIDENCE_GEO_ACCURACY_COOKIE_KEY = "cookie." + EVIDENCE_GEO_ACCURACY_COOKIE_NAME;
 
     public static final EvidenceKeyFilter DefaultGeoEvidenceKeyFilter =
         new EvidenceKeyFilterWhitelist(Arrays.asList(
@@ -45,7 +47,8 @@ public class Constants {
                 Constants.EVIDENCE_GEO_LAT_COOKIE_KEY,
                 Constants.EVIDENCE_GEO_LON_COOKIE_KEY,
                 Constants.EVIDENCE_GEO_LAT_PARAM_KEY,
-                Constants.EVIDENCE_GEO_LON_PARAM_KEY),
+                Constants.EVIDENCE_GEO_LON_PARAM_KEY,
+                Constants.EVIDENCE_GEO_ACCURACY_COOKIE_KEY),
             String.CASE_INSENSITIVE_ORDER);
 
     public static final String NO_EVIDENCE_MESSAGE = "This property requires evidence" +
@@ -0,0 +1,147 @@
+/* *********************************************************************
+ * This Original Work is copyright of 51 Degrees Mobile Experts Limited.
+ * Copyright 2023 51 Degrees Mobile Experts Limited, Davidson House,
+ * Forbury Square, Reading, Berkshire, United Kingdom RG1 3EU.
+ *
+ * This Original Work is licensed under the European Union Public Licence
+ * (EUPL) v.1.2 and is subject to its terms as set out below.
+ *
+ * If a copy of the EUPL was not distributed with this file, You can obtain
+ * one at https://opensource.org/licenses/EUPL-1.2.
+ *
+ * The 'Compatible Licences' set out in the Appendix to the EUPL (as may be
+ * amended by the European Commission) shall be deemed incompatible for
+ * the purposes of the Work and the provisions of the compatibility
+ * clause in Article 5 of the EUPL shall not apply.
+ *
+ * If using the Work as, or as part of, a network application, by
+ * including the attribution notice(s) required under Article 5 of the EUPL
+ * in the end user terms of the application under an appropriate heading,
+ * such notice(s) shall fulfill the requirements of that article.
+ * ********************************************************************* */
+
+
+package fiftyone.geolocation.core;
+
+import fiftyone.geolocation.core.data.Coordinates;
+import fiftyone.pipeline.core.data.FlowData;
+
+import java.util.Map;
+
+/**
+ * Rewrites the coordinates in the evidence of a FlowData into one canonical
+ * form before it is processed. Coordinates arrive as whatever strings the
+ * client sent, e.g. "51.4577140", "51.457714" or "5.14577140e1", so the
+ * same location produces different cache keys and upstream requests. The
+ * coordinates are parsed and validated, rounded to a fixed number of
+ * decimal places, and added as 'location.latitude' and
+ * 'location.longitude', which take precedence over the other coordinate
+ * evidence. Any coordinates in the cookie or query evidence are
+ * overwritten with the same values, so the results caches and the cloud
+ * request engine see identical evidence for identical locations.
+ *
+ * Evidence cannot be added to a FlowData once it is being processed, so
+ * {@link #canonicalize(FlowData)} must be called after the evidence is
+ * added and before {@link FlowData#process()} is called.
+ *
+ * If the canonicalizer is accuracy adaptive, coordinates with an accuracy
+ * radius in the '51D_Pos_accuracy' cookie are rounded to fewer decimal
+ * places when they are less accurate, so that inaccurate fixes from nearby
+ * clients are sent as the same location.
+ *
+ * Coordinates which are not valid are left as they are.
+ */
+public class CoordinateCanonicalizer {
+
+    /**
+     * The default number of decimal places, which is around 11m.
+     */
+    public static final int DEFAULT_DECIMAL_PLACES = 4;
+
+    private static final String[][] OTHER_COORDINATE_KEYS = {
+        { Constants.EVIDENCE_GEO_LAT_COOKIE_KEY, Constants.EVIDENCE_GEO_LON_COOKIE_KEY },
+        { Constants.EVIDENCE_GEO_LAT_PARAM_KEY, Constants.EVIDENCE_GEO_LON_PARAM_KEY } };
+
+    private final int decimalPlaces;
+    private final boolean accuracyAdaptive;
+
+    /**
+     * Construct a new instance.
+     * @param decimalPlaces the number of decimal places to round
+     *                      coordinates to
+     * @param accuracyAdaptive if true, coordinates are rounded to fewer
+     *                         decimal places when the accuracy in the
+     *                         evidence shows that they are less accurate
+     */
+    public CoordinateCanonicalizer(int decimalPlaces, boolean accuracyAdaptive) {
+        if (decimalPlaces < 0) {
+            throw new IllegalArgumentException(
+                "The number of decimal places must not be negative.");
+        }
+        this.decimalPlaces = decimalPlaces;
+        this.accuracyAdaptive = accuracyAdaptive;
+    }
+
+    /**
+     * @return the number of decimal places coordinates are rounded to
+     */
+    public int getDecimalPlaces() {
+        return decimalPlaces;
+    }
+
+    /**
+     * @return true if coordinates are rounded according to their accuracy
+     */
+    public boolean getAccuracyAdaptive() {
+        return accuracyAdaptive;
+    }
+
+    /**
+     * Add the canonical coordinates to the evidence of a FlowData which has
+     * not been processed yet.
+     * @param data the FlowData, with its evidence added
+     * @return the FlowData
+     */
+    public FlowData canonicalize(FlowData data) {
+        Map<String, Object> evidence = data.getEvidence().asKeyMap();
+        Coordinates coordinates = GeoEngineHelper.getCoordinates(evidence);
+        if (coordinates == null) {
+            return data;
+        }
+        int places = getDecimalPlaces(evidence);
+        String latitude = Coordinates.format(
+            coordinates.getLatitude(),
+            places);
+        String longitude = Coordinates.format(
+            coordinates.getLongitude(),
+            places);
+        data.addEvidence(Constants.EVIDENCE_GEO_LAT_KEY, latitude);
+        data.addEvidence(Constants.EVIDENCE_GEO_LON_KEY, longitude);
+        for (String[] pair : OTHER_COORDINATE_KEYS) {
+            if (evidence.containsKey(pair[0]) &&
+                evidence.containsKey(pair[1])) {
+                data.addEvidence(pair[0], latitude);
+                data.addEvidence(pair[1], longitude);
+            }
+        }
+        return data;
+    }
+
+    /**
+     * Get the number of decimal places to round the coordinates in the
+     * evidence to.
+     * @param evidence the evidence
+     * @return the number of decimal places
+     */
+    private int getDecimalPlaces(Map<String, Object> evidence) {
+        if (accuracyAdaptive) {
+            double accuracy = GeoEngineHelper.getAccuracy(evidence);
+            if (Double.isNaN(accuracy) == false) {
+                return Math.min(
+                    decimalPlaces,
+                    Coordinates.getDecimalPlaces(accuracy));
+            }
+        }
+        return decimalPlaces;
+    }
+}
@@ -22,6 +22,7 @@
 
 package fiftyone.geolocation.core;
 
+import fiftyone.geolocation.core.data.Coordinates;
 import fiftyone.geolocation.core.data.GeoEvidence;
 import fiftyone.pipeline.core.data.FlowData;
 import fiftyone.pipeline.core.data.types.JavaScript;
@@ -88,6 +89,56 @@ public class GeoEngineHelper {
         return found;
     }
 
+    /**
+     * Get the coordinates which would be used to query the geo-location
+     * service from the evidence. The location keys are checked first, then
+     * the cookie, then the query parameters, and the first pair which is
+     * present is used.
+     * @param evidence evidence collection to get the coordinates from
+     * @return the coordinates, or null if there are none, or the pair which
+     * would be used is not valid
+     */
+    public static Coordinates getCoordinates(Map<String, Object> evidence) {
+        String[][] keys = {
+            { Constants.EVIDENCE_GEO_LAT_KEY, Constants.EVIDENCE_GEO_LON_KEY },
+            { Constants.EVIDENCE_GEO_LAT_COOKIE_KEY, Constants.EVIDENCE_GEO_LON_COOKIE_KEY },
+            { Constants.EVIDENCE_GEO_LAT_PARAM_KEY, Constants.EVIDENCE_GEO_LON_PARAM_KEY } };
+        for (String[] pair : keys) {
+            if (evidence.containsKey(pair[0]) &&
+                evidence.containsKey(pair[1])) {
+                return Coordinates.parse(
+                    evidence.get(pair[0]),
+                    evidence.get(pair[1]));
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Get the accuracy of the coordinates from the evidence. This is the
+     * radius reported by the client's geo-location API, which the JavaScript
+     * writes to the accuracy cookie.
+     * @param evidence evidence collection to get the accuracy from
+     * @return the accuracy radius in metres, or NaN if it is not in the
+     * evidence or is not a positive number
+     */
+    public static double getAccuracy(Map<String, Object> evidence) {
+        Object value = evidence.get(Constants.EVIDENCE_GEO_ACCURACY_COOKIE_KEY);
+        if (value != null) {
+            try {
+                double accuracy = value instanceof Number ?
+                    ((Number)value).doubleValue() :
+                    Double.parseDouble(value.toString().trim());
+                if (accuracy > 0 && Double.isInfinite(accuracy) == false) {
+                    return accuracy;
+                }
+            } catch (NumberFormatException e) {
+                // Not a number, so treated as missing.
+            }
+        }
+        return Double.NaN;
+    }
+
     /**
      * Use evidence from the specified FlowData instance to construct a query
      * @param data the flow data to process
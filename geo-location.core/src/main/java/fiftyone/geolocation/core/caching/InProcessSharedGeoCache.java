@@ -0,0 +1,97 @@
+/* *********************************************************************
+ * This Original Work is copyright of 51 Degrees Mobile Experts Limited.
+ * Copyright 2023 51 Degrees Mobile Experts Limited, Davidson House,
+ * Forbury Square, Reading, Berkshire, United Kingdom RG1 3EU.
+ *
+ * This Original Work is licensed under the European Union Public Licence
+ * (EUPL) v.1.2 and is subject to its terms as set out below.
+ *
+ * If a copy of the EUPL was not distributed with this file, You can obtain
+ * one at https://opensource.org/licenses/EUPL-1.2.
+ *
+ * The 'Compatible Licences' set out in the Appendix to the EUPL (as may be
+ * amended by the European Commission) shall be deemed incompatible for
+ * the purposes of the Work and the provisions of the compatibility
+ * clause in Article 5 of the EUPL shall not apply.
+ *
+ * If using the Work as, or as part of, a network application, by
+ * including the attribution notice(s) required under Article 5 of the EUPL
+ * in the end user terms of the application under an appropriate heading,
+ * such notice(s) shall fulfill the requirements of that article.
+ * ********************************************************************* */
+
+package fiftyone.geolocation.core.caching;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Reference implementation of {@link SharedGeoCache} which holds results in
+ * memory in the current process. Results are only shared between the
+ * pipelines in the process, so this is mainly useful for testing, and as
+ * the store behind a cache server.
+ *
+ * The least recently used result is removed when the cache is full, and
+ * expired results are removed when they are read.
+ */
+public class InProcessSharedGeoCache implements SharedGeoCache {
+
+    private static class StoredValue {
+        final byte[] value;
+        final long expires;
+
+        StoredValue(byte[] value, long expires) {
+            this.value = value;
+            this.expires = expires;
+        }
+    }
+
+    private final Map<Long, StoredValue> entries;
+
+    /**
+     * Construct a new instance.
+     * @param capacity the maximum number of results held
+     */
+    public InProcessSharedGeoCache(final int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException(
+                "The capacity of the cache must be greater than zero.");
+        }
+        entries = new LinkedHashMap<Long, StoredValue>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, StoredValue> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    @Override
+    public synchronized byte[] get(long key) {
+        StoredValue entry = entries.get(key);
+        if (entry == null) {
+            return null;
+        }
+        if (entry.expires <= System.currentTimeMillis()) {
+            entries.remove(key);
+            return null;
+        }
+        return entry.value;
+    }
+
+    @Override
+    public synchronized void put(long key, byte[] value, long expires) {
+        entries.put(key, new StoredValue(value, expires));
+    }
+
+    /**
+     * @return the number of results held
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    @Override
+    public synchronized void close() {
+        entries.clear();
+    }
+}
@@ -0,0 +1,91 @@
+/* *********************************************************************
+ * This Original Work is copyright of 51 Degrees Mobile Experts Limited.
+ * Copyright 2023 51 Degrees Mobile Experts Limited, Davidson House,
+ * Forbury Square, Reading, Berkshire, United Kingdom RG1 3EU.
+ *
+ * This Original Work is licensed under the European Union Public Licence
+ * (EUPL) v.1.2 and is subject to its terms as set out below.
+ *
+ * If a copy of the EUPL was not distributed with this file, You can obtain
+ * one at https://opensource.org/licenses/EUPL-1.2.
+ *
+ * The 'Compatible Licences' set out in the Appendix to the EUPL (as may be
+ * amended by the European Commission) shall be deemed incompatible for
+ * the purposes of the Work and the provisions of the compatibility
+ * clause in Article 5 of the EUPL shall not apply.
+ *
+ * If using the Work as, or as part of, a network application, by
+ * including the attribution notice(s) required under Article 5 of the EUPL
+ * in the end user terms of the application under an appropriate heading,
+ * such notice(s) shall fulfill the requirements of that article.
+ * ********************************************************************* */
+
+package fiftyone.geolocation.core.caching;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Cache of geo results shared between the nodes of a cluster, so a location
+ * resolved by one node is not requested from the cloud service again by
+ * every other node. The geo results cache consults the shared cache when a
+ * result is not held locally, and adds results from the cloud service to
+ * it.
+ *
+ * Results are keyed on a 64 bit key which identifies the spatial cell of
+ * the location and the other evidence used, and are serialized with
+ * {@link SharedGeoResult#toBytes()}. Implementations only store and return
+ * the bytes, so need no knowledge of their contents.
+ *
+ * Implementations must be thread safe. They are called on the request path,
+ * so should fail quickly with an exception rather than block for long if
+ * the shared store is unavailable.
+ */
+public interface SharedGeoCache extends AutoCloseable {
+
+    /**
+     * Get the serialized result for the key.
+     * @param key the key
+     * @return the serialized result, or null if there is none
+     * @throws IOException if the shared store could not be read
+     */
+    byte[] get(long key) throws IOException;
+
+    /**
+     * Add or replace the serialized result for the key.
+     * @param key the key
+     * @param value the serialized result
+     * @param expires the time in milliseconds since the epoch after which
+     *                the result may be removed
+     * @throws IOException if the shared store could not be written
+     */
+    void put(long key, byte[] value, long expires) throws IOException;
+
+    /**
+     * Get the serialized results for several keys without waiting for them.
+     * The default implementation gets each key in turn on the calling
+     * thread, so implementations backed by a remote store should override
+     * it to fetch the keys in one round trip.
+     * @param keys the keys
+     * @return future map of each key found to its serialized result. Keys
+     * which are not found are not in the map
+     */
+    default CompletableFuture<Map<Long, byte[]>> getAllAsync(long[] keys) {
+        CompletableFuture<Map<Long, byte[]>> future = new CompletableFuture<>();
+        try {
+            Map<Long, byte[]> results = new HashMap<>();
+            for (long key : keys) {
+                byte[] value = get(key);
+                if (value != null) {
+                    results.put(key, value);
+                }
+            }
+            future.complete(results);
+        } catch (IOException | RuntimeException e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+}
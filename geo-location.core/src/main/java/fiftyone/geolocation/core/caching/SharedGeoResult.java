@@ -0,0 +1,144 @@
+/* *********************************************************************
+ * This Original Work is copyright of 51 Degrees Mobile Experts Limited.
+ * Copyright 2023 51 Degrees Mobile Experts Limited, Davidson House,
+ * Forbury Square, Reading, Berkshire, United Kingdom RG1 3EU.
+ *
+ * This Original Work is licensed under the European Union Public Licence
+ * (EUPL) v.1.2 and is subject to its terms as set out below.
+ *
+ * If a copy of the EUPL was not distributed with this file, You can obtain
+ * one at https://opensource.org/licenses/EUPL-1.2.
+ *
+ * The 'Compatible Licences' set out in the Appendix to the EUPL (as may be
+ * amended by the European Commission) shall be deemed incompatible for
+ * the purposes of the Work and the provisions of the compatibility
+ * clause in Article 5 of the EUPL shall not apply.
+ *
+ * If using the Work as, or as part of, a network application, by
+ * including the attribution notice(s) required under Article 5 of the EUPL
+ * in the end user terms of the application under an appropriate heading,
+ * such notice(s) shall fulfill the requirements of that article.
+ * ********************************************************************* */
+
+package fiftyone.geolocation.core.caching;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * A geo result in the compact form stored in a {@link SharedGeoCache}: the
+ * JSON response from the cloud service, compressed with deflate, and the
+ * time it expires. Cloud responses repeat the same property names for
+ * every location, so they compress to a fraction of their size.
+ *
+ * Serialized layout:
+ * <pre>
+ *   0  byte   format version
+ *   1  long   expiry time in milliseconds since the epoch
+ *   9  int    length of the uncompressed JSON in bytes
+ *  13  bytes  deflated UTF-8 JSON
+ * </pre>
+ */
+public class SharedGeoResult {
+
+    private static final byte VERSION = 1;
+    private static final int HEADER_SIZE = 13;
+
+    private final String json;
+    private final long expires;
+
+    /**
+     * Construct a new instance.
+     * @param json the JSON response from the cloud service
+     * @param expires the time in milliseconds since the epoch that the
+     *                result expires, or {@link Long#MAX_VALUE} if it never
+     *                expires
+     */
+    public SharedGeoResult(String json, long expires) {
+        this.json = json;
+        this.expires = expires;
+    }
+
+    /**
+     * @return the JSON response from the cloud service
+     */
+    public String getJson() {
+        return json;
+    }
+
+    /**
+     * @return the time in milliseconds since the epoch that the result
+     * expires
+     */
+    public long getExpires() {
+        return expires;
+    }
+
+    /**
+     * @return the result in its serialized form
+     */
+    public byte[] toBytes() {
+        byte[] utf8 = json.getBytes(StandardCharsets.UTF_8);
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            deflater.setInput(utf8);
+            deflater.finish();
+            ByteArrayOutputStream output =
+                new ByteArrayOutputStream(HEADER_SIZE + utf8.length / 2);
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.put(VERSION).putLong(expires).putInt(utf8.length);
+            output.write(header.array(), 0, HEADER_SIZE);
+            byte[] buffer = new byte[1024];
+            while (deflater.finished() == false) {
+                int length = deflater.deflate(buffer);
+                output.write(buffer, 0, length);
+            }
+            return output.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Read a result from its serialized form.
+     * @param bytes the serialized result
+     * @return the result, or null if the bytes are not a result in a
+     * supported format
+     */
+    public static SharedGeoResult fromBytes(byte[] bytes) {
+        if (bytes == null || bytes.length < HEADER_SIZE || bytes[0] != VERSION) {
+            return null;
+        }
+        ByteBuffer header = ByteBuffer.wrap(bytes, 0, HEADER_SIZE);
+        header.get();
+        long expires = header.getLong();
+        int length = header.getInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] utf8 = new byte[length];
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(bytes, HEADER_SIZE, bytes.length - HEADER_SIZE);
+            int offset = 0;
+            while (offset < length) {
+                int read = inflater.inflate(utf8, offset, length - offset);
+                if (read == 0) {
+                    return null;
+                }
+                offset += read;
+            }
+        } catch (DataFormatException e) {
+            return null;
+        } finally {
+            inflater.end();
+        }
+        return new SharedGeoResult(
+            new String(utf8, StandardCharsets.UTF_8),
+            expires);
+    }
+}
@@ -0,0 +1,138 @@
+/* *********************************************************************
+ * This Original Work is copyright of 51 Degrees Mobile Experts Limited.
+ * Copyright 2023 51 Degrees Mobile Experts Limited, Davidson House,
+ * Forbury Square, Reading, Berkshire, United Kingdom RG1 3EU.
+ *
+ * This Original Work is licensed under the European Union Public Licence
+ * (EUPL) v.1.2 and is subject to its terms as set out below.
+ *
+ * If a copy of the EUPL was not distributed with this file, You can obtain
+ * one at https://opensource.org/licenses/EUPL-1.2.
+ *
+ * The 'Compatible Licences' set out in the Appendix to the EUPL (as may be
+ * amended by the European Commission) shall be deemed incompatible for
+ * the purposes of the Work and the provisions of the compatibility
+ * clause in Article 5 of the EUPL shall not apply.
+ *
+ * If using the Work as, or as part of, a network application, by
+ * including the attribution notice(s) required under Article 5 of the EUPL
+ * in the end user terms of the application under an appropriate heading,
+ * such notice(s) shall fulfill the requirements of that article.
+ * ********************************************************************* */
+
+
+package fiftyone.geolocation.core.data;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+/**
+ * An immutable, validated pair of coordinates in decimal degrees.
+ */
+public class Coordinates {
+
+    private final double latitude;
+    private final double longitude;
+
+    /**
+     * Construct a new instance.
+     * @param latitude latitude in decimal degrees, between -90 and 90
+     * @param longitude longitude in decimal degrees, between -180 and 180
+     * @throws IllegalArgumentException if either value is out of range
+     */
+    public Coordinates(double latitude, double longitude) {
+        if (isValid(latitude, longitude) == false) {
+            throw new IllegalArgumentException(
+                "Coordinates " + latitude + "," + longitude +
+                    " are out of range.");
+        }
+        this.latitude = latitude;
+        this.longitude = longitude;
+    }
+
+    /**
+     * Parse coordinates from evidence values, which may be strings in any
+     * form accepted by {@link Double#parseDouble(String)}, or numbers.
+     * @param latitude the latitude evidence value
+     * @param longitude the longitude evidence value
+     * @return the coordinates, or null if either value is missing, not a
+     * number or out of range
+     */
+    public static Coordinates parse(Object latitude, Object longitude) {
+        if (latitude == null || longitude == null) {
+            return null;
+        }
+        try {
+            double lat = latitude instanceof Number ?
+                ((Number)latitude).doubleValue() :
+                Double.parseDouble(latitude.toString().trim());
+            double lon = longitude instanceof Number ?
+                ((Number)longitude).doubleValue() :
+                Double.parseDouble(longitude.toString().trim());
+            return isValid(lat, lon) ? new Coordinates(lat, lon) : null;
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static boolean isValid(double latitude, double longitude) {
+        return latitude >= -90 && latitude <= 90 &&
+            longitude >= -180 && longitude <= 180;
+    }
+
+    /**
+     * Format a coordinate with a fixed number of decimal places, so that
+     * the same rounded coordinate is always represented by the same string
+     * e.g. "51.4577" for 51.457714, 51.4577140 or 5.14577140e1 to four
+     * places.
+     * @param value the coordinate in decimal degrees
+     * @param decimalPlaces the number of decimal places to round to
+     * @return the formatted coordinate
+     */
+    public static String format(double value, int decimalPlaces) {
+        return BigDecimal.valueOf(value)
+            .setScale(decimalPlaces, RoundingMode.HALF_UP)
+            .toPlainString();
+    }
+
+    /**
+     * Get the number of decimal places needed to represent coordinates to
+     * the accuracy provided. Places beyond this only add precision which
+     * the coordinates do not have.
+     * @param accuracy the accuracy radius in metres
+     * @return the number of decimal places
+     */
+    public static int getDecimalPlaces(double accuracy) {
+        // One degree of latitude is around 111km.
+        double places = Math.ceil(Math.log10(111320 / accuracy));
+        return (int)Math.max(0, Math.min(15, places));
+    }
+
+    public double getLatitude() {
+        return latitude;
+    }
+
+    public double getLongitude() {
+        return longitude;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (obj instanceof Coordinates == false) {
+            return false;
+        }
+        Coordinates other = (Coordinates)obj;
+        return Double.compare(latitude, other.latitude) == 0 &&
+            Double.compare(longitude, other.longitude) == 0;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * Double.hashCode(latitude) + Double.hashCode(longitude);
+    }
+
+    @Override
+    public String toString() {
+        return latitude + "," + longitude;
+    }
+}
@@ -0,0 +1,56 @@
+/* *********************************************************************
+ * This Original Work is copyright of 51 Degrees Mobile Experts Limited.
+ * Copyright 2023 51 Degrees Mobile Experts Limited, Davidson House,
+ * Forbury Square, Reading, Berkshire, United Kingdom RG1 3EU.
+ *
+ * This Original Work is licensed under the European Union Public Licence
+ * (EUPL) v.1.2 and is subject to its terms as set out below.
+ *
+ * If a copy of the EUPL was not distributed with this file, You can obtain
+ * one at https://opensource.org/licenses/EUPL-1.2.
+ *
+ * The 'Compatible Licences' set out in the Appendix to the EUPL (as may be
+ * amended by the European Commission) shall be deemed incompatible for
+ * the purposes of the Work and the provisions of the compatibility
+ * clause in Article 5 of the EUPL shall not apply.
+ *
+ * If using the Work as, or as part of, a network application, by
+ * including the attribution notice(s) required under Article 5 of the EUPL
+ * in the end user terms of the application under an appropriate heading,
+ * such notice(s) shall fulfill the requirements of that article.
+ * ********************************************************************* */
+
+
+package fiftyone.geolocation.core.data;
+
+/**
+ * The geo-location properties which have typed getters on {@link GeoData}.
+ */
+public enum GeoProperty {
+    JAVASCRIPT("JavaScript"),
+    ROAD("Road"),
+    TOWN("Town"),
+    SUBURB("Suburb"),
+    COUNTY("County"),
+    REGION("Region"),
+    STATE("State"),
+    ZIP_CODE("ZipCode"),
+    COUNTRY("Country"),
+    COUNTRY_CODE("CountryCode"),
+    ADDRESS("Address"),
+    BUILDING("Building"),
+    STREET_NUMBER("StreetNumber");
+
+    private final String name;
+
+    GeoProperty(String name) {
+        this.name = name;
+    }
+
+    /**
+     * @return the name of the property as it appears in the meta data
+     */
+    public String getName() {
+        return name;
+    }
+}
@@ -0,0 +1,214 @@
+/* *********************************************************************
+ * This Original Work is copyright of 51 Degrees Mobile Experts Limited.
+ * Copyright 2023 51 Degrees Mobile Experts Limited, Davidson House,
+ * Forbury Square, Reading, Berkshire, United Kingdom RG1 3EU.
+ *
+ * This Original Work is licensed under the European Union Public Licence
+ * (EUPL) v.1.2 and is subject to its terms as set out below.
+ *
+ * If a copy of the EUPL was not distributed with this file, You can obtain
+ * one at https://opensource.org/licenses/EUPL-1.2.
+ *
+ * The 'Compatible Licences' set out in the Appendix to the EUPL (as may be
+ * amended by the European Commission) shall be deemed incompatible for
+ * the purposes of the Work and the provisions of the compatibility
+ * clause in Article 5 of the EUPL shall not apply.
+ *
+ * If using the Work as, or as part of, a network application, by
+ * including the attribution notice(s) required under Article 5 of the EUPL
+ * in the end user terms of the application under an appropriate heading,
+ * such notice(s) shall fulfill the requirements of that article.
+ * ********************************************************************* */
+
+
+package fiftyone.geolocation.core.spatial;
+
+/**
+ * Encodes coordinates as the Morton code (Z-order curve index) of the
+ * cell containing them, packed into a primitive long. Cells are formed by
+ * dividing the latitude and longitude ranges into 2^level equal parts, so
+ * all coordinates in the same cell have the same code, and cells which are
+ * close together usually have close codes.
+ *
+ * As longitude spans 360 degrees and latitude only 180, cells are twice as
+ * wide as they are tall at the equator. They become narrower towards the
+ * poles, and are square at around 60 degrees north or south.
+ *
+ * The level is stored in the top bits of the code, so codes for different
+ * levels never collide.
+ */
+public class GeoCell {
+
+    /**
+     * The smallest level, where the world is a single cell.
+     */
+    public static final int MIN_LEVEL = 0;
+
+    /**
+     * The largest level, where cells are around 4cm tall.
+     */
+    public static final int MAX_LEVEL = 29;
+
+    private static final int LEVEL_SHIFT = 58;
+    private static final long MORTON_MASK = (1L << LEVEL_SHIFT) - 1;
+
+    /**
+     * Mean radius of the Earth in metres.
+     */
+    private static final double EARTH_RADIUS = 6371008.8;
+
+    private GeoCell() {
+    }
+
+    /**
+     * Get the code of the cell containing the coordinates.
+     * @param latitude latitude in decimal degrees, between -90 and 90
+     * @param longitude longitude in decimal degrees, between -180 and 180
+     * @param level the level of the cell, between {@link #MIN_LEVEL} and
+     *              {@link #MAX_LEVEL}
+     * @return cell code
+     */
+    public static long encode(double latitude, double longitude, int level) {
+        checkLevel(level);
+        long y = quantize((latitude + 90) / 180, level);
+        long x = quantize((longitude + 180) / 360, level);
+        return ((long)level << LEVEL_SHIFT) | interleave(x) | (interleave(y) << 1);
+    }
+
+    /**
+     * Get the code of the cell which is the number of cells north and east
+     * of the cell provided. Longitude wraps around the antimeridian, and
+     * latitude is clamped at the poles.
+     * @param cell the cell code
+     * @param north the number of cells north, negative for south
+     * @param east the number of cells east, negative for west
+     * @return cell code
+     */
+    public static long offset(long cell, int north, int east) {
+        int level = getLevel(cell);
+        long size = 1L << level;
+        long morton = cell & MORTON_MASK;
+        long x = deinterleave(morton) + east;
+        long y = deinterleave(morton >>> 1) + north;
+        x = ((x % size) + size) % size;
+        y = Math.max(0, Math.min(size - 1, y));
+        return ((long)level << LEVEL_SHIFT) | interleave(x) | (interleave(y) << 1);
+    }
+
+    /**
+     * @param cell the cell code
+     * @return the level of the cell
+     */
+    public static int getLevel(long cell) {
+        return (int)(cell >>> LEVEL_SHIFT);
+    }
+
+    /**
+     * @param cell the cell code
+     * @return the latitude of the centre of the cell
+     */
+    public static double getLatitude(long cell) {
+        long y = deinterleave((cell & MORTON_MASK) >>> 1);
+        return (y + 0.5) * 180 / (1L << getLevel(cell)) - 90;
+    }
+
+    /**
+     * @param cell the cell code
+     * @return the longitude of the centre of the cell
+     */
+    public static double getLongitude(long cell) {
+        long x = deinterleave(cell & MORTON_MASK);
+        return (x + 0.5) * 360 / (1L << getLevel(cell)) - 180;
+    }
+
+    /**
+     * Get the height of cells at the level provided. Their width is twice
+     * this at the equator, reducing with the cosine of the latitude.
+     * @param level the level of the cells
+     * @return height in metres
+     */
+    public static double getCellSize(int level) {
+        checkLevel(level);
+        return Math.PI * EARTH_RADIUS / (1L << level);
+    }
+
+    /**
+     * Get the smallest level, i.e. the largest cells, whose cells are no
+     * taller than the size provided. The height of the cells is therefore
+     * between half the size and the size.
+     * @param metres the size in metres
+     * @return the level, which is {@link #MAX_LEVEL} if even the smallest
+     * cells are larger than the size
+     */
+    public static int getLevelForSize(double metres) {
+        for (int level = MIN_LEVEL; level < MAX_LEVEL; level++) {
+            if (getCellSize(level) <= metres) {
+                return level;
+            }
+        }
+        return MAX_LEVEL;
+    }
+
+    /**
+     * Get the great circle distance between two coordinates, using the
+     * haversine formula.
+     * @param latitude1 latitude of the first point in decimal degrees
+     * @param longitude1 longitude of the first point in decimal degrees
+     * @param latitude2 latitude of the second point in decimal degrees
+     * @param longitude2 longitude of the second point in decimal degrees
+     * @return distance in metres
+     */
+    public static double getDistance(
+        double latitude1,
+        double longitude1,
+        double latitude2,
+        double longitude2) {
+        double sinLatitude = Math.sin(Math.toRadians(latitude2 - latitude1) / 2);
+        double sinLongitude = Math.sin(Math.toRadians(longitude2 - longitude1) / 2);
+        double a = sinLatitude * sinLatitude +
+            Math.cos(Math.toRadians(latitude1)) *
+            Math.cos(Math.toRadians(latitude2)) *
+            sinLongitude * sinLongitude;
+        return 2 * EARTH_RADIUS * Math.asin(Math.min(1, Math.sqrt(a)));
+    }
+
+    private static void checkLevel(int level) {
+        if (level < MIN_LEVEL || level > MAX_LEVEL) {
+            throw new IllegalArgumentException(
+                "Level must be between " + MIN_LEVEL + " and " + MAX_LEVEL);
+        }
+    }
+
+    private static long quantize(double fraction, int level) {
+        long size = 1L << level;
+        long value = (long)Math.floor(fraction * size);
+        return Math.max(0, Math.min(size - 1, value));
+    }
+
+    /**
+     * Spread the low 32 bits of the value so that there is a zero bit
+     * between each of them.
+     */
+    private static long interleave(long value) {
+        long v = value & 0xffffffffL;
+        v = (v | (v << 16)) & 0x0000ffff0000ffffL;
+        v = (v | (v << 8)) & 0x00ff00ff00ff00ffL;
+        v = (v | (v << 4)) & 0x0f0f0f0f0f0f0f0fL;
+        v = (v | (v << 2)) & 0x3333333333333333L;
+        v = (v | (v << 1)) & 0x5555555555555555L;
+        return v;
+    }
+
+    /**
+     * Reverse {@link #interleave(long)}, gathering every other bit.
+     */
+    private static long deinterleave(long value) {
+        long v = value & 0x5555555555555555L;
+        v = (v | (v >>> 1)) & 0x3333333333333333L;
+        v = (v | (v >>> 2)) & 0x0f0f0f0f0f0f0f0fL;
+        v = (v | (v >>> 4)) & 0x00ff00ff00ff00ffL;
+        v = (v | (v >>> 8)) & 0x0000ffff0000ffffL;
+        v = (v | (v >>> 16)) & 0x00000000ffffffffL;
+        return v;
+    }
+}
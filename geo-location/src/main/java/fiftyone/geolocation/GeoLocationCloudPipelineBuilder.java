@@ -22,11 +22,18 @@
 
 package fiftyone.geolocation;
 
+import fiftyone.geolocation.caching.CacheWarmer;
+import fiftyone.geolocation.caching.GeoResultsCache;
+import fiftyone.geolocation.caching.GeoResultsCacheBuilder;
+import fiftyone.geolocation.caching.LocationTokenSigner;
+import fiftyone.geolocation.core.CoordinateCanonicalizer;
 import fiftyone.geolocation.core.Enums;
+import fiftyone.geolocation.core.caching.SharedGeoCache;
 import fiftyone.geolocation.data.CloudGeoData;
 import fiftyone.geolocation.flowelements.GeoLocationCloudEngineBuilder;
 import fiftyone.pipeline.cloudrequestengine.flowelements.CloudRequestEngine;
 import fiftyone.pipeline.cloudrequestengine.flowelements.CloudRequestEngineBuilder;
+import fiftyone.pipeline.core.exceptions.PipelineConfigurationException;
 import fiftyone.pipeline.core.flowelements.Pipeline;
 import fiftyone.pipeline.engines.configuration.CacheConfiguration;
 import fiftyone.pipeline.engines.configuration.LazyLoadingConfiguration;
@@ -35,11 +42,36 @@ import fiftyone.pipeline.engines.flowelements.AspectEngine;
 import fiftyone.pipeline.engines.flowelements.CloudPipelineBuilderBase;
 import fiftyone.pipeline.engines.services.HttpClient;
 import org.slf4j.ILoggerFactory;
+import org.slf4j.Logger;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 public class GeoLocationCloudPipelineBuilder
     extends CloudPipelineBuilderBase<GeoLocationCloudPipelineBuilder> {
     private final HttpClient httpClient;
     private final Enums.GeoLocationProvider geoLocationProvider;
+    private GeoResultsCache geoResultsCache = null;
+    private Boolean geoResultsStaleWhileRevalidate = null;
+    private String geoResultsCacheFile = null;
+    private SharedGeoCache geoResultsSharedCache = null;
+    private long geoResultsCacheMaxBytes = 0;
+    private LocationTokenSigner locationTokenSigner = null;
+    private String warmUpFile = null;
+    private int warmUpParallelism = CacheWarmer.DEFAULT_PARALLELISM;
+    private long warmUpTimeBudget = CacheWarmer.DEFAULT_TIME_BUDGET;
+    private Map<String, Object> warmUpEvidence = Collections.emptyMap();
+    private CacheWarmer.Result warmUpResult = null;
+    private int coordinateDecimalPlaces = -1;
+    private boolean coordinateAccuracyAdaptive = false;
+    private CoordinateCanonicalizer coordinateCanonicalizer = null;
 
     public GeoLocationCloudPipelineBuilder(
         ILoggerFactory loggerFactory,
@@ -50,8 +82,247 @@ public class GeoLocationCloudPipelineBuilder
         this.geoLocationProvider = geoLocationProvider;
     }
 
+    /**
+     * Set a results cache for the cloud request engine which shares results
+     * between requests whose coordinates are in the same spatial cell. This
+     * replaces the cache configured with setResultsCache, which keys on the
+     * exact coordinates so is rarely hit for location requests. Keep a
+     * reference to the cache to read its hit ratio.
+     * @param cache the cache, built with
+     *              {@link fiftyone.geolocation.caching.GeoResultsCacheBuilder}
+     * @return this builder
+     */
+    public GeoLocationCloudPipelineBuilder setGeoResultsCache(GeoResultsCache cache) {
+        this.geoResultsCache = cache;
+        return this;
+    }
+
+    /**
+     * Set whether results in the cache set with
+     * {@link #setGeoResultsCache(GeoResultsCache)} which have passed their
+     * time to live are returned immediately while they are refreshed in the
+     * background. Concurrent requests for the same expired result share one
+     * refresh. By default, the setting the cache was built with is used.
+     * Enabling this without a geo results cache causes {@link #build()} to
+     * throw a {@link PipelineConfigurationException}.
+     * @param enabled true to enable stale-while-revalidate
+     * @return this builder
+     */
+    public GeoLocationCloudPipelineBuilder setGeoResultsStaleWhileRevalidate(boolean enabled) {
+        this.geoResultsStaleWhileRevalidate = enabled;
+        return this;
+    }
+
+    /**
+     * Persist geo results in the memory mapped file provided, so they
+     * survive restarts and are shared with other processes on the same host
+     * which use the same file. A results cache with the default settings is
+     * created for the file. To change the settings, build the cache with
+     * {@link GeoResultsCacheBuilder#setPersistentFile(File)} and pass it to
+     * {@link #setGeoResultsCache(GeoResultsCache)} instead.
+     * @param file path to the file, which is created if it does not exist
+     * @return this builder
+     */
+    public GeoLocationCloudPipelineBuilder setGeoResultsCacheFile(String file) {
+        this.geoResultsCacheFile = file;
+        return this;
+    }
+
+    /**
+     * Bound the geo results cache by the estimated size in bytes of the
+     * results, rather than only their number, and admit results by how
+     * often their location is requested. A results cache with the default
+     * settings is created with the limit. To change the settings, build the
+     * cache with {@link GeoResultsCacheBuilder#setMaxBytes(long)} and pass
+     * it to {@link #setGeoResultsCache(GeoResultsCache)} instead.
+     * @param maxBytes the maximum size in bytes
+     * @return this builder
+     */
+    public GeoLocationCloudPipelineBuilder setGeoResultsCacheMaxBytes(long maxBytes) {
+        this.geoResultsCacheMaxBytes = maxBytes;
+        return this;
+    }
+
+    /**
+     * Consult the cache shared with other nodes provided when a geo result
+     * is not held locally, and add results from the cloud service to it. A
+     * results cache with the default settings is created for the shared
+     * cache. To change the settings, build the cache with
+     * {@link GeoResultsCacheBuilder#setSharedCache(SharedGeoCache)} and pass
+     * it to {@link #setGeoResultsCache(GeoResultsCache)} instead.
+     * @param cache the shared cache
+     * @return this builder
+     */
+    public GeoLocationCloudPipelineBuilder setGeoResultsSharedCache(SharedGeoCache cache) {
+        this.geoResultsSharedCache = cache;
+        return this;
+    }
+
+    /**
+     * Answer requests which carry a valid location token from the token,
+     * without using the results cache or calling the cloud service, so
+     * that a visitor's requests can be answered by any node behind a load
+     * balancer. Keep a reference to the signer to issue tokens with
+     * {@link LocationTokenSigner#issue(fiftyone.pipeline.core.data.FlowData, String)}
+     * after processing. A results cache with the default settings is
+     * created for the signer. To change the settings, build the cache with
+     * {@link GeoResultsCacheBuilder#setLocationTokenSigner(LocationTokenSigner)}
+     * and pass it to {@link #setGeoResultsCache(GeoResultsCache)} instead.
+     * @param signer the signer, which must use the same key on every node
+     * @return this builder
+     */
+    public GeoLocationCloudPipelineBuilder setLocationTokenSigner(LocationTokenSigner signer) {
+        this.locationTokenSigner = signer;
+        return this;
+    }
+
+    /**
+     * Warm the results cache when the pipeline is built, by processing each
+     * of the locations in the file provided before build returns. Each line
+     * is a latitude and longitude separated by a comma, or an IP address,
+     * with the most frequent locations first. See {@link CacheWarmer}.
+     * This requires a geo results cache, and IP addresses are only used if
+     * it holds results by IP prefix.
+     * The outcome is available from {@link #getWarmUpResult()}.
+     * @param file path to the file of locations
+     * @return this builder
+     */
+    public GeoLocationCloudPipelineBuilder setWarmUpFile(String file) {
+        this.warmUpFile = file;
+        return this;
+    }
+
+    /**
+     * Set the maximum number of locations processed at once when warming
+     * the cache. By default, this is
+     * {@link CacheWarmer#DEFAULT_PARALLELISM}.
+     * @param parallelism the number of locations processed at once
+     * @return this builder
+     */
+    public GeoLocationCloudPipelineBuilder setWarmUpParallelism(int parallelism) {
+        this.warmUpParallelism = parallelism;
+        return this;
+    }
+
+    /**
+     * Set the maximum time spent warming the cache. Locations not processed
+     * within this time are ignored. By default, this is
+     * {@link CacheWarmer#DEFAULT_TIME_BUDGET} milliseconds.
+     * @param timeBudget the time budget
+     * @param unit the unit of the time budget
+     * @return this builder
+     */
+    public GeoLocationCloudPipelineBuilder setWarmUpTimeBudget(
+        long timeBudget,
+        TimeUnit unit) {
+        this.warmUpTimeBudget = unit.toMillis(timeBudget);
+        return this;
+    }
+
+    /**
+     * Set evidence which is added to every request made when warming the
+     * cache. Results are keyed on any evidence the cloud request engine
+     * uses besides the location, so if live requests carry such evidence,
+     * e.g. headers needed by other products in the resource key, set the
+     * values they carry here so the warmed results are found by them. By
+     * default, warm up requests only have the location.
+     * @param evidence the evidence added to every warm up request
+     * @return this builder
+     */
+    public GeoLocationCloudPipelineBuilder setWarmUpEvidence(
+        Map<String, Object> evidence) {
+        this.warmUpEvidence = new HashMap<>(evidence);
+        return this;
+    }
+
+    /**
+     * @return the outcome of warming the cache when the pipeline was last
+     * built, or null if no warm up file is set
+     */
+    public CacheWarmer.Result getWarmUpResult() {
+        return warmUpResult;
+    }
+
+    /**
+     * @return the canonicalizer to call with each FlowData before it is
+     * processed, or null if no coordinate decimal places are set or the
+     * pipeline has not been built
+     */
+    public CoordinateCanonicalizer getCoordinateCanonicalizer() {
+        return coordinateCanonicalizer;
+    }
+
+    /**
+     * Create a {@link CoordinateCanonicalizer} which rounds the coordinates
+     * in the evidence to the number of decimal places provided, and
+     * rewrites them in one canonical form, before they are sent to the
+     * cloud service. The same location then always produces the same
+     * evidence, so results caches are hit for locations which were sent as
+     * different strings. Evidence cannot change once a FlowData is being
+     * processed, so the canonicalizer is not part of the pipeline. Get it
+     * from {@link #getCoordinateCanonicalizer()} once the pipeline is built,
+     * and call {@link CoordinateCanonicalizer#canonicalize} with each
+     * FlowData before it is processed. By default, coordinates are sent as
+     * they are.
+     * @param decimalPlaces the number of decimal places to round to, four
+     *                      being around 11m
+     * @return this builder
+     */
+    public GeoLocationCloudPipelineBuilder setCoordinateDecimalPlaces(int decimalPlaces) {
+        this.coordinateDecimalPlaces = decimalPlaces;
+        return this;
+    }
+
+    /**
+     * Set whether coordinates should be rounded to fewer decimal places
+     * than set with {@link #setCoordinateDecimalPlaces(int)} when the
+     * accuracy reported by the client in the '51D_Pos_accuracy' cookie
+     * shows they are less accurate. By default, the accuracy is ignored.
+     * @param adaptive true if rounding should follow the accuracy
+     * @return this builder
+     */
+    public GeoLocationCloudPipelineBuilder setCoordinateAccuracyAdaptive(boolean adaptive) {
+        this.coordinateAccuracyAdaptive = adaptive;
+        return this;
+    }
+
     @Override
     public Pipeline build() throws Exception {
+        GeoResultsCache cache = geoResultsCache;
+        if (geoResultsCacheFile != null ||
+            geoResultsSharedCache != null ||
+            geoResultsCacheMaxBytes > 0 ||
+            locationTokenSigner != null) {
+            if (cache != null) {
+                throw new PipelineConfigurationException(
+                    "A geo results cache file, shared cache, maximum " +
+                    "size or location token signer cannot be set as well " +
+                    "as a geo results cache. Set them on the " +
+                    "GeoResultsCacheBuilder instead.");
+            }
+            cache = new GeoResultsCacheBuilder()
+                .setMaxBytes(geoResultsCacheMaxBytes)
+                .setPersistentFile(geoResultsCacheFile == null ?
+                    null :
+                    new File(geoResultsCacheFile))
+                .setSharedCache(geoResultsSharedCache)
+                .setLocationTokenSigner(locationTokenSigner)
+                .build();
+        }
+
+        if (warmUpFile != null && cache == null) {
+            throw new PipelineConfigurationException(
+                "A warm up file can only be used with a geo results cache. " +
+                "Set a geo results cache, or remove the warm up file.");
+        }
+        if (Boolean.TRUE.equals(geoResultsStaleWhileRevalidate) &&
+            cache == null) {
+            throw new PipelineConfigurationException(
+                "Stale-while-revalidate can only be used with a geo " +
+                "results cache. Set a geo results cache, or do not enable " +
+                "stale-while-revalidate.");
+        }
+
         // Configure and build the cloud request engine
         CloudRequestEngineBuilder cloudRequestEngineBuilder =
             new CloudRequestEngineBuilder(loggerFactory, httpClient);
@@ -59,7 +330,7 @@ public class GeoLocationCloudPipelineBuilder
             cloudRequestEngineBuilder.setLazyLoading(new LazyLoadingConfiguration(
                 (int)lazyLoadingTimeoutMillis));
         }
-        if (resultsCache) {
+        if (resultsCache && cache == null) {
             cloudRequestEngineBuilder.setCache(
                 new CacheConfiguration(resultsCacheSize));
         }
@@ -79,6 +350,13 @@ public class GeoLocationCloudPipelineBuilder
             cloudRequestEngineBuilder.setCloudRequestOrigin(cloudRequestOrigin);
         }
         CloudRequestEngine cloudRequestEngine = cloudRequestEngineBuilder.build();
+        if (cache != null) {
+            cache.setFlowElement(cloudRequestEngine);
+            if (geoResultsStaleWhileRevalidate != null) {
+                cache.setStaleWhileRevalidate(geoResultsStaleWhileRevalidate);
+            }
+            cloudRequestEngine.setCache(cache);
+        }
 
         AspectEngine<CloudGeoData, AspectPropertyMetaData> geoLocationEngine = null;
         GeoLocationCloudEngineBuilder nomEngineBuilder =
@@ -89,10 +367,38 @@ public class GeoLocationCloudPipelineBuilder
         }
         geoLocationEngine = nomEngineBuilder.build(geoLocationProvider);
 
+        coordinateCanonicalizer = coordinateDecimalPlaces >= 0 ?
+            new CoordinateCanonicalizer(
+                coordinateDecimalPlaces,
+                coordinateAccuracyAdaptive) :
+            null;
         flowElements.add(cloudRequestEngine);
         flowElements.add(geoLocationEngine);
 
-        // Build and return the pipeline
-        return super.build();
+        // Build the pipeline and warm it before it is returned
+        Pipeline pipeline = super.build();
+        if (warmUpFile != null) {
+            Logger logger = loggerFactory.getLogger(getClass().getName());
+            try (BufferedReader reader = Files.newBufferedReader(
+                Paths.get(warmUpFile),
+                StandardCharsets.UTF_8)) {
+                warmUpResult = new CacheWarmer(
+                    pipeline,
+                    warmUpParallelism,
+                    warmUpTimeBudget,
+                    cache.getIpPrefixes() != null,
+                    warmUpEvidence,
+                    loggerFactory.getLogger(CacheWarmer.class.getName()))
+                    .warm(reader);
+            }
+            logger.info(warmUpResult.toString());
+            if (warmUpResult.getIgnored() > 0) {
+                logger.warn("The warm up file contains IP addresses, but " +
+                    "the geo results cache does not hold results by IP " +
+                    "prefix, so they were ignored. Enable the IP prefix " +
+                    "cache to use them.");
+            }
+        }
+        return pipeline;
     }
 }
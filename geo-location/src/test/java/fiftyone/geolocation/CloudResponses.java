@@ -0,0 +1,107 @@
+/* *********************************************************************
+ * This Original Work is copyright of 51 Degrees Mobile Experts Limited.
+ * Copyright 2023 51 Degrees Mobile Experts Limited, Davidson House,
+ * Forbury Square, Reading, Berkshire, United Kingdom RG1 3EU.
+ *
+ * This Original Work is licensed under the European Union Public Licence
+ * (EUPL) v.1.2 and is subject to its terms as set out below.
+ *
+ * If a copy of the EUPL was not distributed with this file, You can obtain
+ * one at https://opensource.org/licenses/EUPL-1.2.
+ *
+ * The 'Compatible Licences' set out in the Appendix to the EUPL (as may be
+ * amended by the European Commission) shall be deemed incompatible for
+ * the purposes of the Work and the provisions of the compatibility
+ * clause in Article 5 of the EUPL shall not apply.
+ *
+ * If using the Work as, or as part of, a network application, by
+ * including the attribution notice(s) required under Article 5 of the EUPL
+ * in the end user terms of the application under an appropriate heading,
+ * such notice(s) shall fulfill the requirements of that article.
+ * ********************************************************************* */
+
+
+package fiftyone.geolocation;
+
+/**
+ * Sample responses from the cloud service, used by tests which do not need
+ * to call the cloud. These mirror the shape of a real response for a
+ * resource key containing device detection and both location providers.
+ */
+public class CloudResponses {
+
+    public static String location(
+        String elementKey,
+        String town,
+        String country,
+        String countryCode) {
+        return "\"" + elementKey + "\":{" +
+            "\"javascript\":null," +
+            "\"javascriptnullreason\":\"The property is not available as coordinates were provided.\"," +
+            "\"road\":\"Forbury Road\"," +
+            "\"building\":null," +
+            "\"buildingnullreason\":\"No building was found at this location.\"," +
+            "\"streetnumber\":null," +
+            "\"streetnumbernullreason\":\"No street number was found at this location.\"," +
+            "\"town\":\"" + town + "\"," +
+            "\"suburb\":\"Abbey\"," +
+            "\"county\":\"Reading\"," +
+            "\"region\":\"South East\"," +
+            "\"state\":\"England\"," +
+            "\"zipcode\":\"RG1 3EU\"," +
+            "\"country\":\"" + country + "\"," +
+            "\"countrycode\":\"" + countryCode + "\"," +
+            "\"address\":\"Davidson House, Forbury Road, Abbey, " + town +
+                ", South East, England, RG1 3EU, " + country + "\"," +
+            "\"countries\":[\"" + country + "\"]," +
+            "\"latitude\":51.457714," +
+            "\"longitude\":-0.975973}";
+    }
+
+    public static String device() {
+        StringBuilder builder = new StringBuilder("\"device\":{");
+        String[] booleans = {
+            "ismobile", "isconsole", "istablet", "issmartphone", "issmartwatch",
+            "iscrawler", "isemailbrowser", "isemulatingdesktop", "ismediahub",
+            "istv", "isebookreader", "issettopbox", "iswebapp", "isartificialintelligence" };
+        for (String name : booleans) {
+            builder.append('"').append(name).append("\":false,");
+        }
+        String[] strings = {
+            "hardwarevendor", "hardwaremodel", "hardwarename", "platformname",
+            "platformversion", "platformvendor", "browsername", "browserversion",
+            "browservendor", "devicetype", "deviceid", "useragents",
+            "javascripthardwareprofile", "layoutengine", "oem", "priceband",
+            "screenmmdiagonal", "setheaderbrowseraccept-ch",
+            "setheaderhardwareaccept-ch", "setheaderplatformaccept-ch" };
+        for (String name : strings) {
+            builder.append('"').append(name).append("\":\"Value for ")
+                .append(name).append(" with \\\"escaped\\\" text\",");
+        }
+        String[] numbers = {
+            "screenpixelswidth", "screenpixelsheight", "bitsperpixel",
+            "releaseage", "cpucores", "maxnumberofsimcards" };
+        for (String name : numbers) {
+            builder.append('"').append(name).append("\":1920,");
+        }
+        builder.append("\"hardwareprofilesource\":[\"WURFL\",\"51Degrees\",{\"nested\":[1,2,3]}],");
+        builder.append("\"screeninchesdiagonal\":15.6,");
+        builder.append("\"javascriptgethighentropyvalues\":null,");
+        builder.append("\"javascriptgethighentropyvaluesnullreason\":\"Property not available for the values of the evidence provided.\"");
+        builder.append('}');
+        return builder.toString();
+    }
+
+    /**
+     * A response containing device detection results followed by both
+     * location providers, as returned for a resource key with all products.
+     */
+    public static String multiProduct() {
+        return "{" +
+            device() + "," +
+            location("location", "Reading", "United Kingdom", "GB") + "," +
+            location("location_digitalelement", "Reading", "United Kingdom", "GB") + "," +
+            "\"javascriptProperties\":[\"device.javascripthardwareprofile\"," +
+                "\"location.javascript\",\"location_digitalelement.javascript\"]}";
+    }
+}
@@ -0,0 +1,226 @@
+/* *********************************************************************
+ * This Original Work is copyright of 51 Degrees Mobile Experts Limited.
+ * Copyright 2023 51 Degrees Mobile Experts Limited, Davidson House,
+ * Forbury Square, Reading, Berkshire, United Kingdom RG1 3EU.
+ *
+ * This Original Work is licensed under the European Union Public Licence
+ * (EUPL) v.1.2 and is subject to its terms as set out below.
+ *
+ * If a copy of the EUPL was not distributed with this file, You can obtain
+ * one at https://opensource.org/licenses/EUPL-1.2.
+ *
+ * The 'Compatible Licences' set out in the Appendix to the EUPL (as may be
+ * amended by the European Commission) shall be deemed incompatible for
+ * the purposes of the Work and the provisions of the compatibility
+ * clause in Article 5 of the EUPL shall not apply.
+ *
+ * If using the Work as, or as part of, a network application, by
+ * including the attribution notice(s) required under Article 5 of the EUPL
+ * in the end user terms of the application under an appropriate heading,
+ * such notice(s) shall fulfill the requirements of that article.
+ * ********************************************************************* */
+
+package fiftyone.geolocation;
+
+import fiftyone.geolocation.core.caching.InProcessSharedGeoCache;
+import fiftyone.geolocation.core.caching.SharedGeoCache;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Shared cache server which listens on a loopback socket, and the client
+ * for it, so the shared cache SPI can be exercised across a real socket in
+ * tests. The server holds results in an {@link InProcessSharedGeoCache}.
+ */
+public class LoopbackSharedGeoCache {
+
+    private static final byte GET = 1;
+    private static final byte PUT = 2;
+    private static final byte GET_ALL = 3;
+
+    /**
+     * Server which handles each connection on its own thread.
+     */
+    public static class Server implements AutoCloseable {
+
+        private final ServerSocket socket;
+        private final InProcessSharedGeoCache cache;
+
+        public Server(int capacity) throws IOException {
+            cache = new InProcessSharedGeoCache(capacity);
+            socket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+            Thread thread = new Thread(this::accept, "shared-cache-server");
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        public int getPort() {
+            return socket.getLocalPort();
+        }
+
+        public InProcessSharedGeoCache getCache() {
+            return cache;
+        }
+
+        private void accept() {
+            while (socket.isClosed() == false) {
+                try {
+                    Socket connection = socket.accept();
+                    Thread thread = new Thread(
+                        () -> serve(connection),
+                        "shared-cache-connection");
+                    thread.setDaemon(true);
+                    thread.start();
+                } catch (IOException e) {
+                    return;
+                }
+            }
+        }
+
+        private void serve(Socket connection) {
+            try (Socket ignored = connection;
+                 DataInputStream input = new DataInputStream(
+                     new BufferedInputStream(connection.getInputStream()));
+                 DataOutputStream output = new DataOutputStream(
+                     new BufferedOutputStream(connection.getOutputStream()))) {
+                while (true) {
+                    byte operation = input.readByte();
+                    if (operation == GET) {
+                        writeValue(output, cache.get(input.readLong()));
+                    }
+                    else if (operation == PUT) {
+                        long key = input.readLong();
+                        long expires = input.readLong();
+                        cache.put(key, readValue(input), expires);
+                        output.writeByte(0);
+                    }
+                    else if (operation == GET_ALL) {
+                        int count = input.readInt();
+                        for (int i = 0; i < count; i++) {
+                            writeValue(output, cache.get(input.readLong()));
+                        }
+                    }
+                    else {
+                        return;
+                    }
+                    output.flush();
+                }
+            } catch (IOException e) {
+                // The client disconnected.
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            socket.close();
+            cache.close();
+        }
+    }
+
+    /**
+     * Client which sends requests over a single connection.
+     */
+    public static class Client implements SharedGeoCache {
+
+        private final Socket socket;
+        private final DataInputStream input;
+        private final DataOutputStream output;
+
+        public Client(int port) throws IOException {
+            socket = new Socket(InetAddress.getLoopbackAddress(), port);
+            socket.setSoTimeout(1000);
+            socket.setTcpNoDelay(true);
+            input = new DataInputStream(
+                new BufferedInputStream(socket.getInputStream()));
+            output = new DataOutputStream(
+                new BufferedOutputStream(socket.getOutputStream()));
+        }
+
+        @Override
+        public synchronized byte[] get(long key) throws IOException {
+            output.writeByte(GET);
+            output.writeLong(key);
+            output.flush();
+            return readValue(input);
+        }
+
+        @Override
+        public synchronized void put(
+            long key,
+            byte[] value,
+            long expires) throws IOException {
+            output.writeByte(PUT);
+            output.writeLong(key);
+            output.writeLong(expires);
+            writeValue(output, value);
+            output.flush();
+            input.readByte();
+        }
+
+        @Override
+        public CompletableFuture<Map<Long, byte[]>> getAllAsync(long[] keys) {
+            return CompletableFuture.supplyAsync(() -> {
+                try {
+                    return getAll(keys);
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            });
+        }
+
+        private synchronized Map<Long, byte[]> getAll(long[] keys)
+            throws IOException {
+            output.writeByte(GET_ALL);
+            output.writeInt(keys.length);
+            for (long key : keys) {
+                output.writeLong(key);
+            }
+            output.flush();
+            Map<Long, byte[]> results = new HashMap<>();
+            for (long key : keys) {
+                byte[] value = readValue(input);
+                if (value != null) {
+                    results.put(key, value);
+                }
+            }
+            return results;
+        }
+
+        @Override
+        public void close() throws IOException {
+            socket.close();
+        }
+    }
+
+    private static void writeValue(
+        DataOutputStream output,
+        byte[] value) throws IOException {
+        if (value == null) {
+            output.writeInt(-1);
+        }
+        else {
+            output.writeInt(value.length);
+            output.write(value);
+        }
+    }
+
+    private static byte[] readValue(DataInputStream input) throws IOException {
+        int length = input.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] value = new byte[length];
+        input.readFully(value);
+        return value;
+    }
+}
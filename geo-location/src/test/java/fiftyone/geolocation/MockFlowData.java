@@ -0,0 +1,81 @@
+/* *********************************************************************
+ * This Original Work is copyright of 51 Degrees Mobile Experts Limited.
+ * Copyright 2023 51 Degrees Mobile Experts Limited, Davidson House,
+ * Forbury Square, Reading, Berkshire, United Kingdom RG1 3EU.
+ *
+ * This Original Work is licensed under the European Union Public Licence
+ * (EUPL) v.1.2 and is subject to its terms as set out below.
+ *
+ * If a copy of the EUPL was not distributed with this file, You can obtain
+ * one at https://opensource.org/licenses/EUPL-1.2.
+ *
+ * The 'Compatible Licences' set out in the Appendix to the EUPL (as may be
+ * amended by the European Commission) shall be deemed incompatible for
+ * the purposes of the Work and the provisions of the compatibility
+ * clause in Article 5 of the EUPL shall not apply.
+ *
+ * If using the Work as, or as part of, a network application, by
+ * including the attribution notice(s) required under Article 5 of the EUPL
+ * in the end user terms of the application under an appropriate heading,
+ * such notice(s) shall fulfill the requirements of that article.
+ * ********************************************************************* */
+
+
+package fiftyone.geolocation;
+
+import fiftyone.pipeline.core.data.Evidence;
+import fiftyone.pipeline.core.data.FlowData;
+import fiftyone.pipeline.core.flowelements.Pipeline;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Mock FlowData instances for tests of caches and elements which only need
+ * the evidence and the pipeline, rather than a real Pipeline.
+ */
+public class MockFlowData {
+
+    /**
+     * Create a FlowData with a copy of the evidence provided. Evidence added
+     * to it is added to the map returned by its evidence.
+     * @param evidence the evidence
+     * @param pipeline the pipeline returned by getPipeline, or null
+     * @return new FlowData
+     */
+    public static FlowData create(
+        Map<String, Object> evidence,
+        Pipeline pipeline) {
+        final Map<String, Object> values =
+            new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        values.putAll(evidence);
+        Evidence wrapper = mock(Evidence.class);
+        when(wrapper.asKeyMap()).thenReturn(values);
+        final FlowData data = mock(FlowData.class);
+        when(data.getEvidence()).thenReturn(wrapper);
+        when(data.getPipeline()).thenReturn(pipeline);
+        doAnswer(invocation -> {
+            values.put(invocation.getArgument(0), invocation.getArgument(1));
+            return data;
+        }).when(data).addEvidence(anyString(), any());
+        return data;
+    }
+
+    /**
+     * Create a pipeline whose FlowData instances are created by
+     * {@link #create(Map, Pipeline)} with no evidence.
+     * @return new pipeline
+     */
+    public static Pipeline pipeline() {
+        final Pipeline pipeline = mock(Pipeline.class);
+        when(pipeline.createFlowData()).thenAnswer(invocation ->
+            create(new TreeMap<String, Object>(), pipeline));
+        return pipeline;
+    }
+}
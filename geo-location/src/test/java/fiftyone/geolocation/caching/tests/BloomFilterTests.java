@@ -0,0 +1,75 @@
+/* *********************************************************************
+ * This Original Work is copyright of 51 Degrees Mobile Experts Limited.
+ * Copyright 2023 51 Degrees Mobile Experts Limited, Davidson House,
+ * Forbury Square, Reading, Berkshire, United Kingdom RG1 3EU.
+ *
+ * This Original Work is licensed under the European Union Public Licence
+ * (EUPL) v.1.2 and is subject to its terms as set out below.
+ *
+ * If a copy of the EUPL was not distributed with this file, You can obtain
+ * one at https://opensource.org/licenses/EUPL-1.2.
+ *
+ * The 'Compatible Licences' set out in the Appendix to the EUPL (as may be
+ * amended by the European Commission) shall be deemed incompatible for
+ * the purposes of the Work and the provisions of the compatibility
+ * clause in Article 5 of the EUPL shall not apply.
+ *
+ * If using the Work as, or as part of, a network application, by
+ * including the attribution notice(s) required under Article 5 of the EUPL
+ * in the end user terms of the application under an appropriate heading,
+ * such notice(s) shall fulfill the requirements of that article.
+ * ********************************************************************* */
+
+package fiftyone.geolocation.caching.tests;
+
+import fiftyone.geolocation.caching.BloomFilter;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class BloomFilterTests {
+
+    @Test
+    public void BloomFilter_NoFalseNegatives() {
+        BloomFilter filter = new BloomFilter(1000);
+        Random random = new Random(0);
+        long[] keys = new long[1000];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = random.nextLong();
+            filter.add(keys[i]);
+        }
+        for (long key : keys) {
+            assertTrue(filter.mightContain(key));
+        }
+    }
+
+    @Test
+    public void BloomFilter_FalsePositiveRate() {
+        BloomFilter filter = new BloomFilter(1000);
+        Random random = new Random(1);
+        for (int i = 0; i < 1000; i++) {
+            filter.add(random.nextLong());
+        }
+        int falsePositives = 0;
+        for (int i = 0; i < 100000; i++) {
+            if (filter.mightContain(random.nextLong())) {
+                falsePositives++;
+            }
+        }
+        assertTrue(
+            "The false positive rate should be under 3% at capacity, " +
+                "but was " + (falsePositives / 1000.0) + "%.",
+            falsePositives < 3000);
+    }
+
+    @Test
+    public void BloomFilter_Clear() {
+        BloomFilter filter = new BloomFilter(10);
+        filter.add(42);
+        assertTrue(filter.mightContain(42));
+        filter.clear();
+        assertFalse(filter.mightContain(42));
+    }
+}
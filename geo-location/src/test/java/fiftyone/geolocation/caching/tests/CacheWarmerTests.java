@@ -0,0 +1,287 @@
+/* *********************************************************************
+ * This Original Work is copyright of 51 Degrees Mobile Experts Limited.
+ * Copyright 2023 51 Degrees Mobile Experts Limited, Davidson House,
+ * Forbury Square, Reading, Berkshire, United Kingdom RG1 3EU.
+ *
+ * This Original Work is licensed under the European Union Public Licence
+ * (EUPL) v.1.2 and is subject to its terms as set out below.
+ *
+ * If a copy of the EUPL was not distributed with this file, You can obtain
+ * one at https://opensource.org/licenses/EUPL-1.2.
+ *
+ * The 'Compatible Licences' set out in the Appendix to the EUPL (as may be
+ * amended by the European Commission) shall be deemed incompatible for
+ * the purposes of the Work and the provisions of the compatibility
+ * clause in Article 5 of the EUPL shall not apply.
+ *
+ * If using the Work as, or as part of, a network application, by
+ * including the attribution notice(s) required under Article 5 of the EUPL
+ * in the end user terms of the application under an appropriate heading,
+ * such notice(s) shall fulfill the requirements of that article.
+ * ********************************************************************* */
+
+
+package fiftyone.geolocation.caching.tests;
+
+import fiftyone.geolocation.MockFlowData;
+import fiftyone.geolocation.caching.CacheWarmer;
+import fiftyone.geolocation.caching.GeoResultsCache;
+import fiftyone.geolocation.caching.GeoResultsCacheBuilder;
+import fiftyone.geolocation.core.Constants;
+import fiftyone.pipeline.core.data.ElementData;
+import fiftyone.pipeline.core.data.EvidenceKeyFilter;
+import fiftyone.pipeline.core.data.FlowData;
+import fiftyone.pipeline.core.flowelements.FlowElement;
+import fiftyone.pipeline.core.flowelements.Pipeline;
+import org.junit.Test;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.StringReader;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static fiftyone.pipeline.core.Constants.EVIDENCE_CLIENTIP_KEY;
+import static org.junit.Assert.*;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class CacheWarmerTests {
+
+    /**
+     * Evidence of each FlowData which was processed.
+     */
+    private final List<Map<String, Object>> processed =
+        new CopyOnWriteArrayList<>();
+
+    /**
+     * Action run when each FlowData is processed.
+     */
+    private interface Processor {
+        void process() throws Exception;
+    }
+
+    private Pipeline pipeline(final Processor processor) {
+        Pipeline pipeline = mock(Pipeline.class);
+        when(pipeline.createFlowData()).thenAnswer(invocation -> {
+            final FlowData data = MockFlowData.create(
+                new HashMap<String, Object>(),
+                null);
+            doAnswer(process -> {
+                processor.process();
+                processed.add(data.getEvidence().asKeyMap());
+                return null;
+            }).when(data).process();
+            return data;
+        });
+        return pipeline;
+    }
+
+    private static BufferedReader lines(String... lines) {
+        return new BufferedReader(new StringReader(String.join("\n", lines)));
+    }
+
+    /**
+     * Check that each valid location is processed, and that comments,
+     * blank lines and invalid lines are skipped.
+     */
+    @Test
+    public void CacheWarmer_Coordinates() throws Exception {
+        CacheWarmer.Result result = new CacheWarmer(
+            pipeline(() -> { }),
+            2,
+            10000,
+            false).warm(lines(
+                "# Most frequent first",
+                "",
+                "51.457714,-0.975014,1200",
+                "north,west",
+                "51.507200, -0.127600"));
+        assertEquals(2, result.getWarmed());
+        assertEquals(3, result.getSkipped());
+        assertEquals(0, result.getFailed());
+        assertTrue(result.isComplete());
+        assertEquals(2, processed.size());
+        boolean found = false;
+        for (Map<String, Object> evidence : processed) {
+            if ("51.457714".equals(evidence.get(Constants.EVIDENCE_GEO_LAT_KEY))) {
+                assertEquals(
+                    "-0.975014",
+                    evidence.get(Constants.EVIDENCE_GEO_LON_KEY));
+                found = true;
+            }
+        }
+        assertTrue(found);
+    }
+
+    /**
+     * Check that IP addresses are only processed if the cache holds results
+     * by IP prefix.
+     */
+    @Test
+    public void CacheWarmer_IpAddresses() throws Exception {
+        CacheWarmer.Result result = new CacheWarmer(
+            pipeline(() -> { }),
+            1,
+            10000,
+            false).warm(lines("51.457714,-0.975014", "203.0.113.7"));
+        assertEquals(1, result.getWarmed());
+        assertEquals(1, result.getIgnored());
+        assertEquals(1, processed.size());
+
+        processed.clear();
+        result = new CacheWarmer(
+            pipeline(() -> { }),
+            1,
+            10000,
+            true).warm(lines("51.457714,-0.975014", "203.0.113.7"));
+        assertEquals(2, result.getWarmed());
+        assertEquals(0, result.getIgnored());
+        boolean found = false;
+        for (Map<String, Object> evidence : processed) {
+            found |= "203.0.113.7".equals(evidence.get(EVIDENCE_CLIENTIP_KEY));
+        }
+        assertTrue(found);
+    }
+
+    /**
+     * Check that no more than the configured number of locations are
+     * processed at once.
+     */
+    @Test
+    public void CacheWarmer_Parallelism() throws Exception {
+        final AtomicInteger current = new AtomicInteger();
+        final AtomicInteger max = new AtomicInteger();
+        String[] lines = new String[20];
+        for (int i = 0; i < lines.length; i++) {
+            lines[i] = "51." + i + ",-0.97";
+        }
+        CacheWarmer.Result result = new CacheWarmer(
+            pipeline(() -> {
+                int running = current.incrementAndGet();
+                max.accumulateAndGet(running, Math::max);
+                Thread.sleep(10);
+                current.decrementAndGet();
+            }),
+            3,
+            10000,
+            false).warm(lines(lines));
+        assertEquals(lines.length, result.getWarmed());
+        assertTrue(result.isComplete());
+        assertTrue(
+            "At most 3 locations should be processed at once, not " + max.get(),
+            max.get() <= 3);
+    }
+
+    /**
+     * Check that warming stops when the time budget is spent.
+     */
+    @Test
+    public void CacheWarmer_TimeBudget() throws Exception {
+        String[] lines = new String[20];
+        for (int i = 0; i < lines.length; i++) {
+            lines[i] = "51." + i + ",-0.97";
+        }
+        CacheWarmer.Result result = new CacheWarmer(
+            pipeline(() -> Thread.sleep(50)),
+            1,
+            120,
+            false).warm(lines(lines));
+        assertFalse(result.isComplete());
+        assertTrue(result.getWarmed() < lines.length);
+        assertTrue(result.getElapsed() < 1000);
+    }
+
+    /**
+     * Check that locations which fail are counted, and do not stop warming.
+     */
+    @Test
+    public void CacheWarmer_Failures() throws Exception {
+        final AtomicInteger count = new AtomicInteger();
+        CacheWarmer.Result result = new CacheWarmer(
+            pipeline(() -> {
+                if (count.incrementAndGet() == 1) {
+                    throw new IllegalStateException("Cloud request failed");
+                }
+            }),
+            1,
+            10000,
+            false).warm(lines("51.1,-0.97", "51.2,-0.97", "51.3,-0.97"));
+        assertEquals(2, result.getWarmed());
+        assertEquals(1, result.getFailed());
+        assertTrue(result.isComplete());
+    }
+
+    /**
+     * Check that a live request, which carries evidence the cloud request
+     * engine uses besides the location, finds the result warmed for its
+     * location when the warm up requests have the same evidence from the
+     * template, and does not find it otherwise.
+     */
+    @Test
+    public void CacheWarmer_LiveRequestHit() throws Exception {
+        Map<String, Object> template = new HashMap<>();
+        template.put("header.user-agent", "Mozilla/5.0");
+        Map<String, Object> live = new HashMap<>(template);
+        live.put("header.accept-language", "en-GB");
+        live.put(Constants.EVIDENCE_GEO_LAT_COOKIE_KEY, "51.4577141");
+        live.put(Constants.EVIDENCE_GEO_LON_COOKIE_KEY, "-0.9750139");
+
+        GeoResultsCache warmed = warmedCache(template);
+        assertNotNull(warmed.get(MockFlowData.create(live, null)));
+
+        GeoResultsCache cold = warmedCache(
+            Collections.<String, Object>emptyMap());
+        assertNull(cold.get(MockFlowData.create(live, null)));
+    }
+
+    /**
+     * Create a results cache whose element uses the user-agent besides the
+     * location, and warm it through a pipeline which puts a result in the
+     * cache for each request it processes.
+     */
+    private static GeoResultsCache warmedCache(
+        Map<String, Object> template) throws Exception {
+        GeoResultsCache cache = new GeoResultsCacheBuilder().build();
+        EvidenceKeyFilter filter = mock(EvidenceKeyFilter.class);
+        when(filter.include(anyString())).thenAnswer(invocation ->
+            "header.user-agent".equalsIgnoreCase(invocation.getArgument(0)));
+        FlowElement<?, ?> element = mock(FlowElement.class);
+        when(element.getEvidenceKeyFilter()).thenReturn(filter);
+        cache.setFlowElement(element);
+
+        ElementData response = mock(ElementData.class);
+        Pipeline pipeline = mock(Pipeline.class);
+        when(pipeline.createFlowData()).thenAnswer(invocation -> {
+            final FlowData data = MockFlowData.create(
+                new HashMap<String, Object>(),
+                null);
+            doAnswer(process -> {
+                cache.put(data, response);
+                return null;
+            }).when(data).process();
+            return data;
+        });
+        CacheWarmer.Result result = new CacheWarmer(
+            pipeline,
+            1,
+            10000,
+            false,
+            template,
+            LoggerFactory.getLogger(CacheWarmerTests.class))
+            .warm(lines("51.457714,-0.975014"));
+        assertEquals(1, result.getWarmed());
+        return cache;
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void CacheWarmer_NoParallelism() {
+        new CacheWarmer(mock(Pipeline.class), 0, 10000, false);
+    }
+}
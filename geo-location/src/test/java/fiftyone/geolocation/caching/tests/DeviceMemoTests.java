@@ -0,0 +1,190 @@
+/* *********************************************************************
+ * This Original Work is copyright of 51 Degrees Mobile Experts Limited.
+ * Copyright 2023 51 Degrees Mobile Experts Limited, Davidson House,
+ * Forbury Square, Reading, Berkshire, United Kingdom RG1 3EU.
+ *
+ * This Original Work is licensed under the European Union Public Licence
+ * (EUPL) v.1.2 and is subject to its terms as set out below.
+ *
+ * If a copy of the EUPL was not distributed with this file, You can obtain
+ * one at https://opensource.org/licenses/EUPL-1.2.
+ *
+ * The 'Compatible Licences' set out in the Appendix to the EUPL (as may be
+ * amended by the European Commission) shall be deemed incompatible for
+ * the purposes of the Work and the provisions of the compatibility
+ * clause in Article 5 of the EUPL shall not apply.
+ *
+ * If using the Work as, or as part of, a network application, by
+ * including the attribution notice(s) required under Article 5 of the EUPL
+ * in the end user terms of the application under an appropriate heading,
+ * such notice(s) shall fulfill the requirements of that article.
+ * ********************************************************************* */
+
+
+package fiftyone.geolocation.caching.tests;
+
+import fiftyone.geolocation.MockFlowData;
+import fiftyone.geolocation.caching.DeviceMemo;
+import fiftyone.geolocation.caching.GeoResultsCache;
+import fiftyone.geolocation.caching.GeoResultsCacheBuilder;
+import fiftyone.geolocation.core.Constants;
+import fiftyone.geolocation.core.data.Coordinates;
+import fiftyone.geolocation.core.spatial.GeoCell;
+import fiftyone.pipeline.core.data.ElementData;
+import fiftyone.pipeline.core.data.FlowData;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.mock;
+
+/**
+ * Checks that the device memo is consulted before the results table, and
+ * that a device's result is no longer used once it has moved too far or
+ * the result has expired.
+ */
+public class DeviceMemoTests {
+
+    private static final String SESSION = "cookie.session";
+
+    /**
+     * Coordinates about 100m apart, which are in different cells of the
+     * size used by the tests, and within the memo distance of each other.
+     */
+    private static final String[] HOME = { "51.457714", "-0.975014" };
+    private static final String[] NEARBY = { "51.458614", "-0.975014" };
+    /**
+     * Coordinates about 1km from the others.
+     */
+    private static final String[] AWAY = { "51.466714", "-0.975014" };
+
+    private GeoResultsCache cache;
+    private final ElementData home = mock(ElementData.class);
+    private final ElementData nearby = mock(ElementData.class);
+    private final ElementData away = mock(ElementData.class);
+
+    private void init(long timeToLive) throws Exception {
+        cache = new GeoResultsCacheBuilder()
+            .setCellLevel(GeoCell.getLevelForSize(50))
+            .setTimeToLive(timeToLive, TimeUnit.MILLISECONDS)
+            .setMaxStaleness(1, TimeUnit.MINUTES)
+            .setStaleWhileRevalidate(true)
+            .setDeviceMemoSize(100)
+            .setDeviceMemoKey(SESSION)
+            .setDeviceMemoDistance(250)
+            .build();
+    }
+
+    @After
+    public void close() throws Exception {
+        if (cache != null) {
+            cache.close();
+        }
+    }
+
+    private static FlowData request(String[] coordinates, String session) {
+        Map<String, Object> evidence = new HashMap<>();
+        evidence.put(Constants.EVIDENCE_GEO_LAT_COOKIE_KEY, coordinates[0]);
+        evidence.put(Constants.EVIDENCE_GEO_LON_COOKIE_KEY, coordinates[1]);
+        if (session != null) {
+            evidence.put(SESSION, session);
+        }
+        return MockFlowData.create(evidence, null);
+    }
+
+    /**
+     * Check that a device which moves into another cell within the memo
+     * distance is given its last result, even though the results table has
+     * a different result for the new cell, and that other devices and
+     * requests without a session get the cell's result.
+     */
+    @Test
+    public void DeviceMemo_BeforeResultsTable() throws Exception {
+        init(TimeUnit.MINUTES.toMillis(1));
+        cache.put(request(HOME, "a"), home);
+        cache.put(request(NEARBY, null), nearby);
+
+        assertSame(home, cache.get(request(NEARBY, "a")));
+        assertEquals(1, cache.getDeviceMemoHits());
+        assertSame(nearby, cache.get(request(NEARBY, "b")));
+        assertSame(nearby, cache.get(request(NEARBY, null)));
+        assertEquals(1, cache.getDeviceMemoHits());
+    }
+
+    /**
+     * Check that a device which moves further than the memo distance is
+     * looked up by its cell, and that its next result replaces the one it
+     * had.
+     */
+    @Test
+    public void DeviceMemo_Moved() throws Exception {
+        init(TimeUnit.MINUTES.toMillis(1));
+        cache.put(request(HOME, "a"), home);
+        assertNull(cache.get(request(AWAY, "a")));
+        assertEquals(0, cache.getDeviceMemoHits());
+
+        cache.put(request(AWAY, "a"), away);
+        assertSame(away, cache.get(request(AWAY, "a")));
+        assertEquals(1, cache.getDeviceMemoHits());
+        // The device's memo is now for the away coordinates, so it is given
+        // the home cell's result from the results table.
+        assertSame(home, cache.get(request(HOME, "a")));
+        assertEquals(1, cache.getDeviceMemoHits());
+        assertNull(cache.get(request(NEARBY, "a")));
+    }
+
+    /**
+     * Check that a device's result is not used once it has expired, so the
+     * device is given the current result for its new cell, and a stale
+     * result is only served from the results table.
+     */
+    @Test
+    public void DeviceMemo_Expired() throws Exception {
+        init(300);
+        cache.put(request(HOME, "a"), home);
+        Thread.sleep(200);
+        cache.put(request(NEARBY, null), nearby);
+        assertSame(home, cache.get(request(NEARBY, "a")));
+        Thread.sleep(200);
+
+        assertSame(nearby, cache.get(request(NEARBY, "a")));
+        assertEquals(0, cache.getStaleHits());
+        assertSame(home, cache.get(request(HOME, "a")));
+        assertEquals(1, cache.getStaleHits());
+        assertEquals(1, cache.getDeviceMemoHits());
+    }
+
+    /**
+     * Check the memo on its own: a device is given its result within the
+     * memo distance until it expires, and only for the same other evidence.
+     */
+    @Test
+    public void DeviceMemo_Standalone() {
+        DeviceMemo memo = new DeviceMemo(100, SESSION, 250);
+        Map<String, Object> device =
+            Collections.<String, Object>singletonMap(SESSION, "a");
+        Map<String, Object> other =
+            Collections.<String, Object>singletonMap(SESSION, "b");
+        Map<String, Object> empty =
+            Collections.<String, Object>singletonMap(SESSION, "");
+        Coordinates coordinates = Coordinates.parse(HOME[0], HOME[1]);
+        memo.put(device, coordinates, 7, home, 1000);
+        memo.put(empty, coordinates, 7, away, 1000);
+
+        Coordinates nearby = Coordinates.parse(NEARBY[0], NEARBY[1]);
+        assertSame(home, memo.get(device, nearby, 7, 999));
+        assertNull(memo.get(device, nearby, 7, 1000));
+        assertNull(memo.get(device, nearby, 8, 999));
+        assertNull(memo.get(other, nearby, 7, 999));
+        assertNull(memo.get(empty, nearby, 7, 999));
+        assertNull(memo.get(device, Coordinates.parse(AWAY[0], AWAY[1]), 7, 999));
+        assertEquals(1, memo.getHits());
+        assertEquals(SESSION, memo.getKey());
+        assertEquals(250, memo.getDistance(), 0);
+    }
+}
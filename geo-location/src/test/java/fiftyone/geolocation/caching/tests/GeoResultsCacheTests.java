@@ -0,0 +1,204 @@
+/* *********************************************************************
+ * This Original Work is copyright of 51 Degrees Mobile Experts Limited.
+ * Copyright 2023 51 Degrees Mobile Experts Limited, Davidson House,
+ * Forbury Square, Reading, Berkshire, United Kingdom RG1 3EU.
+ *
+ * This Original Work is licensed under the European Union Public Licence
+ * (EUPL) v.1.2 and is subject to its terms as set out below.
+ *
+ * If a copy of the EUPL was not distributed with this file, You can obtain
+ * one at https://opensource.org/licenses/EUPL-1.2.
+ *
+ * The 'Compatible Licences' set out in the Appendix to the EUPL (as may be
+ * amended by the European Commission) shall be deemed incompatible for
+ * the purposes of the Work and the provisions of the compatibility
+ * clause in Article 5 of the EUPL shall not apply.
+ *
+ * If using the Work as, or as part of, a network application, by
+ * including the attribution notice(s) required under Article 5 of the EUPL
+ * in the end user terms of the application under an appropriate heading,
+ * such notice(s) shall fulfill the requirements of that article.
+ * ********************************************************************* */
+
+package fiftyone.geolocation.caching.tests;
+
+import fiftyone.geolocation.MockFlowData;
+import fiftyone.geolocation.caching.GeoResultsCache;
+import fiftyone.geolocation.caching.GeoResultsCacheBuilder;
+import fiftyone.geolocation.core.Constants;
+import fiftyone.pipeline.cloudrequestengine.data.CloudRequestData;
+import fiftyone.pipeline.core.data.ElementData;
+import fiftyone.pipeline.core.data.FlowData;
+import org.junit.Test;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class GeoResultsCacheTests {
+
+    @Test
+    public void GeoResultsCache_FixedCellLevel() throws IOException {
+        GeoResultsCache cache = new GeoResultsCacheBuilder()
+            .setCellLevel(18)
+            .build();
+        Map<String, Object> evidence = new HashMap<>();
+        evidence.put("cookie.51D_Pos_accuracy", "5000");
+        assertEquals(18, cache.getCellLevel(evidence));
+    }
+
+    @Test
+    public void GeoResultsCache_AccuracyAdaptive() throws IOException {
+        GeoResultsCache cache = new GeoResultsCacheBuilder()
+            .setCellLevel(20)
+            .setMinCellLevel(10)
+            .setAccuracyAdaptive(true)
+            .build();
+        Map<String, Object> evidence = new HashMap<>();
+        assertEquals(20, cache.getCellLevel(evidence));
+        evidence.put("cookie.51D_Pos_accuracy", "5");
+        assertEquals(20, cache.getCellLevel(evidence));
+        evidence.put("cookie.51D_Pos_accuracy", "5000");
+        assertEquals(12, cache.getCellLevel(evidence));
+        evidence.put("cookie.51D_Pos_accuracy", "1000000");
+        assertEquals(10, cache.getCellLevel(evidence));
+    }
+
+    /**
+     * Check that the estimated size of a result counts every value in its
+     * data, not just the JSON response.
+     */
+    @Test
+    public void GeoResultsCache_EstimatedBytes() throws IOException {
+        GeoResultsCache cache = new GeoResultsCacheBuilder()
+            .setMaxBytes(1000000)
+            .build();
+        StringBuilder json = new StringBuilder("{\"location\":{\"town\":\"");
+        while (json.length() < 1000) {
+            json.append('a');
+        }
+        CloudRequestData data = new CloudRequestData(
+            LoggerFactory.getLogger(GeoResultsCacheTests.class),
+            null,
+            null);
+        data.setJsonResponse(json.append("\"}}").toString());
+        data.put("other", new String(new char[5000]));
+        Map<String, Object> evidence = new HashMap<>();
+        evidence.put(Constants.EVIDENCE_GEO_LAT_COOKIE_KEY, "51.457714");
+        evidence.put(Constants.EVIDENCE_GEO_LON_COOKIE_KEY, "-0.975014");
+        cache.put(MockFlowData.create(evidence, null), data);
+        long bytes = cache.getEstimatedBytes();
+        assertTrue(
+            "The estimate " + bytes + " should include both values.",
+            bytes >= 2 * (json.length() + 5000));
+        assertTrue(bytes < 2 * (json.length() + 5000) + 1024);
+    }
+
+    /**
+     * Check that requests from two addresses in the same /24 network share
+     * one upstream resolution, and that an address in another network does
+     * not.
+     */
+    @Test
+    public void GeoResultsCache_IpPrefix_SharedResolution() throws IOException {
+        GeoResultsCache cache = new GeoResultsCacheBuilder()
+            .setIpPrefixCacheSize(100)
+            .build();
+        CloudRequestData response = new CloudRequestData(
+            LoggerFactory.getLogger(GeoResultsCacheTests.class),
+            null,
+            null);
+        response.setJsonResponse("{\"location\":{\"town\":\"Reading\"}}");
+        int resolutions = 0;
+        for (String ip : new String[] { "81.2.69.1", "81.2.69.254" }) {
+            resolutions += resolve(cache, ip, response);
+        }
+        assertEquals(1, resolutions);
+        assertEquals(1, cache.getIpPrefixHits());
+        assertEquals(1, resolve(cache, "81.2.70.1", response));
+        assertEquals(2, cache.getIpPrefixes().size());
+        cache.close();
+    }
+
+    /**
+     * Get the result for a request from the IP address, adding the response
+     * to the cache as if it had been resolved upstream if there is none.
+     * @return 1 if the request was resolved upstream, otherwise 0
+     */
+    private static int resolve(
+        GeoResultsCache cache,
+        String ip,
+        ElementData response) {
+        Map<String, Object> evidence = new HashMap<>();
+        evidence.put(fiftyone.pipeline.core.Constants.EVIDENCE_CLIENTIP_KEY, ip);
+        FlowData data = MockFlowData.create(evidence, null);
+        if (cache.get(data) != null) {
+            return 0;
+        }
+        cache.put(data, response);
+        return 1;
+    }
+
+    @Test
+    public void GeoResultsCache_StaleWhileRevalidate() throws IOException {
+        GeoResultsCache cache = new GeoResultsCacheBuilder()
+            .setTimeToLive(10, TimeUnit.MINUTES)
+            .build();
+        assertEquals(600000, cache.getTimeToLive());
+        assertFalse(cache.getStaleWhileRevalidate());
+        cache.setStaleWhileRevalidate(true);
+        assertTrue(cache.getStaleWhileRevalidate());
+        assertEquals(0, cache.getRefreshes());
+        cache.close();
+    }
+
+    @Test
+    public void GeoResultsCache_PrefetchNeighbours() throws IOException {
+        GeoResultsCache cache = new GeoResultsCacheBuilder().build();
+        assertFalse(cache.getPrefetchNeighbours());
+        cache.close();
+        cache = new GeoResultsCacheBuilder()
+            .setPrefetchNeighbours(true)
+            .setPrefetchBudget(10)
+            .build();
+        assertTrue(cache.getPrefetchNeighbours());
+        assertEquals(0, cache.getPrefetches());
+        assertEquals(0, cache.getPrefetchHitRatio(), 0);
+        cache.close();
+    }
+
+    @Test
+    public void GeoResultsCache_DeviceMemo() throws IOException {
+        GeoResultsCache cache = new GeoResultsCacheBuilder().build();
+        assertNull(cache.getDeviceMemoKey());
+        cache.close();
+        cache = new GeoResultsCacheBuilder()
+            .setDeviceMemoSize(1000)
+            .setDeviceMemoKey("cookie.session")
+            .setDeviceMemoDistance(250)
+            .build();
+        assertEquals("cookie.session", cache.getDeviceMemoKey());
+        assertEquals(250, cache.getDeviceMemoDistance(), 0);
+        assertEquals(0, cache.getDeviceMemoHits());
+        cache.close();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void GeoResultsCache_DeviceMemoNoKey() throws IOException {
+        new GeoResultsCacheBuilder()
+            .setDeviceMemoSize(1000)
+            .build();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void GeoResultsCache_PrefetchNoBudget() throws IOException {
+        new GeoResultsCacheBuilder()
+            .setPrefetchNeighbours(true)
+            .setPrefetchBudget(0)
+            .build();
+    }
+}
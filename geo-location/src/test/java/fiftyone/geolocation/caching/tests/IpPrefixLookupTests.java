@@ -0,0 +1,89 @@
+/* *********************************************************************
+ * This Original Work is copyright of 51 Degrees Mobile Experts Limited.
+ * Copyright 2023 51 Degrees Mobile Experts Limited, Davidson House,
+ * Forbury Square, Reading, Berkshire, United Kingdom RG1 3EU.
+ *
+ * This Original Work is licensed under the European Union Public Licence
+ * (EUPL) v.1.2 and is subject to its terms as set out below.
+ *
+ * If a copy of the EUPL was not distributed with this file, You can obtain
+ * one at https://opensource.org/licenses/EUPL-1.2.
+ *
+ * The 'Compatible Licences' set out in the Appendix to the EUPL (as may be
+ * amended by the European Commission) shall be deemed incompatible for
+ * the purposes of the Work and the provisions of the compatibility
+ * clause in Article 5 of the EUPL shall not apply.
+ *
+ * If using the Work as, or as part of, a network application, by
+ * including the attribution notice(s) required under Article 5 of the EUPL
+ * in the end user terms of the application under an appropriate heading,
+ * such notice(s) shall fulfill the requirements of that article.
+ * ********************************************************************* */
+
+package fiftyone.geolocation.caching.tests;
+
+import fiftyone.geolocation.caching.IpPrefixLookup;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.Map;
+
+import static fiftyone.pipeline.core.Constants.EVIDENCE_CLIENTIP_KEY;
+import static org.junit.Assert.*;
+
+/**
+ * Checks that the IP prefix lookup shares results within a network prefix,
+ * only between requests with the same other evidence.
+ */
+public class IpPrefixLookupTests {
+
+    private static long[] address(String ip) {
+        Map<String, Object> evidence =
+            Collections.<String, Object>singletonMap(EVIDENCE_CLIENTIP_KEY, ip);
+        return IpPrefixLookup.getAddress(evidence);
+    }
+
+    @Test
+    public void IpPrefixLookup_Address() {
+        assertNotNull(address("192.168.1.10"));
+        assertNull(address("not an address"));
+        assertNull(IpPrefixLookup.getAddress(
+            Collections.<String, Object>emptyMap()));
+    }
+
+    @Test
+    public void IpPrefixLookup_SharedWithinPrefix() {
+        IpPrefixLookup<String> lookup = new IpPrefixLookup<>(100, 24, 48);
+        lookup.put(address("192.168.1.10"), 1, "a");
+        lookup.put(address("2001:db8:1::1"), 1, "b");
+        assertEquals("a", lookup.get(address("192.168.1.200"), 1));
+        assertNull(lookup.get(address("192.168.2.10"), 1));
+        assertEquals("b", lookup.get(address("2001:db8:1:ffff::2"), 1));
+        assertNull(lookup.get(address("2001:db8:2::1"), 1));
+        assertEquals(2, lookup.getTrie().size());
+        lookup.clear();
+        assertNull(lookup.get(address("192.168.1.10"), 1));
+    }
+
+    /**
+     * Check that each prefix holds a result for each of a few hashes of the
+     * other evidence, replacing the oldest once it is full.
+     */
+    @Test
+    public void IpPrefixLookup_OtherEvidence() {
+        IpPrefixLookup<String> lookup = new IpPrefixLookup<>(100, 24, 48);
+        long[] address = address("192.168.1.10");
+        for (long hash = 1; hash <= 4; hash++) {
+            lookup.put(address, hash, "v" + hash);
+        }
+        lookup.put(address, 2, "replaced");
+        assertEquals("v1", lookup.get(address, 1));
+        assertEquals("replaced", lookup.get(address, 2));
+        lookup.put(address, 5, "v5");
+        assertNull(lookup.get(address, 1));
+        assertEquals("replaced", lookup.get(address, 2));
+        assertEquals("v5", lookup.get(address, 5));
+        assertNull(lookup.get(address, 6));
+        assertEquals(1, lookup.getTrie().size());
+    }
+}
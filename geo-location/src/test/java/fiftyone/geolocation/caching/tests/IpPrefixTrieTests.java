@@ -0,0 +1,163 @@
+/* *********************************************************************
+ * This Original Work is copyright of 51 Degrees Mobile Experts Limited.
+ * Copyright 2023 51 Degrees Mobile Experts Limited, Davidson House,
+ * Forbury Square, Reading, Berkshire, United Kingdom RG1 3EU.
+ *
+ * This Original Work is licensed under the European Union Public Licence
+ * (EUPL) v.1.2 and is subject to its terms as set out below.
+ *
+ * If a copy of the EUPL was not distributed with this file, You can obtain
+ * one at https://opensource.org/licenses/EUPL-1.2.
+ *
+ * The 'Compatible Licences' set out in the Appendix to the EUPL (as may be
+ * amended by the European Commission) shall be deemed incompatible for
+ * the purposes of the Work and the provisions of the compatibility
+ * clause in Article 5 of the EUPL shall not apply.
+ *
+ * If using the Work as, or as part of, a network application, by
+ * including the attribution notice(s) required under Article 5 of the EUPL
+ * in the end user terms of the application under an appropriate heading,
+ * such notice(s) shall fulfill the requirements of that article.
+ * ********************************************************************* */
+
+
+package fiftyone.geolocation.caching.tests;
+
+import fiftyone.geolocation.caching.IpPrefixTrie;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class IpPrefixTrieTests {
+
+    private static void put(IpPrefixTrie<String> trie, String ip, String value) {
+        long[] address = IpPrefixTrie.parseAddress(ip);
+        trie.put(
+            address[0],
+            address[1],
+            IpPrefixTrie.getPrefixLength(address, 24, 48),
+            value);
+    }
+
+    private static String get(IpPrefixTrie<String> trie, String ip) {
+        long[] address = IpPrefixTrie.parseAddress(ip);
+        return trie.get(
+            address[0],
+            address[1],
+            IpPrefixTrie.getPrefixLength(address, 24, 48));
+    }
+
+    @Test
+    public void IpPrefixTrie_ParseIpv4() {
+        long[] address = IpPrefixTrie.parseAddress("192.168.1.2");
+        assertEquals(0, address[0]);
+        assertEquals(0xffffc0a80102L, address[1]);
+        assertEquals(32, address[2]);
+        assertArrayEquals(
+            address,
+            IpPrefixTrie.parseAddress("::ffff:192.168.1.2"));
+    }
+
+    @Test
+    public void IpPrefixTrie_ParseIpv6() {
+        long[] address = IpPrefixTrie.parseAddress("2001:db8::1");
+        assertEquals(0x20010db800000000L, address[0]);
+        assertEquals(1, address[1]);
+        assertEquals(128, address[2]);
+        assertArrayEquals(
+            new long[] { 0, 0, 128 },
+            IpPrefixTrie.parseAddress("::"));
+        assertArrayEquals(
+            address,
+            IpPrefixTrie.parseAddress("2001:0db8:0:0:0:0:0:1%eth0"));
+    }
+
+    @Test
+    public void IpPrefixTrie_ParseInvalid() {
+        for (String text : new String[] {
+            "",
+            "localhost",
+            "1.2.3",
+            "1.2.3.256",
+            "1.2.3.4.5",
+            "2001:db8::1::2",
+            "2001:db8:0:0:0:0:0:0:1",
+            "12345::",
+            "-1::",
+            "+f::",
+            "2001:db8::-1",
+            "2001:db8::+ff",
+            "2001:db8::\u0661" }) {
+            assertNull(text, IpPrefixTrie.parseAddress(text));
+        }
+    }
+
+    @Test
+    public void IpPrefixTrie_SharedWithinPrefix() {
+        IpPrefixTrie<String> trie = new IpPrefixTrie<>(100);
+        put(trie, "81.2.69.1", "a");
+        put(trie, "2001:db8:1::1", "b");
+        assertEquals("a", get(trie, "81.2.69.254"));
+        assertEquals("b", get(trie, "2001:db8:1:ffff::2"));
+        assertNull(get(trie, "81.2.70.1"));
+        assertNull(get(trie, "2001:db8:2::1"));
+        assertEquals(2, trie.size());
+    }
+
+    @Test
+    public void IpPrefixTrie_SeparatePrefixes() {
+        IpPrefixTrie<String> trie = new IpPrefixTrie<>(1000);
+        for (int i = 0; i < 256; i++) {
+            put(trie, "10.0." + i + ".1", Integer.toString(i));
+        }
+        for (int i = 0; i < 256; i++) {
+            assertEquals(Integer.toString(i), get(trie, "10.0." + i + ".200"));
+        }
+        put(trie, "10.0.5.9", "replaced");
+        assertEquals("replaced", get(trie, "10.0.5.1"));
+        assertEquals(256, trie.size());
+    }
+
+    @Test
+    public void IpPrefixTrie_Compute() throws InterruptedException {
+        IpPrefixTrie<String> trie = new IpPrefixTrie<>(100);
+        long[] address = IpPrefixTrie.parseAddress("81.2.69.1");
+        int length = IpPrefixTrie.getPrefixLength(address, 24, 48);
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < 1000; i++) {
+                    trie.compute(
+                        address[0],
+                        address[1],
+                        length,
+                        value -> value == null ? "x" : value + "x");
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(4000, get(trie, "81.2.69.254").length());
+        assertEquals(1, trie.size());
+    }
+
+    @Test
+    public void IpPrefixTrie_Capacity() {
+        IpPrefixTrie<String> trie = new IpPrefixTrie<>(100);
+        for (int i = 0; i < 10000; i++) {
+            put(trie, (i >> 8) + "." + (i & 0xff) + ".0.1", Integer.toString(i));
+        }
+        assertTrue(trie.size() <= trie.getCapacity());
+        int found = 0;
+        for (int i = 0; i < 10000; i++) {
+            String value = get(trie, (i >> 8) + "." + (i & 0xff) + ".0.1");
+            if (value != null) {
+                assertEquals(Integer.toString(i), value);
+                found++;
+            }
+        }
+        assertEquals(trie.size(), found);
+    }
+}
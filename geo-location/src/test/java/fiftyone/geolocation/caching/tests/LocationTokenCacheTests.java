@@ -0,0 +1,294 @@
+/* *********************************************************************
+ * This Original Work is copyright of 51 Degrees Mobile Experts Limited.
+ * Copyright 2023 51 Degrees Mobile Experts Limited, Davidson House,
+ * Forbury Square, Reading, Berkshire, United Kingdom RG1 3EU.
+ *
+ * This Original Work is licensed under the European Union Public Licence
+ * (EUPL) v.1.2 and is subject to its terms as set out below.
+ *
+ * If a copy of the EUPL was not distributed with this file, You can obtain
+ * one at https://opensource.org/licenses/EUPL-1.2.
+ *
+ * The 'Compatible Licences' set out in the Appendix to the EUPL (as may be
+ * amended by the European Commission) shall be deemed incompatible for
+ * the purposes of the Work and the provisions of the compatibility
+ * clause in Article 5 of the EUPL shall not apply.
+ *
+ * If using the Work as, or as part of, a network application, by
+ * including the attribution notice(s) required under Article 5 of the EUPL
+ * in the end user terms of the application under an appropriate heading,
+ * such notice(s) shall fulfill the requirements of that article.
+ * ********************************************************************* */
+
+
+package fiftyone.geolocation.caching.tests;
+
+import fiftyone.geolocation.CloudResponses;
+import fiftyone.geolocation.MockFlowData;
+import fiftyone.geolocation.caching.GeoResultsCache;
+import fiftyone.geolocation.caching.GeoResultsCacheBuilder;
+import fiftyone.geolocation.caching.LocationTokenSigner;
+import fiftyone.geolocation.core.Constants;
+import fiftyone.geolocation.core.Enums;
+import fiftyone.geolocation.core.data.Coordinates;
+import fiftyone.geolocation.data.CloudGeoData;
+import fiftyone.geolocation.data.CloudGeoDataDefault;
+import fiftyone.geolocation.flowelements.GeoLocationCloudEngine;
+import fiftyone.pipeline.cloudrequestengine.data.CloudRequestData;
+import fiftyone.pipeline.cloudrequestengine.flowelements.CloudRequestEngine;
+import fiftyone.pipeline.core.data.AccessiblePropertyMetaData;
+import fiftyone.pipeline.core.data.ElementPropertyMetaData;
+import fiftyone.pipeline.core.data.FlowData;
+import fiftyone.pipeline.core.flowelements.Pipeline;
+import fiftyone.pipeline.engines.data.AspectPropertyMetaData;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Checks that a location token issued for a processed request answers a
+ * later request for the same engine from the cache, and that it is ignored
+ * when the request is outside its cell or the pipeline needs more than the
+ * token holds.
+ */
+public class LocationTokenCacheTests {
+
+    private static final Logger logger =
+        LoggerFactory.getLogger(LocationTokenCacheTests.class);
+
+    private static final String[] READING = { "51.457714", "-0.975014" };
+    private static final String[] LONDON = { "51.507200", "-0.127600" };
+
+    /**
+     * Engine which exposes processEngine so that it can be called without
+     * a full Pipeline.
+     */
+    private static class TestEngine extends GeoLocationCloudEngine {
+
+        TestEngine(List<String> properties) {
+            super(
+                LocationTokenCacheTests.logger,
+                null,
+                Enums.GeoLocationProvider.FiftyOneDegrees,
+                false,
+                null,
+                properties,
+                null);
+        }
+
+        CloudGeoData processResponse(FlowData data) throws Exception {
+            CloudGeoData aspectData = new CloudGeoDataDefault(
+                LocationTokenCacheTests.logger,
+                data,
+                this,
+                null);
+            processEngine(data, aspectData);
+            return aspectData;
+        }
+    }
+
+    private final LocationTokenSigner signer = new LocationTokenSigner(
+        "0123456789abcdef0123456789abcdef".getBytes(StandardCharsets.US_ASCII));
+    private CloudRequestEngine requestEngine;
+    private final Map<String, Map<String, ElementPropertyMetaData>> available =
+        new HashMap<>();
+    private Pipeline pipeline;
+    private TestEngine engine;
+    private GeoResultsCache cache;
+
+    private static AccessiblePropertyMetaData.PropertyMetaData property(
+        String name) {
+        AccessiblePropertyMetaData.PropertyMetaData property =
+            new AccessiblePropertyMetaData.PropertyMetaData();
+        property.name = name;
+        property.type = "String";
+        property.category = "Location";
+        property.evidenceProperties = new ArrayList<>();
+        return property;
+    }
+
+    private static AccessiblePropertyMetaData.ProductMetaData product(
+        String... names) {
+        AccessiblePropertyMetaData.ProductMetaData product =
+            new AccessiblePropertyMetaData.ProductMetaData();
+        product.dataTier = "CloudV4";
+        product.properties = new ArrayList<>();
+        for (String name : names) {
+            product.properties.add(property(name));
+        }
+        return product;
+    }
+
+    @Before
+    public void init() throws Exception {
+        Map<String, AccessiblePropertyMetaData.ProductMetaData> products =
+            new HashMap<>();
+        products.put(
+            "location",
+            product("CountryCode", "Region", "Town", "Country"));
+        products.put("device", product("IsMobile"));
+        requestEngine = mock(CloudRequestEngine.class);
+        when(requestEngine.getPublicProperties()).thenReturn(products);
+        pipeline = mock(Pipeline.class);
+        when(pipeline.getElement(CloudRequestEngine.class))
+            .thenReturn(requestEngine);
+        when(pipeline.getElementAvailableProperties()).thenReturn(available);
+        cache = new GeoResultsCacheBuilder()
+            .setLocationTokenSigner(signer)
+            .build();
+        cache.setFlowElement(requestEngine);
+    }
+
+    @After
+    public void close() throws Exception {
+        cache.close();
+    }
+
+    /**
+     * Add an engine for the 'location' element to the pipeline, which
+     * populates the properties provided.
+     */
+    private void addEngine(String... properties) {
+        engine = new TestEngine(Arrays.asList(properties));
+        engine.addPipeline(pipeline);
+        Map<String, ElementPropertyMetaData> metaData = new HashMap<>();
+        for (AspectPropertyMetaData property : engine.getProperties()) {
+            metaData.put(property.getName(), property);
+        }
+        available.put(engine.getElementDataKey(), metaData);
+    }
+
+    private FlowData request(String[] coordinates, String token) {
+        Map<String, Object> evidence = new HashMap<>();
+        evidence.put(Constants.EVIDENCE_GEO_LAT_COOKIE_KEY, coordinates[0]);
+        evidence.put(Constants.EVIDENCE_GEO_LON_COOKIE_KEY, coordinates[1]);
+        if (token != null) {
+            evidence.put(signer.getEvidenceKey(), token);
+        }
+        return MockFlowData.create(evidence, pipeline);
+    }
+
+    /**
+     * Process a request as if the cloud service had responded, and issue a
+     * token for the result.
+     */
+    private String issue() throws Exception {
+        FlowData data = request(READING, null);
+        CloudRequestData requestData = new CloudRequestData(logger, null, null);
+        requestData.setJsonResponse("{" + CloudResponses.location(
+            "location",
+            "Reading",
+            "United Kingdom",
+            "GB") + "}");
+        when(data.getFromElement(requestEngine)).thenReturn(requestData);
+        CloudGeoData geoData = engine.processResponse(data);
+        when(data.get("location")).thenReturn(geoData);
+        String token = signer.issue(data, "location");
+        assertNotNull(token);
+        return token;
+    }
+
+    /**
+     * Check that a request with the cookie from a token issued for the
+     * engine is answered by the cache, and the engine gets the values the
+     * token was issued with. The response only holds the engine's element,
+     * and the properties the token does not hold have a reason saying so.
+     */
+    @Test
+    public void LocationToken_EndToEnd() throws Exception {
+        addEngine("CountryCode", "Region", "Town");
+        String token = issue();
+
+        FlowData data = request(READING, token);
+        CloudRequestData response = (CloudRequestData)cache.get(data);
+        assertNotNull(response);
+        assertEquals(1, cache.getLocationTokenHits());
+        when(data.getFromElement(requestEngine)).thenReturn(response);
+        CloudGeoData geoData = engine.processResponse(data);
+        assertEquals("GB", geoData.getCountryCode().getValue());
+        assertEquals("South East", geoData.getRegion().getValue());
+        assertEquals("Reading", geoData.getTown().getValue());
+
+        JSONObject json = new JSONObject(response.getJsonResponse());
+        assertEquals(
+            Collections.singleton("location"),
+            json.keySet());
+        JSONObject location = json.getJSONObject("location");
+        assertTrue(location.isNull("country"));
+        assertTrue(location.getString("countrynullreason")
+            .contains("location token"));
+    }
+
+    /**
+     * Check that a token is ignored by a request whose coordinates are
+     * outside the token's cell.
+     */
+    @Test
+    public void LocationToken_OutsideCell() throws Exception {
+        addEngine("CountryCode", "Region", "Town");
+        String token = issue();
+        assertNull(cache.get(request(LONDON, token)));
+        assertEquals(0, cache.getLocationTokenHits());
+        assertEquals(0, cache.getLocationTokenSkips());
+    }
+
+    /**
+     * Check that a token is not used when the engine needs a property the
+     * token does not hold, so the request goes to the cache or the cloud.
+     */
+    @Test
+    public void LocationToken_OtherProperties() throws Exception {
+        addEngine("CountryCode", "Region", "Town", "Country");
+        String token = issue();
+        assertNull(cache.get(request(READING, token)));
+        assertEquals(0, cache.getLocationTokenHits());
+        assertEquals(1, cache.getLocationTokenSkips());
+    }
+
+    /**
+     * Check that a token is not used when another engine in the pipeline
+     * reads a different element of the cloud response.
+     */
+    @Test
+    public void LocationToken_OtherElements() throws Exception {
+        addEngine("CountryCode", "Region", "Town");
+        Map<String, ElementPropertyMetaData> device = new HashMap<>();
+        device.put("IsMobile", mock(ElementPropertyMetaData.class));
+        available.put("device", device);
+        String token = issue();
+        assertNull(cache.get(request(READING, token)));
+        assertEquals(1, cache.getLocationTokenSkips());
+    }
+
+    /**
+     * Check that a token issued for another provider's engine is not used
+     * to answer requests for this one.
+     */
+    @Test
+    public void LocationToken_OtherProvider() throws Exception {
+        addEngine("CountryCode", "Region", "Town");
+        String token = signer.issue(
+            Coordinates.parse(READING[0], READING[1]),
+            "location_digitalelement",
+            "GB",
+            "South East",
+            "Reading");
+        assertNull(cache.get(request(READING, token)));
+        assertEquals(1, cache.getLocationTokenSkips());
+    }
+}
@@ -0,0 +1,180 @@
+/* *********************************************************************
+ * This Original Work is copyright of 51 Degrees Mobile Experts Limited.
+ * Copyright 2023 51 Degrees Mobile Experts Limited, Davidson House,
+ * Forbury Square, Reading, Berkshire, United Kingdom RG1 3EU.
+ *
+ * This Original Work is licensed under the European Union Public Licence
+ * (EUPL) v.1.2 and is subject to its terms as set out below.
+ *
+ * If a copy of the EUPL was not distributed with this file, You can obtain
+ * one at https://opensource.org/licenses/EUPL-1.2.
+ *
+ * The 'Compatible Licences' set out in the Appendix to the EUPL (as may be
+ * amended by the European Commission) shall be deemed incompatible for
+ * the purposes of the Work and the provisions of the compatibility
+ * clause in Article 5 of the EUPL shall not apply.
+ *
+ * If using the Work as, or as part of, a network application, by
+ * including the attribution notice(s) required under Article 5 of the EUPL
+ * in the end user terms of the application under an appropriate heading,
+ * such notice(s) shall fulfill the requirements of that article.
+ * ********************************************************************* */
+
+package fiftyone.geolocation.caching.tests;
+
+import fiftyone.geolocation.caching.LocationTokenLookup;
+import fiftyone.geolocation.caching.LocationTokenSigner;
+import fiftyone.geolocation.core.data.Coordinates;
+import fiftyone.pipeline.cloudrequestengine.flowelements.CloudRequestEngine;
+import fiftyone.pipeline.core.data.AccessiblePropertyMetaData;
+import fiftyone.pipeline.core.data.ElementPropertyMetaData;
+import fiftyone.pipeline.core.flowelements.Pipeline;
+import org.json.JSONObject;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Checks the responses the location token lookup builds without a cache,
+ * and that tokens which can not answer the request are counted.
+ */
+public class LocationTokenLookupTests {
+
+    private static final Coordinates READING =
+        Coordinates.parse("51.457714", "-0.975014");
+    private static final Coordinates LONDON =
+        Coordinates.parse("51.507200", "-0.127600");
+
+    private final LocationTokenSigner signer = new LocationTokenSigner(
+        "0123456789abcdef0123456789abcdef".getBytes(StandardCharsets.US_ASCII));
+    private final Map<String, Map<String, ElementPropertyMetaData>> available =
+        new HashMap<>();
+    private CloudRequestEngine requestEngine;
+    private Pipeline pipeline;
+    private LocationTokenLookup lookup;
+
+    private static AccessiblePropertyMetaData.ProductMetaData product(
+        String... names) {
+        AccessiblePropertyMetaData.ProductMetaData product =
+            new AccessiblePropertyMetaData.ProductMetaData();
+        product.properties = new ArrayList<>();
+        for (String name : names) {
+            AccessiblePropertyMetaData.PropertyMetaData property =
+                new AccessiblePropertyMetaData.PropertyMetaData();
+            property.name = name;
+            product.properties.add(property);
+        }
+        return product;
+    }
+
+    @Before
+    public void init() {
+        Map<String, AccessiblePropertyMetaData.ProductMetaData> products =
+            new HashMap<>();
+        products.put(
+            "location",
+            product("CountryCode", "Region", "Town", "Country"));
+        products.put("device", product("IsMobile"));
+        requestEngine = mock(CloudRequestEngine.class);
+        when(requestEngine.getPublicProperties()).thenReturn(products);
+        pipeline = mock(Pipeline.class);
+        when(pipeline.getElementAvailableProperties()).thenReturn(available);
+        lookup = new LocationTokenLookup(signer);
+    }
+
+    /**
+     * Make the pipeline read the properties provided from an element.
+     */
+    private void read(String elementDataKey, String... properties) {
+        Map<String, ElementPropertyMetaData> metaData = new HashMap<>();
+        for (String property : properties) {
+            metaData.put(property, mock(ElementPropertyMetaData.class));
+        }
+        available.put(elementDataKey, metaData);
+    }
+
+    private String getResponse(String token, Coordinates coordinates) {
+        Map<String, Object> evidence = new HashMap<>();
+        if (token != null) {
+            evidence.put(signer.getEvidenceKey(), token);
+        }
+        return lookup.getResponse(evidence, coordinates, pipeline, requestEngine);
+    }
+
+    /**
+     * Check that the response holds the values in the token, and that the
+     * other properties of the element have a reason saying why they have
+     * no value.
+     */
+    @Test
+    public void LocationTokenLookup_Response() {
+        read("location", "CountryCode", "Town");
+        String token = signer.issue(READING, "location", "GB", null, "Reading");
+        for (Coordinates coordinates : new Coordinates[] { READING, null }) {
+            JSONObject location = new JSONObject(getResponse(token, coordinates))
+                .getJSONObject("location");
+            assertEquals("GB", location.getString("countrycode"));
+            assertEquals("Reading", location.getString("town"));
+            assertTrue(location.isNull("region"));
+            assertTrue(location.has("regionnullreason"));
+            assertTrue(location.isNull("country"));
+            assertTrue(location.getString("countrynullreason")
+                .contains("location token"));
+        }
+        assertEquals(2, lookup.getHits());
+        assertSame(signer, lookup.getSigner());
+    }
+
+    /**
+     * Check that a token is not used for coordinates outside its cell, and
+     * that requests without a token are ignored without being counted.
+     */
+    @Test
+    public void LocationTokenLookup_OutsideCell() {
+        read("location", "Town");
+        String token = signer.issue(READING, "location", "GB", "", "Reading");
+        assertNull(getResponse(token, LONDON));
+        assertNull(getResponse(null, READING));
+        assertEquals(0, lookup.getHits());
+        assertEquals(0, lookup.getSkips());
+        assertEquals(0, lookup.getRejects());
+    }
+
+    /**
+     * Check that an invalid token is counted as a reject.
+     */
+    @Test
+    public void LocationTokenLookup_Rejected() {
+        read("location", "Town");
+        String token = signer.issue(READING, "location", "GB", "", "Reading");
+        assertNull(getResponse(token.substring(1), READING));
+        assertEquals(1, lookup.getRejects());
+    }
+
+    /**
+     * Check that a valid token is skipped if the pipeline needs a property
+     * the token does not hold, or anything from another element.
+     */
+    @Test
+    public void LocationTokenLookup_Skipped() {
+        String token = signer.issue(READING, "location", "GB", "", "Reading");
+        read("location", "Town", "Country");
+        assertNull(getResponse(token, READING));
+        assertEquals(1, lookup.getSkips());
+
+        lookup = new LocationTokenLookup(signer);
+        read("location", "Town");
+        read("device", "IsMobile");
+        assertNull(getResponse(token, READING));
+        assertEquals(1, lookup.getSkips());
+        assertEquals(0, lookup.getHits());
+    }
+}
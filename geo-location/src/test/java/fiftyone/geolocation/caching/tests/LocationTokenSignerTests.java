@@ -0,0 +1,143 @@
+/* *********************************************************************
+ * This Original Work is copyright of 51 Degrees Mobile Experts Limited.
+ * Copyright 2023 51 Degrees Mobile Experts Limited, Davidson House,
+ * Forbury Square, Reading, Berkshire, United Kingdom RG1 3EU.
+ *
+ * This Original Work is licensed under the European Union Public Licence
+ * (EUPL) v.1.2 and is subject to its terms as set out below.
+ *
+ * If a copy of the EUPL was not distributed with this file, You can obtain
+ * one at https://opensource.org/licenses/EUPL-1.2.
+ *
+ * The 'Compatible Licences' set out in the Appendix to the EUPL (as may be
+ * amended by the European Commission) shall be deemed incompatible for
+ * the purposes of the Work and the provisions of the compatibility
+ * clause in Article 5 of the EUPL shall not apply.
+ *
+ * If using the Work as, or as part of, a network application, by
+ * including the attribution notice(s) required under Article 5 of the EUPL
+ * in the end user terms of the application under an appropriate heading,
+ * such notice(s) shall fulfill the requirements of that article.
+ * ********************************************************************* */
+
+
+package fiftyone.geolocation.caching.tests;
+
+import fiftyone.geolocation.caching.LocationTokenSigner;
+import fiftyone.geolocation.core.data.Coordinates;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+import static org.junit.Assert.*;
+
+public class LocationTokenSignerTests {
+
+    private static final byte[] KEY =
+        "0123456789abcdef0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+
+    private static final Coordinates READING = Coordinates.parse("51.4577", "-0.9755");
+
+    private static String issue(LocationTokenSigner signer) {
+        return signer.issue(READING, "location", "GB", "England", "Reading");
+    }
+
+    @Test
+    public void LocationTokenSigner_RoundTrip() {
+        LocationTokenSigner signer = new LocationTokenSigner(KEY);
+        String token = issue(signer);
+        assertTrue(token.matches("[A-Za-z0-9_-]+"));
+        LocationTokenSigner.LocationToken location = signer.verify(token);
+        assertNotNull(location);
+        assertEquals("location", location.getElementDataKey());
+        assertEquals("GB", location.getCountryCode());
+        assertEquals("England", location.getRegion());
+        assertEquals("Reading", location.getTown());
+        assertTrue(location.contains(READING));
+        assertTrue(location.getExpires() > System.currentTimeMillis());
+    }
+
+    @Test
+    public void LocationTokenSigner_OtherNode() {
+        String token = new LocationTokenSigner(KEY)
+            .issue(READING, "location", "GB", null, "S\u00e3o \"Paulo\"");
+        LocationTokenSigner.LocationToken location =
+            new LocationTokenSigner(KEY.clone()).verify(token);
+        assertEquals("", location.getRegion());
+        assertEquals("S\u00e3o \"Paulo\"", location.getTown());
+    }
+
+    @Test
+    public void LocationTokenSigner_OtherCell() {
+        LocationTokenSigner signer = new LocationTokenSigner(KEY);
+        LocationTokenSigner.LocationToken location =
+            signer.verify(issue(signer));
+        assertFalse(location.contains(Coordinates.parse("51.5072", "-0.1276")));
+    }
+
+    @Test
+    public void LocationTokenSigner_Tampered() {
+        LocationTokenSigner signer = new LocationTokenSigner(KEY);
+        byte[] token = Base64.getUrlDecoder().decode(issue(signer));
+        for (int i = 0; i < token.length; i++) {
+            byte[] tampered = token.clone();
+            tampered[i] ^= 1;
+            assertNull(signer.verify(
+                Base64.getUrlEncoder().withoutPadding().encodeToString(tampered)));
+        }
+    }
+
+    @Test
+    public void LocationTokenSigner_WrongKey() {
+        String token = issue(new LocationTokenSigner(KEY));
+        byte[] other = KEY.clone();
+        other[0] ^= 1;
+        assertNull(new LocationTokenSigner(other).verify(token));
+    }
+
+    @Test
+    public void LocationTokenSigner_Expired() throws InterruptedException {
+        LocationTokenSigner signer = new LocationTokenSigner(
+            KEY,
+            LocationTokenSigner.DEFAULT_CELL_LEVEL,
+            1,
+            LocationTokenSigner.DEFAULT_COOKIE_NAME);
+        Thread.sleep(2);
+        String token = issue(signer);
+        Thread.sleep(2);
+        assertNull(signer.verify(token));
+    }
+
+    @Test
+    public void LocationTokenSigner_Malformed() {
+        LocationTokenSigner signer = new LocationTokenSigner(KEY);
+        assertNull(signer.verify(""));
+        assertNull(signer.verify("not a token"));
+        assertNull(signer.verify("AQ"));
+        assertEquals("cookie.51D_GeoToken", signer.getEvidenceKey());
+    }
+
+    @Test
+    public void LocationTokenSigner_LongValue() {
+        LocationTokenSigner signer = new LocationTokenSigner(KEY);
+        StringBuilder town = new StringBuilder();
+        for (int i = 0; i < 200; i++) {
+            town.append('\u00e9');
+        }
+        LocationTokenSigner.LocationToken location =
+            signer.verify(signer.issue(
+                READING,
+                "location",
+                "FR",
+                "",
+                town.toString()));
+        assertEquals(127, location.getTown().length());
+        assertTrue(town.toString().startsWith(location.getTown()));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void LocationTokenSigner_ShortKey() {
+        new LocationTokenSigner(new byte[8]);
+    }
+}
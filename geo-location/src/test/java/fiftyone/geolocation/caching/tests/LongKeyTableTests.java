@@ -0,0 +1,269 @@
+/* *********************************************************************
+ * This Original Work is copyright of 51 Degrees Mobile Experts Limited.
+ * Copyright 2023 51 Degrees Mobile Experts Limited, Davidson House,
+ * Forbury Square, Reading, Berkshire, United Kingdom RG1 3EU.
+ *
+ * This Original Work is licensed under the European Union Public Licence
+ * (EUPL) v.1.2 and is subject to its terms as set out below.
+ *
+ * If a copy of the EUPL was not distributed with this file, You can obtain
+ * one at https://opensource.org/licenses/EUPL-1.2.
+ *
+ * The 'Compatible Licences' set out in the Appendix to the EUPL (as may be
+ * amended by the European Commission) shall be deemed incompatible for
+ * the purposes of the Work and the provisions of the compatibility
+ * clause in Article 5 of the EUPL shall not apply.
+ *
+ * If using the Work as, or as part of, a network application, by
+ * including the attribution notice(s) required under Article 5 of the EUPL
+ * in the end user terms of the application under an appropriate heading,
+ * such notice(s) shall fulfill the requirements of that article.
+ * such notice(s) shall fulfill the requirements of that article.
+ * ********************************************************************* */
+
+package fiftyone.geolocation.caching.tests;
+
+import fiftyone.geolocation.caching.LongKeyTable;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.*;
+
+public class LongKeyTableTests {
+
+    @Test
+    public void LongKeyTable_GetPut() {
+        LongKeyTable<String> table = new LongKeyTable<>(16);
+        assertNull(table.get(1));
+        table.put(1, "one");
+        table.put(2, "two");
+        assertEquals("one", table.get(1));
+        assertEquals("two", table.get(2));
+        table.put(1, "uno");
+        assertEquals("uno", table.get(1));
+        table.remove(1);
+        assertNull(table.get(1));
+        assertEquals(3, table.getHits());
+        assertEquals(2, table.getMisses());
+        assertEquals(0.6, table.getHitRatio(), 1e-9);
+    }
+
+    @Test
+    public void LongKeyTable_ContainsKey() {
+        LongKeyTable<String> table = new LongKeyTable<>(16);
+        table.put(1, "one");
+        assertTrue(table.containsKey(1));
+        assertFalse(table.containsKey(2));
+        assertEquals(0, table.getHits());
+        assertEquals(0, table.getMisses());
+    }
+
+    @Test
+    public void LongKeyTable_Bounded() {
+        LongKeyTable<Long> table = new LongKeyTable<>(100);
+        assertEquals(128, table.getCapacity());
+        for (long i = 0; i < 10000; i++) {
+            table.put(i, i);
+        }
+        int found = 0;
+        for (long i = 0; i < 10000; i++) {
+            Long value = table.get(i);
+            if (value != null) {
+                assertEquals(i, value.longValue());
+                found++;
+            }
+        }
+        assertTrue(found > 0);
+        assertTrue(found <= table.getCapacity());
+    }
+
+    @Test
+    public void LongKeyTable_Concurrent() throws Exception {
+        final LongKeyTable<Long> table = new LongKeyTable<>(1024);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < 4; t++) {
+                futures.add(executor.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        for (long i = 0; i < 100000; i++) {
+                            long key = i % 256;
+                            Long value = table.get(key);
+                            if (value == null) {
+                                table.put(key, key * 2);
+                            }
+                            else {
+                                assertEquals(key * 2, value.longValue());
+                            }
+                        }
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+        assertTrue(table.getHitRatio() > 0.9);
+    }
+
+    @Test
+    public void LongKeyTable_WeightBounded() {
+        LongKeyTable<String> table =
+            new LongKeyTable<>(1024, String::length, 1000);
+        StringBuilder value = new StringBuilder();
+        for (int i = 0; i < 10; i++) {
+            value.append('x');
+        }
+        for (long i = 0; i < 1000; i++) {
+            table.put(i, value.toString());
+            table.get(i);
+            assertTrue(table.getWeight() <= 1000);
+        }
+        assertTrue(table.getWeight() > 0);
+        table.clear();
+        assertEquals(0, table.getWeight());
+    }
+
+    /**
+     * Check that each segment is bounded by its share of the maximum weight,
+     * so a value larger than the share is rejected.
+     */
+    @Test
+    public void LongKeyTable_WeightPerSegment() {
+        LongKeyTable<String> table =
+            new LongKeyTable<>(1024, String::length, 1000);
+        int share = 1000 / table.getSegmentCount();
+        table.put(1, repeat(share + 1));
+        assertNull(table.get(1));
+        assertEquals(1, table.getRejections());
+        assertEquals(0, table.getWeight());
+        table.put(2, repeat(share));
+        assertNotNull(table.get(2));
+        assertEquals(share, table.getWeight());
+    }
+
+    /**
+     * Check that a key is never held twice in its window, by comparing the
+     * total weight with the values which can be read after keys have been
+     * added, replaced and removed in a random order.
+     */
+    @Test
+    public void LongKeyTable_NoDuplicates() {
+        LongKeyTable<String> table =
+            new LongKeyTable<>(64, String::length, Long.MAX_VALUE);
+        Random random = new Random(0);
+        for (int i = 0; i < 100000; i++) {
+            long key = random.nextInt(50);
+            if (random.nextInt(4) == 0) {
+                table.remove(key);
+            }
+            else {
+                table.put(key, repeat(1 + random.nextInt(10)));
+            }
+        }
+        long total = 0;
+        for (long key = 0; key < 50; key++) {
+            String value = table.get(key);
+            if (value != null) {
+                total += value.length();
+            }
+        }
+        assertEquals(
+            "The total weight should only count each key once.",
+            total,
+            table.getWeight());
+        for (long key = 0; key < 50; key++) {
+            table.remove(key);
+        }
+        assertEquals(0, table.getWeight());
+    }
+
+    /**
+     * Check that once concurrent puts of the same keys have returned, each
+     * key is held once, by comparing the total weight with the values
+     * which can be read.
+     */
+    @Test
+    public void LongKeyTable_NoDuplicates_Concurrent() throws Exception {
+        LongKeyTable<String> table =
+            new LongKeyTable<>(64, String::length, Long.MAX_VALUE);
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            long seed = t;
+            threads[t] = new Thread(() -> {
+                Random random = new Random(seed);
+                for (int i = 0; i < 100000; i++) {
+                    table.put(random.nextInt(50), repeat(1 + random.nextInt(10)));
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        long total = 0;
+        for (long key = 0; key < 50; key++) {
+            String value = table.get(key);
+            if (value != null) {
+                total += value.length();
+            }
+        }
+        assertEquals(
+            "The total weight should only count each key once.",
+            total,
+            table.getWeight());
+    }
+
+    private static String repeat(int length) {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < length; i++) {
+            builder.append('x');
+        }
+        return builder.toString();
+    }
+
+    @Test
+    public void LongKeyTable_ScanResistant() {
+        LongKeyTable<Long> table =
+            new LongKeyTable<>(1024, v -> 1L, 100);
+        // Make the hot keys frequent.
+        for (int round = 0; round < 10; round++) {
+            for (long key = 0; key < 50; key++) {
+                if (table.get(key) == null) {
+                    table.put(key, key);
+                }
+            }
+        }
+        // A scan of keys which are only seen once, while the hot keys
+        // continue to be requested.
+        for (long key = 1000; key < 101000; key++) {
+            if (table.get(key) == null) {
+                table.put(key, key);
+            }
+            long hotKey = key % 50;
+            if (table.get(hotKey) == null) {
+                table.put(hotKey, hotKey);
+            }
+        }
+        int hot = 0;
+        for (long key = 0; key < 50; key++) {
+            if (table.get(key) != null) {
+                hot++;
+            }
+        }
+        assertTrue(
+            "Most hot keys should survive the scan, but only " + hot +
+                " of 50 did.",
+            hot >= 40);
+        assertTrue(table.getRejections() > 0);
+    }
+}
@@ -0,0 +1,230 @@
+/* *********************************************************************
+ * This Original Work is copyright of 51 Degrees Mobile Experts Limited.
+ * Copyright 2023 51 Degrees Mobile Experts Limited, Davidson House,
+ * Forbury Square, Reading, Berkshire, United Kingdom RG1 3EU.
+ *
+ * This Original Work is licensed under the European Union Public Licence
+ * (EUPL) v.1.2 and is subject to its terms as set out below.
+ *
+ * If a copy of the EUPL was not distributed with this file, You can obtain
+ * one at https://opensource.org/licenses/EUPL-1.2.
+ *
+ * The 'Compatible Licences' set out in the Appendix to the EUPL (as may be
+ * amended by the European Commission) shall be deemed incompatible for
+ * the purposes of the Work and the provisions of the compatibility
+ * clause in Article 5 of the EUPL shall not apply.
+ *
+ * If using the Work as, or as part of, a network application, by
+ * including the attribution notice(s) required under Article 5 of the EUPL
+ * in the end user terms of the application under an appropriate heading,
+ * such notice(s) shall fulfill the requirements of that article.
+ * ********************************************************************* */
+
+package fiftyone.geolocation.caching.tests;
+
+import fiftyone.geolocation.caching.MappedResultStore;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class MappedResultStoreTests {
+
+    private static final long NEVER = Long.MAX_VALUE;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void MappedResultStore_PutGet() throws IOException {
+        File file = folder.newFile();
+        try (MappedResultStore store = new MappedResultStore(file, 100, 256)) {
+            for (long key = 0; key < 50; key++) {
+                store.put(key, "{\"key\":" + key + "}", NEVER);
+            }
+            int found = 0;
+            for (long key = 0; key < 50; key++) {
+                MappedResultStore.StoredResult result = store.get(key, 0);
+                if (result != null) {
+                    assertEquals("{\"key\":" + key + "}", result.getJson());
+                    found++;
+                }
+            }
+            assertTrue(found > 45);
+            assertNull(store.get(1000, 0));
+        }
+    }
+
+    @Test
+    public void MappedResultStore_SurvivesReopen() throws IOException {
+        File file = folder.newFile();
+        try (MappedResultStore store = new MappedResultStore(file, 16, 256)) {
+            store.put(42, "{\"town\":\"S\u00e3o Paulo\"}", NEVER);
+        }
+        try (MappedResultStore store = new MappedResultStore(file, 1024, 512)) {
+            assertEquals(16, store.getRecordCount());
+            assertEquals(256, store.getRecordSize());
+            assertEquals(
+                "{\"town\":\"S\u00e3o Paulo\"}",
+                store.get(42, 0).getJson());
+        }
+    }
+
+    @Test
+    public void MappedResultStore_Shared() throws IOException {
+        File file = folder.newFile();
+        try (MappedResultStore first = new MappedResultStore(file, 16, 256);
+             MappedResultStore second = new MappedResultStore(file, 16, 256)) {
+            first.put(7, "{}", NEVER);
+            assertEquals("{}", second.get(7, 0).getJson());
+        }
+    }
+
+    /**
+     * Writes values for a range of keys to a store, so that the test can
+     * write to the same store from another process.
+     */
+    public static class Writer {
+
+        /**
+         * @param args the file, the first key, the number of keys, and the
+         *             number of rounds
+         */
+        public static void main(String[] args) throws IOException {
+            File file = new File(args[0]);
+            long first = Long.parseLong(args[1]);
+            int keys = Integer.parseInt(args[2]);
+            int rounds = Integer.parseInt(args[3]);
+            try (MappedResultStore store =
+                     new MappedResultStore(file, WINDOW, 256)) {
+                System.out.println("ready");
+                System.out.flush();
+                write(store, first, keys, rounds);
+            }
+        }
+    }
+
+    /**
+     * The number of records in the window of a key, so a store with this
+     * many records has every key in the same window.
+     */
+    private static final int WINDOW = 8;
+
+    private static void write(
+        MappedResultStore store,
+        long first,
+        int keys,
+        int rounds) throws IOException {
+        for (int round = 0; round < rounds; round++) {
+            for (long key = first; key < first + keys; key++) {
+                store.put(key, json(key, round), NEVER);
+            }
+        }
+    }
+
+    private static String json(long key, int round) {
+        return "{\"key\":" + key + ",\"round\":" + round + "}";
+    }
+
+    /**
+     * Check that writers in two processes sharing one window never choose
+     * the same record for different keys or store a key twice, so every key
+     * has the last value written for it.
+     */
+    @Test
+    public void MappedResultStore_Shared_Processes() throws Exception {
+        File file = folder.newFile();
+        int keys = WINDOW / 2;
+        int rounds = 2000;
+        Process child = new ProcessBuilder(
+            Paths.get(System.getProperty("java.home"), "bin", "java").toString(),
+            "-cp",
+            System.getProperty("java.class.path"),
+            Writer.class.getName(),
+            file.getAbsolutePath(),
+            Integer.toString(keys),
+            Integer.toString(keys),
+            Integer.toString(rounds))
+            .redirectErrorStream(true)
+            .start();
+        try (MappedResultStore store = new MappedResultStore(file, WINDOW, 256)) {
+            BufferedReader output = new BufferedReader(new InputStreamReader(
+                child.getInputStream(),
+                StandardCharsets.UTF_8));
+            assertEquals("ready", output.readLine());
+            write(store, 0, keys, rounds);
+            assertTrue(child.waitFor(60, TimeUnit.SECONDS));
+            assertEquals(0, child.exitValue());
+            for (long key = 0; key < keys * 2; key++) {
+                MappedResultStore.StoredResult result = store.get(key, 0);
+                assertNotNull("Key " + key + " was lost.", result);
+                assertEquals(json(key, rounds - 1), result.getJson());
+            }
+        }
+        finally {
+            child.destroy();
+        }
+    }
+
+    /**
+     * Check that a key is replaced where it is rather than in an expired
+     * record earlier in its window, which would store it twice and evict
+     * another key when the window is full.
+     */
+    @Test
+    public void MappedResultStore_NoDuplicates() throws IOException {
+        File file = folder.newFile();
+        try (MappedResultStore store = new MappedResultStore(file, WINDOW, 256)) {
+            write(store, 0, WINDOW, 1);
+            store.put(0, json(0, 1), 1);
+            write(store, 1, WINDOW - 1, 2);
+            store.put(0, json(0, 2), NEVER);
+            for (long key = 0; key < WINDOW; key++) {
+                MappedResultStore.StoredResult result = store.get(key, 2);
+                assertNotNull("Key " + key + " was lost.", result);
+                assertEquals(json(key, key == 0 ? 2 : 1), result.getJson());
+            }
+        }
+    }
+
+    @Test
+    public void MappedResultStore_Expired() throws IOException {
+        File file = folder.newFile();
+        try (MappedResultStore store = new MappedResultStore(file, 16, 256)) {
+            store.put(1, "{}", 1000);
+            assertNotNull(store.get(1, 999));
+            assertNull(store.get(1, 1000));
+        }
+    }
+
+    @Test
+    public void MappedResultStore_Oversized() throws IOException {
+        File file = folder.newFile();
+        try (MappedResultStore store = new MappedResultStore(file, 16, 64)) {
+            StringBuilder json = new StringBuilder("{\"a\":\"");
+            for (int i = 0; i < 100; i++) {
+                json.append('x');
+            }
+            store.put(1, json.append("\"}").toString(), NEVER);
+            assertNull(store.get(1, 0));
+            assertEquals(1, store.getOversized());
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void MappedResultStore_NotAStore() throws IOException {
+        File file = folder.newFile();
+        Files.write(file.toPath(), new byte[128]);
+        new MappedResultStore(file, 16, 256).close();
+    }
+}
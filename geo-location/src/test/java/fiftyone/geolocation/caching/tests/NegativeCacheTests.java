@@ -0,0 +1,184 @@
+/* *********************************************************************
+ * This Original Work is copyright of 51 Degrees Mobile Experts Limited.
+ * Copyright 2023 51 Degrees Mobile Experts Limited, Davidson House,
+ * Forbury Square, Reading, Berkshire, United Kingdom RG1 3EU.
+ *
+ * This Original Work is licensed under the European Union Public Licence
+ * (EUPL) v.1.2 and is subject to its terms as set out below.
+ *
+ * If a copy of the EUPL was not distributed with this file, You can obtain
+ * one at https://opensource.org/licenses/EUPL-1.2.
+ *
+ * The 'Compatible Licences' set out in the Appendix to the EUPL (as may be
+ * amended by the European Commission) shall be deemed incompatible for
+ * the purposes of the Work and the provisions of the compatibility
+ * clause in Article 5 of the EUPL shall not apply.
+ *
+ * If using the Work as, or as part of, a network application, by
+ * including the attribution notice(s) required under Article 5 of the EUPL
+ * in the end user terms of the application under an appropriate heading,
+ * such notice(s) shall fulfill the requirements of that article.
+ * ********************************************************************* */
+
+
+package fiftyone.geolocation.caching.tests;
+
+import fiftyone.geolocation.MockFlowData;
+import fiftyone.geolocation.caching.GeoResultsCache;
+import fiftyone.geolocation.caching.GeoResultsCacheBuilder;
+import fiftyone.geolocation.core.Constants;
+import fiftyone.pipeline.cloudrequestengine.data.CloudRequestData;
+import fiftyone.pipeline.core.data.ElementData;
+import fiftyone.pipeline.core.data.FlowData;
+import org.junit.After;
+import org.junit.Test;
+import org.slf4j.LoggerFactory;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that the negative cache only answers for a coarse cell once
+ * enough distinct cells inside it have no location, and that it forgets
+ * the coarse cell when a location is found in it or it expires.
+ */
+public class NegativeCacheTests {
+
+    private static final String EMPTY =
+        "{\"location\":{\"town\":null,\"townnullreason\":\"No address\"}}";
+    private static final String READING =
+        "{\"location\":{\"town\":\"Reading\"}}";
+
+    /**
+     * Coordinates in different default cells, all inside the same cell at
+     * the default negative cell level.
+     */
+    private static final String[][] INSIDE = {
+        { "51.4562", "-0.9723" },
+        { "51.4572", "-0.9723" },
+        { "51.4582", "-0.9723" },
+        { "51.4572", "-0.9700" } };
+    /**
+     * Coordinates outside the negative cell of the others.
+     */
+    private static final String[] OUTSIDE = { "51.4700", "-0.9723" };
+
+    private GeoResultsCache cache;
+
+    private void init(int threshold, long timeToLive) throws Exception {
+        cache = new GeoResultsCacheBuilder()
+            .setNegativeCacheSize(100)
+            .setNegativeThreshold(threshold)
+            .setNegativeTimeToLive(timeToLive, TimeUnit.MILLISECONDS)
+            .build();
+    }
+
+    @After
+    public void close() throws Exception {
+        cache.close();
+    }
+
+    private static FlowData request(String[] coordinates) {
+        Map<String, Object> evidence = new HashMap<>();
+        evidence.put(Constants.EVIDENCE_GEO_LAT_COOKIE_KEY, coordinates[0]);
+        evidence.put(Constants.EVIDENCE_GEO_LON_COOKIE_KEY, coordinates[1]);
+        return MockFlowData.create(evidence, null);
+    }
+
+    private static CloudRequestData response(String json) {
+        CloudRequestData data = new CloudRequestData(
+            LoggerFactory.getLogger(NegativeCacheTests.class),
+            null,
+            null);
+        data.setJsonResponse(json);
+        return data;
+    }
+
+    /**
+     * Check that other cells in the negative cell are only answered once
+     * the threshold of distinct empty cells is reached, and that the same
+     * cell being empty twice only counts once.
+     */
+    @Test
+    public void Negative_Threshold() throws Exception {
+        init(3, TimeUnit.MINUTES.toMillis(1));
+        ElementData empty = response(EMPTY);
+        cache.put(request(INSIDE[0]), empty);
+        cache.put(request(INSIDE[0]), empty);
+        cache.put(request(INSIDE[1]), empty);
+        assertNull(cache.get(request(INSIDE[3])));
+
+        cache.put(request(INSIDE[2]), empty);
+        assertSame(empty, cache.get(request(INSIDE[3])));
+        assertEquals(1, cache.getNegativeHits());
+    }
+
+    /**
+     * Check that a response with a location in the negative cell removes it.
+     */
+    @Test
+    public void Negative_RemovedByLocation() throws Exception {
+        init(1, TimeUnit.MINUTES.toMillis(1));
+        ElementData empty = response(EMPTY);
+        cache.put(request(INSIDE[0]), empty);
+        assertSame(empty, cache.get(request(INSIDE[3])));
+
+        cache.put(request(INSIDE[1]), response(READING));
+        assertNull(cache.get(request(INSIDE[3])));
+        assertEquals(1, cache.getNegativeHits());
+    }
+
+    /**
+     * Check that a negative cell expires after its own time to live, even
+     * though results never expire.
+     */
+    @Test
+    public void Negative_Expires() throws Exception {
+        init(1, 100);
+        ElementData empty = response(EMPTY);
+        cache.put(request(INSIDE[0]), empty);
+        assertSame(empty, cache.get(request(INSIDE[3])));
+
+        Thread.sleep(150);
+        assertNull(cache.get(request(INSIDE[3])));
+        assertSame(empty, cache.get(request(INSIDE[0])));
+    }
+
+    /**
+     * Check that requests outside any negative cell are rejected by the
+     * Bloom filter.
+     */
+    @Test
+    public void Negative_Rejected() throws Exception {
+        init(1, TimeUnit.MINUTES.toMillis(1));
+        cache.put(request(INSIDE[0]), response(EMPTY));
+        assertNull(cache.get(request(OUTSIDE)));
+        assertEquals(1, cache.getNegativeRejects());
+        assertEquals(0, cache.getNegativeHits());
+    }
+
+    /**
+     * Check that the Bloom filter is aged, so a cell which is no longer
+     * answered from is eventually rejected rather than the filter filling
+     * up.
+     */
+    @Test
+    public void Negative_FilterAged() throws Exception {
+        cache = new GeoResultsCacheBuilder()
+            .setNegativeCacheSize(4)
+            .setNegativeThreshold(1)
+            .build();
+        cache.put(request(INSIDE[0]), response(EMPTY));
+        for (int i = 1; i <= 8; i++) {
+            String[] coordinates = {
+                Double.toString(51.4562 + i * 0.01),
+                "-0.9723" };
+            cache.put(request(coordinates), response(EMPTY));
+        }
+        assertNull(cache.get(request(INSIDE[3])));
+        assertEquals(1, cache.getNegativeRejects());
+    }
+}
@@ -0,0 +1,116 @@
+/* *********************************************************************
+ * This Original Work is copyright of 51 Degrees Mobile Experts Limited.
+ * Copyright 2023 51 Degrees Mobile Experts Limited, Davidson House,
+ * Forbury Square, Reading, Berkshire, United Kingdom RG1 3EU.
+ *
+ * This Original Work is licensed under the European Union Public Licence
+ * (EUPL) v.1.2 and is subject to its terms as set out below.
+ *
+ * If a copy of the EUPL was not distributed with this file, You can obtain
+ * one at https://opensource.org/licenses/EUPL-1.2.
+ *
+ * The 'Compatible Licences' set out in the Appendix to the EUPL (as may be
+ * amended by the European Commission) shall be deemed incompatible for
+ * the purposes of the Work and the provisions of the compatibility
+ * clause in Article 5 of the EUPL shall not apply.
+ *
+ * If using the Work as, or as part of, a network application, by
+ * including the attribution notice(s) required under Article 5 of the EUPL
+ * in the end user terms of the application under an appropriate heading,
+ * such notice(s) shall fulfill the requirements of that article.
+ * ********************************************************************* */
+
+package fiftyone.geolocation.caching.tests;
+
+import fiftyone.geolocation.caching.OffHeapResultStore;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.*;
+
+public class OffHeapResultStoreTests {
+
+    private static byte[] value(long key, int length) {
+        byte[] value = new byte[length];
+        for (int i = 0; i < length; i++) {
+            value[i] = (byte)(key + i);
+        }
+        return value;
+    }
+
+    @Test
+    public void OffHeapResultStore_PutGet() {
+        OffHeapResultStore store = new OffHeapResultStore(1024 * 1024, 64 * 1024);
+        assertNull(store.get(1));
+        store.put(1, value(1, 100));
+        store.put(2, value(2, 200));
+        assertArrayEquals(value(1, 100), store.get(1));
+        assertArrayEquals(value(2, 200), store.get(2));
+        store.put(1, value(3, 50));
+        assertArrayEquals(value(3, 50), store.get(1));
+        store.clear();
+        assertNull(store.get(1));
+        assertNull(store.get(2));
+    }
+
+    @Test
+    public void OffHeapResultStore_EvictsOldest() {
+        OffHeapResultStore store = new OffHeapResultStore(256 * 1024, 4096);
+        for (long key = 0; key < 10000; key++) {
+            store.put(key, value(key, 100));
+        }
+        assertNull(store.get(0));
+        int found = 0;
+        for (long key = 9900; key < 10000; key++) {
+            byte[] value = store.get(key);
+            if (value != null) {
+                assertArrayEquals(value(key, 100), value);
+                found++;
+            }
+        }
+        assertTrue(found > 90);
+    }
+
+    @Test
+    public void OffHeapResultStore_Oversized() {
+        OffHeapResultStore store = new OffHeapResultStore(64 * 1024, 1024);
+        store.put(1, value(1, 2000));
+        assertNull(store.get(1));
+    }
+
+    @Test
+    public void OffHeapResultStore_Concurrent() throws Exception {
+        final OffHeapResultStore store =
+            new OffHeapResultStore(1024 * 1024, 16 * 1024);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < 4; t++) {
+                futures.add(executor.submit(() -> {
+                    for (long i = 0; i < 50000; i++) {
+                        long key = i % 500;
+                        byte[] value = store.get(key);
+                        if (value == null) {
+                            store.put(key, value(key, (int)(key % 200) + 1));
+                        }
+                        else {
+                            assertArrayEquals(
+                                value(key, (int)(key % 200) + 1),
+                                value);
+                        }
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
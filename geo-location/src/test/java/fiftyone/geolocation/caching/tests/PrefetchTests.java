@@ -0,0 +1,287 @@
+/* *********************************************************************
+ * This Original Work is copyright of 51 Degrees Mobile Experts Limited.
+ * Copyright 2023 51 Degrees Mobile Experts Limited, Davidson House,
+ * Forbury Square, Reading, Berkshire, United Kingdom RG1 3EU.
+ *
+ * This Original Work is licensed under the European Union Public Licence
+ * (EUPL) v.1.2 and is subject to its terms as set out below.
+ *
+ * If a copy of the EUPL was not distributed with this file, You can obtain
+ * one at https://opensource.org/licenses/EUPL-1.2.
+ *
+ * The 'Compatible Licences' set out in the Appendix to the EUPL (as may be
+ * amended by the European Commission) shall be deemed incompatible for
+ * the purposes of the Work and the provisions of the compatibility
+ * clause in Article 5 of the EUPL shall not apply.
+ *
+ * If using the Work as, or as part of, a network application, by
+ * including the attribution notice(s) required under Article 5 of the EUPL
+ * in the end user terms of the application under an appropriate heading,
+ * such notice(s) shall fulfill the requirements of that article.
+ * ********************************************************************* */
+
+
+package fiftyone.geolocation.caching.tests;
+
+import fiftyone.geolocation.MockFlowData;
+import fiftyone.geolocation.caching.GeoResultsCache;
+import fiftyone.geolocation.caching.GeoResultsCacheBuilder;
+import fiftyone.geolocation.core.Constants;
+import fiftyone.geolocation.core.caching.SharedGeoCache;
+import fiftyone.geolocation.core.caching.SharedGeoResult;
+import fiftyone.geolocation.core.spatial.GeoCell;
+import fiftyone.pipeline.cloudrequestengine.data.CloudRequestData;
+import fiftyone.pipeline.core.data.ElementData;
+import fiftyone.pipeline.core.data.FlowData;
+import fiftyone.pipeline.core.flowelements.FlowElement;
+import fiftyone.pipeline.core.flowelements.Pipeline;
+import fiftyone.pipeline.engines.flowelements.AspectEngine;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+/**
+ * Checks that the cells around a newly resolved cell are resolved in the
+ * background by the cloud request element, within the budget per second.
+ */
+public class PrefetchTests {
+
+    private GeoResultsCache cache;
+    private final Pipeline pipeline = MockFlowData.pipeline();
+    private final ElementData result = mock(ElementData.class);
+    private final ElementData neighbour = mock(ElementData.class);
+    private final List<FlowData> prefetched = new ArrayList<>();
+    private final List<ElementData> seenByPrefetch = new ArrayList<>();
+
+    private void init(int budget) throws Exception {
+        init(budget, null);
+    }
+
+    private void init(int budget, SharedGeoCache shared) throws Exception {
+        cache = new GeoResultsCacheBuilder()
+            .setPrefetchNeighbours(true)
+            .setPrefetchBudget(budget)
+            .setSharedCache(shared)
+            .build();
+        FlowElement<?, ?> element = mock(AspectEngine.class);
+        // Process as the cloud request engine would, consulting the cache
+        // first and putting the result once the response arrives.
+        doAnswer(invocation -> {
+            FlowData data = invocation.getArgument(0);
+            synchronized (prefetched) {
+                prefetched.add(data);
+                seenByPrefetch.add(cache.get(data));
+            }
+            cache.put(data, neighbour);
+            return null;
+        }).when(element).process(any());
+        cache.setFlowElement(element);
+    }
+
+    @After
+    public void close() throws Exception {
+        cache.close();
+    }
+
+    private FlowData request(String latitude, String longitude) {
+        Map<String, Object> evidence = new HashMap<>();
+        evidence.put(Constants.EVIDENCE_GEO_LAT_COOKIE_KEY, latitude);
+        evidence.put(Constants.EVIDENCE_GEO_LON_COOKIE_KEY, longitude);
+        return MockFlowData.create(evidence, pipeline);
+    }
+
+    private void awaitPrefetches(long count) throws InterruptedException {
+        for (int i = 0; i < 500 && cache.getPrefetches() < count; i++) {
+            Thread.sleep(10);
+        }
+        assertEquals(count, cache.getPrefetches());
+    }
+
+    /**
+     * Check that the 8 cells around a resolved cell are each resolved once
+     * by the cache's element rather than the whole pipeline, bypassing the
+     * cache, and that a request in one of them is then served from the
+     * cache and counted as a prefetch hit.
+     */
+    @Test
+    public void Prefetch_Neighbours() throws Exception {
+        init(100);
+        cache.put(request("51.457714", "-0.975014"), result);
+        awaitPrefetches(8);
+        assertEquals(0, cache.getPrefetchesDropped());
+
+        Set<String> cells = new HashSet<>();
+        for (FlowData data : prefetched) {
+            Map<String, Object> evidence = data.getEvidence().asKeyMap();
+            assertEquals(
+                "The request's other evidence should be copied.",
+                "51.457714",
+                evidence.get(Constants.EVIDENCE_GEO_LAT_COOKIE_KEY));
+            cells.add(evidence.get(Constants.EVIDENCE_GEO_LAT_KEY) + "," +
+                evidence.get(Constants.EVIDENCE_GEO_LON_KEY));
+            verify(data, never()).process();
+        }
+        assertEquals("Each neighbour should be different.", 8, cells.size());
+        for (ElementData seen : seenByPrefetch) {
+            assertNull("A prefetch should not be served from the cache.", seen);
+        }
+
+        FlowData moved = MockFlowData.create(
+            prefetched.get(0).getEvidence().asKeyMap(),
+            pipeline);
+        assertSame(neighbour, cache.get(moved));
+        assertSame(neighbour, cache.get(moved));
+        assertEquals(
+            "Each prefetched result should only count as one hit.",
+            1,
+            cache.getPrefetchHits());
+        assertSame(result, cache.get(request("51.457714", "-0.975014")));
+
+        // Prefetched results do not start further prefetches, and
+        // neighbours already in the cache are not resolved again.
+        cache.put(request("51.457714", "-0.975014"), result);
+        Thread.sleep(100);
+        assertEquals(8, cache.getPrefetches());
+    }
+
+    /**
+     * Check that no more than the budget of prefetches are started in a
+     * second, the rest are dropped, and the budget is available again in
+     * the next second.
+     */
+    @Test
+    public void Prefetch_Budget() throws Exception {
+        init(3);
+        cache.put(request("51.457714", "-0.975014"), result);
+        awaitPrefetches(3);
+        Thread.sleep(100);
+        assertEquals(3, cache.getPrefetches());
+        assertEquals(5, cache.getPrefetchesDropped());
+        assertEquals(3, prefetched.size());
+
+        Thread.sleep(1000);
+        cache.put(request("-33.856784", "151.215297"), result);
+        awaitPrefetches(6);
+        assertEquals(10, cache.getPrefetchesDropped());
+    }
+
+    /**
+     * Shared cache which holds a result for the first few keys it is asked
+     * for in each bulk get, and counts the calls made to it.
+     */
+    private static class PartialSharedCache implements SharedGeoCache {
+
+        private final int held;
+        private final AtomicInteger gets = new AtomicInteger();
+        private final List<long[]> bulkGets = new ArrayList<>();
+
+        PartialSharedCache(int held) {
+            this.held = held;
+        }
+
+        @Override
+        public byte[] get(long key) {
+            gets.incrementAndGet();
+            return null;
+        }
+
+        @Override
+        public void put(long key, byte[] value, long expires) {
+        }
+
+        @Override
+        public synchronized CompletableFuture<Map<Long, byte[]>> getAllAsync(
+            long[] keys) {
+            bulkGets.add(keys.clone());
+            Map<Long, byte[]> results = new HashMap<>();
+            for (int i = 0; i < held && i < keys.length; i++) {
+                results.put(keys[i], new SharedGeoResult(
+                    "{\"location\":{\"town\":\"Reading\"}}",
+                    Long.MAX_VALUE).toBytes());
+            }
+            return CompletableFuture.supplyAsync(() -> results);
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    /**
+     * Check that the neighbours are read from the shared cache in one bulk
+     * get before any are requested from the cloud service, and only those
+     * not found are requested.
+     */
+    @Test
+    public void Prefetch_SharedCache_BulkGet() throws Exception {
+        PartialSharedCache shared = new PartialSharedCache(3);
+        init(100, shared);
+        cache.put(request("51.457714", "-0.975014"), result);
+        awaitPrefetches(5);
+        Thread.sleep(100);
+        assertEquals(5, cache.getPrefetches());
+        assertEquals(1, shared.bulkGets.size());
+        assertEquals(8, shared.bulkGets.get(0).length);
+        assertEquals(0, shared.gets.get());
+
+        // A request in a neighbour found in the shared cache is served from
+        // memory without reading the shared cache again.
+        Set<String> requested = new HashSet<>();
+        for (FlowData data : prefetched) {
+            Map<String, Object> evidence = data.getEvidence().asKeyMap();
+            requested.add(evidence.get(Constants.EVIDENCE_GEO_LAT_KEY) + "," +
+                evidence.get(Constants.EVIDENCE_GEO_LON_KEY));
+        }
+        int fromShared = 0;
+        for (int north = -1; north <= 1; north++) {
+            for (int east = -1; east <= 1; east++) {
+                FlowData moved = neighbour(north, east);
+                Map<String, Object> evidence = moved.getEvidence().asKeyMap();
+                String cell = evidence.get(Constants.EVIDENCE_GEO_LAT_KEY) +
+                    "," + evidence.get(Constants.EVIDENCE_GEO_LON_KEY);
+                if ((north != 0 || east != 0) &&
+                    requested.contains(cell) == false) {
+                    assertTrue(cache.get(moved) instanceof CloudRequestData);
+                    fromShared++;
+                }
+            }
+        }
+        assertEquals(3, fromShared);
+        assertEquals(0, shared.gets.get());
+    }
+
+    /**
+     * Create a request at the centre of a cell next to the cell of the
+     * requests in these tests, as a prefetch would.
+     */
+    private FlowData neighbour(int north, int east) {
+        int level = cache.getCellLevel(new HashMap<>());
+        long cell = GeoCell.offset(
+            GeoCell.encode(51.457714, -0.975014, level),
+            north,
+            east);
+        Map<String, Object> evidence = new HashMap<>();
+        evidence.put(
+            Constants.EVIDENCE_GEO_LAT_KEY,
+            Double.toString(GeoCell.getLatitude(cell)));
+        evidence.put(
+            Constants.EVIDENCE_GEO_LON_KEY,
+            Double.toString(GeoCell.getLongitude(cell)));
+        return MockFlowData.create(evidence, pipeline);
+    }
+}
@@ -0,0 +1,227 @@
+/* *********************************************************************
+ * This Original Work is copyright of 51 Degrees Mobile Experts Limited.
+ * Copyright 2023 51 Degrees Mobile Experts Limited, Davidson House,
+ * Forbury Square, Reading, Berkshire, United Kingdom RG1 3EU.
+ *
+ * This Original Work is licensed under the European Union Public Licence
+ * (EUPL) v.1.2 and is subject to its terms as set out below.
+ *
+ * If a copy of the EUPL was not distributed with this file, You can obtain
+ * one at https://opensource.org/licenses/EUPL-1.2.
+ *
+ * The 'Compatible Licences' set out in the Appendix to the EUPL (as may be
+ * amended by the European Commission) shall be deemed incompatible for
+ * the purposes of the Work and the provisions of the compatibility
+ * clause in Article 5 of the EUPL shall not apply.
+ *
+ * If using the Work as, or as part of, a network application, by
+ * including the attribution notice(s) required under Article 5 of the EUPL
+ * in the end user terms of the application under an appropriate heading,
+ * such notice(s) shall fulfill the requirements of that article.
+ * ********************************************************************* */
+
+
+package fiftyone.geolocation.caching.tests;
+
+import fiftyone.geolocation.MockFlowData;
+import fiftyone.geolocation.caching.GeoResultsCache;
+import fiftyone.geolocation.caching.GeoResultsCacheBuilder;
+import fiftyone.geolocation.caching.OffHeapResultStore;
+import fiftyone.geolocation.caching.ResultTiers;
+import fiftyone.geolocation.core.Constants;
+import fiftyone.geolocation.core.caching.InProcessSharedGeoCache;
+import fiftyone.geolocation.core.caching.SharedGeoResult;
+import fiftyone.pipeline.cloudrequestengine.data.CloudRequestData;
+import fiftyone.pipeline.cloudrequestengine.flowelements.CloudRequestEngine;
+import fiftyone.pipeline.core.data.FlowData;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.mock;
+
+/**
+ * Checks that the tiers are read in order, that the persistent file and
+ * shared cache tiers of the results cache are written on a background
+ * thread, and that closing the cache finishes the writes.
+ */
+public class ResultTierTests {
+
+    private static final String JSON = "{\"location\":{\"town\":\"Reading\"}}";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * A shared cache whose writes wait until they are released.
+     */
+    private static class BlockingSharedGeoCache extends InProcessSharedGeoCache {
+        final CountDownLatch release = new CountDownLatch(1);
+
+        BlockingSharedGeoCache() {
+            super(100);
+        }
+
+        @Override
+        public void put(long key, byte[] value, long expires) {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            super.put(key, value, expires);
+        }
+    }
+
+    private static FlowData request() {
+        Map<String, Object> evidence = new HashMap<>();
+        evidence.put(Constants.EVIDENCE_GEO_LAT_COOKIE_KEY, "51.457714");
+        evidence.put(Constants.EVIDENCE_GEO_LON_COOKIE_KEY, "-0.975014");
+        return MockFlowData.create(evidence, null);
+    }
+
+    private static CloudRequestData response() {
+        CloudRequestData data = new CloudRequestData(
+            LoggerFactory.getLogger(ResultTierTests.class),
+            null,
+            null);
+        data.setJsonResponse(JSON);
+        return data;
+    }
+
+    /**
+     * Check that a put does not wait for a slow shared cache, and that the
+     * write is made once the shared cache is released.
+     */
+    @Test
+    public void ResultTier_SharedWriteBehind() throws Exception {
+        BlockingSharedGeoCache shared = new BlockingSharedGeoCache();
+        GeoResultsCache cache = new GeoResultsCacheBuilder()
+            .setSharedCache(shared)
+            .build();
+        cache.put(request(), response());
+        assertEquals(0, shared.size());
+
+        shared.release.countDown();
+        cache.close();
+        assertEquals(1, shared.size());
+        assertEquals(0, cache.getSharedFailures());
+        assertEquals(0, cache.getWritesDropped());
+    }
+
+    /**
+     * Check that the writes to the persistent file are finished when the
+     * cache is closed, so a new cache using the file finds the result.
+     */
+    @Test
+    public void ResultTier_PersistentWriteBehind() throws Exception {
+        File file = folder.newFile();
+        GeoResultsCache first = new GeoResultsCacheBuilder()
+            .setPersistentFile(file)
+            .build();
+        first.put(request(), response());
+        first.close();
+
+        GeoResultsCache second = new GeoResultsCacheBuilder()
+            .setPersistentFile(file)
+            .build();
+        try {
+            second.setFlowElement(mock(CloudRequestEngine.class));
+            CloudRequestData result = (CloudRequestData)second.get(request());
+            assertNotNull(result);
+            assertEquals(JSON, result.getJsonResponse());
+            assertEquals(0, second.getPersistentStoreFailures());
+        }
+        finally {
+            second.close();
+        }
+    }
+
+    /**
+     * Check that a shared cache which fails to write does not fail the
+     * put, and that the failure is counted.
+     */
+    @Test
+    public void ResultTier_SharedFailure() throws Exception {
+        GeoResultsCache cache = new GeoResultsCacheBuilder()
+            .setSharedCache(new InProcessSharedGeoCache(100) {
+                @Override
+                public void put(long key, byte[] value, long expires) {
+                    throw new IllegalStateException("unavailable");
+                }
+            })
+            .build();
+        cache.put(request(), response());
+        cache.close();
+        assertEquals(1, cache.getSharedFailures());
+    }
+
+    /**
+     * Check that the tiers are read in order, that only current results are
+     * returned, and that a bulk read only asks the shared cache for the keys
+     * the off-heap store does not hold.
+     */
+    @Test
+    public void ResultTiers_Order() throws Exception {
+        OffHeapResultStore offHeap = new OffHeapResultStore(1024 * 1024, 64 * 1024);
+        InProcessSharedGeoCache shared = new InProcessSharedGeoCache(100);
+        long expires = System.currentTimeMillis() + 60000;
+        offHeap.put(1, new SharedGeoResult("{\"a\":1}", expires).toBytes());
+        shared.put(1, new SharedGeoResult("{\"b\":1}", expires).toBytes(), expires);
+        shared.put(2, new SharedGeoResult("{\"b\":2}", expires).toBytes(), expires);
+        shared.put(3, new SharedGeoResult("{\"b\":3}", 1).toBytes(), expires);
+        ResultTiers tiers = new ResultTiers(offHeap, null, shared);
+        try {
+            long now = System.currentTimeMillis();
+            assertFalse(tiers.isEmpty());
+            assertEquals("{\"a\":1}", tiers.get(1, now).getJson());
+            assertEquals(0, tiers.getSharedHits());
+            assertEquals("{\"b\":2}", tiers.get(2, now).getJson());
+            assertEquals(1, tiers.getSharedHits());
+            assertNull(tiers.get(3, now));
+            assertNull(tiers.get(4, now));
+
+            Map<Long, SharedGeoResult> found =
+                tiers.getAllAsync(new long[] { 1, 2, 3, 4 }, now).get();
+            assertEquals(2, found.size());
+            assertEquals("{\"a\":1}", found.get(1L).getJson());
+            assertEquals("{\"b\":2}", found.get(2L).getJson());
+            assertEquals(2, tiers.getSharedHits());
+            assertEquals(0, tiers.getSharedFailures());
+        }
+        finally {
+            tiers.close();
+        }
+    }
+
+    /**
+     * Check that a shared cache which fails to read is counted and treated
+     * as a miss, for single and bulk reads.
+     */
+    @Test
+    public void ResultTiers_ReadFailure() throws Exception {
+        ResultTiers tiers = new ResultTiers(
+            null,
+            null,
+            new InProcessSharedGeoCache(100) {
+                @Override
+                public byte[] get(long key) {
+                    throw new IllegalStateException("unavailable");
+                }
+            });
+        long now = System.currentTimeMillis();
+        assertNull(tiers.get(1, now));
+        assertTrue(tiers.getAllAsync(new long[] { 1, 2 }, now).get().isEmpty());
+        assertEquals(2, tiers.getSharedFailures());
+        tiers.close();
+        assertTrue(new ResultTiers(null, null, null).isEmpty());
+    }
+}
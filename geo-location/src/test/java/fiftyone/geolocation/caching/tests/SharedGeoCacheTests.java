@@ -0,0 +1,101 @@
+/* *********************************************************************
+ * This Original Work is copyright of 51 Degrees Mobile Experts Limited.
+ * Copyright 2023 51 Degrees Mobile Experts Limited, Davidson House,
+ * Forbury Square, Reading, Berkshire, United Kingdom RG1 3EU.
+ *
+ * This Original Work is licensed under the European Union Public Licence
+ * (EUPL) v.1.2 and is subject to its terms as set out below.
+ *
+ * If a copy of the EUPL was not distributed with this file, You can obtain
+ * one at https://opensource.org/licenses/EUPL-1.2.
+ *
+ * The 'Compatible Licences' set out in the Appendix to the EUPL (as may be
+ * amended by the European Commission) shall be deemed incompatible for
+ * the purposes of the Work and the provisions of the compatibility
+ * clause in Article 5 of the EUPL shall not apply.
+ *
+ * If using the Work as, or as part of, a network application, by
+ * including the attribution notice(s) required under Article 5 of the EUPL
+ * in the end user terms of the application under an appropriate heading,
+ * such notice(s) shall fulfill the requirements of that article.
+ * ********************************************************************* */
+
+package fiftyone.geolocation.caching.tests;
+
+import fiftyone.geolocation.CloudResponses;
+import fiftyone.geolocation.LoopbackSharedGeoCache;
+import fiftyone.geolocation.core.caching.InProcessSharedGeoCache;
+import fiftyone.geolocation.core.caching.SharedGeoResult;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class SharedGeoCacheTests {
+
+    @Test
+    public void SharedGeoResult_RoundTrip() {
+        String json = CloudResponses.multiProduct();
+        byte[] bytes = new SharedGeoResult(json, 1234).toBytes();
+        assertTrue(
+            "The serialized result should be smaller than the JSON.",
+            bytes.length < json.getBytes(StandardCharsets.UTF_8).length);
+        SharedGeoResult result = SharedGeoResult.fromBytes(bytes);
+        assertEquals(json, result.getJson());
+        assertEquals(1234, result.getExpires());
+    }
+
+    @Test
+    public void SharedGeoResult_Invalid() {
+        assertNull(SharedGeoResult.fromBytes(null));
+        assertNull(SharedGeoResult.fromBytes(new byte[3]));
+        byte[] bytes = new SharedGeoResult("{}", 0).toBytes();
+        bytes[0] = 99;
+        assertNull(SharedGeoResult.fromBytes(bytes));
+    }
+
+    @Test
+    public void InProcessSharedGeoCache_Expiry() {
+        InProcessSharedGeoCache cache = new InProcessSharedGeoCache(10);
+        cache.put(1, new byte[] { 1 }, Long.MAX_VALUE);
+        cache.put(2, new byte[] { 2 }, System.currentTimeMillis() - 1);
+        assertArrayEquals(new byte[] { 1 }, cache.get(1));
+        assertNull(cache.get(2));
+        assertNull(cache.get(3));
+    }
+
+    @Test
+    public void InProcessSharedGeoCache_Capacity() {
+        InProcessSharedGeoCache cache = new InProcessSharedGeoCache(2);
+        cache.put(1, new byte[] { 1 }, Long.MAX_VALUE);
+        cache.put(2, new byte[] { 2 }, Long.MAX_VALUE);
+        cache.get(1);
+        cache.put(3, new byte[] { 3 }, Long.MAX_VALUE);
+        assertEquals(2, cache.size());
+        assertNotNull(cache.get(1));
+        assertNull(cache.get(2));
+    }
+
+    @Test
+    public void LoopbackSharedGeoCache_GetPut() throws Exception {
+        try (LoopbackSharedGeoCache.Server server =
+                 new LoopbackSharedGeoCache.Server(100);
+             LoopbackSharedGeoCache.Client first =
+                 new LoopbackSharedGeoCache.Client(server.getPort());
+             LoopbackSharedGeoCache.Client second =
+                 new LoopbackSharedGeoCache.Client(server.getPort())) {
+            byte[] value = new SharedGeoResult(
+                CloudResponses.multiProduct(),
+                Long.MAX_VALUE).toBytes();
+            first.put(42, value, Long.MAX_VALUE);
+            assertArrayEquals(value, second.get(42));
+            assertNull(second.get(43));
+            Map<Long, byte[]> all =
+                second.getAllAsync(new long[] { 41, 42, 43 }).get();
+            assertEquals(1, all.size());
+            assertArrayEquals(value, all.get(42L));
+        }
+    }
+}
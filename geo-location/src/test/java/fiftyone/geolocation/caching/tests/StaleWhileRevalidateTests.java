@@ -0,0 +1,208 @@
+/* *********************************************************************
+ * This Original Work is copyright of 51 Degrees Mobile Experts Limited.
+ * Copyright 2023 51 Degrees Mobile Experts Limited, Davidson House,
+ * Forbury Square, Reading, Berkshire, United Kingdom RG1 3EU.
+ *
+ * This Original Work is licensed under the European Union Public Licence
+ * (EUPL) v.1.2 and is subject to its terms as set out below.
+ *
+ * If a copy of the EUPL was not distributed with this file, You can obtain
+ * one at https://opensource.org/licenses/EUPL-1.2.
+ *
+ * The 'Compatible Licences' set out in the Appendix to the EUPL (as may be
+ * amended by the European Commission) shall be deemed incompatible for
+ * the purposes of the Work and the provisions of the compatibility
+ * clause in Article 5 of the EUPL shall not apply.
+ *
+ * If using the Work as, or as part of, a network application, by
+ * including the attribution notice(s) required under Article 5 of the EUPL
+ * in the end user terms of the application under an appropriate heading,
+ * such notice(s) shall fulfill the requirements of that article.
+ * ********************************************************************* */
+
+
+package fiftyone.geolocation.caching.tests;
+
+import fiftyone.geolocation.MockFlowData;
+import fiftyone.geolocation.caching.GeoResultsCache;
+import fiftyone.geolocation.caching.GeoResultsCacheBuilder;
+import fiftyone.pipeline.core.data.ElementData;
+import fiftyone.pipeline.core.data.FlowData;
+import fiftyone.pipeline.core.flowelements.FlowElement;
+import fiftyone.pipeline.core.flowelements.Pipeline;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+/**
+ * Checks that stale results are served while a single background refresh
+ * runs the cloud request element, and that the refresh bypasses the cache.
+ */
+public class StaleWhileRevalidateTests {
+
+    private static final long TIME_TO_LIVE = 100;
+
+    private GeoResultsCache cache;
+    private FlowElement<?, ?> element;
+    private Pipeline pipeline;
+    private final ElementData stale = mock(ElementData.class);
+    private final ElementData fresh = mock(ElementData.class);
+    private final CountDownLatch release = new CountDownLatch(1);
+    private final AtomicInteger processed = new AtomicInteger();
+    private final AtomicReference<ElementData> seenByRefresh =
+        new AtomicReference<>();
+
+    @Before
+    public void init() throws Exception {
+        cache = new GeoResultsCacheBuilder()
+            .setTimeToLive(TIME_TO_LIVE, TimeUnit.MILLISECONDS)
+            .setMaxStaleness(1, TimeUnit.MINUTES)
+            .setStaleWhileRevalidate(true)
+            .build();
+        pipeline = MockFlowData.pipeline();
+        element = mock(FlowElement.class);
+        // Process as the cloud request engine would, consulting the cache
+        // first and putting the new result once the response arrives.
+        doAnswer(invocation -> {
+            FlowData data = invocation.getArgument(0);
+            processed.incrementAndGet();
+            seenByRefresh.set(cache.get(data));
+            release.await(10, TimeUnit.SECONDS);
+            cache.put(data, fresh);
+            return null;
+        }).when(element).process(any());
+        cache.setFlowElement(element);
+    }
+
+    @After
+    public void close() throws Exception {
+        release.countDown();
+        cache.close();
+    }
+
+    private FlowData request() {
+        Map<String, Object> evidence = new HashMap<>();
+        evidence.put("cookie.51D_Pos_latitude", "51.457714");
+        evidence.put("cookie.51D_Pos_longitude", "-0.975014");
+        return MockFlowData.create(evidence, pipeline);
+    }
+
+    private void awaitRefreshes(long count) throws InterruptedException {
+        for (int i = 0; i < 500 && cache.getRefreshes() < count; i++) {
+            Thread.sleep(10);
+        }
+        assertEquals(count, cache.getRefreshes());
+    }
+
+    /**
+     * Check that the stale result is served to every request while the
+     * refresh runs, that concurrent requests only start one refresh, and
+     * that the refreshed result is served once it completes.
+     */
+    @Test
+    public void StaleWhileRevalidate_ServesStaleWhileRefreshing()
+        throws Exception {
+        cache.put(request(), stale);
+        assertSame(stale, cache.get(request()));
+        Thread.sleep(TIME_TO_LIVE * 2);
+
+        for (int i = 0; i < 10; i++) {
+            assertSame(stale, cache.get(request()));
+        }
+        assertEquals(10, cache.getStaleHits());
+        for (int i = 0; i < 100 && processed.get() == 0; i++) {
+            Thread.sleep(10);
+        }
+        assertEquals(1, processed.get());
+
+        release.countDown();
+        awaitRefreshes(1);
+        assertSame(fresh, cache.get(request()));
+        assertEquals(1, processed.get());
+        assertEquals(0, cache.getRefreshFailures());
+    }
+
+    /**
+     * Check that concurrent requests for a stale result from many threads
+     * only start one refresh.
+     */
+    @Test
+    public void StaleWhileRevalidate_CollapsesConcurrentRefreshes()
+        throws Exception {
+        cache.put(request(), stale);
+        Thread.sleep(TIME_TO_LIVE * 2);
+
+        Thread[] threads = new Thread[8];
+        final CountDownLatch start = new CountDownLatch(1);
+        final AtomicInteger staleServed = new AtomicInteger();
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread(() -> {
+                try {
+                    start.await();
+                    for (int j = 0; j < 100; j++) {
+                        if (cache.get(request()) == stale) {
+                            staleServed.incrementAndGet();
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            threads[i].start();
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(threads.length * 100, staleServed.get());
+        release.countDown();
+        awaitRefreshes(1);
+        assertEquals(1, processed.get());
+    }
+
+    /**
+     * Check that the refresh bypasses the cache, so it does not just get
+     * the stale result back, and that only the cache's element processes
+     * the refresh rather than the whole pipeline.
+     */
+    @Test
+    public void StaleWhileRevalidate_RefreshBypassesCache() throws Exception {
+        cache.put(request(), stale);
+        Thread.sleep(TIME_TO_LIVE * 2);
+        final AtomicReference<FlowData> refreshData = new AtomicReference<>();
+        doAnswer(invocation -> {
+            FlowData data = invocation.getArgument(0);
+            refreshData.set(data);
+            seenByRefresh.set(cache.get(data));
+            cache.put(data, fresh);
+            return null;
+        }).when(element).process(any());
+
+        assertSame(stale, cache.get(request()));
+        awaitRefreshes(1);
+        assertNull(
+            "The refresh should not be served from the cache.",
+            seenByRefresh.get());
+        assertEquals(
+            "51.457714",
+            refreshData.get().getEvidence().asKeyMap()
+                .get("cookie.51D_Pos_latitude"));
+        verify(refreshData.get(), never()).process();
+        assertSame(fresh, cache.get(request()));
+        assertEquals(1, cache.getBypassed());
+    }
+}
@@ -0,0 +1,205 @@
+/* *********************************************************************
+ * This Original Work is copyright of 51 Degrees Mobile Experts Limited.
+ * Copyright 2023 51 Degrees Mobile Experts Limited, Davidson House,
+ * Forbury Square, Reading, Berkshire, United Kingdom RG1 3EU.
+ *
+ * This Original Work is licensed under the European Union Public Licence
+ * (EUPL) v.1.2 and is subject to its terms as set out below.
+ *
+ * If a copy of the EUPL was not distributed with this file, You can obtain
+ * one at https://opensource.org/licenses/EUPL-1.2.
+ *
+ * The 'Compatible Licences' set out in the Appendix to the EUPL (as may be
+ * amended by the European Commission) shall be deemed incompatible for
+ * the purposes of the Work and the provisions of the compatibility
+ * clause in Article 5 of the EUPL shall not apply.
+ *
+ * If using the Work as, or as part of, a network application, by
+ * including the attribution notice(s) required under Article 5 of the EUPL
+ * in the end user terms of the application under an appropriate heading,
+ * such notice(s) shall fulfill the requirements of that article.
+ * ********************************************************************* */
+
+
+package fiftyone.geolocation.core.tests;
+
+import fiftyone.geolocation.MockFlowData;
+import fiftyone.geolocation.core.Constants;
+import fiftyone.geolocation.core.CoordinateCanonicalizer;
+import fiftyone.pipeline.core.data.FlowData;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+/**
+ * Checks the coordinates the canonicalizer adds to the evidence.
+ */
+public class CoordinateCanonicalizerTests {
+
+    /**
+     * Canonicalize a FlowData with the evidence provided, and check that it
+     * was not processed.
+     * @return the evidence of the FlowData
+     */
+    private static Map<String, Object> canonicalize(
+        CoordinateCanonicalizer canonicalizer,
+        Map<String, Object> evidence) {
+        FlowData data = MockFlowData.create(evidence, null);
+        assertSame(data, canonicalizer.canonicalize(data));
+        verify(data, never()).process();
+        return data.getEvidence().asKeyMap();
+    }
+
+    private static Map<String, Object> evidence(
+        String latitudeKey,
+        Object latitude,
+        String longitudeKey,
+        Object longitude) {
+        Map<String, Object> evidence = new HashMap<>();
+        evidence.put(latitudeKey, latitude);
+        evidence.put(longitudeKey, longitude);
+        return evidence;
+    }
+
+    private static Map<String, Object> cookie(Object latitude, Object longitude) {
+        return evidence(
+            Constants.EVIDENCE_GEO_LAT_COOKIE_KEY,
+            latitude,
+            Constants.EVIDENCE_GEO_LON_COOKIE_KEY,
+            longitude);
+    }
+
+    /**
+     * Check that the location evidence is used in preference to the cookie,
+     * and the cookie in preference to the query, and that every pair which
+     * is present is replaced with the canonical coordinates.
+     */
+    @Test
+    public void CoordinateCanonicalizer_Priority() {
+        CoordinateCanonicalizer canonicalizer =
+            new CoordinateCanonicalizer(4, false);
+
+        Map<String, Object> evidence = cookie("51.457714", "-0.975014");
+        evidence.put(Constants.EVIDENCE_GEO_LAT_PARAM_KEY, "10");
+        evidence.put(Constants.EVIDENCE_GEO_LON_PARAM_KEY, "20");
+        evidence = canonicalize(canonicalizer, evidence);
+        assertEquals("51.4577", evidence.get(Constants.EVIDENCE_GEO_LAT_KEY));
+        assertEquals("-0.9750", evidence.get(Constants.EVIDENCE_GEO_LON_KEY));
+        assertEquals("51.4577", evidence.get(Constants.EVIDENCE_GEO_LAT_COOKIE_KEY));
+        assertEquals("51.4577", evidence.get(Constants.EVIDENCE_GEO_LAT_PARAM_KEY));
+        assertEquals("-0.9750", evidence.get(Constants.EVIDENCE_GEO_LON_PARAM_KEY));
+
+        evidence = cookie("51.457714", "-0.975014");
+        evidence.put(Constants.EVIDENCE_GEO_LAT_KEY, "10.00001");
+        evidence.put(Constants.EVIDENCE_GEO_LON_KEY, "20.00001");
+        evidence = canonicalize(canonicalizer, evidence);
+        assertEquals("10.0000", evidence.get(Constants.EVIDENCE_GEO_LAT_KEY));
+        assertEquals("20.0000", evidence.get(Constants.EVIDENCE_GEO_LON_COOKIE_KEY));
+
+        evidence = canonicalize(canonicalizer, evidence(
+            Constants.EVIDENCE_GEO_LAT_PARAM_KEY,
+            "51.457714",
+            Constants.EVIDENCE_GEO_LON_PARAM_KEY,
+            "-0.975014"));
+        assertEquals("51.4577", evidence.get(Constants.EVIDENCE_GEO_LAT_KEY));
+        assertFalse(evidence.containsKey(Constants.EVIDENCE_GEO_LAT_COOKIE_KEY));
+    }
+
+    /**
+     * Check that different representations of the same location produce
+     * the same evidence, rounded half up to the configured places.
+     */
+    @Test
+    public void CoordinateCanonicalizer_Rounding() {
+        CoordinateCanonicalizer canonicalizer =
+            new CoordinateCanonicalizer(4, false);
+        for (Object latitude : new Object[] {
+            "51.457714", "51.4577140", " 5.14577140e1 ", 51.457714 }) {
+            Map<String, Object> evidence = canonicalize(
+                canonicalizer,
+                cookie(latitude, "-0.975014"));
+            assertEquals(
+                "51.4577",
+                evidence.get(Constants.EVIDENCE_GEO_LAT_KEY));
+        }
+        Map<String, Object> evidence = canonicalize(
+            new CoordinateCanonicalizer(2, false),
+            cookie("51.455", "-0.975"));
+        assertEquals("51.46", evidence.get(Constants.EVIDENCE_GEO_LAT_KEY));
+        assertEquals("-0.98", evidence.get(Constants.EVIDENCE_GEO_LON_KEY));
+        evidence = canonicalize(
+            new CoordinateCanonicalizer(0, false),
+            cookie("51.5", "-0.4"));
+        assertEquals("52", evidence.get(Constants.EVIDENCE_GEO_LAT_KEY));
+        assertEquals("0", evidence.get(Constants.EVIDENCE_GEO_LON_KEY));
+    }
+
+    /**
+     * Check that less accurate coordinates are rounded to fewer places when
+     * the canonicalizer is accuracy adaptive, but never to more places than
+     * it is configured with.
+     */
+    @Test
+    public void CoordinateCanonicalizer_AccuracyAdaptive() {
+        CoordinateCanonicalizer adaptive = new CoordinateCanonicalizer(4, true);
+        Map<String, Object> evidence = cookie("51.457714", "-0.975014");
+        evidence.put(Constants.EVIDENCE_GEO_ACCURACY_COOKIE_KEY, "1500");
+        evidence = canonicalize(adaptive, evidence);
+        assertEquals("51.46", evidence.get(Constants.EVIDENCE_GEO_LAT_KEY));
+
+        evidence = cookie("51.457714", "-0.975014");
+        evidence.put(Constants.EVIDENCE_GEO_ACCURACY_COOKIE_KEY, "1");
+        evidence = canonicalize(adaptive, evidence);
+        assertEquals("51.4577", evidence.get(Constants.EVIDENCE_GEO_LAT_KEY));
+
+        evidence = cookie("51.457714", "-0.975014");
+        evidence.put(Constants.EVIDENCE_GEO_ACCURACY_COOKIE_KEY, "not a number");
+        evidence = canonicalize(adaptive, evidence);
+        assertEquals("51.4577", evidence.get(Constants.EVIDENCE_GEO_LAT_KEY));
+
+        evidence = cookie("51.457714", "-0.975014");
+        evidence.put(Constants.EVIDENCE_GEO_ACCURACY_COOKIE_KEY, "1500");
+        evidence = canonicalize(new CoordinateCanonicalizer(4, false), evidence);
+        assertEquals("51.4577", evidence.get(Constants.EVIDENCE_GEO_LAT_KEY));
+    }
+
+    /**
+     * Check that coordinates which are missing, not numbers or out of range
+     * are left as they are.
+     */
+    @Test
+    public void CoordinateCanonicalizer_InvalidInput() {
+        CoordinateCanonicalizer canonicalizer =
+            new CoordinateCanonicalizer(4, false);
+        Map<?, ?>[] invalid = {
+            cookie("north", "-0.975014"),
+            cookie("95", "-0.975014"),
+            cookie("51.457714", "-181"),
+            cookie("51.457714", null),
+            evidence(
+                Constants.EVIDENCE_GEO_LAT_COOKIE_KEY,
+                "51.457714",
+                Constants.EVIDENCE_GEO_LON_PARAM_KEY,
+                "-0.975014"),
+            new HashMap<String, Object>() };
+        for (Map<?, ?> value : invalid) {
+            @SuppressWarnings("unchecked")
+            Map<String, Object> evidence = (Map<String, Object>)value;
+            FlowData data = MockFlowData.create(evidence, null);
+            canonicalizer.canonicalize(data);
+            verify(data, never()).addEvidence(anyString(), any());
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void CoordinateCanonicalizer_NegativePlaces() {
+        new CoordinateCanonicalizer(-1, false);
+    }
+}
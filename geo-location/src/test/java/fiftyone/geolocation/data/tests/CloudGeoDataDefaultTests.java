@@ -0,0 +1,171 @@
+/* *********************************************************************
+ * This Original Work is copyright of 51 Degrees Mobile Experts Limited.
+ * Copyright 2023 51 Degrees Mobile Experts Limited, Davidson House,
+ * Forbury Square, Reading, Berkshire, United Kingdom RG1 3EU.
+ *
+ * This Original Work is licensed under the European Union Public Licence
+ * (EUPL) v.1.2 and is subject to its terms as set out below.
+ *
+ * If a copy of the EUPL was not distributed with this file, You can obtain
+ * one at https://opensource.org/licenses/EUPL-1.2.
+ *
+ * The 'Compatible Licences' set out in the Appendix to the EUPL (as may be
+ * amended by the European Commission) shall be deemed incompatible for
+ * the purposes of the Work and the provisions of the compatibility
+ * clause in Article 5 of the EUPL shall not apply.
+ *
+ * If using the Work as, or as part of, a network application, by
+ * including the attribution notice(s) required under Article 5 of the EUPL
+ * in the end user terms of the application under an appropriate heading,
+ * such notice(s) shall fulfill the requirements of that article.
+ * ********************************************************************* */
+
+
+package fiftyone.geolocation.data.tests;
+
+import fiftyone.geolocation.data.CloudGeoData;
+import fiftyone.geolocation.data.CloudGeoDataDefault;
+import fiftyone.geolocation.data.GeoPropertyLayout;
+import fiftyone.geolocation.data.GeoValueSource;
+import fiftyone.pipeline.engines.data.AspectPropertyValue;
+import fiftyone.pipeline.engines.data.AspectPropertyValueDefault;
+import fiftyone.pipeline.engines.exceptions.NoValueException;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Checks that the setters of cloud geo data replace the values in the slots
+ * set by the engine.
+ */
+public class CloudGeoDataDefaultTests {
+
+    private static final Logger logger =
+        LoggerFactory.getLogger(CloudGeoDataDefaultTests.class);
+
+    private static final GeoPropertyLayout LAYOUT = new GeoPropertyLayout(
+        Arrays.asList("Town", "Country", "ZipCode"));
+
+    /**
+     * Check that a setter replaces the value set by the engine without
+     * modifying the arrays, which may be shared with other instances.
+     */
+    @Test
+    public void CloudGeoData_Setter_ReplacesValue() throws NoValueException {
+        Object[] values = new Object[] { "Reading", "United Kingdom", null };
+        String[] reasons = new String[] { null, null, "No zip code was found." };
+        CloudGeoDataDefault data = new CloudGeoDataDefault(logger, null, null, null);
+        data.setValues(LAYOUT, values, reasons);
+        assertEquals("United Kingdom", data.getCountry().getValue());
+
+        data.setCountry(new AspectPropertyValueDefault<>("France"));
+        data.setZipCode(new AspectPropertyValueDefault<>("75001"));
+        AspectPropertyValueDefault<String> town = new AspectPropertyValueDefault<>();
+        town.setNoValueMessage("The town is not known.");
+        data.setTown(town);
+
+        assertEquals("France", data.getCountry().getValue());
+        assertEquals("France", data.asKeyMap().get("Country"));
+        assertEquals("75001", data.getZipCode().getValue());
+        assertFalse(data.getTown().hasValue());
+        assertEquals("The town is not known.", data.getTown().getNoValueMessage());
+        assertArrayEquals(
+            new Object[] { "Reading", "United Kingdom", null },
+            values);
+        assertArrayEquals(
+            new String[] { null, null, "No zip code was found." },
+            reasons);
+    }
+
+    /**
+     * Check that a setter replaces a value which is decoded lazily, and
+     * that the source is not asked for it.
+     */
+    @Test
+    public void CloudGeoData_Setter_ReplacesLazyValue() throws NoValueException {
+        CloudGeoDataDefault data = new CloudGeoDataDefault(logger, null, null, null);
+        data.setValueSource(new GeoValueSource() {
+            @Override
+            public GeoPropertyLayout getLayout() {
+                return LAYOUT;
+            }
+
+            @Override
+            public Object getValue(int slot) {
+                if (slot == LAYOUT.getSlot("Country")) {
+                    fail("The replaced value should not be decoded.");
+                }
+                return slot == LAYOUT.getSlot("Town") ? "Reading" : null;
+            }
+
+            @Override
+            public String getNoValueReason(int slot) {
+                return "No value.";
+            }
+        });
+        data.setCountry(new AspectPropertyValueDefault<>("France"));
+        assertEquals("France", data.getCountry().getValue());
+        assertEquals("Reading", data.getTown().getValue());
+        assertEquals("No value.", data.getZipCode().getNoValueMessage());
+    }
+
+    /**
+     * Check that a property without a value, which is not in the layout and
+     * has no reasons set, reports no value rather than failing.
+     */
+    @Test
+    public void CloudGeoData_NoValue_NoReasons() {
+        CloudGeoDataDefault data = new CloudGeoDataDefault(logger, null, null, null);
+        data.put("road", null);
+        AspectPropertyValue<String> road = data.getRoad();
+        assertFalse(road.hasValue());
+    }
+
+    /**
+     * Check that an implementation which does not override the slot setters
+     * is populated by name, as the engine did before the layout was
+     * introduced.
+     */
+    @Test
+    @SuppressWarnings("unchecked")
+    public void CloudGeoData_DefaultSetters_PopulateByName() {
+        CloudGeoData data = mock(
+            CloudGeoData.class,
+            withSettings().defaultAnswer(CALLS_REAL_METHODS));
+        data.setValueSource(new GeoValueSource() {
+            @Override
+            public GeoPropertyLayout getLayout() {
+                return LAYOUT;
+            }
+
+            @Override
+            public Object getValue(int slot) {
+                return slot == LAYOUT.getSlot("Town") ? "Reading" : null;
+            }
+
+            @Override
+            public String getNoValueReason(int slot) {
+                return "No value.";
+            }
+        });
+
+        ArgumentCaptor<Map<String, Object>> values =
+            ArgumentCaptor.forClass(Map.class);
+        ArgumentCaptor<Map<String, String>> reasons =
+            ArgumentCaptor.forClass(Map.class);
+        verify(data).populateFromMap(values.capture());
+        verify(data).setNoValueReasons(reasons.capture());
+        assertEquals("Reading", values.getValue().get("town"));
+        assertTrue(values.getValue().containsKey("Country"));
+        assertNull(values.getValue().get("Country"));
+        assertFalse(reasons.getValue().containsKey("town"));
+        assertEquals("No value.", reasons.getValue().get("zipcode"));
+    }
+}
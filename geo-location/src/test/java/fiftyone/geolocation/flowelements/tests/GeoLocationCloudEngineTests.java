@@ -0,0 +1,365 @@
+/* *********************************************************************
+ * This Original Work is copyright of 51 Degrees Mobile Experts Limited.
+ * Copyright 2023 51 Degrees Mobile Experts Limited, Davidson House,
+ * Forbury Square, Reading, Berkshire, United Kingdom RG1 3EU.
+ *
+ * This Original Work is licensed under the European Union Public Licence
+ * (EUPL) v.1.2 and is subject to its terms as set out below.
+ *
+ * If a copy of the EUPL was not distributed with this file, You can obtain
+ * one at https://opensource.org/licenses/EUPL-1.2.
+ *
+ * The 'Compatible Licences' set out in the Appendix to the EUPL (as may be
+ * amended by the European Commission) shall be deemed incompatible for
+ * the purposes of the Work and the provisions of the compatibility
+ * clause in Article 5 of the EUPL shall not apply.
+ *
+ * If using the Work as, or as part of, a network application, by
+ * including the attribution notice(s) required under Article 5 of the EUPL
+ * in the end user terms of the application under an appropriate heading,
+ * such notice(s) shall fulfill the requirements of that article.
+ * ********************************************************************* */
+
+
+package fiftyone.geolocation.flowelements.tests;
+
+import fiftyone.geolocation.CloudResponses;
+import fiftyone.geolocation.core.Enums;
+import fiftyone.geolocation.data.CloudGeoData;
+import fiftyone.geolocation.data.CloudGeoDataDefault;
+import fiftyone.geolocation.flowelements.DecodedResultMemo;
+import fiftyone.geolocation.flowelements.GeoLocationCloudEngine;
+import fiftyone.geolocation.flowelements.GeoLocationCloudEngineBuilder;
+import fiftyone.geolocation.json.CanonicalStringTable;
+import fiftyone.pipeline.cloudrequestengine.data.CloudRequestData;
+import fiftyone.pipeline.cloudrequestengine.flowelements.CloudRequestEngine;
+import fiftyone.pipeline.core.data.AccessiblePropertyMetaData;
+import fiftyone.pipeline.core.data.FlowData;
+import fiftyone.pipeline.core.flowelements.Pipeline;
+import fiftyone.pipeline.engines.data.AspectPropertyMetaData;
+import fiftyone.pipeline.engines.data.AspectPropertyValue;
+import fiftyone.pipeline.engines.data.AspectPropertyValueDefault;
+import fiftyone.pipeline.engines.exceptions.NoValueException;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Checks the values the engine extracts from a cloud response, and that the
+ * options set on the builder are passed to the engine.
+ */
+public class GeoLocationCloudEngineTests {
+
+    private static final Logger logger =
+        LoggerFactory.getLogger(GeoLocationCloudEngineTests.class);
+
+    /**
+     * Engine which exposes processEngine so that it can be called without
+     * a full Pipeline.
+     */
+    private static class TestEngine extends GeoLocationCloudEngine {
+
+        TestEngine(
+            boolean lazyPropertyDecoding,
+            List<String> properties,
+            DecodedResultMemo resultMemo) {
+            super(
+                GeoLocationCloudEngineTests.logger,
+                null,
+                Enums.GeoLocationProvider.FiftyOneDegrees,
+                lazyPropertyDecoding,
+                null,
+                properties,
+                resultMemo);
+        }
+
+        CloudGeoData processResponse(FlowData data) throws Exception {
+            CloudGeoData aspectData =
+                new CloudGeoDataDefault(
+                    GeoLocationCloudEngineTests.logger,
+                    data,
+                    this,
+                    null);
+            processEngine(data, aspectData);
+            return aspectData;
+        }
+    }
+
+    private CloudRequestEngine requestEngine;
+    private Pipeline pipeline;
+
+    private static AccessiblePropertyMetaData.PropertyMetaData property(
+        String name,
+        String type) {
+        AccessiblePropertyMetaData.PropertyMetaData property =
+            new AccessiblePropertyMetaData.PropertyMetaData();
+        property.name = name;
+        property.type = type;
+        property.category = "Location";
+        property.evidenceProperties = new ArrayList<>();
+        return property;
+    }
+
+    @Before
+    public void init() {
+        AccessiblePropertyMetaData.ProductMetaData product =
+            new AccessiblePropertyMetaData.ProductMetaData();
+        product.dataTier = "CloudV4";
+        product.properties = Arrays.asList(
+            property("Town", "String"),
+            property("Country", "String"),
+            property("Building", "String"),
+            property("Countries", "Array"),
+            property("JavaScript", "JavaScript"));
+        Map<String, AccessiblePropertyMetaData.ProductMetaData> products =
+            new HashMap<>();
+        products.put("location", product);
+
+        requestEngine = mock(CloudRequestEngine.class);
+        when(requestEngine.getPublicProperties()).thenReturn(products);
+        pipeline = mock(Pipeline.class);
+        when(pipeline.getElement(CloudRequestEngine.class))
+            .thenReturn(requestEngine);
+    }
+
+    private FlowData flowData(String town) {
+        return flowDataForResponse("{" + CloudResponses.location(
+            "location",
+            town,
+            "United Kingdom",
+            "GB") + "}");
+    }
+
+    private FlowData flowDataForResponse(String json) {
+        CloudRequestData requestData = new CloudRequestData(logger, null, null);
+        requestData.setJsonResponse(json);
+        FlowData data = mock(FlowData.class);
+        when(data.getFromElement(requestEngine)).thenReturn(requestData);
+        return data;
+    }
+
+    private static List<String> names(List<AspectPropertyMetaData> properties) {
+        List<String> names = new ArrayList<>();
+        for (AspectPropertyMetaData property : properties) {
+            names.add(property.getName());
+        }
+        return names;
+    }
+
+    private static void assertValues(CloudGeoData data) throws NoValueException {
+        assertEquals("Reading", data.getTown().getValue());
+        assertEquals("United Kingdom", data.getCountry().getValue());
+        AspectPropertyValue<String> building = data.getBuilding();
+        assertFalse(building.hasValue());
+        assertEquals(
+            "No building was found at this location.",
+            building.getNoValueMessage());
+        assertEquals(
+            Collections.singletonList("United Kingdom"),
+            data.asKeyMap().get("Countries"));
+        assertFalse(data.getJavaScript().hasValue());
+        assertEquals(
+            "The property is not available as coordinates were provided.",
+            data.getJavaScript().getNoValueMessage());
+    }
+
+    /**
+     * Check that every property is extracted from the response with the
+     * right type, and that properties without a value have the reason from
+     * the response.
+     */
+    @Test
+    public void GeoLocationCloudEngine_ExtractionPlan() throws Exception {
+        TestEngine engine = new TestEngine(
+            false,
+            Collections.<String>emptyList(),
+            null);
+        engine.addPipeline(pipeline);
+        assertEquals(
+            Arrays.asList("Town", "Country", "Building", "Countries", "JavaScript"),
+            names(engine.getProperties()));
+        assertValues(engine.processResponse(flowData("Reading")));
+    }
+
+    /**
+     * Check that values decoded lazily are the same as those decoded up
+     * front.
+     */
+    @Test
+    public void GeoLocationCloudEngine_ExtractionPlan_Lazy() throws Exception {
+        TestEngine engine = new TestEngine(
+            true,
+            Collections.<String>emptyList(),
+            null);
+        engine.addPipeline(pipeline);
+        assertValues(engine.processResponse(flowData("Reading")));
+    }
+
+    /**
+     * Check that an element the streaming reader rejects, but org.json
+     * accepts, is decoded by org.json whether values are decoded up front
+     * or lazily, rather than failing when a value is read.
+     */
+    @Test
+    public void GeoLocationCloudEngine_ExtractionPlan_Fallback()
+        throws Exception {
+        // org.json reads the unquoted town as a string.
+        FlowData data = flowDataForResponse("{" + CloudResponses.location(
+            "location",
+            "Reading",
+            "United Kingdom",
+            "GB").replace("\"Reading\"", "Reading") + "}");
+        for (boolean lazy : new boolean[] { false, true }) {
+            TestEngine engine = new TestEngine(
+                lazy,
+                Collections.<String>emptyList(),
+                null);
+            engine.addPipeline(pipeline);
+            assertValues(engine.processResponse(data));
+        }
+    }
+
+    /**
+     * Check that only the requested properties are in the plan, whether or
+     * not they are prefixed with the element data key.
+     */
+    @Test
+    public void GeoLocationCloudEngine_ExtractionPlan_Restricted()
+        throws Exception {
+        TestEngine engine = new TestEngine(
+            false,
+            Arrays.asList("town", "location.Country"),
+            null);
+        engine.addPipeline(pipeline);
+        assertEquals(
+            Arrays.asList("Town", "Country"),
+            names(engine.getProperties()));
+        CloudGeoData data = engine.processResponse(flowData("Reading"));
+        Map<String, Object> values = data.asKeyMap();
+        assertTrue(values.containsKey("Country"));
+        assertFalse(values.containsKey("Building"));
+        assertFalse(values.containsKey("Countries"));
+        assertEquals("Reading", data.getTown().getValue());
+    }
+
+    /**
+     * Check that an identical element is served from the memo, and that
+     * changing the values of one result does not change the values given
+     * to other requests.
+     */
+    @Test
+    public void GeoLocationCloudEngine_ResultMemo() throws Exception {
+        DecodedResultMemo memo = new DecodedResultMemo(16);
+        TestEngine engine = new TestEngine(
+            false,
+            Collections.<String>emptyList(),
+            memo);
+        engine.addPipeline(pipeline);
+
+        CloudGeoData first = engine.processResponse(flowData("Reading"));
+        first.setTown(new AspectPropertyValueDefault<>("London"));
+        CloudGeoData second = engine.processResponse(flowData("Reading"));
+        assertEquals(1, memo.getHits());
+        assertEquals("London", first.getTown().getValue());
+        assertValues(second);
+        second.setTown(new AspectPropertyValueDefault<>("London"));
+        assertValues(engine.processResponse(flowData("Reading")));
+        assertEquals(2, memo.getHits());
+    }
+
+    /**
+     * Check that changing a list held by one result does not change the
+     * lists given to other requests, whether the result was added to the
+     * memo or served from it.
+     */
+    @Test
+    @SuppressWarnings("unchecked")
+    public void GeoLocationCloudEngine_ResultMemo_Lists() throws Exception {
+        DecodedResultMemo memo = new DecodedResultMemo(16);
+        TestEngine engine = new TestEngine(
+            false,
+            Collections.<String>emptyList(),
+            memo);
+        engine.addPipeline(pipeline);
+
+        CloudGeoData first = engine.processResponse(flowData("Reading"));
+        ((List<Object>)first.asKeyMap().get("Countries")).add("France");
+        CloudGeoData second = engine.processResponse(flowData("Reading"));
+        assertEquals(1, memo.getHits());
+        assertValues(second);
+        ((List<Object>)second.asKeyMap().get("Countries")).clear();
+        assertValues(engine.processResponse(flowData("Reading")));
+        assertEquals(2, memo.getHits());
+    }
+
+    /**
+     * Check that the memo is not used when values are decoded lazily.
+     */
+    @Test
+    public void GeoLocationCloudEngine_ResultMemo_Lazy() throws Exception {
+        DecodedResultMemo memo = new DecodedResultMemo(16);
+        TestEngine engine = new TestEngine(
+            true,
+            Collections.<String>emptyList(),
+            memo);
+        engine.addPipeline(pipeline);
+        assertValues(engine.processResponse(flowData("Reading")));
+        assertValues(engine.processResponse(flowData("Reading")));
+        assertEquals(0, memo.getHits());
+        assertEquals(0, memo.getMisses());
+        assertEquals(0, memo.getSize());
+    }
+
+    /**
+     * Check that the properties set on the builder restrict the properties
+     * of the engine it builds.
+     */
+    @Test
+    public void GeoLocationCloudEngine_Builder_Properties() throws Exception {
+        GeoLocationCloudEngine engine =
+            new GeoLocationCloudEngineBuilder(LoggerFactory.getILoggerFactory())
+                .setProperties(Arrays.asList("Town", "location.Countries"))
+                .build(Enums.GeoLocationProvider.FiftyOneDegrees);
+        engine.addPipeline(pipeline);
+        assertEquals(
+            Arrays.asList("Town", "Countries"),
+            names(engine.getProperties()));
+    }
+
+    /**
+     * Check that the options set on the builder are passed to the engine.
+     */
+    @Test
+    public void GeoLocationCloudEngine_Builder_Options() throws Exception {
+        GeoLocationCloudEngine defaults =
+            new GeoLocationCloudEngineBuilder(LoggerFactory.getILoggerFactory())
+                .build(Enums.GeoLocationProvider.DigitalElement);
+        assertEquals("location_digitalelement", defaults.getElementDataKey());
+        assertFalse(defaults.getLazyPropertyDecoding());
+        assertNull(defaults.getCanonicalStrings());
+        assertNull(defaults.getResultMemo());
+
+        GeoLocationCloudEngine engine =
+            new GeoLocationCloudEngineBuilder(LoggerFactory.getILoggerFactory())
+                .setLazyPropertyDecoding(true)
+                .setCanonicalStringTableSize(CanonicalStringTable.DEFAULT_SIZE)
+                .setResultMemoSize(16)
+                .build(Enums.GeoLocationProvider.FiftyOneDegrees);
+        assertEquals("location", engine.getElementDataKey());
+        assertTrue(engine.getLazyPropertyDecoding());
+        assertNotNull(engine.getCanonicalStrings());
+        assertNotNull(engine.getResultMemo());
+    }
+}
@@ -0,0 +1,99 @@
+/* *********************************************************************
+ * This Original Work is copyright of 51 Degrees Mobile Experts Limited.
+ * Copyright 2023 51 Degrees Mobile Experts Limited, Davidson House,
+ * Forbury Square, Reading, Berkshire, United Kingdom RG1 3EU.
+ *
+ * This Original Work is licensed under the European Union Public Licence
+ * (EUPL) v.1.2 and is subject to its terms as set out below.
+ *
+ * If a copy of the EUPL was not distributed with this file, You can obtain
+ * one at https://opensource.org/licenses/EUPL-1.2.
+ *
+ * The 'Compatible Licences' set out in the Appendix to the EUPL (as may be
+ * amended by the European Commission) shall be deemed incompatible for
+ * the purposes of the Work and the provisions of the compatibility
+ * clause in Article 5 of the EUPL shall not apply.
+ *
+ * If using the Work as, or as part of, a network application, by
+ * including the attribution notice(s) required under Article 5 of the EUPL
+ * in the end user terms of the application under an appropriate heading,
+ * such notice(s) shall fulfill the requirements of that article.
+ * ********************************************************************* */
+
+
+package fiftyone.geolocation.json.tests;
+
+import fiftyone.geolocation.json.CanonicalStringTable;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.*;
+
+public class CanonicalStringTableTests {
+
+    @Test
+    public void CanonicalStringTable_SameInstance() {
+        CanonicalStringTable table = new CanonicalStringTable(16);
+        String first = new String("United Kingdom");
+        String second = new String("United Kingdom");
+        assertNotSame(first, second);
+        assertSame(first, table.canonicalize(first));
+        assertSame(first, table.canonicalize(second));
+        assertEquals(1, table.getHits());
+        assertEquals(1, table.getMisses());
+        assertEquals(0.5, table.getHitRate(), 0);
+    }
+
+    @Test
+    public void CanonicalStringTable_Bounded() {
+        CanonicalStringTable table = new CanonicalStringTable(10);
+        assertEquals(16, table.getSize());
+        for (int i = 0; i < 1000; i++) {
+            String value = "value" + i;
+            assertEquals(value, table.canonicalize(value));
+        }
+        assertEquals(1000, table.getMisses());
+    }
+
+    @Test
+    public void CanonicalStringTable_NonStrings() {
+        CanonicalStringTable table = new CanonicalStringTable(16);
+        assertNull(table.canonicalize((String)null));
+        Integer number = 1;
+        assertSame(number, table.canonicalize((Object)number));
+        assertEquals(0, table.getHits() + table.getMisses());
+    }
+
+    @Test
+    public void CanonicalStringTable_Concurrent() throws Exception {
+        final CanonicalStringTable table = new CanonicalStringTable(64);
+        final String[] values = { "GB", "US", "FR", "DE", "ES" };
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < 4; t++) {
+                futures.add(executor.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        for (int i = 0; i < 10000; i++) {
+                            String value = new String(values[i % values.length]);
+                            assertEquals(value, table.canonicalize(value));
+                        }
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals(40000, table.getHits() + table.getMisses());
+        assertTrue(table.getHitRate() > 0.9);
+    }
+}
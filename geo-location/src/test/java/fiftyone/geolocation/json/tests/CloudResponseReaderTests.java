@@ -0,0 +1,151 @@
+/* *********************************************************************
+ * This Original Work is copyright of 51 Degrees Mobile Experts Limited.
+ * Copyright 2023 51 Degrees Mobile Experts Limited, Davidson House,
+ * Forbury Square, Reading, Berkshire, United Kingdom RG1 3EU.
+ *
+ * This Original Work is licensed under the European Union Public Licence
+ * (EUPL) v.1.2 and is subject to its terms as set out below.
+ *
+ * If a copy of the EUPL was not distributed with this file, You can obtain
+ * one at https://opensource.org/licenses/EUPL-1.2.
+ *
+ * The 'Compatible Licences' set out in the Appendix to the EUPL (as may be
+ * amended by the European Commission) shall be deemed incompatible for
+ * the purposes of the Work and the provisions of the compatibility
+ * clause in Article 5 of the EUPL shall not apply.
+ *
+ * If using the Work as, or as part of, a network application, by
+ * including the attribution notice(s) required under Article 5 of the EUPL
+ * in the end user terms of the application under an appropriate heading,
+ * such notice(s) shall fulfill the requirements of that article.
+ * ********************************************************************* */
+
+
+package fiftyone.geolocation.json.tests;
+
+import fiftyone.geolocation.CloudResponses;
+import fiftyone.geolocation.json.CloudResponseReader;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class CloudResponseReaderTests {
+
+    @Test
+    public void CloudResponseReader_MatchesOrgJson() {
+        String json = CloudResponses.multiProduct();
+        for (String key : Arrays.asList(
+            "device",
+            "location",
+            "location_digitalelement")) {
+            Map<String, Object> expected =
+                new JSONObject(json).getJSONObject(key).toMap();
+            assertEquals(
+                "The streamed '" + key + "' element should match the one " +
+                    "decoded by org.json.",
+                expected,
+                CloudResponseReader.readElement(json, key));
+        }
+    }
+
+    @Test
+    public void CloudResponseReader_DecimalsAndNulls() {
+        String json = "{\"location\":{\"a\":1.5,\"b\":null,\"c\":-0.25e-3," +
+            "\"d\":1E3,\"e\":12345678901,\"f\":[null,2.25]," +
+            "\"g\":{\"h\":null},\"i\":-0,\"j\":-0.0," +
+            "\"k\":123456789012345678901234567890,\"l\":7}}";
+        Map<String, Object> expected =
+            new JSONObject(json).getJSONObject("location").toMap();
+        Map<String, Object> actual =
+            CloudResponseReader.readElement(json, "location");
+        // Numbers have the same types as toMap gives them.
+        assertEquals(expected, actual);
+        for (String key : expected.keySet()) {
+            if (expected.get(key) != null) {
+                assertEquals(
+                    key,
+                    expected.get(key).getClass(),
+                    actual.get(key).getClass());
+            }
+        }
+        assertTrue(actual.get("a") instanceof BigDecimal);
+        // JSON null is Java null, as it is in toMap, not JSONObject.NULL.
+        assertTrue(actual.containsKey("b"));
+        assertNull(expected.get("b"));
+        assertNull(actual.get("b"));
+        List<?> list = (List<?>)actual.get("f");
+        assertNull(list.get(0));
+        assertNull(((List<?>)expected.get("f")).get(0));
+        assertEquals(new BigDecimal("2.25"), list.get(1));
+        assertEquals(expected.get("g"), actual.get("g"));
+    }
+
+    @Test
+    public void CloudResponseReader_MissingElement() {
+        assertNull(CloudResponseReader.readElement(
+            "{\"device\":{\"ismobile\":true}}",
+            "location"));
+        assertNull(CloudResponseReader.readElement("{}", "location"));
+        assertNull(CloudResponseReader.readElement(
+            "{\"location\":null}",
+            "location"));
+    }
+
+    @Test
+    public void CloudResponseReader_PrefixOfKey() {
+        Map<String, Object> values = CloudResponseReader.readElement(
+            "{\"location_digitalelement\":{\"town\":\"Caversham\"}," +
+                "\"location\":{\"town\":\"Reading\"}}",
+            "location");
+        assertEquals("Reading", values.get("town"));
+    }
+
+    @Test
+    public void CloudResponseReader_Escapes() {
+        Map<String, Object> values = CloudResponseReader.readElement(
+            " {\n\"de\\u0076ice\" : { \"a\" : \"}\\\"{\" } ,\n" +
+                "\"location\" : { \"town\" : \"Sa\\u00efgon \\\"\\\\\\/\" } }",
+            "location");
+        assertEquals("Sa\u00efgon \"\\/", values.get("town"));
+    }
+
+    @Test
+    public void CloudResponseReader_Validate() {
+        String valid = "{\"a\":[1,-0.5e+3,0,true,false,null,\"\\u00ef\\n\"]," +
+            "\"b\":{}, \"c\" : [ ] }";
+        new CloudResponseReader(valid).validateValueAt(0);
+        for (String invalid : new String[] {
+            "{\"a\":abc}",
+            "{\"a\":01}",
+            "{\"a\":1.}",
+            "{\"a\":-}",
+            "{\"a\":1e}",
+            "{\"a\":+1}",
+            "{\"a\":tru}",
+            "{\"a\":\"\\u00g0\"}",
+            "{\"a\":[1,]}",
+            "{\"a\":1 \"b\":2}",
+            "{\"a\":{\"b\":1}" }) {
+            try {
+                new CloudResponseReader(invalid).validateValueAt(0);
+                fail("'" + invalid + "' should not be valid.");
+            } catch (JSONException e) {
+                // Expected.
+            }
+        }
+    }
+
+    @Test(expected = JSONException.class)
+    public void CloudResponseReader_Truncated() {
+        CloudResponseReader.readElement(
+            "{\"device\":{\"ismobile\":true},\"location\":{\"town\":\"Rea",
+            "location");
+    }
+}
@@ -0,0 +1,156 @@
+/* *********************************************************************
+ * This Original Work is copyright of 51 Degrees Mobile Experts Limited.
+ * Copyright 2023 51 Degrees Mobile Experts Limited, Davidson House,
+ * Forbury Square, Reading, Berkshire, United Kingdom RG1 3EU.
+ *
+ * This Original Work is licensed under the European Union Public Licence
+ * (EUPL) v.1.2 and is subject to its terms as set out below.
+ *
+ * If a copy of the EUPL was not distributed with this file, You can obtain
+ * one at https://opensource.org/licenses/EUPL-1.2.
+ *
+ * The 'Compatible Licences' set out in the Appendix to the EUPL (as may be
+ * amended by the European Commission) shall be deemed incompatible for
+ * the purposes of the Work and the provisions of the compatibility
+ * clause in Article 5 of the EUPL shall not apply.
+ *
+ * If using the Work as, or as part of, a network application, by
+ * including the attribution notice(s) required under Article 5 of the EUPL
+ * in the end user terms of the application under an appropriate heading,
+ * such notice(s) shall fulfill the requirements of that article.
+ * ********************************************************************* */
+
+
+package fiftyone.geolocation.json.tests;
+
+import fiftyone.geolocation.CloudResponses;
+import fiftyone.geolocation.json.JsonSpan;
+import fiftyone.geolocation.json.ParsedCloudResponse;
+import fiftyone.pipeline.cloudrequestengine.data.CloudRequestData;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Test;
+import org.slf4j.LoggerFactory;
+
+import java.lang.ref.WeakReference;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class ParsedCloudResponseTests {
+
+    private static CloudRequestData requestData(String json) {
+        CloudRequestData data = new CloudRequestData(
+            LoggerFactory.getLogger(ParsedCloudResponseTests.class),
+            null,
+            null);
+        data.setJsonResponse(json);
+        return data;
+    }
+
+    @Test
+    public void ParsedCloudResponse_SharedBetweenEngines() {
+        CloudRequestData data = requestData(CloudResponses.multiProduct());
+        ParsedCloudResponse first = ParsedCloudResponse.of(data);
+        ParsedCloudResponse second = ParsedCloudResponse.of(data);
+        assertSame(
+            "Engines reading the same response should share one instance.",
+            first,
+            second);
+        assertSame(
+            "Each element should only be decoded once.",
+            first.getElement("location"),
+            second.getElement("location"));
+        assertNotSame(
+            "A different request should not share the instance.",
+            first,
+            ParsedCloudResponse.of(requestData(CloudResponses.multiProduct())));
+    }
+
+    @Test
+    public void ParsedCloudResponse_NoResponse() {
+        assertNull(ParsedCloudResponse.of(requestData(null)));
+    }
+
+    /**
+     * Check that sharing the parsed response does not modify the request
+     * data, which the results cache returns to concurrent requests.
+     */
+    @Test
+    public void ParsedCloudResponse_RequestDataUnchanged() {
+        CloudRequestData data = requestData(CloudResponses.multiProduct());
+        Set<String> keys = new HashSet<>(data.asKeyMap().keySet());
+        assertNotNull(ParsedCloudResponse.of(data).getElement("location"));
+        assertEquals(keys, data.asKeyMap().keySet());
+    }
+
+    /**
+     * Check that a parsed response is released once other responses have
+     * been parsed, even though its request data is still held, e.g. by a
+     * results cache.
+     */
+    @Test
+    public void ParsedCloudResponse_Bounded() throws InterruptedException {
+        CloudRequestData data = requestData(CloudResponses.multiProduct());
+        WeakReference<ParsedCloudResponse> reference =
+            new WeakReference<>(ParsedCloudResponse.of(data));
+        assertNotNull(reference.get().getElement("location"));
+        for (int i = 0; i < 10000; i++) {
+            ParsedCloudResponse.of(requestData("{\"i\":" + i + "}"));
+        }
+        for (int i = 0; i < 50 && reference.get() != null; i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        assertNull(
+            "The parsed response should not be held with the request data.",
+            reference.get());
+        assertNotNull(data.getJsonResponse());
+    }
+
+    @Test
+    public void ParsedCloudResponse_AllElements() {
+        String json = CloudResponses.multiProduct();
+        ParsedCloudResponse response = ParsedCloudResponse.of(json);
+        for (String key : new String[] {
+            "location_digitalelement",
+            "device",
+            "location" }) {
+            assertEquals(
+                new JSONObject(json).getJSONObject(key).toMap().keySet(),
+                response.getElement(key).keySet());
+        }
+        assertNull(response.getElement("javascriptProperties"));
+        assertNull(response.getElement("missing"));
+    }
+
+    /**
+     * Check that an element which is not valid JSON is rejected when it is
+     * requested, rather than when one of its values is read.
+     */
+    @Test(expected = JSONException.class)
+    public void ParsedCloudResponse_InvalidElement() {
+        ParsedCloudResponse.of(
+            "{\"location\":{\"town\":\"Reading\",\"country\":abc}}")
+            .getElement("location");
+    }
+
+    @Test
+    public void ParsedCloudResponse_ElementSpan() {
+        String first = "{\"device\":{\"ismobile\":true}," +
+            "\"location\":{\"town\":\"Reading\",\"country\":null}}";
+        String second = "{\"location\":{\"town\":\"Reading\",\"country\":null}," +
+            "\"device\":{\"ismobile\":false}}";
+        String third = "{\"location\":{\"town\":\"London\",\"country\":null}}";
+        JsonSpan span = ParsedCloudResponse.of(first).getElementSpan("location");
+        JsonSpan same = ParsedCloudResponse.of(second).getElementSpan("location");
+        JsonSpan different = ParsedCloudResponse.of(third).getElementSpan("location");
+        assertEquals("{\"town\":\"Reading\",\"country\":null}", span.toString());
+        assertEquals(span.hash(), same.hash());
+        assertTrue(same.contentEquals(span.toString()));
+        assertNotEquals(span.hash(), different.hash());
+        assertFalse(different.contentEquals(span.toString()));
+        assertNull(ParsedCloudResponse.of(third).getElementSpan("device"));
+    }
+}
@@ -0,0 +1,164 @@
+/* *********************************************************************
+ * This Original Work is copyright of 51 Degrees Mobile Experts Limited.
+ * Copyright 2023 51 Degrees Mobile Experts Limited, Davidson House,
+ * Forbury Square, Reading, Berkshire, United Kingdom RG1 3EU.
+ *
+ * This Original Work is licensed under the European Union Public Licence
+ * (EUPL) v.1.2 and is subject to its terms as set out below.
+ *
+ * If a copy of the EUPL was not distributed with this file, You can obtain
+ * one at https://opensource.org/licenses/EUPL-1.2.
+ *
+ * The 'Compatible Licences' set out in the Appendix to the EUPL (as may be
+ * amended by the European Commission) shall be deemed incompatible for
+ * the purposes of the Work and the provisions of the compatibility
+ * clause in Article 5 of the EUPL shall not apply.
+ *
+ * If using the Work as, or as part of, a network application, by
+ * including the attribution notice(s) required under Article 5 of the EUPL
+ * in the end user terms of the application under an appropriate heading,
+ * such notice(s) shall fulfill the requirements of that article.
+ * ********************************************************************* */
+
+package fiftyone.geolocation.performance.tests;
+
+import fiftyone.geolocation.PerformanceTest;
+import fiftyone.geolocation.caching.LongKeyTable;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Measures how the throughput of the segmented lock-free results table
+ * scales with the number of request threads, compared with a cache behind
+ * a single lock. Each thread reads random keys from a working set which
+ * mostly fits in the table, and adds any it misses. The throughput at each
+ * thread count, and the speed up over one thread, are logged rather than
+ * asserted so that the results can be compared between machines without
+ * making the build flaky.
+ */
+@Category(PerformanceTest.class)
+public class ConcurrentCacheScalingTests {
+
+    private static final Logger logger =
+        LoggerFactory.getLogger(ConcurrentCacheScalingTests.class);
+
+    private static final int CAPACITY = 65536;
+    private static final int KEYS = 50000;
+    private static final int OPERATIONS_PER_THREAD = 200000;
+    private static final int[] THREADS = { 1, 2, 4, 8, 16, 32, 64 };
+
+    private interface Cache {
+        Object get(long key);
+        void put(long key, Object value);
+    }
+
+    @Test
+    public void Performance_Scaling_LongKeyTable() throws InterruptedException {
+        final LongKeyTable<Object> table = new LongKeyTable<>(CAPACITY);
+        logger.info("Lock-free table with " + table.getSegmentCount() +
+            " segments on " + Runtime.getRuntime().availableProcessors() +
+            " processors");
+        scale("lock-free", new Cache() {
+            @Override
+            public Object get(long key) {
+                return table.get(key);
+            }
+
+            @Override
+            public void put(long key, Object value) {
+                table.put(key, value);
+            }
+        });
+    }
+
+    @Test
+    public void Performance_Scaling_SingleLock() throws InterruptedException {
+        final Map<Long, Object> map = Collections.synchronizedMap(
+            new LinkedHashMap<Long, Object>(CAPACITY, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Long, Object> eldest) {
+                    return size() > CAPACITY;
+                }
+            });
+        scale("single lock", new Cache() {
+            @Override
+            public Object get(long key) {
+                return map.get(key);
+            }
+
+            @Override
+            public void put(long key, Object value) {
+                map.put(key, value);
+            }
+        });
+    }
+
+    private void scale(String name, Cache cache) throws InterruptedException {
+        // Warm up the cache and the JIT.
+        run(cache, 4);
+        double single = 0;
+        for (int threads : THREADS) {
+            double throughput = run(cache, threads);
+            if (threads == 1) {
+                single = throughput;
+            }
+            logger.info(String.format(
+                "%s: %d threads, %.1fM operations per second (%.1fx)",
+                name,
+                threads,
+                throughput / 1e6,
+                throughput / single));
+            assertTrue(throughput > 0);
+        }
+    }
+
+    private double run(final Cache cache, int threads)
+        throws InterruptedException {
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(threads);
+        final LongAdder found = new LongAdder();
+        final Object value = new Object();
+        for (int t = 0; t < threads; t++) {
+            Thread thread = new Thread(() -> {
+                try {
+                    start.await();
+                    ThreadLocalRandom random = ThreadLocalRandom.current();
+                    long hits = 0;
+                    for (int i = 0; i < OPERATIONS_PER_THREAD; i++) {
+                        long key = random.nextInt(KEYS);
+                        if (cache.get(key) != null) {
+                            hits++;
+                        }
+                        else {
+                            cache.put(key, value);
+                        }
+                    }
+                    found.add(hits);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    done.countDown();
+                }
+            });
+            thread.setDaemon(true);
+            thread.start();
+        }
+        long begin = System.nanoTime();
+        start.countDown();
+        done.await();
+        long elapsed = System.nanoTime() - begin;
+        assertTrue(found.sum() > 0);
+        return (double)threads * OPERATIONS_PER_THREAD / (elapsed / 1e9);
+    }
+}
@@ -0,0 +1,127 @@
+/* *********************************************************************
+ * This Original Work is copyright of 51 Degrees Mobile Experts Limited.
+ * Copyright 2023 51 Degrees Mobile Experts Limited, Davidson House,
+ * Forbury Square, Reading, Berkshire, United Kingdom RG1 3EU.
+ *
+ * This Original Work is licensed under the European Union Public Licence
+ * (EUPL) v.1.2 and is subject to its terms as set out below.
+ *
+ * If a copy of the EUPL was not distributed with this file, You can obtain
+ * one at https://opensource.org/licenses/EUPL-1.2.
+ *
+ * The 'Compatible Licences' set out in the Appendix to the EUPL (as may be
+ * amended by the European Commission) shall be deemed incompatible for
+ * the purposes of the Work and the provisions of the compatibility
+ * clause in Article 5 of the EUPL shall not apply.
+ *
+ * If using the Work as, or as part of, a network application, by
+ * including the attribution notice(s) required under Article 5 of the EUPL
+ * in the end user terms of the application under an appropriate heading,
+ * such notice(s) shall fulfill the requirements of that article.
+ * ********************************************************************* */
+
+
+package fiftyone.geolocation.performance.tests;
+
+import fiftyone.geolocation.data.CloudGeoDataDefault;
+import fiftyone.geolocation.data.GeoPropertyLayout;
+import fiftyone.pipeline.engines.data.AspectPropertyValue;
+import fiftyone.pipeline.engines.exceptions.NoValueException;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Checks that reading properties from cloud geo data repeatedly returns the
+ * same immutable value, and measures the memory allocated by repeated reads
+ * using the per-thread allocation counter of the JVM.
+ */
+public class GeoDataAllocationTests {
+
+    private static final Logger logger =
+        LoggerFactory.getLogger(GeoDataAllocationTests.class);
+
+    private static final int WARMUP_ITERATIONS = 10000;
+    private static final int ITERATIONS = 100000;
+
+    private CloudGeoDataDefault data;
+
+    @Before
+    public void init() {
+        data = new CloudGeoDataDefault(logger, null, null, null);
+        data.setValues(
+            new GeoPropertyLayout(Arrays.asList("Town", "Country", "ZipCode")),
+            new Object[] { "Reading", "United Kingdom", null },
+            new String[] { null, null, "No zip code was found." });
+    }
+
+    @Test
+    public void Allocation_RepeatedReads_SameInstance() throws NoValueException {
+        AspectPropertyValue<String> country = data.getCountry();
+        assertSame(country, data.getCountry());
+        assertEquals("United Kingdom", country.getValue());
+        AspectPropertyValue<String> zipCode = data.getZipCode();
+        assertSame(zipCode, data.getZipCode());
+        assertFalse(zipCode.hasValue());
+        assertEquals("No zip code was found.", zipCode.getNoValueMessage());
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void Allocation_Value_Immutable() {
+        data.getTown().setValue("London");
+    }
+
+    @Test
+    public void Allocation_RepeatedReads_NoAllocation() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        assumeTrue(
+            "Thread allocation counters are not supported by this JVM.",
+            bean instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean threads =
+            (com.sun.management.ThreadMXBean)bean;
+        assumeTrue(threads.isThreadAllocatedMemoryEnabled());
+        long threadId = Thread.currentThread().getId();
+
+        int hash = 0;
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            hash += readAll();
+        }
+
+        long start = threads.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < ITERATIONS; i++) {
+            hash += readAll();
+        }
+        long allocated = threads.getThreadAllocatedBytes(threadId) - start;
+
+        double perRead = (double)allocated / (ITERATIONS * 3);
+        logger.info(String.format(
+            "Allocated %d bytes over %d reads (%.3f bytes per read, hash %d)",
+            allocated,
+            ITERATIONS * 3,
+            perRead,
+            hash));
+        // Allow for a small amount of noise from the allocation counter
+        // itself, but far less than one property value per read.
+        assertTrue(
+            "Expected repeated reads not to allocate, but " + perRead +
+                " bytes were allocated per read.",
+            perRead < 1);
+    }
+
+    private int readAll() {
+        return System.identityHashCode(data.getTown()) ^
+            System.identityHashCode(data.getCountry()) ^
+            System.identityHashCode(data.getZipCode());
+    }
+}
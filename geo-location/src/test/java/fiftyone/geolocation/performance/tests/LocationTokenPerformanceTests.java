@@ -0,0 +1,79 @@
+/* *********************************************************************
+ * This Original Work is copyright of 51 Degrees Mobile Experts Limited.
+ * Copyright 2023 51 Degrees Mobile Experts Limited, Davidson House,
+ * Forbury Square, Reading, Berkshire, United Kingdom RG1 3EU.
+ *
+ * This Original Work is licensed under the European Union Public Licence
+ * (EUPL) v.1.2 and is subject to its terms as set out below.
+ *
+ * If a copy of the EUPL was not distributed with this file, You can obtain
+ * one at https://opensource.org/licenses/EUPL-1.2.
+ *
+ * The 'Compatible Licences' set out in the Appendix to the EUPL (as may be
+ * amended by the European Commission) shall be deemed incompatible for
+ * the purposes of the Work and the provisions of the compatibility
+ * clause in Article 5 of the EUPL shall not apply.
+ *
+ * If using the Work as, or as part of, a network application, by
+ * including the attribution notice(s) required under Article 5 of the EUPL
+ * in the end user terms of the application under an appropriate heading,
+ * such notice(s) shall fulfill the requirements of that article.
+ * ********************************************************************* */
+
+
+package fiftyone.geolocation.performance.tests;
+
+import fiftyone.geolocation.PerformanceTest;
+import fiftyone.geolocation.caching.LocationTokenSigner;
+import fiftyone.geolocation.core.data.Coordinates;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Measures the time taken to verify a location token, which is the cost
+ * of answering a request from its token instead of the cache or the cloud
+ * service. The result is logged rather than asserted so that it can be
+ * compared between machines without making the build flaky.
+ */
+@Category(PerformanceTest.class)
+public class LocationTokenPerformanceTests {
+
+    private static final Logger logger =
+        LoggerFactory.getLogger(LocationTokenPerformanceTests.class);
+
+    private static final int WARM_UP = 20000;
+    private static final int ITERATIONS = 200000;
+
+    @Test
+    public void Performance_LocationToken_Verify() {
+        LocationTokenSigner signer = new LocationTokenSigner(
+            "0123456789abcdef0123456789abcdef".getBytes(StandardCharsets.US_ASCII));
+        String token = signer.issue(
+            Coordinates.parse("51.4577", "-0.9755"),
+            "location",
+            "GB",
+            "England",
+            "Reading");
+        int found = 0;
+        for (int i = 0; i < WARM_UP; i++) {
+            found += signer.verify(token) == null ? 0 : 1;
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            found += signer.verify(token) == null ? 0 : 1;
+        }
+        long elapsed = System.nanoTime() - start;
+        assertEquals(WARM_UP + ITERATIONS, found);
+        logger.info(String.format(
+            "Verified %d location tokens of %d characters in %.3f us each",
+            ITERATIONS,
+            token.length(),
+            elapsed / 1000.0 / ITERATIONS));
+    }
+}
@@ -0,0 +1,163 @@
+/* *********************************************************************
+ * This Original Work is copyright of 51 Degrees Mobile Experts Limited.
+ * Copyright 2023 51 Degrees Mobile Experts Limited, Davidson House,
+ * Forbury Square, Reading, Berkshire, United Kingdom RG1 3EU.
+ *
+ * This Original Work is licensed under the European Union Public Licence
+ * (EUPL) v.1.2 and is subject to its terms as set out below.
+ *
+ * If a copy of the EUPL was not distributed with this file, You can obtain
+ * one at https://opensource.org/licenses/EUPL-1.2.
+ *
+ * The 'Compatible Licences' set out in the Appendix to the EUPL (as may be
+ * amended by the European Commission) shall be deemed incompatible for
+ * the purposes of the Work and the provisions of the compatibility
+ * clause in Article 5 of the EUPL shall not apply.
+ *
+ * If using the Work as, or as part of, a network application, by
+ * including the attribution notice(s) required under Article 5 of the EUPL
+ * in the end user terms of the application under an appropriate heading,
+ * such notice(s) shall fulfill the requirements of that article.
+ * ********************************************************************* */
+
+package fiftyone.geolocation.performance.tests;
+
+import fiftyone.geolocation.CloudResponses;
+import fiftyone.geolocation.PerformanceTest;
+import fiftyone.geolocation.caching.LongKeyTable;
+import fiftyone.geolocation.caching.OffHeapResultStore;
+import fiftyone.geolocation.core.caching.SharedGeoResult;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Compares holding a large number of geo results on the heap, as the
+ * default results table does, with holding them off the heap in their
+ * serialized form. For each, the table is filled and then read and
+ * replaced at random, and the throughput and the time spent in garbage
+ * collection are logged. The results are logged rather than asserted so
+ * that they can be compared between machines without making the build
+ * flaky.
+ */
+@Category(PerformanceTest.class)
+public class OffHeapCachePerformanceTests {
+
+    private static final Logger logger =
+        LoggerFactory.getLogger(OffHeapCachePerformanceTests.class);
+
+    private static final int RESULTS = 100000;
+    private static final int OPERATIONS = 1000000;
+
+    private interface Table {
+        boolean get(long key);
+        void put(long key);
+    }
+
+    @Test
+    public void Performance_OffHeap_GcAndThroughput() {
+        String json = CloudResponses.multiProduct();
+        // Each run is in its own method, so the first table can be
+        // collected before the second is measured.
+        long heapCheck = runOnHeap(json);
+        long offHeapCheck = runOffHeap(json);
+        assertTrue(heapCheck > 0 && offHeapCheck > 0);
+    }
+
+    private long runOnHeap(final String json) {
+        final LongKeyTable<String> heap = new LongKeyTable<>(RESULTS);
+        return run("on-heap", new Table() {
+            @Override
+            public boolean get(long key) {
+                return heap.get(key) != null;
+            }
+
+            @Override
+            public void put(long key) {
+                // A new string for each result, as the cache holds a
+                // separate response for each location.
+                heap.put(key, new String(json.toCharArray()));
+            }
+        });
+    }
+
+    private long runOffHeap(String json) {
+        final byte[] serialized =
+            new SharedGeoResult(json, Long.MAX_VALUE).toBytes();
+        final OffHeapResultStore offHeap = new OffHeapResultStore(
+            (long)RESULTS * serialized.length * 2,
+            OffHeapResultStore.DEFAULT_SLAB_SIZE);
+        return run("off-heap", new Table() {
+            @Override
+            public boolean get(long key) {
+                return offHeap.get(key) != null;
+            }
+
+            @Override
+            public void put(long key) {
+                offHeap.put(key, serialized);
+            }
+        });
+    }
+
+    private long run(String name, Table table) {
+        long gcTime = gcTime();
+        long gcCount = gcCount();
+        long start = System.nanoTime();
+        for (long key = 0; key < RESULTS; key++) {
+            table.put(key);
+        }
+        long filled = System.nanoTime();
+        long found = 0;
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        for (int i = 0; i < OPERATIONS; i++) {
+            long key = random.nextInt(RESULTS * 2);
+            if (table.get(key)) {
+                found++;
+            }
+            else {
+                table.put(key);
+            }
+        }
+        long end = System.nanoTime();
+        System.gc();
+        long usedHeap = Runtime.getRuntime().totalMemory() -
+            Runtime.getRuntime().freeMemory();
+        logger.info(String.format(
+            "%s: filled %d results in %dms, %.0f operations per second, " +
+                "%d collections taking %dms, %dMB heap in use",
+            name,
+            RESULTS,
+            (filled - start) / 1000000,
+            OPERATIONS / ((end - filled) / 1e9),
+            gcCount() - gcCount,
+            gcTime() - gcTime,
+            usedHeap / (1024 * 1024)));
+        return found;
+    }
+
+    private static long gcTime() {
+        long total = 0;
+        for (GarbageCollectorMXBean bean :
+            ManagementFactory.getGarbageCollectorMXBeans()) {
+            total += Math.max(0, bean.getCollectionTime());
+        }
+        return total;
+    }
+
+    private static long gcCount() {
+        long total = 0;
+        for (GarbageCollectorMXBean bean :
+            ManagementFactory.getGarbageCollectorMXBeans()) {
+            total += Math.max(0, bean.getCollectionCount());
+        }
+        return total;
+    }
+}
@@ -0,0 +1,112 @@
+/* *********************************************************************
+ * This Original Work is copyright of 51 Degrees Mobile Experts Limited.
+ * Copyright 2023 51 Degrees Mobile Experts Limited, Davidson House,
+ * Forbury Square, Reading, Berkshire, United Kingdom RG1 3EU.
+ *
+ * This Original Work is licensed under the European Union Public Licence
+ * (EUPL) v.1.2 and is subject to its terms as set out below.
+ *
+ * If a copy of the EUPL was not distributed with this file, You can obtain
+ * one at https://opensource.org/licenses/EUPL-1.2.
+ *
+ * The 'Compatible Licences' set out in the Appendix to the EUPL (as may be
+ * amended by the European Commission) shall be deemed incompatible for
+ * the purposes of the Work and the provisions of the compatibility
+ * clause in Article 5 of the EUPL shall not apply.
+ *
+ * If using the Work as, or as part of, a network application, by
+ * including the attribution notice(s) required under Article 5 of the EUPL
+ * in the end user terms of the application under an appropriate heading,
+ * such notice(s) shall fulfill the requirements of that article.
+ * ********************************************************************* */
+
+
+package fiftyone.geolocation.performance.tests;
+
+import fiftyone.geolocation.CloudResponses;
+import fiftyone.geolocation.PerformanceTest;
+import fiftyone.geolocation.json.CloudResponseReader;
+import org.json.JSONObject;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Compares decoding a single element from a multi-product cloud response
+ * using the full org.json DOM with the streaming subtree reader. The timings
+ * are logged rather than asserted so that the results can be compared
+ * between machines without making the build flaky.
+ */
+@Category(PerformanceTest.class)
+public class ResponseDecodePerformanceTests {
+
+    private static final Logger logger =
+        LoggerFactory.getLogger(ResponseDecodePerformanceTests.class);
+
+    private static final int WARMUP_ITERATIONS = 5000;
+    private static final int ITERATIONS = 20000;
+
+    private interface Decoder {
+        Map<String, Object> decode(String json, String key);
+    }
+
+    private static final Decoder DOM = new Decoder() {
+        @Override
+        public Map<String, Object> decode(String json, String key) {
+            return new JSONObject(json).getJSONObject(key).toMap();
+        }
+    };
+
+    private static final Decoder STREAMING = new Decoder() {
+        @Override
+        public Map<String, Object> decode(String json, String key) {
+            return CloudResponseReader.readElement(json, key);
+        }
+    };
+
+    @Test
+    public void Performance_Decode_Location() {
+        compare("location");
+    }
+
+    @Test
+    public void Performance_Decode_DigitalElement() {
+        compare("location_digitalelement");
+    }
+
+    private void compare(String key) {
+        String json = CloudResponses.multiProduct();
+        long dom = run(DOM, json, key);
+        long streaming = run(STREAMING, json, key);
+        logger.info(String.format(
+            "Decoding '%s' from a %d character response: " +
+                "org.json %.2fus, streaming %.2fus per response (%.1fx)",
+            key,
+            json.length(),
+            (double)dom / ITERATIONS / 1000,
+            (double)streaming / ITERATIONS / 1000,
+            (double)dom / streaming));
+    }
+
+    private long run(Decoder decoder, String json, String key) {
+        int check = 0;
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            check += decoder.decode(json, key).size();
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            check += decoder.decode(json, key).size();
+        }
+        long elapsed = System.nanoTime() - start;
+        // Use the result so the work cannot be optimised away.
+        assertEquals(
+            0,
+            check % decoder.decode(json, key).size());
+        return elapsed;
+    }
+}
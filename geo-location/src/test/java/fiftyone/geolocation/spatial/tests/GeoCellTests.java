@@ -0,0 +1,208 @@
+/* *********************************************************************
+ * This Original Work is copyright of 51 Degrees Mobile Experts Limited.
+ * Copyright 2023 51 Degrees Mobile Experts Limited, Davidson House,
+ * Forbury Square, Reading, Berkshire, United Kingdom RG1 3EU.
+ *
+ * This Original Work is licensed under the European Union Public Licence
+ * (EUPL) v.1.2 and is subject to its terms as set out below.
+ *
+ * If a copy of the EUPL was not distributed with this file, You can obtain
+ * one at https://opensource.org/licenses/EUPL-1.2.
+ *
+ * The 'Compatible Licences' set out in the Appendix to the EUPL (as may be
+ * amended by the European Commission) shall be deemed incompatible for
+ * the purposes of the Work and the provisions of the compatibility
+ * clause in Article 5 of the EUPL shall not apply.
+ *
+ * If using the Work as, or as part of, a network application, by
+ * including the attribution notice(s) required under Article 5 of the EUPL
+ * in the end user terms of the application under an appropriate heading,
+ * such notice(s) shall fulfill the requirements of that article.
+ * such notice(s) shall fulfill the requirements of that article.
+ * ********************************************************************* */
+
+package fiftyone.geolocation.spatial.tests;
+
+import fiftyone.geolocation.core.GeoEngineHelper;
+import fiftyone.geolocation.core.data.Coordinates;
+import fiftyone.geolocation.core.spatial.GeoCell;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class GeoCellTests {
+
+    @Test
+    public void GeoCell_SameCell() {
+        int level = 20;
+        long cell = GeoCell.encode(51.457714, -0.975014, level);
+        double latitude = GeoCell.getLatitude(cell);
+        double longitude = GeoCell.getLongitude(cell);
+        // About 2m either side of the centre of the cell.
+        assertEquals(
+            GeoCell.encode(latitude - 0.00002, longitude - 0.00002, level),
+            GeoCell.encode(latitude + 0.00002, longitude + 0.00002, level));
+        // About 1km apart.
+        assertNotEquals(
+            GeoCell.encode(51.457714, -0.975014, level),
+            GeoCell.encode(51.466714, -0.975014, level));
+    }
+
+    @Test
+    public void GeoCell_Centre() {
+        for (int level = GeoCell.MIN_LEVEL; level <= GeoCell.MAX_LEVEL; level++) {
+            long cell = GeoCell.encode(51.457714, -0.975014, level);
+            assertEquals(level, GeoCell.getLevel(cell));
+            assertEquals(51.457714, GeoCell.getLatitude(cell), 180.0 / (1L << level));
+            assertEquals(-0.975014, GeoCell.getLongitude(cell), 360.0 / (1L << level));
+            assertEquals(
+                cell,
+                GeoCell.encode(GeoCell.getLatitude(cell), GeoCell.getLongitude(cell), level));
+        }
+    }
+
+    @Test
+    public void GeoCell_Extremes() {
+        int level = GeoCell.MAX_LEVEL;
+        assertEquals(-90, GeoCell.getLatitude(GeoCell.encode(-90, 0, level)), 1e-6);
+        assertEquals(90, GeoCell.getLatitude(GeoCell.encode(90, 0, level)), 1e-6);
+        assertEquals(180, GeoCell.getLongitude(GeoCell.encode(0, 180, level)), 1e-6);
+        assertNotEquals(
+            GeoCell.encode(0, 0, 10),
+            GeoCell.encode(0, 0, 11));
+    }
+
+    @Test
+    public void GeoCell_Offset() {
+        int level = 16;
+        long cell = GeoCell.encode(51.457714, -0.975014, level);
+        long north = GeoCell.offset(cell, 1, 0);
+        long east = GeoCell.offset(cell, 0, 1);
+        double size = 180.0 / (1L << level);
+        assertEquals(GeoCell.getLatitude(cell) + size, GeoCell.getLatitude(north), 1e-9);
+        assertEquals(GeoCell.getLongitude(cell), GeoCell.getLongitude(north), 1e-9);
+        assertEquals(GeoCell.getLongitude(cell) + 2 * size, GeoCell.getLongitude(east), 1e-9);
+        assertEquals(cell, GeoCell.offset(north, -1, 0));
+        // Wraps around the antimeridian.
+        long west = GeoCell.encode(0, -179.999, level);
+        assertEquals(179.99, GeoCell.getLongitude(GeoCell.offset(west, 0, -1)), 0.01);
+    }
+
+    @Test
+    public void GeoCell_LevelForSize() {
+        int level = GeoCell.getLevelForSize(100);
+        assertTrue(GeoCell.getCellSize(level) <= 100);
+        assertTrue(GeoCell.getCellSize(level - 1) > 100);
+    }
+
+    @Test
+    public void GeoCell_CellShape() {
+        int level = 12;
+        double height = GeoCell.getCellSize(level);
+        long equator = GeoCell.encode(0.0001, 10, level);
+        assertEquals(
+            height,
+            GeoCell.getDistance(
+                GeoCell.getLatitude(equator),
+                GeoCell.getLongitude(equator),
+                GeoCell.getLatitude(GeoCell.offset(equator, 1, 0)),
+                GeoCell.getLongitude(equator)),
+            1);
+        // Twice as wide as they are tall at the equator.
+        assertEquals(
+            2 * height,
+            GeoCell.getDistance(
+                GeoCell.getLatitude(equator),
+                GeoCell.getLongitude(equator),
+                GeoCell.getLatitude(equator),
+                GeoCell.getLongitude(GeoCell.offset(equator, 0, 1))),
+            1);
+        // Close to square at 60 degrees.
+        long north = GeoCell.encode(60, 10, level);
+        assertEquals(
+            height,
+            GeoCell.getDistance(
+                GeoCell.getLatitude(north),
+                GeoCell.getLongitude(north),
+                GeoCell.getLatitude(north),
+                GeoCell.getLongitude(GeoCell.offset(north, 0, 1))),
+            height * 0.01);
+    }
+
+    @Test
+    public void GeoCell_Distance() {
+        assertEquals(0, GeoCell.getDistance(51.45, -0.97, 51.45, -0.97), 0);
+        // One degree of latitude is around 111km.
+        assertEquals(111195, GeoCell.getDistance(0, 0, 1, 0), 1);
+        // Reading to London.
+        assertEquals(59190, GeoCell.getDistance(51.4543, -0.9781, 51.5072, -0.1276), 100);
+        // Across the antimeridian.
+        assertEquals(
+            GeoCell.getDistance(0, 179.5, 0, 180),
+            GeoCell.getDistance(0, 179.5, 0, -179.5) / 2,
+            1);
+    }
+
+    @Test
+    public void Coordinates_Parse() {
+        assertEquals(
+            new Coordinates(51.457714, -0.975014),
+            Coordinates.parse("5.1457714e1", " -0.9750140"));
+        assertEquals(
+            new Coordinates(51.457714, -0.975014),
+            Coordinates.parse(51.457714, -0.975014));
+        assertNull(Coordinates.parse("91", "0"));
+        assertNull(Coordinates.parse("NaN", "0"));
+        assertNull(Coordinates.parse("north", "0"));
+        assertNull(Coordinates.parse(null, "0"));
+    }
+
+    @Test
+    public void Coordinates_Format() {
+        for (String latitude : new String[] {
+            "51.4577140", "51.457714", "5.14577140e1", "51.45770" }) {
+            Coordinates coordinates = Coordinates.parse(latitude, "-0.97501");
+            assertEquals("51.4577", Coordinates.format(coordinates.getLatitude(), 4));
+            assertEquals("-0.9750", Coordinates.format(coordinates.getLongitude(), 4));
+        }
+        assertEquals("0.0000", Coordinates.format(-0.00001, 4));
+        assertEquals("-180", Coordinates.format(-180, 0));
+    }
+
+    @Test
+    public void Coordinates_DecimalPlacesForAccuracy() {
+        assertEquals(4, Coordinates.getDecimalPlaces(15));
+        assertEquals(2, Coordinates.getDecimalPlaces(1500));
+        assertEquals(0, Coordinates.getDecimalPlaces(500000));
+    }
+
+    @Test
+    public void GeoEngineHelper_GetAccuracy() {
+        Map<String, Object> evidence = new HashMap<>();
+        assertTrue(Double.isNaN(GeoEngineHelper.getAccuracy(evidence)));
+        evidence.put("cookie.51D_Pos_accuracy", "not a number");
+        assertTrue(Double.isNaN(GeoEngineHelper.getAccuracy(evidence)));
+        evidence.put("cookie.51D_Pos_accuracy", "-1");
+        assertTrue(Double.isNaN(GeoEngineHelper.getAccuracy(evidence)));
+        evidence.put("cookie.51D_Pos_accuracy", "25.5");
+        assertEquals(25.5, GeoEngineHelper.getAccuracy(evidence), 0);
+    }
+
+    @Test
+    public void GeoEngineHelper_GetCoordinates() {
+        Map<String, Object> evidence = new HashMap<>();
+        assertNull(GeoEngineHelper.getCoordinates(evidence));
+        evidence.put("query.51D_Pos_latitude", "1");
+        evidence.put("query.51D_Pos_longitude", "2");
+        assertEquals(new Coordinates(1, 2), GeoEngineHelper.getCoordinates(evidence));
+        evidence.put("cookie.51D_Pos_latitude", "3");
+        evidence.put("cookie.51D_Pos_longitude", "4");
+        assertEquals(new Coordinates(3, 4), GeoEngineHelper.getCoordinates(evidence));
+        evidence.put("location.latitude", "5");
+        evidence.put("location.longitude", "6");
+        assertEquals(new Coordinates(5, 6), GeoEngineHelper.getCoordinates(evidence));
+    }
+}
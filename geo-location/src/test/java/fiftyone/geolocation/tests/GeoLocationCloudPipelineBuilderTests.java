@@ -0,0 +1,55 @@
+/* *********************************************************************
+ * This Original Work is copyright of 51 Degrees Mobile Experts Limited.
+ * Copyright 2023 51 Degrees Mobile Experts Limited, Davidson House,
+ * Forbury Square, Reading, Berkshire, United Kingdom RG1 3EU.
+ *
+ * This Original Work is licensed under the European Union Public Licence
+ * (EUPL) v.1.2 and is subject to its terms as set out below.
+ *
+ * If a copy of the EUPL was not distributed with this file, You can obtain
+ * one at https://opensource.org/licenses/EUPL-1.2.
+ *
+ * The 'Compatible Licences' set out in the Appendix to the EUPL (as may be
+ * amended by the European Commission) shall be deemed incompatible for
+ * the purposes of the Work and the provisions of the compatibility
+ * clause in Article 5 of the EUPL shall not apply.
+ *
+ * If using the Work as, or as part of, a network application, by
+ * including the attribution notice(s) required under Article 5 of the EUPL
+ * in the end user terms of the application under an appropriate heading,
+ * such notice(s) shall fulfill the requirements of that article.
+ * ********************************************************************* */
+
+package fiftyone.geolocation.tests;
+
+import fiftyone.geolocation.GeoLocationCloudPipelineBuilder;
+import fiftyone.geolocation.core.Enums;
+import fiftyone.pipeline.core.exceptions.PipelineConfigurationException;
+import org.junit.Test;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Checks that options which need a geo results cache are rejected when
+ * there is none, rather than being silently ignored.
+ */
+public class GeoLocationCloudPipelineBuilderTests {
+
+    private static GeoLocationCloudPipelineBuilder builder() {
+        return new GeoLocationCloudPipelineBuilder(
+            LoggerFactory.getILoggerFactory(),
+            null,
+            Enums.GeoLocationProvider.FiftyOneDegrees);
+    }
+
+    @Test(expected = PipelineConfigurationException.class)
+    public void GeoLocationCloudPipelineBuilder_StaleWhileRevalidate_NoCache()
+        throws Exception {
+        builder().setGeoResultsStaleWhileRevalidate(true).build();
+    }
+
+    @Test(expected = PipelineConfigurationException.class)
+    public void GeoLocationCloudPipelineBuilder_WarmUp_NoCache()
+        throws Exception {
+        builder().setWarmUpFile("warm-up.txt").build();
+    }
+}